@@ -0,0 +1,80 @@
+package benchmark;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * This class is for generating the file trees used by the benchmarks
+ *
+ * @author Chanaka Lakmal
+ */
+public class BenchmarkFiles {
+
+    private BenchmarkFiles() {
+    }
+
+    /**
+     * Create a directory tree where every directory has fanOut sub-directories up to the given depth
+     * The leaf directories are named as [0-9]A so that the patterns like /**&#47;*A/*.xml can match them
+     *
+     * @param root   root directory of the tree
+     * @param depth  depth of the tree below the root
+     * @param fanOut number of sub-directories of each directory
+     * @return number of directories created including the root
+     * @throws IOException if an error occurs while creating the directories
+     */
+    public static int createTree(Path root, int depth, int fanOut) throws IOException {
+        Files.createDirectories(root);
+        if (depth == 0) {
+            return 1;
+        }
+        int count = 1;
+        for (int i = 0; i < fanOut; i++) {
+            count += createTree(root.resolve(depth == 1 ? i + "A" : String.valueOf(i)), depth - 1, fanOut);
+        }
+        return count;
+    }
+
+    /**
+     * Create N empty xml files in the given directory
+     *
+     * @param dir directory which the files are created in
+     * @param n   number of files
+     * @throws IOException if an error occurs while creating the files
+     */
+    public static void createFiles(Path dir, int n) throws IOException {
+        Files.createDirectories(dir);
+        for (int i = 1; i <= n; i++) {
+            Files.createFile(dir.resolve(i + ".xml"));
+        }
+    }
+
+    /**
+     * Delete the given directory with all its content
+     *
+     * @param root directory which should be deleted
+     * @throws IOException if an error occurs while deleting the files and directories
+     */
+    public static void delete(Path root) throws IOException {
+        if (Files.notExists(root)) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package benchmark;
+
+import org.openjdk.jmh.annotations.*;
+import transport.FileCompressor;
+import transport.FileConsumer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the FileCompressor archiving a 32 MB file with a worker pool of the given size
+ * The throughput should scale with the threads up to the number of the cores, since each block is compressed into a
+ * gzip member independently, eg.
+ * java -jar benchmarks/target/benchmarks.jar CompressionBenchmark
+ *
+ * @author Chanaka Lakmal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressionBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ExecutorService workers;
+    private FileCompressor fileCompressor;
+    private Path dir;
+    private Path file;
+
+    @Setup
+    public void setup() throws IOException {
+        workers = Executors.newFixedThreadPool(threads);
+        fileCompressor = new FileCompressor(FileConsumer.PRINT, workers, threads);
+        dir = Files.createTempDirectory("compression");
+
+        /*
+         * text-like content which compresses about 3 times, so that the deflate is the cost instead of the disk
+         */
+        Random random = new Random(1);
+        byte[] content = new byte[32 * 1024 * 1024];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + Math.min(25, (int) Math.abs(random.nextGaussian() * 6)));
+        }
+        file = Files.write(dir.resolve("data.xml"), content);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workers.shutdownNow();
+        BenchmarkFiles.delete(dir);
+    }
+
+    @Benchmark
+    public Path compress() throws IOException {
+        return fileCompressor.compress(file, dir.resolve("archive"));
+    }
+}
@@ -0,0 +1,135 @@
+package benchmark;
+
+import nio.WatchBatch;
+import org.openjdk.jmh.annotations.*;
+import transport.FileConsumer;
+import transport.FilePublisher;
+import transport.GRPattern;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the dispatch of the events of a key by FilePublisher over N patterns
+ * The publisher watches a generated tree of N directories, [0-N)Set/1A, for N patterns like *Set/*A/*_[0-N).xml, so
+ * every directory is watched for all the patterns and its files are matched by different patterns in turn. Each
+ * invocation hands over a prepared WatchBatch of one of the directories to FilePublisher.process, which is what the
+ * dispatch loop does after a wake-up, so the whole event path of the publisher is measured
+ * - half of the names match a pattern, and are read with a stat call and emitted to the consumer
+ * - the other half match none of the patterns
+ * - ENTRY_CREATE checks whether each entry can be a watched directory as well
+ * The names of the events are created once, so the string of a name which the first match of a fresh event creates is
+ * not included. Run it with -prof gc to compare the allocation per event, eg.
+ * java -jar benchmarks/target/benchmarks.jar DispatchBenchmark -prof gc
+ *
+ * @author Chanaka Lakmal
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@OperationsPerInvocation(DispatchBenchmark.EVENTS_PER_KEY)
+public class DispatchBenchmark {
+
+    static final int EVENTS_PER_KEY = 64;
+
+    @Param({"1", "10", "100"})
+    public int patternCount;
+
+    @Param({"ENTRY_CREATE", "ENTRY_MODIFY"})
+    public String kind;
+
+    private Path root;
+    private FilePublisher filePublisher;
+    private WatchBatch[] batches;
+    private long emitted;
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("dispatch");
+        WatchEvent.Kind<Path> eventKind = "ENTRY_CREATE".equals(kind) ? StandardWatchEventKinds.ENTRY_CREATE
+                : StandardWatchEventKinds.ENTRY_MODIFY;
+
+        List<Path> dirs = new ArrayList<>();
+        List<List<WatchEvent<?>>> events = new ArrayList<>();
+        for (int d = 0; d < patternCount; d++) {
+            Path dir = Files.createDirectories(root.resolve(d + "Set").resolve("1A"));
+            List<WatchEvent<?>> dirEvents = new ArrayList<>();
+            for (int i = 0; i < EVENTS_PER_KEY; i++) {
+                String name = i % 2 == 0 ? i + "_" + (i / 2 + d) % patternCount + ".xml" : i + ".txt";
+                if (i % 2 == 0) {
+                    Files.write(dir.resolve(name), new byte[1]);
+                }
+                dirEvents.add(event(eventKind, Paths.get(name)));
+            }
+            dirs.add(dir);
+            events.add(dirEvents);
+        }
+
+        HashMap<WatchKey, Path> keysMap = new HashMap<>();
+        filePublisher = new FilePublisher(FileSystems.getDefault().newWatchService(),
+                new HashMap<GRPattern, HashMap<String, Object>>(), keysMap);
+        filePublisher.setFileConsumer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                emitted++;
+            }
+        });
+        for (int i = 0; i < patternCount; i++) {
+            filePublisher.registerPattern(new GRPattern("glob:", root + "/*Set/*A/*_" + i + ".xml"), new HashMap<String, Object>());
+        }
+
+        batches = new WatchBatch[dirs.size()];
+        for (Map.Entry<WatchKey, Path> entry : keysMap.entrySet()) {
+            int index = dirs.indexOf(entry.getValue());
+            if (index >= 0) {
+                batches[index] = new WatchBatch();
+                batches[index].add(entry.getKey(), events.get(index), true);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        filePublisher.close();
+        BenchmarkFiles.delete(root);
+    }
+
+    @Benchmark
+    public boolean dispatch() {
+        return filePublisher.process(batches[next++ % batches.length]);
+    }
+
+    private static WatchEvent<Path> event(final WatchEvent.Kind<Path> kind, final Path name) {
+        return new WatchEvent<Path>() {
+            @Override
+            public Kind<Path> kind() {
+                return kind;
+            }
+
+            @Override
+            public int count() {
+                return 1;
+            }
+
+            @Override
+            public Path context() {
+                return name;
+            }
+        };
+    }
+}
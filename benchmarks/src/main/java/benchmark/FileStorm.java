@@ -0,0 +1,421 @@
+package benchmark;
+
+import nio.Notifier;
+import nio.Pattern;
+import nio.WatchBatch;
+import nio.WatchRegistry;
+import nio.metrics.TransportMetrics;
+import transport.FileConsumer;
+import transport.FilePublisher;
+import transport.GRPattern;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is an end to end load generator which writes a storm of files into a generated directory tree and drives
+ * a Notifier or a FilePublisher with it
+ * <p>
+ * Two patterns are registered, one for the xml files and one for the txt files of the leaf directories, and the writers
+ * create both kinds of files alternately. At the end it reports the detection latency from the start of the write to
+ * the first emission, the sustained throughput before the first OVERFLOW and the missed and duplicated files per pattern.
+ * <p>
+ * java -cp benchmarks/target/benchmarks.jar benchmark.FileStorm --target=publisher --writers=4 --rate=5000 --files=50000
+ *
+ * @author Chanaka Lakmal
+ */
+public class FileStorm {
+
+    private static final String[] EXTENSIONS = {"xml", "txt"};
+
+    private final Map<String, String> options;
+    private final AtomicLong overflowNanos = new AtomicLong();
+    private final AtomicLong emittedBeforeOverflow = new AtomicLong(-1);
+    private final AtomicLong emitted = new AtomicLong();
+    private final List<Recorder> recorders = new ArrayList<>();
+
+    private Path root;
+    private List<Path> leaves;
+    private long startNanos;
+
+    public FileStorm(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("target", "notifier");
+        options.put("writers", "4");
+        options.put("rate", "2000");
+        options.put("files", "20000");
+        options.put("depth", "2");
+        options.put("fanout", "4");
+        options.put("size", "256");
+        options.put("drain", "30000");
+        options.put("batch", String.valueOf(WatchBatch.DEFAULT_MAX_KEYS));
+        options.put("dir", System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            if (!options.containsKey(pair[0]) || pair.length != 2) {
+                System.err.println("Usage: FileStorm " + options.keySet() + " as --key=value | Unknown option : " + arg);
+                System.exit(1);
+            }
+            options.put(pair[0], pair[1]);
+        }
+        System.out.println(new FileStorm(options).run());
+    }
+
+    private int option(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Create the directory tree, register the patterns, run the writers and wait till the files are drained
+     *
+     * @return the report of the storm
+     * @throws Exception if an error occurs while creating or watching the files
+     */
+    public String run() throws Exception {
+        root = Files.createTempDirectory(Paths.get(options.get("dir")), "file-storm");
+        leaves = new ArrayList<>();
+        BenchmarkFiles.createTree(root, option("depth"), option("fanout"));
+        collectLeaves(root, option("depth"));
+
+        StringBuilder leafPattern = new StringBuilder(root.toString());
+        for (int i = 0; i < option("depth"); i++) {
+            leafPattern.append("/*");
+        }
+        for (String extension : EXTENSIONS) {
+            recorders.add(new Recorder(leafPattern + "/*." + extension));
+        }
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        AutoCloseable target = "publisher".equals(options.get("target")) ? startPublisher(executorService) : startNotifiers(executorService);
+        try {
+            long baseline = TransportMetrics.getDefault().getOverflowEvents();
+            startNanos = System.nanoTime();
+            executorService.submit(new OverflowMonitor(baseline));
+            write();
+            drain();
+        } finally {
+            target.close();
+            executorService.shutdownNow();
+            BenchmarkFiles.delete(root);
+        }
+        return report();
+    }
+
+    private void collectLeaves(Path dir, int depth) throws IOException {
+        if (depth == 0) {
+            leaves.add(dir);
+            return;
+        }
+        List<Path> children = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+            for (Path child : stream) {
+                children.add(child);
+            }
+        }
+        for (Path child : children) {
+            collectLeaves(child, depth - 1);
+        }
+    }
+
+    private AutoCloseable startNotifiers(ExecutorService executorService) throws IOException {
+        final WatchRegistry registry = new WatchRegistry();
+        registry.setMaxBatchKeys(option("batch"));
+        final List<Notifier> notifiers = new ArrayList<>();
+        for (Recorder recorder : recorders) {
+            notifiers.add(new Notifier(root, new Pattern("glob:", recorder.pattern), new RecordingSet(recorder), registry));
+        }
+        executorService.submit(registry);
+        return new AutoCloseable() {
+            @Override
+            public void close() throws IOException {
+                for (Notifier notifier : notifiers) {
+                    notifier.close();
+                }
+                registry.close();
+            }
+        };
+    }
+
+    private AutoCloseable startPublisher(ExecutorService executorService) throws IOException {
+        WatchService watcher = FileSystems.getDefault().newWatchService();
+        final FilePublisher filePublisher = new FilePublisher(watcher, new HashMap<GRPattern, HashMap<String, Object>>(), new HashMap<WatchKey, Path>());
+        filePublisher.setMaxBatchKeys(option("batch"));
+        final Map<GRPattern, Recorder> patterns = new HashMap<>();
+        for (Recorder recorder : recorders) {
+            patterns.put(new GRPattern("glob:", recorder.pattern), recorder);
+        }
+        filePublisher.setFileConsumer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                patterns.get(pattern).emitted(file);
+            }
+        });
+        for (GRPattern pattern : patterns.keySet()) {
+            filePublisher.registerPattern(pattern, new HashMap<String, Object>());
+        }
+        executorService.submit(filePublisher);
+        return new AutoCloseable() {
+            @Override
+            public void close() throws IOException {
+                filePublisher.close();
+            }
+        };
+    }
+
+    /**
+     * Run the writers which share the total rate and the total number of files
+     * Each file is written with the given size into the leaf directories in round robin order
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting for the writers
+     */
+    private void write() throws InterruptedException {
+        final int writers = option("writers");
+        final int files = option("files");
+        final long intervalNanos = TimeUnit.SECONDS.toNanos(1) * writers / Math.max(1, option("rate"));
+        final byte[] content = new byte[option("size")];
+        Arrays.fill(content, (byte) 'x');
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(writers);
+
+        for (int w = 0; w < writers; w++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long due = System.nanoTime();
+                    try {
+                        for (int i = next.getAndIncrement(); i < files; i = next.getAndIncrement()) {
+                            due += intervalNanos;
+                            long wait = due - System.nanoTime();
+                            if (wait > 0) {
+                                TimeUnit.NANOSECONDS.sleep(wait);
+                            }
+                            Recorder recorder = recorders.get(i % recorders.size());
+                            Path file = leaves.get(i % leaves.size()).resolve(i + "." + EXTENSIONS[i % EXTENSIONS.length]);
+                            recorder.written(file);
+                            try (OutputStream out = Files.newOutputStream(file)) {
+                                out.write(content);
+                            }
+                        }
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }, "storm-writer-" + w).start();
+        }
+        done.await();
+    }
+
+    /**
+     * Wait till all the written files are emitted or nothing is emitted for the given drain time
+     *
+     * @throws InterruptedException if the current thread is interrupted while waiting
+     */
+    private void drain() throws InterruptedException {
+        long drainMillis = option("drain");
+        long last = emitted.get();
+        long quietSince = System.currentTimeMillis();
+        while (System.currentTimeMillis() - quietSince < drainMillis) {
+            boolean complete = true;
+            for (Recorder recorder : recorders) {
+                complete &= recorder.firstEmission.size() >= recorder.writeStart.size();
+            }
+            if (complete) {
+                return;
+            }
+            Thread.sleep(50);
+            long current = emitted.get();
+            if (current != last) {
+                last = current;
+                quietSince = System.currentTimeMillis();
+            }
+        }
+    }
+
+    private String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "FileStorm %s%n", options));
+
+        long overflowAt = overflowNanos.get();
+        long windowNanos = overflowAt == 0 ? lastEmissionNanos() - startNanos : overflowAt - startNanos;
+        long count = overflowAt == 0 ? emitted.get() : emittedBeforeOverflow.get();
+        builder.append(String.format(Locale.ROOT, "first OVERFLOW      : %s%n",
+                overflowAt == 0 ? "none" : String.format(Locale.ROOT, "%.3f s", (overflowAt - startNanos) / 1e9)));
+        builder.append(String.format(Locale.ROOT, "sustained throughput: %.1f files/s%n",
+                windowNanos <= 0 ? 0 : count * 1e9 / windowNanos));
+        builder.append(String.format(Locale.ROOT, "overflow events     : %d%n",
+                TransportMetrics.getDefault().getOverflowEvents()));
+
+        for (Recorder recorder : recorders) {
+            builder.append(recorder.report());
+        }
+        return builder.toString();
+    }
+
+    private long lastEmissionNanos() {
+        long last = startNanos;
+        for (Recorder recorder : recorders) {
+            for (long nanos : recorder.firstEmission.values()) {
+                last = Math.max(last, nanos);
+            }
+        }
+        return last;
+    }
+
+    /**
+     * This class keeps the written and emitted files of a pattern
+     */
+    private class Recorder {
+
+        private final String pattern;
+        private final ConcurrentHashMap<Path, Long> writeStart = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Path, Long> firstEmission = new ConcurrentHashMap<>();
+        private final ConcurrentHashMap<Path, AtomicInteger> emissions = new ConcurrentHashMap<>();
+
+        private Recorder(String pattern) {
+            this.pattern = pattern;
+        }
+
+        private void written(Path file) {
+            writeStart.put(file, System.nanoTime());
+        }
+
+        private void emitted(Path file) {
+            long now = System.nanoTime();
+            AtomicInteger counter = emissions.get(file);
+            if (counter == null) {
+                AtomicInteger previous = emissions.putIfAbsent(file, counter = new AtomicInteger());
+                counter = previous == null ? counter : previous;
+            }
+            if (counter.getAndIncrement() == 0) {
+                firstEmission.put(file, now);
+                emitted.incrementAndGet();
+            }
+        }
+
+        private String report() {
+            long[] latencies = new long[firstEmission.size()];
+            int n = 0;
+            int unexpected = 0;
+            for (Map.Entry<Path, Long> entry : firstEmission.entrySet()) {
+                Long start = writeStart.get(entry.getKey());
+                if (start == null) {
+                    unexpected++;
+                } else {
+                    latencies[n++] = entry.getValue() - start;
+                }
+            }
+            Arrays.sort(latencies, 0, n);
+
+            int missed = 0;
+            for (Path file : writeStart.keySet()) {
+                if (!firstEmission.containsKey(file)) {
+                    missed++;
+                }
+            }
+            int duplicated = 0;
+            for (AtomicInteger counter : emissions.values()) {
+                if (counter.get() > 1) {
+                    duplicated++;
+                }
+            }
+
+            return String.format(Locale.ROOT, "%s%n  written %d | detected %d | missed %d | duplicated %d | unexpected %d%n"
+                            + "  latency ms p50 %.3f | p99 %.3f | p999 %.3f | max %.3f%n",
+                    pattern, writeStart.size(), n, missed, duplicated, unexpected,
+                    percentileMillis(latencies, n, 50), percentileMillis(latencies, n, 99),
+                    percentileMillis(latencies, n, 99.9), percentileMillis(latencies, n, 100));
+        }
+    }
+
+    private static double percentileMillis(long[] sorted, int n, double percentile) {
+        if (n == 0) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(n * percentile / 100.0);
+        return sorted[Math.max(0, rank - 1)] / 1e6;
+    }
+
+    /**
+     * This class is used as the file list of a Notifier so that each emission is recorded with its time
+     */
+    private static class RecordingSet extends AbstractSet<Path> {
+
+        private final Recorder recorder;
+
+        private RecordingSet(Recorder recorder) {
+            this.recorder = recorder;
+        }
+
+        @Override
+        public boolean add(Path file) {
+            recorder.emitted(file);
+            return true;
+        }
+
+        @Override
+        public Iterator<Path> iterator() {
+            return recorder.firstEmission.keySet().iterator();
+        }
+
+        @Override
+        public int size() {
+            return recorder.firstEmission.size();
+        }
+    }
+
+    /**
+     * This class keeps the time and the number of emitted files when the first OVERFLOW is recorded by the metrics
+     */
+    private class OverflowMonitor implements Runnable {
+
+        private final long baseline;
+
+        private OverflowMonitor(long baseline) {
+            this.baseline = baseline;
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (TransportMetrics.getDefault().getOverflowEvents() == baseline) {
+                    Thread.sleep(1);
+                }
+                emittedBeforeOverflow.set(emitted.get());
+                overflowNanos.set(System.nanoTime());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package benchmark;
+
+import nio.FindPath;
+import nio.ManualNotifier;
+import nio.Pair;
+import nio.Pattern;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the manual processing of a directory which is done on registration and overflow
+ *
+ * @author Chanaka Lakmal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManualScanBenchmark {
+
+    @Param({"1000", "10000", "100000"})
+    public int fileCount;
+
+    private Path root;
+    private Path dir;
+    private PathMatcher fileNameMatcher;
+    private Set<Path> pathList;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("manual-scan");
+        dir = root.resolve(fileCount + "Set");
+        BenchmarkFiles.createFiles(dir, fileCount);
+
+        FindPath.Finder finder = new FindPath.Finder(new Pattern("glob:", root + "/*/*.xml"));
+        finder.preVisitDirectory(dir, null);
+        pathList = finder.getPathList();
+        fileNameMatcher = FileSystems.getDefault().getPathMatcher("glob:*.xml");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(root);
+    }
+
+    @Benchmark
+    public int processManually() throws Exception {
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        Pair<Path, Long> registerPair = new Pair<>(dir, System.currentTimeMillis());
+        new ManualNotifier(registerPair, fileNameMatcher, "register", pathList, fileList).call();
+        return fileList.size();
+    }
+}
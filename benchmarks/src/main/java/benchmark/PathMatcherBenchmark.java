@@ -0,0 +1,64 @@
+package benchmark;
+
+import nio.FindPath;
+import nio.Pattern;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import transport.AbstractPathMatcher;
+import transport.GRPattern;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the path matching used by the FilePublisher, ManualHandler and FindPath.Finder over N patterns
+ * Only the last pattern matches the path, so every pattern is evaluated for each path
+ *
+ * @author Chanaka Lakmal
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PathMatcherBenchmark {
+
+    @Param({"1", "10", "100"})
+    public int patternCount;
+
+    private AbstractPathMatcher pathMatcher;
+    private GRPattern[] patterns;
+    private FindPath.Finder[] finders;
+    private Path file;
+    private Path dir;
+
+    @Setup
+    public void setup() {
+        pathMatcher = new AbstractPathMatcher();
+        patterns = new GRPattern[patternCount];
+        finders = new FindPath.Finder[patternCount];
+        for (int i = 0; i < patternCount; i++) {
+            String pathPattern = i == patternCount - 1 ? "/tmp/ram/test/**/*A/*.xml" : "/tmp/ram/test/" + i + "Set/*/*.txt";
+            patterns[i] = new GRPattern("glob:", pathPattern);
+            finders[i] = new FindPath.Finder(new Pattern("glob:", pathPattern));
+        }
+        file = Paths.get("/tmp/ram/test/1000Set/1/1A/10.xml");
+        dir = file.getParent();
+    }
+
+    @Benchmark
+    public void isMatchPattern(Blackhole blackhole) {
+        for (GRPattern pattern : patterns) {
+            blackhole.consume(pathMatcher.isMatchPattern(pattern, file));
+        }
+    }
+
+    @Benchmark
+    public void finder(Blackhole blackhole) {
+        for (FindPath.Finder finder : finders) {
+            blackhole.consume(finder.preVisitDirectory(dir, null));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package benchmark;
+
+import nio.Notifier;
+import nio.Pattern;
+import nio.WatchRegistry;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmark of the registration walk of a Notifier on generated directory trees
+ * Each invocation walks the tree and registers the directories in a new registry which is closed afterwards
+ *
+ * @author Chanaka Lakmal
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RegisterWalkBenchmark {
+
+    @Param({"2", "3"})
+    public int depth;
+
+    @Param({"10"})
+    public int fanOut;
+
+    @Param({"/**/*.xml", "/*/*A/*.xml"})
+    public String pattern;
+
+    private Path root;
+
+    @Setup
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("register-walk");
+        BenchmarkFiles.createTree(root, depth, fanOut);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        BenchmarkFiles.delete(root);
+    }
+
+    @Benchmark
+    public int register() throws IOException {
+        WatchRegistry registry = new WatchRegistry();
+        Notifier notifier = new Notifier(root, new Pattern("glob:", root + pattern),
+                Collections.synchronizedSet(new HashSet<Path>()), registry);
+        int watchCount = registry.getWatchCount();
+        notifier.close();
+        registry.close();
+        return watchCount;
+    }
+}
@@ -0,0 +1,116 @@
+package benchmark;
+
+import nio.Notifier;
+import nio.Pattern;
+import nio.WatchRegistry;
+import nio.sim.SimFileSystem;
+import nio.sim.SimWatchService;
+import nio.trace.TraceReplayer;
+import transport.FileConsumer;
+import transport.FilePublisher;
+import transport.GRPattern;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchKey;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class replays a recorded trace into a Notifier or a FilePublisher which watches a simulated file system, so
+ * that the production traffic shapes can be used as repeatable benchmarks of the matching and dispatching
+ * The keys overflow at the same limit as the JDK by default, so a fast replay may overflow like a slow consumer does
+ * <p>
+ * java -cp benchmarks/target/benchmarks.jar benchmark.Replay --trace=burst.trace --pattern=/data/in/*&#47;*.xml --speed=0
+ *
+ * @author Chanaka Lakmal
+ */
+public class Replay {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("trace", "");
+        options.put("pattern", "");
+        options.put("target", "notifier");
+        options.put("speed", "1");
+        options.put("drain", "2000");
+        options.put("maxEvents", String.valueOf(SimWatchService.DEFAULT_MAX_EVENTS_PER_KEY));
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            if (!options.containsKey(pair[0]) || pair.length != 2) {
+                System.err.println("Usage: Replay " + options.keySet() + " as --key=value | Unknown option : " + arg);
+                System.exit(1);
+            }
+            options.put(pair[0], pair[1]);
+        }
+        if (options.get("trace").isEmpty() || options.get("pattern").isEmpty()) {
+            System.err.println("Usage: Replay --trace=<trace file> --pattern=<glob of the files> [--target=notifier|publisher] [--speed=1] [--maxEvents=512]");
+            System.exit(1);
+        }
+
+        SimFileSystem fileSystem = SimFileSystem.newFileSystem();
+        SimWatchService watcher = fileSystem.newSimWatchService().setMaxEventsPerKey(Integer.parseInt(options.get("maxEvents")));
+        TraceReplayer replayer = new TraceReplayer(Paths.get(options.get("trace")), fileSystem);
+        int directories = replayer.createDirectories();
+
+        final AtomicLong emitted = new AtomicLong();
+        String pattern = options.get("pattern");
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        if ("publisher".equals(options.get("target"))) {
+            FilePublisher filePublisher = new FilePublisher(watcher, new HashMap<GRPattern, HashMap<String, Object>>(), new HashMap<WatchKey, Path>());
+            filePublisher.setFileConsumer(new FileConsumer() {
+                @Override
+                public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                    emitted.incrementAndGet();
+                }
+            });
+            filePublisher.registerPattern(new GRPattern(fileSystem, "glob:", pattern), new HashMap<String, Object>());
+            executorService.submit(filePublisher);
+        } else {
+            WatchRegistry registry = new WatchRegistry(watcher);
+            new Notifier(new GRPattern(fileSystem, "glob:", pattern).getRootPath(), new Pattern("glob:", pattern),
+                    new AbstractSet<Path>() {
+                        @Override
+                        public boolean add(Path file) {
+                            emitted.incrementAndGet();
+                            return true;
+                        }
+
+                        @Override
+                        public Iterator<Path> iterator() {
+                            return Collections.<Path>emptySet().iterator();
+                        }
+
+                        @Override
+                        public int size() {
+                            return 0;
+                        }
+                    }, registry);
+            executorService.submit(registry);
+        }
+
+        long start = System.nanoTime();
+        long events = replayer.replay(watcher, Double.parseDouble(options.get("speed")));
+        long injected = System.nanoTime();
+        long last = -1;
+        while (emitted.get() != last) {
+            last = emitted.get();
+            Thread.sleep(Long.parseLong(options.get("drain")));
+        }
+        watcher.close();
+        executorService.shutdownNow();
+
+        System.out.println(String.format(Locale.ROOT, "Replay %s%ndirectories %d | events %d | emitted %d%n"
+                        + "injected in %.3f s | %.1f events/s",
+                options, directories, events, emitted.get(), (injected - start) / 1e9, events * 1e9 / (injected - start)));
+        System.exit(0);
+    }
+}
@@ -0,0 +1,278 @@
+package benchmark;
+
+import nio.Notifier;
+import nio.Pattern;
+import nio.WatchRegistry;
+import transport.FileConsumer;
+import transport.FilePublisher;
+import transport.GRPattern;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class is a long running soak harness which churns directories and files continuously under a Notifier or a
+ * FilePublisher and samples the heap usage, the watch count, the thread count and the sizes of the internal structures
+ * <p>
+ * The churn creates a directory with a set of files, deletes some of them, moves the directory and finally deletes it,
+ * so that the steady state should be flat. The median of the last quarter of the samples is compared with the median of
+ * the first quarter after the warm up, and the run fails if any of them grows beyond the tolerance. The emitted files are
+ * drained on each sample as the engine would do.
+ * <p>
+ * java -cp benchmarks/target/benchmarks.jar benchmark.Soak --target=notifier --duration=14400 --interval=30
+ *
+ * @author Chanaka Lakmal
+ */
+public class Soak {
+
+    private final Map<String, String> options;
+    private final Map<String, List<Long>> samples = new LinkedHashMap<>();
+    private final AtomicLong emitted = new AtomicLong();
+    private final AtomicLong churned = new AtomicLong();
+    private final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+
+    private Path root;
+    private WatchRegistry registry;
+    private Notifier notifier;
+    private FilePublisher filePublisher;
+    private WatchService watcher;
+
+    public Soak(Map<String, String> options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("target", "notifier");
+        options.put("duration", "3600");
+        options.put("interval", "10");
+        options.put("warmup", "60");
+        options.put("dirs", "20");
+        options.put("files", "50");
+        options.put("tolerance", "10");
+        options.put("dir", System.getProperty("java.io.tmpdir"));
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            if (!options.containsKey(pair[0]) || pair.length != 2) {
+                System.err.println("Usage: Soak " + options.keySet() + " as --key=value | Unknown option : " + arg);
+                System.exit(1);
+            }
+            options.put(pair[0], pair[1]);
+        }
+        Soak soak = new Soak(options);
+        boolean passed = soak.run();
+        System.out.println(soak.report());
+        System.exit(passed ? 0 : 1);
+    }
+
+    private int option(String name) {
+        return Integer.parseInt(options.get(name));
+    }
+
+    /**
+     * Start the target, churn the files till the duration is over and sample the structures on each interval
+     *
+     * @return true if none of the sampled values trends upward beyond the tolerance
+     * @throws Exception if an error occurs while creating or watching the files
+     */
+    public boolean run() throws Exception {
+        root = Files.createTempDirectory(Paths.get(options.get("dir")), "soak");
+        Files.createDirectories(root.resolve("in"));
+        Files.createDirectories(root.resolve("moved"));
+
+        ExecutorService executorService = Executors.newCachedThreadPool();
+        start(executorService);
+        try {
+            long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(option("duration"));
+            long warmupEnd = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(option("warmup"));
+            long nextSample = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(option("interval"));
+            long round = 0;
+            while (System.currentTimeMillis() < end) {
+                churn(round++);
+                if (System.currentTimeMillis() >= nextSample) {
+                    if (System.currentTimeMillis() >= warmupEnd) {
+                        sample();
+                    }
+                    nextSample += TimeUnit.SECONDS.toMillis(option("interval"));
+                }
+            }
+        } finally {
+            stop();
+            executorService.shutdownNow();
+            BenchmarkFiles.delete(root);
+        }
+        return growing().isEmpty();
+    }
+
+    private void start(ExecutorService executorService) throws IOException {
+        String pattern = root + "/*/*/*.xml";
+        if ("publisher".equals(options.get("target"))) {
+            watcher = FileSystems.getDefault().newWatchService();
+            filePublisher = new FilePublisher(watcher, new HashMap<GRPattern, HashMap<String, Object>>(), new HashMap<WatchKey, Path>());
+            filePublisher.setFileConsumer(new FileConsumer() {
+                @Override
+                public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                    emitted.incrementAndGet();
+                }
+            });
+            filePublisher.registerPattern(new GRPattern("glob:", pattern), new HashMap<String, Object>());
+            executorService.submit(filePublisher);
+        } else {
+            registry = new WatchRegistry();
+            notifier = new Notifier(root, new Pattern("glob:", pattern), fileList, registry);
+            executorService.submit(registry);
+        }
+    }
+
+    private void stop() throws IOException {
+        if (notifier != null) {
+            notifier.close();
+            registry.close();
+        }
+        if (filePublisher != null) {
+            filePublisher.close();
+        }
+    }
+
+    /**
+     * Create a set of directories with files, delete half of the files, move the directories and delete them
+     *
+     * @param round the number of the churn round which makes the directory names unique
+     * @throws IOException if an error occurs while creating, moving or deleting the files
+     */
+    private void churn(long round) throws IOException {
+        List<Path> dirs = new ArrayList<>();
+        for (int d = 0; d < option("dirs"); d++) {
+            Path dir = root.resolve("in").resolve(round + "-" + d);
+            BenchmarkFiles.createFiles(dir, option("files"));
+            dirs.add(dir);
+        }
+        for (Path dir : dirs) {
+            for (int i = 2; i <= option("files"); i += 2) {
+                Files.delete(dir.resolve(i + ".xml"));
+            }
+        }
+        for (Path dir : dirs) {
+            Path moved = root.resolve("moved").resolve(dir.getFileName());
+            Files.move(dir, moved, StandardCopyOption.ATOMIC_MOVE);
+            BenchmarkFiles.delete(moved);
+        }
+        churned.addAndGet(dirs.size());
+    }
+
+    private void sample() {
+        /*
+         * drain the emitted files as the engine would do, so that only the structures of the transport are measured
+         */
+        emitted.addAndGet(fileList.size());
+        fileList.clear();
+
+        System.gc();
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        if (notifier != null) {
+            sizes.putAll(registry.getStructureSizes());
+            sizes.putAll(notifier.getStructureSizes());
+            sizes.remove("notifier.fileList");
+        } else {
+            sizes.putAll(filePublisher.getStructureSizes());
+        }
+        record("heap.used.kb", memory.getHeapMemoryUsage().getUsed() / 1024);
+        record("threads", threads.getThreadCount());
+        for (Map.Entry<String, Integer> entry : sizes.entrySet()) {
+            record(entry.getKey(), entry.getValue());
+        }
+        System.out.println(String.format(Locale.ROOT, "churned %d dirs | emitted %d files | %s",
+                churned.get(), emitted.get(), latest()));
+    }
+
+    private void record(String name, long value) {
+        List<Long> values = samples.get(name);
+        if (values == null) {
+            values = new ArrayList<>();
+            samples.put(name, values);
+        }
+        values.add(value);
+    }
+
+    private Map<String, Long> latest() {
+        Map<String, Long> latest = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+            latest.put(entry.getKey(), entry.getValue().get(entry.getValue().size() - 1));
+        }
+        return latest;
+    }
+
+    /**
+     * Find the sampled values whose median of the last quarter exceeds the median of the first quarter by the tolerance
+     * The medians are used so that a single sample taken before a full collection does not fail the run
+     * A small absolute slack is allowed so that the structures which are almost empty are not reported for noise
+     *
+     * @return map of the growing structures with their first and last quarter medians
+     */
+    private Map<String, double[]> growing() {
+        Map<String, double[]> growing = new LinkedHashMap<>();
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+            List<Long> values = entry.getValue();
+            if (values.size() < 4) {
+                continue;
+            }
+            int quarter = values.size() / 4;
+            double first = median(values.subList(0, quarter));
+            double last = median(values.subList(values.size() - quarter, values.size()));
+            if (last > first * (1 + option("tolerance") / 100.0) + 2) {
+                growing.put(entry.getKey(), new double[]{first, last});
+            }
+        }
+        return growing;
+    }
+
+    private static double median(List<Long> values) {
+        List<Long> sorted = new ArrayList<>(values);
+        Collections.sort(sorted);
+        int middle = sorted.size() / 2;
+        return sorted.size() % 2 == 1 ? sorted.get(middle) : (sorted.get(middle - 1) + sorted.get(middle)) / 2.0;
+    }
+
+    public String report() {
+        StringBuilder builder = new StringBuilder();
+        builder.append(String.format(Locale.ROOT, "Soak %s%n", options));
+        builder.append(String.format(Locale.ROOT, "churned %d dirs | emitted %d files | samples %d%n",
+                churned.get(), emitted.get(), samples.isEmpty() ? 0 : samples.values().iterator().next().size()));
+
+        Map<String, double[]> growing = growing();
+        for (Map.Entry<String, List<Long>> entry : samples.entrySet()) {
+            double[] medians = growing.get(entry.getKey());
+            List<Long> values = entry.getValue();
+            builder.append(String.format(Locale.ROOT, "%-30s %s first %d | last %d%s%n", entry.getKey(),
+                    medians == null ? "OK     " : "GROWING", values.get(0), values.get(values.size() - 1),
+                    medians == null ? "" : String.format(Locale.ROOT, " | quarter medians %.1f -> %.1f", medians[0], medians[1])));
+        }
+        builder.append(growing.isEmpty() ? "PASSED" : "FAILED " + growing.keySet());
+        return builder.toString();
+    }
+}
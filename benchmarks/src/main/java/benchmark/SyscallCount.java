@@ -0,0 +1,170 @@
+package benchmark;
+
+import nio.Notifier;
+import nio.Pattern;
+import nio.WatchRegistry;
+import nio.metrics.TransportMetrics;
+import nio.sim.SimFileSystem;
+import nio.sim.SimWatchService;
+import transport.FileConsumer;
+import transport.FilePublisher;
+import transport.GRPattern;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchKey;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class counts the file system calls made by a Notifier or a FilePublisher per event and per scanned entry
+ * <p>
+ * The watched tree is a simulated file system which counts the attribute reads (stat) and the directory listings
+ * (opendir), so the numbers don't depend on the caches or the speed of the disk. Three phases are measured
+ * - files   : writing the files into the watched directories, which generates ENTRY_CREATE and ENTRY_MODIFY events
+ * - dirs    : creating new directories with files in them, which registers them and scans the files created before
+ * - rescan  : an OVERFLOW of every directory, which scans all the files of them manually
+ * <p>
+ * java -cp benchmarks/target/benchmarks.jar benchmark.SyscallCount --target=publisher --files=1000
+ *
+ * @author Chanaka Lakmal
+ */
+public class SyscallCount {
+
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new LinkedHashMap<>();
+        options.put("target", "publisher");
+        options.put("dirs", "10");
+        options.put("files", "1000");
+        options.put("latency", "false");
+        for (String arg : args) {
+            String[] pair = arg.replaceFirst("^--", "").split("=", 2);
+            if (!options.containsKey(pair[0]) || pair.length != 2) {
+                System.err.println("Usage: SyscallCount " + options.keySet() + " as --key=value | Unknown option : " + arg);
+                System.exit(1);
+            }
+            options.put(pair[0], pair[1]);
+        }
+        int dirs = Integer.parseInt(options.get("dirs"));
+        int files = Integer.parseInt(options.get("files"));
+        metrics.setEndToEndLatencyEnabled(Boolean.parseBoolean(options.get("latency")));
+
+        SimFileSystem fileSystem = SimFileSystem.newFileSystem();
+        SimWatchService watcher = fileSystem.newSimWatchService().setMaxEventsPerKey(Integer.MAX_VALUE);
+        Path root = fileSystem.getPath("/in");
+        for (int i = 0; i < dirs; i++) {
+            Files.createDirectories(root.resolve("d" + i));
+        }
+
+        final AtomicLong emitted = new AtomicLong();
+        String pattern = "/in/*/*.xml";
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        if ("publisher".equals(options.get("target"))) {
+            FilePublisher filePublisher = new FilePublisher(watcher, new HashMap<GRPattern, HashMap<String, Object>>(), new HashMap<WatchKey, Path>());
+            filePublisher.setFileConsumer(new FileConsumer() {
+                @Override
+                public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                    emitted.incrementAndGet();
+                }
+            });
+            filePublisher.registerPattern(new GRPattern(fileSystem, "glob:", pattern), new HashMap<String, Object>());
+            executorService.submit(filePublisher);
+        } else {
+            WatchRegistry registry = new WatchRegistry(watcher);
+            new Notifier(root, new Pattern("glob:", pattern), new AbstractSet<Path>() {
+                @Override
+                public boolean add(Path file) {
+                    emitted.incrementAndGet();
+                    return true;
+                }
+
+                @Override
+                public Iterator<Path> iterator() {
+                    return Collections.<Path>emptySet().iterator();
+                }
+
+                @Override
+                public int size() {
+                    return 0;
+                }
+            }, registry);
+            executorService.submit(registry);
+        }
+        awaitRescans();
+
+        System.out.println("SyscallCount " + options);
+
+        fileSystem.resetCounts();
+        long events = eventCount();
+        for (int i = 0; i < dirs; i++) {
+            for (int j = 0; j < files; j++) {
+                Files.write(root.resolve("d" + i + "/" + j + ".xml"), "<xml/>".getBytes());
+            }
+        }
+        awaitEvents(events + 2L * dirs * files);
+        report("files", fileSystem, eventCount() - events, "event", "events");
+
+        fileSystem.resetCounts();
+        for (int i = 0; i < dirs; i++) {
+            Path dir = Files.createDirectory(root.resolve("n" + i));
+            for (int j = 0; j < files / 10; j++) {
+                Files.write(dir.resolve(j + ".xml"), "<xml/>".getBytes());
+            }
+        }
+        awaitRescans();
+        report("dirs", fileSystem, (long) dirs * (files / 10 + 1), "entry", "entries");
+
+        fileSystem.resetCounts();
+        long rescans = metrics.getRescansCompleted();
+        for (int i = 0; i < dirs; i++) {
+            watcher.overflow(root.resolve("d" + i));
+        }
+        while (metrics.getRescansCompleted() < rescans + dirs) {
+            Thread.sleep(10);
+        }
+        awaitRescans();
+        report("rescan", fileSystem, (long) dirs * (files + 1), "entry", "entries");
+
+        watcher.close();
+        executorService.shutdownNow();
+        System.exit(0);
+    }
+
+    private static long eventCount() {
+        return metrics.getCreateEvents() + metrics.getModifyEvents() + metrics.getOverflowEvents();
+    }
+
+    private static void awaitEvents(long count) throws InterruptedException {
+        while (eventCount() < count) {
+            Thread.sleep(10);
+        }
+        awaitRescans();
+    }
+
+    /**
+     * Wait until all the queued manual processing is completed and the counts are not changed for a while
+     */
+    private static void awaitRescans() throws InterruptedException {
+        long last = -1;
+        while (metrics.getRescansQueued() + metrics.getRescansRunning() > 0 || eventCount() != last) {
+            last = eventCount();
+            Thread.sleep(200);
+        }
+    }
+
+    private static void report(String phase, SimFileSystem fileSystem, long count, String unit, String units) {
+        System.out.println(String.format(Locale.ROOT, "%-7s %8d %-7s | stat %8d (%.3f per %s) | opendir %6d",
+                phase, count, units, fileSystem.getAttributeReadCount(), fileSystem.getAttributeReadCount() / (double) count,
+                unit, fileSystem.getDirectoryReadCount()));
+    }
+}
@@ -34,7 +34,12 @@ public class FindPath {
         private Set<Path> pathList;
 
         public Finder(Pattern pattern) {
-            matcher = FileSystems.getDefault().getPathMatcher(pattern.getPatternSyntax() + Paths.get(pattern.getPathPattern()).getParent().toString());
+            this(FileSystems.getDefault(), pattern);
+        }
+
+        // Compiles the directory part of the pattern for the file system of the watched paths.
+        public Finder(FileSystem fileSystem, Pattern pattern) {
+            matcher = fileSystem.getPathMatcher(pattern.getPatternSyntax() + fileSystem.getPath(pattern.getPathPattern()).getParent().toString());
             pathList = Collections.synchronizedSet(new HashSet<Path>());
         }
 
@@ -47,6 +52,11 @@ public class FindPath {
             }
         }
 
+        // Removes the directory which is deleted or moved away.
+        void remove(Path dir) {
+            pathList.remove(dir);
+        }
+
         // Invoke the pattern matching method on each file.
         //        @Override
         //        public FileVisitResult visitFile(Path file,
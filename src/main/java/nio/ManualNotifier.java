@@ -1,5 +1,7 @@
 package nio;
 
+import nio.jfr.JfrEvents;
+import nio.metrics.TransportMetrics;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -27,7 +29,9 @@ public class ManualNotifier implements Callable<Object> {
     private Pair<Long, Long> timePair;
     private PathMatcher fileNameMatcher;
     private final int THRESHOLD = 1250;
+    private int entriesVisited;
     private static final Logger logger = LogManager.getLogger(ManualNotifier.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
 
     /**
      * This constructor calls when an directory get registered
@@ -75,7 +79,14 @@ public class ManualNotifier implements Callable<Object> {
      */
     @Override
     public Object call() throws Exception {
-        processManually(dir, time, status);
+        long startNanos = metrics.rescanStarted();
+        Object rescan = JfrEvents.beginRescan();
+        try {
+            processManually(dir, time, status);
+        } finally {
+            metrics.rescanFinished(startNanos);
+            JfrEvents.endRescan(rescan, dir, status, entriesVisited);
+        }
         return null;
     }
 
@@ -92,20 +103,36 @@ public class ManualNotifier implements Callable<Object> {
 
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                entriesVisited++;
+                /*
+                 * each registered directory is processed by its own ManualNotifier
+                 * so the sub-directories are skipped without terminating the files of this directory
+                 */
+                if (!path.equals(dir)) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
                 if (pathList.contains(dir)) {
                     return FileVisitResult.CONTINUE;
                 }
                 return FileVisitResult.TERMINATE;
             }
 
+            /*
+             * the attributes of the file are read once by the walk, so the last modified time is taken from them
+             * instead of reading it again for each comparison, and the name is matched before it
+             */
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                entriesVisited++;
                 switch (status.toLowerCase()) {
                     case "register":
-                        if (Files.getLastModifiedTime(file).toMillis() < time + THRESHOLD) {
-                            if (fileNameMatcher.matches(file.getFileName())) {
+                        if (fileNameMatcher.matches(file.getFileName())) {
+                            long lastModified = attrs.lastModifiedTime().toMillis();
+                            if (lastModified < time + THRESHOLD) {
                                 logger.debug("REGISTER || ENTRY_CREATE: {}", file);
                                 fileList.add(file);
+                                metrics.fileEmitted(lastModified);
+                                JfrEvents.emitted(file, status);
                             }
                         }
                         break;
@@ -115,9 +142,12 @@ public class ManualNotifier implements Callable<Object> {
                          * Use a THRESHOLD here in order to enlarge the time gap since the lastModifiedTime round off the value into 1000
                          */
                         if (fileNameMatcher.matches(file.getFileName())) {
-                            if (Files.getLastModifiedTime(file).toMillis() >= timePair.getT() - THRESHOLD && Files.getLastModifiedTime(file).toMillis() <= timePair.getU() + THRESHOLD) {
+                            long lastModified = attrs.lastModifiedTime().toMillis();
+                            if (lastModified >= timePair.getT() - THRESHOLD && lastModified <= timePair.getU() + THRESHOLD) {
                                 logger.debug("OVERFLOW || ENTRY_CREATE: {}", file);
                                 fileList.add(file);
+                                metrics.fileEmitted(lastModified);
+                                JfrEvents.emitted(file, status);
                             }
                         }
                         break;
@@ -1,39 +1,51 @@
 package nio;
 
+import nio.jfr.JfrEvents;
+import nio.metrics.Histogram;
+import nio.metrics.TransportMetrics;
+import nio.util.DirectoryPruner;
+import nio.util.ExclusionRules;
+import nio.util.FileNameMatcher;
+import nio.util.PathPatterns;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.*;
-import java.nio.file.attribute.BasicFileAttributes;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
-import java.util.Stack;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
-import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
-import static java.nio.file.StandardWatchEventKinds.*;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
 
 /**
  * This class is for handling the notifications of the watcher service
+ * The directories are registered in a WatchRegistry which can be shared among multiple Notifiers so that each physical
+ * directory is watched only once
  *
  * @author Chanaka Lakmal
  */
-public class Notifier implements Runnable {
+public class Notifier implements Runnable, WatchSubscriber, Closeable {
 
-    private WatchService watcher;
-    private Map<WatchKey, Path> keys;
-    private boolean trace;
+    private WatchRegistry registry;
+    private boolean ownRegistry;
     private FindPath.Finder finder;
     private Set<Path> pathList;
     private long processTime;
-    private Stack<Pair<Long, Long>> timePairs;
     private Set<Path> fileList;
     private ExecutorService executorService;
     private PathMatcher fileNameMatcher;
+    private DirectoryPruner pruner;
+    private ExclusionRules exclusionRules;
+    private Path rootPath;
+    private Histogram matcherTime;
+    private String matcherTimeName;
     private static final Logger logger =  LogManager.getLogger(Notifier.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
 
     /**
      * Creates a WatchService and registers the given directory
@@ -47,47 +59,99 @@ public class Notifier implements Runnable {
      * @throws IOException if error occurs when registering the watcher service and walk through file system
      */
     public Notifier(Path rootPath, Pattern pattern, Set<Path> fileList) throws IOException {
-        this.watcher = FileSystems.getDefault().newWatchService();
-        this.keys = new HashMap<>();
-        this.timePairs = new Stack<>();
+        this(rootPath, pattern, fileList, new WatchRegistry(rootPath.getFileSystem()));
+        this.ownRegistry = true;
+    }
+
+    /**
+     * Registers the given directory in a shared WatchRegistry
+     * The events are processed by the registry, so the registry should be submitted to a thread pool instead of this
+     *
+     * @param rootPath root path of the file structure
+     * @param pattern  pattern object which should be checked files for with the pattern type and path pattern
+     * @param fileList this should be a synchronized set since this is accessed by multi threads
+     * @param registry the shared registry which keeps the watched directories
+     * @throws IOException if error occurs when registering the watcher service and walk through file system
+     */
+    public Notifier(Path rootPath, Pattern pattern, Set<Path> fileList, WatchRegistry registry) throws IOException {
+        this(rootPath, pattern, fileList, registry, new ExclusionRules(rootPath.getFileSystem()));
+    }
+
+    /**
+     * Registers the given directory in a shared WatchRegistry except the directories excluded by the given rules
+     * The excluded directories are never watched and the events of the excluded names are dropped before matching
+     *
+     * @param rootPath       root path of the file structure
+     * @param pattern        pattern object which should be checked files for with the pattern type and path pattern
+     * @param fileList       this should be a synchronized set since this is accessed by multi threads
+     * @param registry       the shared registry which keeps the watched directories
+     * @param exclusionRules the rules of the files and directories which should never be processed
+     * @throws IOException if error occurs when registering the watcher service and walk through file system
+     */
+    public Notifier(Path rootPath, Pattern pattern, Set<Path> fileList, WatchRegistry registry, ExclusionRules exclusionRules) throws IOException {
+        this.registry = registry;
+        this.rootPath = rootPath;
+        this.exclusionRules = exclusionRules;
         this.fileList = fileList;
-        this.executorService = Executors.newFixedThreadPool(Integer.MAX_VALUE);
+        this.executorService = Executors.newCachedThreadPool();
 
         /*
          * Check for the pattern and keep relevant paths that should be notified the changes
          * in a HashSet called pathList
-         * NOTE: the pathList will be updated if there are any relevant paths in the file system only
+         * NOTE: the pathList is updated whenever a directory is registered for this notifier
          */
-        this.finder = new FindPath.Finder(pattern);
-        Files.walkFileTree(rootPath, finder);
+        this.finder = new FindPath.Finder(rootPath.getFileSystem(), pattern);
         this.pathList = finder.getPathList();
 
         /*
          * file name matcher for matching the file name with the given pattern
          */
-        fileNameMatcher = FileSystems.getDefault().getPathMatcher(pattern.getPatternSyntax() + Paths.get(pattern.getPathPattern()).getFileName().toString());
+        String fileNamePattern = rootPath.getFileSystem().getPath(pattern.getPathPattern()).getFileName().toString();
+        if (PathPatterns.isRegex(pattern.getPatternSyntax()) || fileNamePattern.contains("**")) {
+            fileNameMatcher = rootPath.getFileSystem().getPathMatcher(pattern.getPatternSyntax() + fileNamePattern);
+        } else {
+            fileNameMatcher = FileNameMatcher.of(fileNamePattern);
+        }
+        fileNameMatcher = exclusionRules.filter(fileNameMatcher);
+
+        matcherTimeName = pattern.getPatternSyntax() + pattern.getPathPattern();
+        matcherTime = metrics.getMatcherTime(matcherTimeName);
 
         /*
-         * Register watchers for all the directories
-         * in order to detect newly created directories which matches the given pattern
+         * pruner for skipping the directories which can never contain or lead to a matching directory
          */
-        registerAll(rootPath);
+        pruner = new DirectoryPruner(rootPath.getFileSystem(), pattern.getPatternSyntax(), pattern.getPathPattern());
 
         /*
-         * enable trace after initial registration
+         * Register watchers for the directories which can contain the matching files
+         * and their ancestors in order to detect newly created directories which matches the given pattern
          */
-        this.trace = true;
+        registry.registerAll(rootPath, this);
+    }
+
+    /**
+     * Calls by the registry before registering a directory for this notifier
+     *
+     * @param dir the directory which is going to be registered
+     * @return true if the directory is not excluded and can contain or lead to a directory which matches the pattern
+     */
+    @Override
+    public boolean isWatchable(Path dir) {
+        return !exclusionRules.isExcludedDirectory(rootPath, dir) && pruner.isWatchable(dir);
     }
 
     /**
-     * Register the given directory with the WatchService
+     * Calls by the registry when the given directory is registered for this notifier
      *
-     * @param dir the directory which is registering
-     * @throws IOException if error occurs when registering the directory for watcher and return the key
+     * @param dir the directory which is registered
      */
-    private void register(Path dir) throws IOException {
-        // this will set a WatchKey for the given directory if it is not registered earlier
-        WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+    @Override
+    public void onRegister(Path dir) {
+        /*
+         * update the pathList
+         * since the pathList is a HashSet there will not be any duplicates
+         */
+        finder.find(dir);
 
         /*
          * Keep the register time with the directory in order to detect the files which
@@ -96,178 +160,164 @@ public class Notifier implements Runnable {
          */
         long registerTime = System.currentTimeMillis();
         Pair<Path, Long> registerTimePair = new Pair<>(dir, registerTime);
+        metrics.rescanQueued();
         executorService.submit(new ManualNotifier(registerTimePair, fileNameMatcher, "register", pathList, fileList));
         logger.debug("Submitted {} for process manually due to initial registration", dir);
+    }
 
-        if (trace) {
-            Path prev = keys.get(key);
-            if (prev == null) {
-                // System.out.format("register: %s\n", dir);
-                logger.debug("Registering a watcher for the newly created directory {} ", dir);
-            } else {
-                if (!dir.equals(prev)) {
-//                    System.out.format("update: %s -> %s\n", prev, dir);
-                    logger.debug("Updating a watcher for the created directory {} ", dir);
-                }
-            }
-        }
+    /**
+     * Calls by the registry when a directory registered for this notifier is deleted or moved away
+     *
+     * @param dir the directory which is unregistered
+     */
+    @Override
+    public void onUnregister(Path dir) {
+        finder.remove(dir);
+        logger.debug("Removed {} from the path list: Path List Size : {} ", dir, pathList.size());
+    }
 
+    /**
+     * Calls by the registry when an OVERFLOW event occurs for a directory registered for this notifier
+     *
+     * @param dir the directory which generated the overflow
+     */
+    @Override
+    public void onOverflow(Path dir) {
         /*
-         * put the keys in a HashMap which generates the event to check for changes
+         * Keep the time pair containing the following times
+         * 1. the time we started the processing of last batch
+         * 2. the time we detected an overflow occurs
+         * so that we have to manually process the file system in order to detect the files which
+         * have been created within this time period
          */
-        keys.put(key, dir);
+        long overflowTime = System.currentTimeMillis();
+        Pair<Long, Long> timePair = new Pair<>(processTime, overflowTime);
+        System.err.println("OVERFLOW !");
+        logger.warn("OVERFLOW ! | Directory : {} | Time : {}", dir, overflowTime);
 
         /*
-         * update the pathList
-         * since the pathList is a HashSet there will not be any duplicates
+         * Manually check for files which have created when an overflow occurs
+         * This will execute here because if an OVERFLOW event triggers it should be handled manually
          */
-        Files.walkFileTree(dir, finder);
-        this.pathList = finder.getPathList();
-        logger.debug("Updated the path list: Path List Size : {} ", pathList.size());
+        metrics.rescanQueued();
+        executorService.submit(new ManualNotifier(dir, timePair, fileNameMatcher, "overflow", pathList, fileList));
+        logger.debug("Submitted {} for process manually due to an overflow", dir);
     }
 
     /**
-     * Register the given directory, and all its sub-directories, with the WatchService...
+     * Calls by the registry for each entry event of a directory registered for this notifier
      *
-     * @param start starting directory
-     * @throws IOException if error occurs while walk through file system
+     * @param dir  the directory which generated the event
+     * @param kind kind of the event
+     * @param name context of the event which is the file name of entry
      */
-    private void registerAll(final Path start) throws IOException {
+    @Override
+    public void onEvent(Path dir, WatchEvent.Kind<?> kind, Path name) {
         /*
-         * register all the directory and sub-directories
+         * drop the deleted entries and the excluded names such as temporary files before any processing
          */
-        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                register(dir);
-                return FileVisitResult.CONTINUE;
+        if (kind == ENTRY_DELETE || exclusionRules.isExcludedName(name)) {
+            return;
+        }
+
+        /*
+         * Keep the starting time of the processing time of current batch
+         * for the use of the time pair of an overflow
+         */
+        processTime = System.currentTimeMillis();
+        if (logger.isDebugEnabled()) {
+            logger.debug("PROCESS | Directory : {} | Time : {}", dir, processTime);
+        }
+
+        /*
+         * Print out the event here
+         * child parent path should be in the pathList
+         * if fileExtension is null => no file type required
+         * else fileExtension should matched to the extension of the child
+         */
+        if (pathList.contains(dir)) {
+            long matchStart = System.nanoTime();
+            boolean matched = fileNameMatcher.matches(name);
+            matcherTime.recordNanos(System.nanoTime() - matchStart);
+            if (matched) {
+                Path child = dir.resolve(name);         // eg. path = /tmp/ram/test/1000Set/10.xml
+                logger.debug("{}: {}", kind.name(), child);
+                fileList.add(child);
+                metrics.fileEmitted(lastModifiedMillis(child));
+                JfrEvents.emitted(child, "event");
             }
-        });
+        }
     }
 
     /**
-     * Process all events for keys queued to the watcher
-     * First the WatchService will add files to the queue and we process it by taking them as batches
-     * key.pollEvents()
-     * But if an OVERFLOW occurs it will set the kind of the batch as OVERFLOW
-     * After we reset the queue it will start the process again
+     * Returns the last modified time of the file for the end to end latency if it is enabled
+     *
+     * @param file the emitted file
+     * @return last modified time in milliseconds, or -1 if it is not recorded
      */
-    private void processEvents() {
-        for (; ; ) {
-            /*
-             * even though this is an infinite loop this will wait for key to be signalled
-             */
-            WatchKey key;
-            try {
-                key = watcher.take();
-            } catch (InterruptedException x) {
-                return;
-            }
-
-            final Path dir = keys.get(key);
-            if (dir == null) {
-                System.err.println("WatchKey not recognized !");
-                logger.error("WatchKey not recognized !");
-                continue;
-            }
-
-
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind kind = event.kind();
-
-                if (kind == OVERFLOW) {
-                    /*
-                     * Keep the stack of timePairs containing the following time pairs
-                     * 1. the time we started the processing of last batch
-                     * 2. the time we detected an overflow occurs
-                     * so that we have to manually process the file system in order to detect the files which
-                     * have been created within this time period
-                     */
-                    long overflowTime = System.currentTimeMillis();
-                    timePairs.push(new Pair<>(Long.parseLong(String.valueOf(processTime)), Long.parseLong(String.valueOf(overflowTime))));
-                    System.err.println("OVERFLOW !");
-                    logger.warn("OVERFLOW ! | Directory : {} | Time : {}", dir, overflowTime);
-
-                    /*
-                     * Manually check for files which have created when an overflow occurs
-                     * This will execute here because if an OVERFLOW event triggers it should be handled manually
-                     */
-                    executorService.submit(new ManualNotifier(dir, timePairs.pop(), fileNameMatcher, "overflow", pathList, fileList));
-                    logger.debug("Submitted {} for process manually due to an overflow", dir);
-
-                    continue;
-                }
-
-                /*
-                 * Context for directory entry event is the file name of entry
-                 */
-                WatchEvent<Path> ev = cast(event);
-                Path name = ev.context();               // eg. name = 10.xml
-                Path child = dir.resolve(name);         // eg. path = /tmp/ram/test/1000Set/10.xml
-
-                /*
-                 * Keep the starting time of the processing time of current batch
-                 * for the use of timePairs
-                 */
-                processTime = System.currentTimeMillis();
-                logger.debug("PROCESS | Directory : {} | Time : {}", dir, processTime);
-
-                /*
-                 * Print out the event here
-                 * child parent path should be in the pathList
-                 * if fileExtension is null => no file type required
-                 * else fileExtension should matched to the extension of the child
-                 */
-                if (pathList.contains(child.getParent())) {
-                    if (fileNameMatcher.matches(name)) {
-                        // System.out.format("%s: %s\n", event.kind().name(), child);
-                        logger.debug("{}: {}", event.kind().name(), child);
-                        fileList.add(child);
-                    }
-                }
+    private static long lastModifiedMillis(Path file) {
+        if (!metrics.isEndToEndLatencyEnabled()) {
+            return -1;
+        }
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
 
-                /*
-                 * if directory is created, and watching recursively, then
-                 * register it and its sub-directories
-                 */
-                if (kind == ENTRY_CREATE) {
-                    try {
-                        if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                            registerAll(child);
-                        }
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                }
-            }
+    /**
+     * Returns the sizes of the internal structures of this notifier which should not grow without watched directories
+     *
+     * @return map of the structure name and its size
+     */
+    public Map<String, Integer> getStructureSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("notifier.pathList", pathList.size());
+        sizes.put("notifier.fileList", fileList.size());
+        if (executorService instanceof ThreadPoolExecutor) {
+            sizes.put("notifier.executor.threads", ((ThreadPoolExecutor) executorService).getPoolSize());
+            sizes.put("notifier.executor.queue", ((ThreadPoolExecutor) executorService).getQueue().size());
+        }
+        return sizes;
+    }
 
-            /*
-             * reset key and remove from set if directory no longer accessible
-             */
-            boolean valid = key.reset();
-            if (!valid) {
-                keys.remove(key);
+    /**
+     * Returns the registry which keeps the watched directories of this notifier
+     *
+     * @return the watch registry
+     */
+    public WatchRegistry getRegistry() {
+        return registry;
+    }
 
-                /*
-                 * this is because of all directories are inaccessible
-                 */
-                if (keys.isEmpty()) {
-                    break;
-                }
+    /**
+     * Stop the manual processing threads of this notifier and close the registry if it is not shared
+     *
+     * @throws IOException if an error occurs while closing the registry
+     */
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        synchronized (this) {
+            if (matcherTimeName != null) {
+                metrics.releaseMatcherTime(matcherTimeName);
+                matcherTimeName = null;
             }
         }
-    }
-
-    @SuppressWarnings("unchecked")
-    private static <T> WatchEvent<T> cast(WatchEvent<?> event) {
-        return (WatchEvent<T>) event;
+        if (ownRegistry) {
+            registry.close();
+        }
     }
 
     /*
      * Since the class is implemented by callable interface just after the constructor is called this method will executed
+     * If the registry is shared the events are processed by the thread which runs the registry
      */
     @Override
     public void run() {
-        processEvents();
+        if (ownRegistry) {
+            registry.run();
+        }
     }
 }
@@ -0,0 +1,179 @@
+package nio;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class drains the signalled keys of a watch service as a batch
+ * <p>
+ * After a single take() every key which is ready is polled without waiting, and its events are taken and the key is
+ * reset immediately, so that the watch service can queue the new events of the directory while the batch is being
+ * processed. The events of a key which is signalled again while draining are appended to its first entry, so the
+ * batch is grouped by key, which is by directory, and the order of the events of each directory is kept. The drain
+ * stops at the maximum number of the keys or of the events, so a directory which keeps being written can't hold the
+ * batch open.
+ * <p>
+ * The batch is reused by the thread which processes the events, and so are the event lists of its entries, which are
+ * cleared by the next drain. What is still allocated per wake-up is the event list returned by the watch service for
+ * each poll and the index entry of each distinct key.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class WatchBatch {
+
+    public static final int DEFAULT_MAX_KEYS = 256;
+    public static final int DEFAULT_MAX_EVENTS = 16384;
+
+    private final List<WatchKey> keys;
+    private final List<List<WatchEvent<?>>> events;
+    private final Map<WatchKey, Integer> indexes;
+    private boolean[] valid;
+    private int eventCount;
+
+    public WatchBatch() {
+        this.keys = new ArrayList<>();
+        this.events = new ArrayList<>();
+        this.indexes = new HashMap<>();
+        this.valid = new boolean[16];
+    }
+
+    /**
+     * Wait for a signalled key and drain it with the other keys which are ready, up to DEFAULT_MAX_EVENTS events
+     * The previous content of the batch is cleared first
+     *
+     * @param watcher the watch service which the keys are taken from
+     * @param maxKeys maximum number of the keys in the batch, 1 for taking a single key per wake-up
+     * @throws InterruptedException       if interrupted while waiting
+     * @throws ClosedWatchServiceException if the watch service is closed
+     */
+    public void drain(WatchService watcher, int maxKeys) throws InterruptedException {
+        drain(watcher, maxKeys, DEFAULT_MAX_EVENTS);
+    }
+
+    /**
+     * Wait for a signalled key and drain it with the other keys which are ready
+     * The previous content of the batch is cleared first. A poll which returns no events is counted as an event, so
+     * the number of the polls is bounded as well.
+     *
+     * @param watcher   the watch service which the keys are taken from
+     * @param maxKeys   maximum number of the distinct keys in the batch, 1 for taking a single key per wake-up
+     * @param maxEvents number of the events after which no more keys are polled
+     * @throws InterruptedException       if interrupted while waiting
+     * @throws ClosedWatchServiceException if the watch service is closed
+     */
+    public void drain(WatchService watcher, int maxKeys, int maxEvents) throws InterruptedException {
+        clear();
+        int budget = maxEvents - Math.max(1, add(watcher.take()));
+        WatchKey key;
+        while (budget > 0 && indexes.size() < maxKeys && (key = watcher.poll()) != null) {
+            budget -= Math.max(1, add(key));
+        }
+    }
+
+    /**
+     * Take the events of the key and reset it
+     *
+     * @param key the signalled key
+     * @return number of the taken events
+     */
+    private int add(WatchKey key) {
+        List<WatchEvent<?>> polled = key.pollEvents();
+        boolean isValid = key.reset();
+        return add(key, polled, isValid);
+    }
+
+    /**
+     * Add the events of a key which have been taken already, eg. to dispatch a prepared batch without a watch service
+     * The events are appended in place to the reused list of the entry of the key, which is the first entry if the key
+     * has been added already.
+     *
+     * @param key     the signalled key
+     * @param polled  the events of the key
+     * @param isValid the result of resetting the key
+     * @return number of the added events
+     */
+    public int add(WatchKey key, List<WatchEvent<?>> polled, boolean isValid) {
+        eventCount += polled.size();
+
+        Integer index = indexes.get(key);
+        if (index == null) {
+            index = keys.size();
+            if (index == valid.length) {
+                valid = Arrays.copyOf(valid, valid.length * 2);
+            }
+            if (index == events.size()) {
+                events.add(new ArrayList<WatchEvent<?>>());
+            }
+            indexes.put(key, index);
+            keys.add(key);
+        }
+        valid[index] = isValid;
+        List<WatchEvent<?>> entry = events.get(index);
+        for (int i = 0; i < polled.size(); i++) {
+            entry.add(polled.get(i));
+        }
+        return polled.size();
+    }
+
+    /**
+     * Remove the keys and the events of the last drain, the event lists of the entries are kept for the next drain
+     */
+    public void clear() {
+        for (int i = 0; i < keys.size(); i++) {
+            events.get(i).clear();
+        }
+        keys.clear();
+        indexes.clear();
+        eventCount = 0;
+    }
+
+    /**
+     * Returns the number of the distinct keys in the batch
+     *
+     * @return key count
+     */
+    public int size() {
+        return keys.size();
+    }
+
+    /**
+     * Returns the number of the events of all the keys in the batch
+     *
+     * @return event count
+     */
+    public int getEventCount() {
+        return eventCount;
+    }
+
+    public WatchKey getKey(int index) {
+        return keys.get(index);
+    }
+
+    /**
+     * Returns the events of a key in the batch, the list is reused by the next drain
+     *
+     * @param index index of the key in the batch
+     * @return the events in the order they were taken
+     */
+    public List<WatchEvent<?>> getEvents(int index) {
+        return events.get(index);
+    }
+
+    /**
+     * Returns whether the key was still valid when it was reset, if not the directory is no longer accessible
+     *
+     * @param index index of the key in the batch
+     * @return the result of the last reset of the key
+     */
+    public boolean isValid(int index) {
+        return valid[index];
+    }
+}
@@ -0,0 +1,469 @@
+package nio;
+
+import nio.jfr.JfrEvents;
+import nio.metrics.TransportMetrics;
+import nio.trace.TraceRecorder;
+import nio.util.PathRanges;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * This class is a shared registry of the watched directories which can be used by multiple Notifiers
+ * <p>
+ * Each physical directory is registered once with a single WatchService and the events of that directory are fanned
+ * out to every subscriber which is interested in it. If a subscriber registers a root which is already covered by a
+ * previously registered root (eg. nested roots), the existing keys are reused without walking the file system again.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class WatchRegistry implements Runnable, Closeable {
+
+    private static final Logger logger = LogManager.getLogger(WatchRegistry.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
+
+    private final WatchService watcher;
+    private final Map<WatchKey, Path> keys;
+    private final NavigableMap<Path, WatchKey> dirs;
+    private final Map<Path, WatchSubscriber[]> subscribers;
+    private final Set<Path> roots;
+    private volatile TraceRecorder traceRecorder;
+    private volatile int maxBatchKeys = WatchBatch.DEFAULT_MAX_KEYS;
+
+    /**
+     * Creates a WatchService of the default file system
+     *
+     * @throws IOException if error occurs when creating the watcher service
+     */
+    public WatchRegistry() throws IOException {
+        this(FileSystems.getDefault());
+    }
+
+    /**
+     * Creates a WatchService of the given file system
+     *
+     * @param fileSystem file system which the directories are registered in
+     * @throws IOException if error occurs when creating the watcher service
+     */
+    public WatchRegistry(FileSystem fileSystem) throws IOException {
+        this(fileSystem.newWatchService());
+    }
+
+    /**
+     * Creates a registry which registers the directories with the given WatchService
+     *
+     * @param watcher watch service of the file system which the directories are registered in
+     */
+    public WatchRegistry(WatchService watcher) {
+        this.watcher = watcher;
+        this.keys = new HashMap<>();
+        this.dirs = new TreeMap<>();
+        this.subscribers = new HashMap<>();
+        this.roots = new HashSet<>();
+    }
+
+    /**
+     * Register the given directory, and all its sub-directories, for the given subscriber
+     * If the directory is already covered by a registered root, the known directories are subscribed without walking
+     * The subtrees which can't lead to the files of the subscriber are pruned from the walk
+     *
+     * @param start      starting directory
+     * @param subscriber the subscriber which should be notified with the events of the directories
+     * @throws IOException if error occurs while walk through file system
+     */
+    public synchronized void registerAll(final Path start, final WatchSubscriber subscriber) throws IOException {
+        if (isCovered(start)) {
+            for (Path dir : new ArrayList<>(PathRanges.subtree(dirs, start).keySet())) {
+                if (dir.startsWith(start) && subscriber.isWatchable(dir)) {
+                    subscribe(dir, subscriber);
+                }
+            }
+            logger.debug("Reused the existing keys for the nested root {}", start);
+            return;
+        }
+
+        final boolean[] pruned = new boolean[1];
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (!subscriber.isWatchable(dir)) {
+                    pruned[0] = true;
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                subscribe(dir, subscriber);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+
+        /*
+         * the keys under the root can be reused by a nested root only if the whole tree has been registered
+         */
+        if (!pruned[0]) {
+            roots.add(start);
+        }
+    }
+
+    /**
+     * Register the given directory, and all its sub-directories, for all the given subscribers
+     * This is used when a new directory is created under a watched directory so that the tree is walked only once
+     * A subtree is pruned if none of the subscribers can watch it
+     *
+     * @param start           starting directory
+     * @param subscriberArray the subscribers of the parent directory
+     * @throws IOException if error occurs while walk through file system
+     */
+    private void registerAll(final Path start, final WatchSubscriber[] subscriberArray) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                boolean watched = false;
+                for (WatchSubscriber subscriber : subscriberArray) {
+                    if (subscriber.isWatchable(dir)) {
+                        subscribe(dir, subscriber);
+                        watched = true;
+                    }
+                }
+                return watched ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
+            }
+        });
+    }
+
+    /**
+     * Register the given directory with the WatchService if it is not registered earlier and add the subscriber to it
+     *
+     * @param dir        the directory which is registering
+     * @param subscriber the subscriber which should be notified with the events of the directory
+     * @throws IOException if error occurs when registering the directory for watcher
+     */
+    private void subscribe(Path dir, WatchSubscriber subscriber) throws IOException {
+        if (!dirs.containsKey(dir)) {
+            WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            keys.put(key, dir);
+            dirs.put(dir, key);
+            metrics.watchRegistered();
+            JfrEvents.directoryRegistered(dir);
+            logger.debug("Registered a watcher for the directory {} | Watch Count : {}", dir, keys.size());
+        }
+
+        /*
+         * the subscribers are kept in an array which is copied on write, so that the events are fanned out without
+         * copying the subscribers of the directory for each key
+         */
+        WatchSubscriber[] subscriberArray = subscribers.get(dir);
+        if (subscriberArray == null) {
+            subscriberArray = new WatchSubscriber[0];
+        }
+        for (WatchSubscriber existing : subscriberArray) {
+            if (existing.equals(subscriber)) {
+                return;
+            }
+        }
+        subscriberArray = Arrays.copyOf(subscriberArray, subscriberArray.length + 1);
+        subscriberArray[subscriberArray.length - 1] = subscriber;
+        subscribers.put(dir, subscriberArray);
+        subscriber.onRegister(dir);
+    }
+
+    /**
+     * Remove the given directory and all its sub-directories from the registry in one pass and cancel their keys
+     * If a key has already been moved to a new path by registering the moved directory again, it is not cancelled
+     * Only the range of the sorted directories which can be under the given directory is visited.
+     *
+     * @param start the directory which is deleted or moved
+     */
+    private void unregisterAll(Path start) {
+        Iterator<Map.Entry<Path, WatchKey>> iterator = PathRanges.subtree(dirs, start).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = iterator.next();
+            Path dir = entry.getKey();
+            if (!dir.startsWith(start)) {
+                continue;
+            }
+            iterator.remove();
+
+            WatchKey key = entry.getValue();
+            if (dir.equals(keys.get(key))) {
+                keys.remove(key);
+                key.cancel();
+                metrics.watchCancelled(dir);
+            }
+
+            WatchSubscriber[] subscriberArray = subscribers.remove(dir);
+            if (subscriberArray != null) {
+                for (WatchSubscriber subscriber : subscriberArray) {
+                    subscriber.onUnregister(dir);
+                }
+            }
+        }
+
+        Iterator<Path> rootIterator = roots.iterator();
+        while (rootIterator.hasNext()) {
+            if (rootIterator.next().startsWith(start)) {
+                rootIterator.remove();
+            }
+        }
+        logger.debug("Unregistered the directory {} and its sub-directories | Watch Count : {}", start, keys.size());
+    }
+
+    /**
+     * Check whether the given directory is under a root which has been registered recursively
+     *
+     * @param dir the directory which should be checked
+     * @return true if the directory is already covered by a registered root
+     */
+    private boolean isCovered(Path dir) {
+        for (Path root : roots) {
+            if (dir.startsWith(root) && dirs.containsKey(dir)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record the raw events taken from the WatchService into the given trace, or stop recording if it is null
+     *
+     * @param traceRecorder the recorder of the trace file
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
+    }
+
+    /**
+     * Returns the number of physical directories watched by this registry
+     *
+     * @return watch count
+     */
+    public synchronized int getWatchCount() {
+        return keys.size();
+    }
+
+    /**
+     * Set the maximum number of the signalled keys which are drained and processed together after a wake-up
+     *
+     * @param maxBatchKeys maximum number of the keys in a batch, 1 for processing a single key per wake-up
+     */
+    public void setMaxBatchKeys(int maxBatchKeys) {
+        if (maxBatchKeys < 1) {
+            throw new IllegalArgumentException("The batch should contain at least one key : " + maxBatchKeys);
+        }
+        this.maxBatchKeys = maxBatchKeys;
+    }
+
+    /**
+     * Returns the sizes of the internal structures of this registry which should not grow without watched directories
+     *
+     * @return map of the structure name and its size
+     */
+    public synchronized Map<String, Integer> getStructureSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("registry.keys", keys.size());
+        sizes.put("registry.dirs", dirs.size());
+        sizes.put("registry.subscribers", subscribers.size());
+        sizes.put("registry.roots", roots.size());
+        return sizes;
+    }
+
+    /**
+     * Process all events for keys queued to the watcher and fan out them to the subscribers of the directory
+     * If a directory is created it is registered for all the subscribers of its parent directory
+     * If a directory is deleted or moved away it is removed with its sub-directories from the registry
+     * The keys which are ready together are drained as a batch after each wake-up
+     */
+    private void processEvents() {
+        WatchBatch batch = new WatchBatch();
+        for (; ; ) {
+            /*
+             * even though this is an infinite loop this will wait for key to be signalled
+             * all the keys which are ready are drained and reset together, so that the kernel can queue the new events
+             * while the batch is being processed
+             */
+            try {
+                batch.drain(watcher, maxBatchKeys);
+            } catch (InterruptedException | ClosedWatchServiceException x) {
+                return;
+            }
+
+            synchronized (this) {
+                JfrEvents.watchBatch(batch.size() == 1 ? keys.get(batch.getKey(0)) : null, batch.size(), batch.getEventCount());
+                for (int i = 0; i < batch.size(); i++) {
+                    if (!processKey(batch.getKey(i), batch.getEvents(i), batch.isValid(i))) {
+                        return;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Process the events of a key which have been taken by the batch
+     *
+     * @param key    the signalled key
+     * @param events the events of the key
+     * @param valid  the result of resetting the key
+     * @return false if there are no directories registered any more
+     */
+    private boolean processKey(WatchKey key, List<WatchEvent<?>> events, boolean valid) {
+        final Path dir = keys.get(key);
+        if (dir == null) {
+            /*
+             * a cancelled key may be signalled with the events queued before it was cancelled
+             * and a key of a sub-directory may be cancelled by the events of its parent in the same batch
+             */
+            if (key.isValid()) {
+                logger.error("WatchKey not recognized !");
+            }
+            return true;
+        }
+        WatchSubscriber[] subscriberArray = subscribers.get(dir);
+
+        for (int i = 0; i < events.size(); i++) {
+            WatchEvent<?> event = events.get(i);
+            WatchEvent.Kind<?> kind = event.kind();
+            metrics.recordEvent(dir, kind);
+            record(dir, kind, kind == OVERFLOW ? null : (Path) event.context());
+
+            if (kind == OVERFLOW) {
+                JfrEvents.overflow(dir);
+                for (WatchSubscriber subscriber : subscriberArray) {
+                    subscriber.onOverflow(dir);
+                }
+                continue;
+            }
+
+            /*
+             * Context for directory entry event is the file name of entry
+             */
+            Path name = (Path) event.context();
+            for (WatchSubscriber subscriber : subscriberArray) {
+                subscriber.onEvent(dir, kind, name);
+            }
+
+            /*
+             * if directory is created, then register it and its sub-directories for the same subscribers
+             * the entry is read only if a subscriber can watch a directory in its path, so the files created
+             * in the directories of the files are classified without a stat call
+             */
+            if (kind == ENTRY_CREATE) {
+                Path child = dir.resolve(name);
+                try {
+                    if (isWatchable(subscriberArray, child) && Files.isDirectory(child, NOFOLLOW_LINKS)) {
+                        registerAll(child, subscriberArray);
+                    }
+                } catch (IOException e) {
+                    logger.warn("Failed to register the directory {} due to :", child, e);
+                }
+            }
+
+            /*
+             * if a watched directory is deleted or moved away, then remove it and its sub-directories
+             * a moved directory is registered again under its new path by the ENTRY_CREATE of its new parent
+             */
+            if (kind == ENTRY_DELETE) {
+                Path child = dir.resolve(name);
+                if (dirs.containsKey(child)) {
+                    unregisterAll(child);
+                }
+            }
+        }
+
+        /*
+         * the key has been reset already by the batch, remove it from maps if directory no longer accessible
+         */
+        if (!valid) {
+            if (keys.remove(key) != null) {
+                metrics.watchCancelled(dir);
+            }
+            unregisterAll(dir);
+
+            /*
+             * this is because of all directories are inaccessible
+             */
+            return !keys.isEmpty();
+        }
+        return true;
+    }
+
+    /**
+     * Check whether any of the subscribers would watch the given path if it is a directory
+     *
+     * @param subscriberArray the subscribers of the parent directory
+     * @param path            the created entry
+     * @return true if the entry should be registered if it is a directory
+     */
+    private static boolean isWatchable(WatchSubscriber[] subscriberArray, Path path) {
+        for (WatchSubscriber subscriber : subscriberArray) {
+            if (subscriber.isWatchable(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Record the event into the trace if it is enabled, the recording is stopped if the trace can't be written
+     *
+     * @param dir  the directory of the key
+     * @param kind kind of the event
+     * @param name context of the event
+     */
+    private void record(Path dir, WatchEvent.Kind<?> kind, Path name) {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.record(dir, kind, name);
+        } catch (IOException e) {
+            traceRecorder = null;
+            logger.warn("Stopped recording the trace due to :", e);
+        }
+    }
+
+    /**
+     * Close the watch service, so that all the keys are cancelled and the thread which runs this registry returns
+     * The watched directories are forgotten and removed from the watch count of the metrics.
+     *
+     * @throws IOException if an error occurs while closing the watch service
+     */
+    @Override
+    public void close() throws IOException {
+        watcher.close();
+        synchronized (this) {
+            for (Path dir : dirs.keySet()) {
+                metrics.watchCancelled(dir);
+            }
+            keys.clear();
+            dirs.clear();
+            subscribers.clear();
+            roots.clear();
+        }
+    }
+
+    /*
+     * Since the class is implemented by Runnable interface this method will be executed by the thread pool
+     */
+    @Override
+    public void run() {
+        processEvents();
+    }
+}
@@ -0,0 +1,55 @@
+package nio;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+
+/**
+ * This interface is implemented by the classes which want to receive the events of the directories registered in a
+ * shared WatchRegistry. A single physical directory is registered once and its events are fanned out to every
+ * subscriber which is interested in that directory
+ *
+ * @author Chanaka Lakmal
+ */
+public interface WatchSubscriber {
+
+    /**
+     * Check whether the given directory should be watched for this subscriber
+     * If this returns false the directory and its whole subtree are not registered for this subscriber
+     *
+     * @param dir the directory which is going to be registered
+     * @return true if the directory can contain or lead to the files which this subscriber is interested in
+     */
+    boolean isWatchable(Path dir);
+
+    /**
+     * Calls when the given directory is registered for this subscriber
+     * This is called for the newly watched directories and also for the directories which have been already watched
+     * by another subscriber
+     *
+     * @param dir the directory which is registered
+     */
+    void onRegister(Path dir);
+
+    /**
+     * Calls when the given directory is deleted or moved away and it is no longer watched for this subscriber
+     *
+     * @param dir the directory which is unregistered
+     */
+    void onUnregister(Path dir);
+
+    /**
+     * Calls for each entry event of a directory which is registered for this subscriber
+     *
+     * @param dir  the directory which generated the event
+     * @param kind kind of the event
+     * @param name context of the event which is the file name of the entry
+     */
+    void onEvent(Path dir, WatchEvent.Kind<?> kind, Path name);
+
+    /**
+     * Calls when an OVERFLOW event occurs for a directory which is registered for this subscriber
+     *
+     * @param dir the directory which generated the overflow
+     */
+    void onOverflow(Path dir);
+}
@@ -0,0 +1,21 @@
+package nio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a directory which has been registered with the watch service
+ *
+ * @author Chanaka Lakmal
+ */
+@Name("nio.transport.DirectoryRegistration")
+@Label("Directory Registration")
+@Category("NIO File Transport")
+@Description("A directory registered with the watch service")
+class DirectoryRegistrationEvent extends jdk.jfr.Event {
+
+    @Label("Directory")
+    String directory;
+}
@@ -0,0 +1,24 @@
+package nio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a file which has been emitted to the consumers
+ *
+ * @author Chanaka Lakmal
+ */
+@Name("nio.transport.Emission")
+@Label("Emission")
+@Category("NIO File Transport")
+@Description("A matched file emitted to the consumers")
+class EmissionEvent extends jdk.jfr.Event {
+
+    @Label("File")
+    String file;
+
+    @Label("Source")
+    String source;
+}
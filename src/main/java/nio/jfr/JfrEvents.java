@@ -0,0 +1,136 @@
+package nio.jfr;
+
+import java.nio.file.Path;
+
+/**
+ * This class commits the Java Flight Recorder events of the transport
+ * - watch key take / drain batches with the event counts
+ * - directory registration
+ * - overflow detection
+ * - manual rescans with the directory, entries visited and the duration
+ * - emission to the consumers
+ * <p>
+ * The events are always on and cost almost nothing when no recording is running, since the paths are converted to
+ * strings only if the event is enabled. If the JVM doesn't have JFR (jdk.jfr module is available from JDK 11), all the
+ * methods do nothing and the event classes are never loaded.
+ * eg. java -XX:StartFlightRecording=filename=transport.jfr ...
+ *
+ * @author Chanaka Lakmal
+ */
+public final class JfrEvents {
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private JfrEvents() {
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event");
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Commit an event for the signalled keys taken from the watch service
+     *
+     * @param dir        the directory of the key, or null if the batch contains many directories
+     * @param keyCount   number of keys drained
+     * @param eventCount number of events polled from the keys
+     */
+    public static void watchBatch(Path dir, int keyCount, int eventCount) {
+        if (AVAILABLE) {
+            WatchBatchEvent event = new WatchBatchEvent();
+            if (event.shouldCommit()) {
+                event.directory = dir == null ? null : dir.toString();
+                event.keyCount = keyCount;
+                event.eventCount = eventCount;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Commit an event for a directory registered with the watch service
+     *
+     * @param dir the registered directory
+     */
+    public static void directoryRegistered(Path dir) {
+        if (AVAILABLE) {
+            DirectoryRegistrationEvent event = new DirectoryRegistrationEvent();
+            if (event.shouldCommit()) {
+                event.directory = dir.toString();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Commit an event for an OVERFLOW event
+     *
+     * @param dir the directory which generated the overflow
+     */
+    public static void overflow(Path dir) {
+        if (AVAILABLE) {
+            OverflowEvent event = new OverflowEvent();
+            if (event.shouldCommit()) {
+                event.directory = dir.toString();
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Start timing a manual rescan
+     *
+     * @return the event which should be given to endRescan, or null if JFR is not available
+     */
+    public static Object beginRescan() {
+        if (AVAILABLE) {
+            RescanEvent event = new RescanEvent();
+            event.begin();
+            return event;
+        }
+        return null;
+    }
+
+    /**
+     * Commit the event of a manual rescan
+     *
+     * @param rescan         the value returned by beginRescan
+     * @param dir            the directory which has been scanned
+     * @param reason         whether this is a registration or an overflow
+     * @param entriesVisited number of files and directories visited during the scan
+     */
+    public static void endRescan(Object rescan, Path dir, String reason, int entriesVisited) {
+        if (rescan != null) {
+            RescanEvent event = (RescanEvent) rescan;
+            event.end();
+            if (event.shouldCommit()) {
+                event.directory = dir.toString();
+                event.reason = reason;
+                event.entriesVisited = entriesVisited;
+                event.commit();
+            }
+        }
+    }
+
+    /**
+     * Commit an event for a file emitted to the consumers
+     *
+     * @param file   the emitted file
+     * @param source where the file has been detected, eg. event, register, overflow
+     */
+    public static void emitted(Path file, String source) {
+        if (AVAILABLE) {
+            EmissionEvent event = new EmissionEvent();
+            if (event.shouldCommit()) {
+                event.file = file.toString();
+                event.source = source;
+                event.commit();
+            }
+        }
+    }
+}
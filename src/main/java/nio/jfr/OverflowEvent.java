@@ -0,0 +1,21 @@
+package nio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for an OVERFLOW event detected in a watched directory
+ *
+ * @author Chanaka Lakmal
+ */
+@Name("nio.transport.Overflow")
+@Label("Overflow")
+@Category("NIO File Transport")
+@Description("An OVERFLOW event of the watch service")
+class OverflowEvent extends jdk.jfr.Event {
+
+    @Label("Directory")
+    String directory;
+}
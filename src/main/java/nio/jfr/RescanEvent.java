@@ -0,0 +1,27 @@
+package nio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a manual rescan of a directory due to the registration or an overflow
+ *
+ * @author Chanaka Lakmal
+ */
+@Name("nio.transport.Rescan")
+@Label("Manual Rescan")
+@Category("NIO File Transport")
+@Description("A manual rescan of a directory")
+class RescanEvent extends jdk.jfr.Event {
+
+    @Label("Directory")
+    String directory;
+
+    @Label("Reason")
+    String reason;
+
+    @Label("Entries Visited")
+    int entriesVisited;
+}
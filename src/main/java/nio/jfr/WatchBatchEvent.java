@@ -0,0 +1,27 @@
+package nio.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for a signalled WatchKey which has been taken from the watch service and drained
+ *
+ * @author Chanaka Lakmal
+ */
+@Name("nio.transport.WatchBatch")
+@Label("Watch Batch")
+@Category("NIO File Transport")
+@Description("Events drained from the signalled watch keys")
+class WatchBatchEvent extends jdk.jfr.Event {
+
+    @Label("Directory")
+    String directory;
+
+    @Label("Keys")
+    int keyCount;
+
+    @Label("Events")
+    int eventCount;
+}
@@ -0,0 +1,106 @@
+package nio.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * This class is a latency histogram with fixed power of two buckets in microseconds
+ * The bucket i counts the values which are less than or equal to 2^i microseconds and the last bucket counts the rest
+ * <p>
+ * Recording a value only increments the atomic counters, so it doesn't allocate on the hot path
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class Histogram {
+
+    static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+
+    public Histogram() {
+        this.buckets = new AtomicLongArray(BUCKETS + 1);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+    }
+
+    /**
+     * Record a duration given in nanoseconds
+     *
+     * @param nanos duration in nanoseconds
+     */
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    /**
+     * Record a duration given in microseconds
+     *
+     * @param micros duration in microseconds
+     */
+    public void recordMicros(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        int bucket = micros <= 1 ? 0 : 64 - Long.numberOfLeadingZeros(micros - 1);
+        buckets.incrementAndGet(Math.min(bucket, BUCKETS));
+        count.incrementAndGet();
+        sum.addAndGet(micros);
+    }
+
+    /**
+     * Returns the upper bound of the given bucket in microseconds
+     *
+     * @param bucket index of the bucket
+     * @return upper bound of the bucket, or Long.MAX_VALUE for the last bucket
+     */
+    public static long upperBoundMicros(int bucket) {
+        return bucket >= BUCKETS ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getSumMicros() {
+        return sum.get();
+    }
+
+    /**
+     * Returns the mean of the recorded values in milliseconds
+     *
+     * @return mean value, or 0 if nothing has been recorded
+     */
+    public double getMeanMillis() {
+        long n = count.get();
+        return n == 0 ? 0 : sum.get() / 1000.0 / n;
+    }
+
+    /**
+     * Returns the upper bound of the bucket which contains the given percentile in milliseconds
+     *
+     * @param percentile percentile between 0 and 100
+     * @return approximate percentile value
+     */
+    public double getPercentileMillis(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i <= BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return upperBoundMicros(Math.min(i, BUCKETS - 1)) / 1000.0;
+            }
+        }
+        return upperBoundMicros(BUCKETS - 1) / 1000.0;
+    }
+}
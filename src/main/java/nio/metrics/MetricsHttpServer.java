@@ -0,0 +1,68 @@
+package nio.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * This class exports the transport metrics in the Prometheus text format through a local HTTP endpoint
+ * eg. http://localhost:9404/metrics
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class MetricsHttpServer {
+
+    private static final Logger logger = LogManager.getLogger(MetricsHttpServer.class);
+    public static final String CONTEXT = "/metrics";
+
+    private final HttpServer server;
+
+    /**
+     * Create the HTTP server for the given metrics
+     * Use the port 0 in order to bind to a free port
+     *
+     * @param address address which the server should be bound to, eg. localhost:9404
+     * @param metrics the metrics which should be exported
+     * @throws IOException if the server can't be bound to the address
+     */
+    public MetricsHttpServer(InetSocketAddress address, final TransportMetrics metrics) throws IOException {
+        this.server = HttpServer.create(address, 0);
+        this.server.createContext(CONTEXT, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                byte[] body = metrics.getPrometheusText().getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            }
+        });
+    }
+
+    public void start() {
+        server.start();
+        logger.debug("Started the metrics endpoint at {}{}", server.getAddress(), CONTEXT);
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * Returns the address which the server is bound to, which is useful when the port 0 is used
+     *
+     * @return bound address
+     */
+    public InetSocketAddress getAddress() {
+        return server.getAddress();
+    }
+}
@@ -0,0 +1,518 @@
+package nio.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * This class keeps the metrics of the transport which are exported through JMX and in the Prometheus text format
+ * - events per kind and overflows per directory
+ * - watch count
+ * - rescans queued / running and their duration
+ * - matcher time per pattern
+ * - end to end latency from the last modified time of the file to the emission
+ * - files delivered per method, and the time and bytes of the stages which only process a file on its way, such as
+ * the compression, so that a file is counted once in the delivered files however many stages it passes
+ * <p>
+ * All the recording methods only update atomic counters. The per directory and per pattern entries are created once
+ * when they are seen for the first time, so recording doesn't allocate on the hot path. They are removed when the
+ * directory is no longer watched or the pattern is released by all its users, and at most MAX_SERIES of each are kept,
+ * the rest are recorded into an "other" series, so rotating directories and patterns don't grow the maps.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class TransportMetrics implements TransportMetricsMBean {
+
+    private static final Logger logger = LogManager.getLogger(TransportMetrics.class);
+    private static final TransportMetrics DEFAULT = new TransportMetrics();
+    public static final String OBJECT_NAME = "nio.transport:type=TransportMetrics";
+    public static final int MAX_SERIES = 1024;
+    public static final String OTHER = "other";
+
+    private final AtomicLong createEvents = new AtomicLong();
+    private final AtomicLong modifyEvents = new AtomicLong();
+    private final AtomicLong deleteEvents = new AtomicLong();
+    private final AtomicLong overflowEvents = new AtomicLong();
+    private final ConcurrentMap<Path, AtomicLong> overflowsPerDirectory = new ConcurrentHashMap<>();
+    private final AtomicLong otherOverflows = new AtomicLong();
+    private final AtomicLong watchCount = new AtomicLong();
+    private final AtomicLong rescansQueued = new AtomicLong();
+    private final AtomicLong rescansRunning = new AtomicLong();
+    private final Histogram rescanDuration = new Histogram();
+    private final ConcurrentMap<String, Histogram> matcherTimes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> matcherTimeUsers = new HashMap<>();
+    private final Histogram otherMatcherTime = new Histogram();
+    private final AtomicLong emittedFiles = new AtomicLong();
+    private final Histogram endToEndLatency = new Histogram();
+    private volatile boolean endToEndLatencyEnabled;
+    private final ConcurrentMap<String, AtomicLong> deliveredFiles = new ConcurrentHashMap<>();
+    private final AtomicLong deliveredBytes = new AtomicLong();
+    private final AtomicLong deliveryFailures = new AtomicLong();
+    private final Histogram deliveryDuration = new Histogram();
+    private final ConcurrentMap<String, Histogram> stageDurations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, AtomicLong> stageBytes = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the metrics shared by all the notifiers and publishers of this JVM
+     *
+     * @return default metrics
+     */
+    public static TransportMetrics getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Register this metrics object in the platform MBean server
+     *
+     * @return the object name which this is registered with
+     * @throws JMException if the MBean can't be registered
+     */
+    public ObjectName registerMBean() throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName(OBJECT_NAME);
+        if (!server.isRegistered(name)) {
+            server.registerMBean(this, name);
+            logger.debug("Registered the metrics MBean {}", name);
+        }
+        return name;
+    }
+
+    /**
+     * Record an event taken from a WatchKey
+     *
+     * @param dir  the directory which generated the event
+     * @param kind kind of the event
+     */
+    public void recordEvent(Path dir, WatchEvent.Kind<?> kind) {
+        if (kind == ENTRY_CREATE) {
+            createEvents.incrementAndGet();
+        } else if (kind == ENTRY_MODIFY) {
+            modifyEvents.incrementAndGet();
+        } else if (kind == ENTRY_DELETE) {
+            deleteEvents.incrementAndGet();
+        } else if (kind == OVERFLOW) {
+            overflowEvents.incrementAndGet();
+            AtomicLong counter = overflowsPerDirectory.get(dir);
+            if (counter == null && overflowsPerDirectory.size() >= MAX_SERIES) {
+                counter = otherOverflows;
+            } else if (counter == null) {
+                AtomicLong newCounter = new AtomicLong();
+                counter = overflowsPerDirectory.putIfAbsent(dir, newCounter);
+                if (counter == null) {
+                    counter = newCounter;
+                }
+            }
+            counter.incrementAndGet();
+        }
+    }
+
+    public void watchRegistered() {
+        watchCount.incrementAndGet();
+    }
+
+    /**
+     * Record the cancellation of the watch of a directory, the overflows of the directory are removed
+     *
+     * @param dir the directory which is no longer watched
+     */
+    public void watchCancelled(Path dir) {
+        watchCount.decrementAndGet();
+        overflowsPerDirectory.remove(dir);
+    }
+
+    public void rescanQueued() {
+        rescansQueued.incrementAndGet();
+    }
+
+    /**
+     * Record the start of a rescan which has been queued
+     *
+     * @return start time in nanoseconds which should be given to rescanFinished
+     */
+    public long rescanStarted() {
+        rescansQueued.decrementAndGet();
+        rescansRunning.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Record the end of a rescan
+     *
+     * @param startNanos the value returned by rescanStarted
+     */
+    public void rescanFinished(long startNanos) {
+        rescansRunning.decrementAndGet();
+        rescanDuration.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Returns the histogram of the matcher time of the given pattern
+     * This should be called once per user of the pattern and the histogram should be kept by the caller, which should
+     * call releaseMatcherTime when the pattern is no longer used
+     *
+     * @param pattern the pattern in the form of syntax and path pattern
+     * @return matcher time histogram
+     */
+    public Histogram getMatcherTime(String pattern) {
+        synchronized (matcherTimeUsers) {
+            Histogram histogram = matcherTimes.get(pattern);
+            if (histogram == null) {
+                if (matcherTimes.size() >= MAX_SERIES) {
+                    return otherMatcherTime;
+                }
+                histogram = new Histogram();
+                matcherTimes.put(pattern, histogram);
+            }
+            Integer users = matcherTimeUsers.get(pattern);
+            matcherTimeUsers.put(pattern, users == null ? 1 : users + 1);
+            return histogram;
+        }
+    }
+
+    /**
+     * Release the histogram of the matcher time of the given pattern, which is removed once all its users release it
+     *
+     * @param pattern the pattern in the form of syntax and path pattern
+     */
+    public void releaseMatcherTime(String pattern) {
+        synchronized (matcherTimeUsers) {
+            Integer users = matcherTimeUsers.get(pattern);
+            if (users == null) {
+                return;
+            }
+            if (users > 1) {
+                matcherTimeUsers.put(pattern, users - 1);
+            } else {
+                matcherTimeUsers.remove(pattern);
+                matcherTimes.remove(pattern);
+            }
+        }
+    }
+
+    /**
+     * Record the emission of a file to the consumers
+     *
+     * @param lastModifiedMillis last modified time of the file, or a negative value if it is not known
+     */
+    public void fileEmitted(long lastModifiedMillis) {
+        emittedFiles.incrementAndGet();
+        if (lastModifiedMillis >= 0) {
+            endToEndLatency.recordMicros((System.currentTimeMillis() - lastModifiedMillis) * 1000);
+        }
+    }
+
+    /**
+     * Record a file delivered by a delivery stage
+     *
+     * @param method     how the file is delivered, eg. rename or transfer
+     * @param bytes      size of the delivered file
+     * @param startNanos System.nanoTime() at the start of the delivery
+     */
+    public void fileDelivered(String method, long bytes, long startNanos) {
+        AtomicLong counter = deliveredFiles.get(method);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = deliveredFiles.putIfAbsent(method, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.incrementAndGet();
+        deliveredBytes.addAndGet(bytes);
+        deliveryDuration.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Record a file processed by a stage which hands it over to the next consumer instead of delivering it
+     *
+     * @param stage      the stage, eg. gzip or read
+     * @param bytes      number of the bytes processed
+     * @param startNanos System.nanoTime() at the start of the stage
+     */
+    public void stageCompleted(String stage, long bytes, long startNanos) {
+        Histogram histogram = stageDurations.get(stage);
+        if (histogram == null) {
+            Histogram newHistogram = new Histogram();
+            histogram = stageDurations.putIfAbsent(stage, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        AtomicLong counter = stageBytes.get(stage);
+        if (counter == null) {
+            AtomicLong newCounter = new AtomicLong();
+            counter = stageBytes.putIfAbsent(stage, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        counter.addAndGet(bytes);
+        histogram.recordNanos(System.nanoTime() - startNanos);
+    }
+
+    public void deliveryFailed() {
+        deliveryFailures.incrementAndGet();
+    }
+
+    @Override
+    public long getCreateEvents() {
+        return createEvents.get();
+    }
+
+    @Override
+    public long getModifyEvents() {
+        return modifyEvents.get();
+    }
+
+    @Override
+    public long getDeleteEvents() {
+        return deleteEvents.get();
+    }
+
+    @Override
+    public long getOverflowEvents() {
+        return overflowEvents.get();
+    }
+
+    @Override
+    public Map<String, Long> getOverflowsPerDirectory() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Map.Entry<Path, AtomicLong> entry : overflowsPerDirectory.entrySet()) {
+            map.put(entry.getKey().toString(), entry.getValue().get());
+        }
+        if (otherOverflows.get() > 0) {
+            map.put(OTHER, otherOverflows.get());
+        }
+        return map;
+    }
+
+    @Override
+    public long getWatchCount() {
+        return watchCount.get();
+    }
+
+    @Override
+    public long getRescansQueued() {
+        return rescansQueued.get();
+    }
+
+    @Override
+    public long getRescansRunning() {
+        return rescansRunning.get();
+    }
+
+    @Override
+    public long getRescansCompleted() {
+        return rescanDuration.getCount();
+    }
+
+    @Override
+    public double getRescanMeanMillis() {
+        return rescanDuration.getMeanMillis();
+    }
+
+    @Override
+    public Map<String, Double> getMatcherMeanMicrosPerPattern() {
+        Map<String, Double> map = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : matcherTimes.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().getMeanMillis() * 1000);
+        }
+        if (otherMatcherTime.getCount() > 0) {
+            map.put(OTHER, otherMatcherTime.getMeanMillis() * 1000);
+        }
+        return map;
+    }
+
+    @Override
+    public long getEmittedFiles() {
+        return emittedFiles.get();
+    }
+
+    @Override
+    public double getEndToEndLatencyMeanMillis() {
+        return endToEndLatency.getMeanMillis();
+    }
+
+    @Override
+    public double getEndToEndLatencyP99Millis() {
+        return endToEndLatency.getPercentileMillis(99);
+    }
+
+    @Override
+    public Map<String, Long> getDeliveredFilesPerMethod() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Map.Entry<String, AtomicLong> entry : deliveredFiles.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().get());
+        }
+        return map;
+    }
+
+    @Override
+    public long getDeliveredBytes() {
+        return deliveredBytes.get();
+    }
+
+    @Override
+    public long getDeliveryFailures() {
+        return deliveryFailures.get();
+    }
+
+    @Override
+    public double getDeliveryMeanMillis() {
+        return deliveryDuration.getMeanMillis();
+    }
+
+    @Override
+    public Map<String, Long> getStageFiles() {
+        Map<String, Long> map = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : stageDurations.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return map;
+    }
+
+    @Override
+    public Map<String, Double> getStageMeanMillis() {
+        Map<String, Double> map = new TreeMap<>();
+        for (Map.Entry<String, Histogram> entry : stageDurations.entrySet()) {
+            map.put(entry.getKey(), entry.getValue().getMeanMillis());
+        }
+        return map;
+    }
+
+    /**
+     * The end to end latency needs the last modified time of the emitted file, which costs an extra stat call when the
+     * attributes are not already known. So it is disabled by default.
+     *
+     * @return true if the end to end latency is recorded
+     */
+    @Override
+    public boolean isEndToEndLatencyEnabled() {
+        return endToEndLatencyEnabled;
+    }
+
+    @Override
+    public void setEndToEndLatencyEnabled(boolean enabled) {
+        this.endToEndLatencyEnabled = enabled;
+    }
+
+    /**
+     * Returns all the metrics in the Prometheus text exposition format
+     *
+     * @return metrics text
+     */
+    @Override
+    public String getPrometheusText() {
+        StringBuilder builder = new StringBuilder();
+        counter(builder, "nio_transport_events_total", "Watch events taken from the watch service by kind");
+        sample(builder, "nio_transport_events_total", "kind", "ENTRY_CREATE", createEvents.get());
+        sample(builder, "nio_transport_events_total", "kind", "ENTRY_MODIFY", modifyEvents.get());
+        sample(builder, "nio_transport_events_total", "kind", "ENTRY_DELETE", deleteEvents.get());
+        sample(builder, "nio_transport_events_total", "kind", "OVERFLOW", overflowEvents.get());
+
+        counter(builder, "nio_transport_overflows_total", "OVERFLOW events by directory");
+        for (Map.Entry<String, Long> entry : getOverflowsPerDirectory().entrySet()) {
+            sample(builder, "nio_transport_overflows_total", "directory", entry.getKey(), entry.getValue());
+        }
+
+        gauge(builder, "nio_transport_watches", "Directories registered with the watch service", watchCount.get());
+        gauge(builder, "nio_transport_rescans_queued", "Manual rescans waiting for a thread", rescansQueued.get());
+        gauge(builder, "nio_transport_rescans_running", "Manual rescans in progress", rescansRunning.get());
+        histogram(builder, "nio_transport_rescan_duration_seconds", "Duration of the manual rescans", null, null, rescanDuration, true);
+
+        boolean header = true;
+        Map<String, Histogram> matcherHistograms = new TreeMap<>(matcherTimes);
+        if (otherMatcherTime.getCount() > 0) {
+            matcherHistograms.put(OTHER, otherMatcherTime);
+        }
+        for (Map.Entry<String, Histogram> entry : matcherHistograms.entrySet()) {
+            histogram(builder, "nio_transport_matcher_duration_seconds", "Time spent on matching a path with a pattern",
+                    "pattern", entry.getKey(), entry.getValue(), header);
+            header = false;
+        }
+
+        counter(builder, "nio_transport_emitted_files_total", "Files emitted to the consumers");
+        sample(builder, "nio_transport_emitted_files_total", null, null, emittedFiles.get());
+        histogram(builder, "nio_transport_end_to_end_latency_seconds", "Latency from the last modified time of a file to its emission",
+                null, null, endToEndLatency, true);
+
+        counter(builder, "nio_transport_delivered_files_total", "Files delivered by the delivery stages by method");
+        for (Map.Entry<String, Long> entry : getDeliveredFilesPerMethod().entrySet()) {
+            sample(builder, "nio_transport_delivered_files_total", "method", entry.getKey(), entry.getValue());
+        }
+        counter(builder, "nio_transport_delivered_bytes_total", "Bytes of the delivered files");
+        sample(builder, "nio_transport_delivered_bytes_total", null, null, deliveredBytes.get());
+        counter(builder, "nio_transport_delivery_failures_total", "Files which couldn't be delivered");
+        sample(builder, "nio_transport_delivery_failures_total", null, null, deliveryFailures.get());
+        histogram(builder, "nio_transport_delivery_duration_seconds", "Duration of the deliveries", null, null, deliveryDuration, true);
+
+        counter(builder, "nio_transport_stage_bytes_total", "Bytes processed by the stages which hand the files over");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<>(stageBytes).entrySet()) {
+            sample(builder, "nio_transport_stage_bytes_total", "stage", entry.getKey(), entry.getValue().get());
+        }
+        header = true;
+        for (Map.Entry<String, Histogram> entry : new TreeMap<>(stageDurations).entrySet()) {
+            histogram(builder, "nio_transport_stage_duration_seconds", "Time spent on a file by the stages which hand the files over",
+                    "stage", entry.getKey(), entry.getValue(), header);
+            header = false;
+        }
+        return builder.toString();
+    }
+
+    private static void counter(StringBuilder builder, String name, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(" counter\n");
+    }
+
+    private static void gauge(StringBuilder builder, String name, String help, long value) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(" gauge\n");
+        sample(builder, name, null, null, value);
+    }
+
+    private static void histogram(StringBuilder builder, String name, String help, String label, String labelValue,
+                                  Histogram histogram, boolean header) {
+        if (header) {
+            builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            builder.append("# TYPE ").append(name).append(" histogram\n");
+        }
+        String labels = label == null ? "" : label + "=\"" + escape(labelValue) + "\",";
+        long cumulative = 0;
+        for (int i = 0; i <= Histogram.BUCKETS; i++) {
+            cumulative += histogram.getBucketCount(i);
+            String le = i == Histogram.BUCKETS ? "+Inf" : String.valueOf(Histogram.upperBoundMicros(i) / 1e6);
+            builder.append(name).append("_bucket{").append(labels).append("le=\"").append(le).append("\"} ")
+                    .append(cumulative).append('\n');
+        }
+        String suffix = label == null ? "" : "{" + labels.substring(0, labels.length() - 1) + "}";
+        builder.append(name).append("_sum").append(suffix).append(' ').append(histogram.getSumMicros() / 1e6).append('\n');
+        builder.append(name).append("_count").append(suffix).append(' ').append(histogram.getCount()).append('\n');
+    }
+
+    private static void sample(StringBuilder builder, String name, String label, String labelValue, long value) {
+        builder.append(name);
+        if (label != null) {
+            builder.append('{').append(label).append("=\"").append(escape(labelValue)).append("\"}");
+        }
+        builder.append(' ').append(value).append('\n');
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
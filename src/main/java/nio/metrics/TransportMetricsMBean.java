@@ -0,0 +1,57 @@
+package nio.metrics;
+
+import java.util.Map;
+
+/**
+ * JMX interface of the transport metrics
+ *
+ * @author Chanaka Lakmal
+ */
+public interface TransportMetricsMBean {
+
+    long getCreateEvents();
+
+    long getModifyEvents();
+
+    long getDeleteEvents();
+
+    long getOverflowEvents();
+
+    Map<String, Long> getOverflowsPerDirectory();
+
+    long getWatchCount();
+
+    long getRescansQueued();
+
+    long getRescansRunning();
+
+    long getRescansCompleted();
+
+    double getRescanMeanMillis();
+
+    Map<String, Double> getMatcherMeanMicrosPerPattern();
+
+    long getEmittedFiles();
+
+    double getEndToEndLatencyMeanMillis();
+
+    double getEndToEndLatencyP99Millis();
+
+    Map<String, Long> getDeliveredFilesPerMethod();
+
+    long getDeliveredBytes();
+
+    long getDeliveryFailures();
+
+    double getDeliveryMeanMillis();
+
+    Map<String, Long> getStageFiles();
+
+    Map<String, Double> getStageMeanMillis();
+
+    boolean isEndToEndLatencyEnabled();
+
+    void setEndToEndLatencyEnabled(boolean enabled);
+
+    String getPrometheusText();
+}
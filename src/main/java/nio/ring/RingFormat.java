@@ -0,0 +1,60 @@
+package nio.ring;
+
+/**
+ * This class keeps the layout of the shared ring buffer files
+ * <p>
+ * header : magic (int) | version (int) | capacity (int) at 0, write position (long) at 64, write limit (long) at 72,
+ * sequence (long) at 80, and the records start at 128
+ * record : length (int) | type (int) | sequence (long) | time in epoch milliseconds (long) | path length (int) | path
+ * (UTF-8) | pattern length (int) | pattern (UTF-8), padded to a multiple of 8 bytes
+ * padding : length (int) | PADDING (int), which fills the end of the buffer if the next record doesn't fit in it
+ * <p>
+ * The positions are byte counts since the ring was created, so the offset of a position is position % capacity and a
+ * reader at a position is overrun once the write limit is more than the capacity ahead of it. The write limit is the
+ * end of the record being written, which is published before the record, and the write position is the end of the
+ * last complete record, which is published after it.
+ *
+ * @author Chanaka Lakmal
+ */
+final class RingFormat {
+
+    static final int MAGIC = 0x4E494F52;    // NIOR
+    static final int VERSION = 1;
+
+    static final int MAGIC_OFFSET = 0;
+    static final int VERSION_OFFSET = 4;
+    static final int CAPACITY_OFFSET = 8;
+    static final int WRITE_POSITION_OFFSET = 64;
+    static final int WRITE_LIMIT_OFFSET = 72;
+    static final int SEQUENCE_OFFSET = 80;
+    static final int HEADER_SIZE = 128;
+
+    static final int RECORD_HEADER_SIZE = 24;
+    static final int PADDING = 0;
+    static final int FILE = 1;
+
+    /**
+     * The field which is accessed by fence
+     */
+    private static volatile int fenceField;
+
+    private RingFormat() {
+    }
+
+    static int align(int length) {
+        return (length + 7) & ~7;
+    }
+
+    /**
+     * Keep the order of the memory accesses before and after this, including the plain accesses of the mapped buffer
+     * A volatile write is followed by a volatile read, so the earlier accesses can't be moved after the write and the
+     * later ones can't be moved before the read. This is used as a full fence since the language level of the project
+     * has no explicit fences.
+     *
+     * @return the value which is read, which is not used
+     */
+    static int fence() {
+        fenceField = 1;
+        return fenceField;
+    }
+}
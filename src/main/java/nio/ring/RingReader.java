@@ -0,0 +1,237 @@
+package nio.ring;
+
+import nio.util.MappedBuffers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static nio.ring.RingFormat.CAPACITY_OFFSET;
+import static nio.ring.RingFormat.FILE;
+import static nio.ring.RingFormat.HEADER_SIZE;
+import static nio.ring.RingFormat.MAGIC;
+import static nio.ring.RingFormat.MAGIC_OFFSET;
+import static nio.ring.RingFormat.PADDING;
+import static nio.ring.RingFormat.RECORD_HEADER_SIZE;
+import static nio.ring.RingFormat.SEQUENCE_OFFSET;
+import static nio.ring.RingFormat.VERSION;
+import static nio.ring.RingFormat.VERSION_OFFSET;
+import static nio.ring.RingFormat.WRITE_LIMIT_OFFSET;
+import static nio.ring.RingFormat.WRITE_POSITION_OFFSET;
+
+/**
+ * This class reads the records of a ring file which is written by a RingWriter of another process, with its own
+ * cursor, so that any number of readers consume the same stream independently
+ * <p>
+ * The reader doesn't write into the ring file, and it starts from the latest record when it is opened. The fields of
+ * a record are copied into the reader before they are returned, and the record is dropped if the writer has overrun
+ * it meanwhile. The records which are lost by an overrun are counted, and the reader continues from the latest one.
+ * A reader is used by a single thread.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class RingReader implements Closeable {
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long cursor;
+    private long lastSequence;
+    private long lostCount;
+
+    private long sequence;
+    private long timeMillis;
+    private byte[] path;
+    private int pathLength;
+    private byte[] pattern;
+    private int patternLength;
+
+    /**
+     * Open the ring file for reading from the latest record
+     *
+     * @param ringFile the ring file which is created by a RingWriter
+     * @throws IOException if the file can't be mapped or it is not a ring file
+     */
+    public RingReader(Path ringFile) throws IOException {
+        this.channel = FileChannel.open(ringFile, READ);
+        try {
+            if (channel.size() < HEADER_SIZE) {
+                throw new IOException("The file " + ringFile + " is not a ring file");
+            }
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            int magic = header.getInt(MAGIC_OFFSET);
+            RingFormat.fence();
+            if (magic != MAGIC || header.getInt(VERSION_OFFSET) != VERSION) {
+                throw new IOException("The file " + ringFile + " is not a ring file of version " + VERSION);
+            }
+            this.capacity = header.getInt(CAPACITY_OFFSET);
+            MappedBuffers.unmap(header);
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE + capacity);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        this.path = new byte[256];
+        this.pattern = new byte[64];
+        seekToLatest();
+    }
+
+    /**
+     * Read the next record into the reader
+     *
+     * @return true if a record has been read, false if there is no new record
+     */
+    public boolean next() {
+        while (true) {
+            long writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+            RingFormat.fence();
+            if (cursor == writePosition) {
+                return false;
+            }
+            if (writePosition - cursor > capacity) {
+                overrun();
+                continue;
+            }
+
+            int offset = HEADER_SIZE + (int) (cursor & (capacity - 1));
+            int length = buffer.getInt(offset);
+            int type = buffer.getInt(offset + 4);
+            if (length < 8 || (length & 7) != 0 || offset - HEADER_SIZE + length > capacity
+                    || (type != PADDING && type != FILE)) {
+                overrun();
+                continue;
+            }
+            if (type == FILE) {
+                sequence = buffer.getLong(offset + 8);
+                timeMillis = buffer.getLong(offset + 16);
+                pathLength = buffer.getInt(offset + 24);
+                patternLength = pathLength >= 0 && pathLength <= length - RECORD_HEADER_SIZE - 8 ? buffer.getInt(offset + 28 + pathLength) : -1;
+                if (patternLength < 0 || RECORD_HEADER_SIZE + 8 + pathLength + patternLength > length) {
+                    overrun();
+                    continue;
+                }
+                path = readBytes(offset + 28, pathLength, path);
+                pattern = readBytes(offset + 32 + pathLength, patternLength, pattern);
+            }
+
+            /*
+             * the record is valid only if the writer hasn't claimed its region while it was being read
+             */
+            RingFormat.fence();
+            if (buffer.getLong(WRITE_LIMIT_OFFSET) - cursor > capacity) {
+                overrun();
+                continue;
+            }
+            cursor += length;
+            if (type == FILE) {
+                lostCount += Math.max(0, sequence - lastSequence - 1);
+                lastSequence = sequence;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Copy the bytes at the given index, the position of the buffer is used only by the thread of the reader
+     */
+    private byte[] readBytes(int position, int length, byte[] target) {
+        byte[] bytes = target.length < length ? new byte[Math.max(length, 2 * target.length)] : target;
+        buffer.position(position);
+        buffer.get(bytes, 0, length);
+        return bytes;
+    }
+
+    /**
+     * Skip the records which have been overwritten and continue from the latest one
+     */
+    private void overrun() {
+        long lost = buffer.getLong(SEQUENCE_OFFSET) - lastSequence;
+        seekToLatest();
+        lostCount += Math.max(0, lost);
+    }
+
+    /**
+     * Move the cursor to the end of the last published record
+     */
+    public void seekToLatest() {
+        long sequenceBefore;
+        long writePosition;
+        do {
+            sequenceBefore = buffer.getLong(SEQUENCE_OFFSET);
+            RingFormat.fence();
+            writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+            RingFormat.fence();
+        } while (buffer.getLong(SEQUENCE_OFFSET) != sequenceBefore);
+        cursor = writePosition;
+        lastSequence = sequenceBefore;
+    }
+
+    /**
+     * Returns the sequence of the current record, which is increased by one for each record written
+     *
+     * @return sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Returns the time of the current record
+     *
+     * @return time when the record was published, in epoch milliseconds
+     */
+    public long getTimeMillis() {
+        return timeMillis;
+    }
+
+    /**
+     * Returns the path of the current record, which is decoded on each call
+     *
+     * @return path of the detected file
+     */
+    public String getPath() {
+        return new String(path, 0, pathLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the path of the current record without decoding it
+     *
+     * @return a copy of the UTF-8 bytes of the path
+     */
+    public byte[] getPathBytes() {
+        return Arrays.copyOf(path, pathLength);
+    }
+
+    /**
+     * Returns the pattern of the current record
+     *
+     * @return the pattern in the form of syntax and path pattern
+     */
+    public String getPattern() {
+        return new String(pattern, 0, patternLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the number of the records which have been overwritten before this reader could read them
+     *
+     * @return lost record count
+     */
+    public long getLostCount() {
+        return lostCount;
+    }
+
+    /**
+     * Close the ring file, the reader must not be used after this since its mapping is released
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        MappedBuffers.unmap(buffer);
+    }
+}
@@ -0,0 +1,177 @@
+package nio.ring;
+
+import nio.util.MappedBuffers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static nio.ring.RingFormat.CAPACITY_OFFSET;
+import static nio.ring.RingFormat.FILE;
+import static nio.ring.RingFormat.HEADER_SIZE;
+import static nio.ring.RingFormat.MAGIC;
+import static nio.ring.RingFormat.MAGIC_OFFSET;
+import static nio.ring.RingFormat.PADDING;
+import static nio.ring.RingFormat.RECORD_HEADER_SIZE;
+import static nio.ring.RingFormat.SEQUENCE_OFFSET;
+import static nio.ring.RingFormat.VERSION;
+import static nio.ring.RingFormat.VERSION_OFFSET;
+import static nio.ring.RingFormat.WRITE_LIMIT_OFFSET;
+import static nio.ring.RingFormat.WRITE_POSITION_OFFSET;
+
+/**
+ * This class publishes the detected files into a memory mapped ring buffer file, which is read by the RingReaders of
+ * any number of processes on the same host, so that the directories are watched once per host
+ * <p>
+ * There is a single writer per ring file, which is ensured with a lock of the file, and the writer never waits for
+ * the readers. A reader which is slower than the writer by more than the capacity loses the overwritten records and
+ * continues from the latest one. A writer which is restarted with the same capacity continues the positions and the
+ * sequence of the file, so that the readers don't need to be restarted.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class RingWriter implements Closeable {
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final FileLock lock;
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    private long writePosition;
+    private long sequence;
+    private boolean closed;
+
+    /**
+     * Open the ring file for writing, it is created if it doesn't exist
+     *
+     * @param ringFile the ring file, which should be on a local file system, eg. /dev/shm for a memory speed ring
+     * @param capacity size of the records area in bytes, which should be a power of two
+     * @throws IOException if the file can't be mapped, or if another writer has opened it
+     */
+    public RingWriter(Path ringFile, int capacity) throws IOException {
+        if (capacity < 1024 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity should be a power of two of at least 1024 : " + capacity);
+        }
+        this.capacity = capacity;
+        this.channel = FileChannel.open(ringFile, CREATE, READ, WRITE);
+        try {
+            FileLock fileLock;
+            try {
+                fileLock = channel.tryLock(0, HEADER_SIZE, false);
+            } catch (OverlappingFileLockException e) {
+                fileLock = null;
+            }
+            if (fileLock == null) {
+                throw new IOException("The ring file " + ringFile + " is opened by another writer");
+            }
+            this.lock = fileLock;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity);
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+
+        if (buffer.getInt(MAGIC_OFFSET) == MAGIC && buffer.getInt(VERSION_OFFSET) == VERSION
+                && buffer.getInt(CAPACITY_OFFSET) == capacity) {
+            writePosition = buffer.getLong(WRITE_POSITION_OFFSET);
+            sequence = buffer.getLong(SEQUENCE_OFFSET);
+            buffer.putLong(WRITE_LIMIT_OFFSET, writePosition);
+        } else {
+            buffer.putInt(MAGIC_OFFSET, 0);
+            buffer.putInt(VERSION_OFFSET, VERSION);
+            buffer.putInt(CAPACITY_OFFSET, capacity);
+            buffer.putLong(WRITE_POSITION_OFFSET, 0);
+            buffer.putLong(WRITE_LIMIT_OFFSET, 0);
+            buffer.putLong(SEQUENCE_OFFSET, 0);
+            RingFormat.fence();
+            buffer.putInt(MAGIC_OFFSET, MAGIC);
+        }
+    }
+
+    /**
+     * Publish a detected file to the readers
+     *
+     * @param file    the detected file
+     * @param pattern the pattern which is matched with the file, in the form of syntax and path pattern
+     * @throws IllegalArgumentException if the record is larger than a quarter of the capacity
+     * @throws IllegalStateException    if the writer is closed
+     */
+    public synchronized void publish(Path file, String pattern) {
+        if (closed) {
+            throw new IllegalStateException("The ring writer is closed");
+        }
+        byte[] path = file.toString().getBytes(StandardCharsets.UTF_8);
+        byte[] patternBytes = pattern.getBytes(StandardCharsets.UTF_8);
+        int length = RingFormat.align(RECORD_HEADER_SIZE + 4 + path.length + 4 + patternBytes.length);
+        if (length > capacity / 4) {
+            throw new IllegalArgumentException("The record of " + file + " is too large for the ring : " + length);
+        }
+
+        int offset = (int) (writePosition & (capacity - 1));
+        int padding = offset + length > capacity ? capacity - offset : 0;
+
+        /*
+         * the region is claimed before it is written, so that a reader which is overrun by it can detect that
+         */
+        buffer.putLong(WRITE_LIMIT_OFFSET, writePosition + padding + length);
+        RingFormat.fence();
+        if (padding > 0) {
+            buffer.putInt(HEADER_SIZE + offset, padding);
+            buffer.putInt(HEADER_SIZE + offset + 4, PADDING);
+            offset = 0;
+        }
+        int position = HEADER_SIZE + offset;
+        buffer.putInt(position, length);
+        buffer.putInt(position + 4, FILE);
+        buffer.putLong(position + 8, ++sequence);
+        buffer.putLong(position + 16, System.currentTimeMillis());
+        buffer.putInt(position + 24, path.length);
+        writeBytes(position + 28, path);
+        buffer.putInt(position + 28 + path.length, patternBytes.length);
+        writeBytes(position + 32 + path.length, patternBytes);
+
+        writePosition += padding + length;
+        RingFormat.fence();
+        buffer.putLong(SEQUENCE_OFFSET, sequence);
+        buffer.putLong(WRITE_POSITION_OFFSET, writePosition);
+    }
+
+    /**
+     * Write the bytes at the given index, the position of the buffer is used only by the writer
+     */
+    private void writeBytes(int position, byte[] bytes) {
+        buffer.position(position);
+        buffer.put(bytes);
+    }
+
+    /**
+     * Returns the sequence of the last published record
+     *
+     * @return number of the records published into the ring file
+     */
+    public synchronized long getSequence() {
+        return sequence;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        buffer.force();
+        lock.release();
+        channel.close();
+        MappedBuffers.unmap(buffer);
+    }
+}
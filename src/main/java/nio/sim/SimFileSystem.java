@@ -0,0 +1,505 @@
+package nio.sim;
+
+import nio.util.PathPatterns;
+
+import java.io.IOException;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.UserPrincipalLookupService;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+
+/**
+ * This class is an in-memory file system with a controllable watch service for deterministic tests at scale
+ * <p>
+ * The Notifier, ManualNotifier, FilePublisher and ManualHandler run against it through the java.nio.file API, so the
+ * overflow recovery and the registration races can be reproduced in milliseconds instead of writing tens of thousands
+ * of real files. The events are generated like the inotify based watch service of Linux
+ * - creating a file or directory generates ENTRY_CREATE and writing to a file generates ENTRY_MODIFY in the parent
+ * - deleting generates ENTRY_DELETE in the parent, and the keys of a deleted directory are invalidated
+ * - moving generates ENTRY_DELETE in the source and ENTRY_CREATE in the target, and the keys move with the directory
+ * <p>
+ * The granularity of the last modified time can be set in order to simulate the file systems which round it off.
+ *
+ * @author Chanaka Lakmal
+ */
+public class SimFileSystem extends FileSystem {
+
+    /**
+     * This interface is used to run an action just before a directory is registered with a watch service, so that a
+     * test can create files in the window between walking a directory and watching it
+     */
+    public interface RegistrationListener {
+
+        /**
+         * Calls before the key of the given directory is created
+         *
+         * @param dir the directory which is going to be registered
+         * @throws IOException if an error occurs in the action
+         */
+        void beforeRegister(Path dir) throws IOException;
+    }
+
+    private final SimFileSystemProvider provider;
+    private final SimNode root;
+    private final SimPath rootPath;
+    private volatile long timeGranularity;
+    private volatile RegistrationListener registrationListener;
+    private volatile boolean open;
+    private final AtomicLong attributeReads = new AtomicLong();
+    private final AtomicLong directoryReads = new AtomicLong();
+
+    SimFileSystem(SimFileSystemProvider provider) {
+        this.provider = provider;
+        this.root = new SimNode(true, System.currentTimeMillis());
+        this.rootPath = new SimPath(this, true, new String[0]);
+        this.timeGranularity = 1;
+        this.open = true;
+    }
+
+    /**
+     * Create a new empty simulated file system which contains only the root directory
+     *
+     * @return the new file system
+     */
+    public static SimFileSystem newFileSystem() {
+        return new SimFileSystemProvider().getFileSystem();
+    }
+
+    /**
+     * Round off the last modified time of the files into the given granularity, eg. 1000 for the file systems which
+     * keep the time in seconds
+     *
+     * @param millis granularity of the last modified time in milliseconds
+     * @return this file system
+     */
+    public SimFileSystem setTimeGranularity(long millis) {
+        this.timeGranularity = Math.max(1, millis);
+        return this;
+    }
+
+    /**
+     * Set the action which runs just before a directory is registered with a watch service
+     *
+     * @param registrationListener the action, or null to remove it
+     * @return this file system
+     */
+    public SimFileSystem setRegistrationListener(RegistrationListener registrationListener) {
+        this.registrationListener = registrationListener;
+        return this;
+    }
+
+    /**
+     * Returns the number of the attribute reads, which are the stat calls of a real file system
+     *
+     * @return number of the attribute reads since the last reset
+     */
+    public long getAttributeReadCount() {
+        return attributeReads.get();
+    }
+
+    /**
+     * Returns the number of the directory listings, which are the opendir and readdir calls of a real file system
+     *
+     * @return number of the directory listings since the last reset
+     */
+    public long getDirectoryReadCount() {
+        return directoryReads.get();
+    }
+
+    /**
+     * Reset the counters of the attribute reads and the directory listings
+     */
+    public void resetCounts() {
+        attributeReads.set(0);
+        directoryReads.set(0);
+    }
+
+    void countAttributeRead() {
+        attributeReads.incrementAndGet();
+    }
+
+    void countDirectoryRead() {
+        directoryReads.incrementAndGet();
+    }
+
+    long now() {
+        long now = System.currentTimeMillis();
+        return now - now % timeGranularity;
+    }
+
+    /*
+     * operations of the tree, all of them are done while holding the lock of this file system
+     */
+
+    synchronized SimNode lookup(SimPath path) {
+        SimNode node = root;
+        for (String name : ((SimPath) path.toAbsolutePath()).getNames()) {
+            if (node == null || !node.directory) {
+                return null;
+            }
+            node = node.children.get(name);
+        }
+        return node;
+    }
+
+    private SimNode lookupParent(SimPath path) throws IOException {
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent == null) {
+            throw new FileAlreadyExistsException(path.toString());
+        }
+        SimNode node = lookup((SimPath) parent);
+        if (node == null) {
+            throw new NoSuchFileException(parent.toString());
+        }
+        if (!node.directory) {
+            throw new NotDirectoryException(parent.toString());
+        }
+        return node;
+    }
+
+    private SimNode existing(SimPath path) throws NoSuchFileException {
+        SimNode node = lookup(path);
+        if (node == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return node;
+    }
+
+    private static void signal(SimNode dir, WatchEvent.Kind<?> kind, Path name) {
+        for (SimWatchKey key : dir.keys) {
+            key.signalEvent(kind, name);
+        }
+    }
+
+    synchronized void createDirectory(SimPath dir) throws IOException {
+        SimNode parent = lookupParent(dir);
+        String name = dir.getFileName().toString();
+        if (parent.children.containsKey(name)) {
+            throw new FileAlreadyExistsException(dir.toString());
+        }
+        parent.children.put(name, new SimNode(true, now()));
+        parent.lastModified = now();
+        signal(parent, ENTRY_CREATE, dir.getFileName());
+    }
+
+    /**
+     * Open a file for writing, and create it if it is allowed
+     *
+     * @param file      the file which should be opened
+     * @param create    whether a missing file should be created
+     * @param createNew whether the file should not exist
+     * @param truncate  whether the content of an existing file should be removed
+     * @return the node of the file
+     * @throws IOException if the file can't be opened
+     */
+    synchronized SimNode open(SimPath file, boolean create, boolean createNew, boolean truncate) throws IOException {
+        SimNode parent = lookupParent(file);
+        String name = file.getFileName().toString();
+        SimNode node = parent.children.get(name);
+        if (node != null && createNew) {
+            throw new FileAlreadyExistsException(file.toString());
+        }
+        if (node == null) {
+            if (!create && !createNew) {
+                throw new NoSuchFileException(file.toString());
+            }
+            node = new SimNode(false, now());
+            parent.children.put(name, node);
+            parent.lastModified = now();
+            signal(parent, ENTRY_CREATE, file.getFileName());
+        } else if (node.directory) {
+            throw new IOException(file + " is a directory");
+        } else if (truncate && node.content.length > 0) {
+            node.content = new byte[0];
+            node.lastModified = now();
+            signal(parent, ENTRY_MODIFY, file.getFileName());
+        }
+        return node;
+    }
+
+    /**
+     * Write the given bytes into a file at the given position and signal ENTRY_MODIFY to the parent
+     *
+     * @param file     the file which is written
+     * @param node     the node of the file which has been opened
+     * @param position the position which the bytes should be written at
+     * @param bytes    the bytes which should be written
+     */
+    synchronized void write(SimPath file, SimNode node, long position, byte[] bytes) {
+        int end = (int) position + bytes.length;
+        if (end > node.content.length) {
+            byte[] content = new byte[end];
+            System.arraycopy(node.content, 0, content, 0, node.content.length);
+            node.content = content;
+        }
+        System.arraycopy(bytes, 0, node.content, (int) position, bytes.length);
+        node.lastModified = now();
+
+        SimNode parent = lookup((SimPath) file.toAbsolutePath().getParent());
+        if (parent != null && parent.children.get(file.getFileName().toString()) == node) {
+            signal(parent, ENTRY_MODIFY, file.getFileName());
+        }
+    }
+
+    synchronized void truncate(SimNode node, long size) {
+        if (size < node.content.length) {
+            byte[] content = new byte[(int) size];
+            System.arraycopy(node.content, 0, content, 0, content.length);
+            node.content = content;
+            node.lastModified = now();
+        }
+    }
+
+    synchronized byte[] read(SimNode node) {
+        return node.content;
+    }
+
+    synchronized void delete(SimPath path) throws IOException {
+        SimNode node = existing(path);
+        if (node == root) {
+            throw new IOException("The root directory can't be deleted");
+        }
+        if (node.directory && !node.children.isEmpty()) {
+            throw new DirectoryNotEmptyException(path.toString());
+        }
+        SimNode parent = lookupParent(path);
+        parent.children.remove(path.getFileName().toString());
+        parent.lastModified = now();
+        signal(parent, ENTRY_DELETE, path.getFileName());
+        if (node.directory) {
+            /*
+             * the keys of a deleted directory are invalidated and signalled, so that the reset returns false
+             */
+            for (SimWatchKey key : new ArrayList<>(node.keys)) {
+                key.invalidate();
+                key.signal();
+            }
+            node.keys.clear();
+        }
+    }
+
+    synchronized void move(SimPath source, SimPath target, boolean replace) throws IOException {
+        SimNode node = existing(source);
+        SimNode targetParent = lookupParent(target);
+        String targetName = target.getFileName().toString();
+        SimNode existing = targetParent.children.get(targetName);
+        if (existing == node) {
+            return;
+        }
+        if (existing != null) {
+            if (!replace) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            delete(target);
+        }
+        SimNode sourceParent = lookupParent(source);
+        sourceParent.children.remove(source.getFileName().toString());
+        sourceParent.lastModified = now();
+        signal(sourceParent, ENTRY_DELETE, source.getFileName());
+
+        targetParent.children.put(targetName, node);
+        targetParent.lastModified = now();
+        signal(targetParent, ENTRY_CREATE, target.getFileName());
+    }
+
+    synchronized void copy(SimPath source, SimPath target, boolean replace) throws IOException {
+        SimNode node = existing(source);
+        if (lookup(target) != null) {
+            if (!replace) {
+                throw new FileAlreadyExistsException(target.toString());
+            }
+            delete(target);
+        }
+        if (node.directory) {
+            createDirectory(target);
+        } else {
+            SimNode copy = open(target, true, true, false);
+            write(target, copy, 0, node.content);
+        }
+    }
+
+    synchronized List<Path> list(SimPath dir) throws IOException {
+        SimNode node = existing(dir);
+        if (!node.directory) {
+            throw new NotDirectoryException(dir.toString());
+        }
+        List<Path> children = new ArrayList<>();
+        for (String name : node.children.keySet()) {
+            children.add(dir.resolve(name));
+        }
+        return children;
+    }
+
+    synchronized void setLastModified(SimPath path, long millis) throws IOException {
+        existing(path).lastModified = millis;
+    }
+
+    /*
+     * operations of the watch keys
+     */
+
+    SimWatchKey register(SimWatchService watcher, SimPath dir, WatchEvent.Kind<?>[] kinds) throws IOException {
+        RegistrationListener listener = registrationListener;
+        if (listener != null) {
+            listener.beforeRegister(dir);
+        }
+        synchronized (this) {
+            SimNode node = existing(dir);
+            if (!node.directory) {
+                throw new NotDirectoryException(dir.toString());
+            }
+            /*
+             * a directory which is registered again returns the same key like inotify does for the same inode
+             */
+            for (SimWatchKey key : node.keys) {
+                if (key.getWatcher() == watcher) {
+                    key.setKinds(kinds);
+                    return key;
+                }
+            }
+            SimWatchKey key = new SimWatchKey(watcher, (SimPath) dir.toAbsolutePath(), node, kinds);
+            node.keys.add(key);
+            return key;
+        }
+    }
+
+    synchronized void cancel(SimWatchKey key) {
+        key.invalidate();
+        key.getNode().keys.remove(key);
+    }
+
+    synchronized List<SimWatchKey> keysOf(Path dir, SimWatchService watcher) {
+        List<SimWatchKey> keys = new ArrayList<>();
+        SimNode node = lookup((SimPath) dir);
+        if (node != null && node.directory) {
+            for (SimWatchKey key : node.keys) {
+                if (key.getWatcher() == watcher) {
+                    keys.add(key);
+                }
+            }
+        }
+        return keys;
+    }
+
+    /*
+     * FileSystem
+     */
+
+    @Override
+    public SimFileSystemProvider provider() {
+        return provider;
+    }
+
+    @Override
+    public void close() throws IOException {
+        open = false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    @Override
+    public boolean isReadOnly() {
+        return false;
+    }
+
+    @Override
+    public String getSeparator() {
+        return "/";
+    }
+
+    @Override
+    public Iterable<Path> getRootDirectories() {
+        return Collections.<Path>singletonList(rootPath);
+    }
+
+    @Override
+    public Iterable<FileStore> getFileStores() {
+        return Collections.emptyList();
+    }
+
+    @Override
+    public Set<String> supportedFileAttributeViews() {
+        return new HashSet<>(Collections.singletonList("basic"));
+    }
+
+    @Override
+    public Path getPath(String first, String... more) {
+        StringBuilder builder = new StringBuilder(first);
+        for (String segment : more) {
+            if (!segment.isEmpty()) {
+                builder.append('/').append(segment);
+            }
+        }
+        return SimPath.parse(this, builder.toString());
+    }
+
+    /**
+     * Returns a matcher of the glob or regex syntax which matches the string form of the path
+     *
+     * @param syntaxAndPattern syntax and the pattern, eg. glob:*.xml
+     * @return path matcher
+     */
+    @Override
+    public PathMatcher getPathMatcher(String syntaxAndPattern) {
+        int colon = syntaxAndPattern.indexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException(syntaxAndPattern);
+        }
+        String syntax = syntaxAndPattern.substring(0, colon);
+        String pattern = syntaxAndPattern.substring(colon + 1);
+        final Pattern regex;
+        if (syntax.equalsIgnoreCase("glob")) {
+            regex = Pattern.compile(PathPatterns.globToRegex(pattern));
+        } else if (syntax.equalsIgnoreCase("regex")) {
+            regex = Pattern.compile(pattern);
+        } else {
+            throw new UnsupportedOperationException("Syntax '" + syntax + "' not recognized");
+        }
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return regex.matcher(path.toString()).matches();
+            }
+        };
+    }
+
+    @Override
+    public UserPrincipalLookupService getUserPrincipalLookupService() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public WatchService newWatchService() {
+        return new SimWatchService(this);
+    }
+
+    /**
+     * Returns a controllable watch service of this file system
+     *
+     * @return new watch service
+     */
+    public SimWatchService newSimWatchService() {
+        return new SimWatchService(this);
+    }
+}
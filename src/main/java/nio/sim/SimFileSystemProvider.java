@@ -0,0 +1,321 @@
+package nio.sim;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.NonWritableChannelException;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AccessMode;
+import java.nio.file.CopyOption;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileStore;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemAlreadyExistsException;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileAttribute;
+import java.nio.file.attribute.FileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.spi.FileSystemProvider;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * This class is the provider of a simulated file system
+ * Each provider has a single file system which is created with it, so that the tests don't share any state
+ *
+ * @author Chanaka Lakmal
+ */
+public class SimFileSystemProvider extends FileSystemProvider {
+
+    public static final String SCHEME = "sim";
+
+    private final SimFileSystem fileSystem;
+
+    public SimFileSystemProvider() {
+        this.fileSystem = new SimFileSystem(this);
+    }
+
+    SimFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    private SimPath check(Path path) {
+        if (!(path instanceof SimPath) || ((SimPath) path).getFileSystem() != fileSystem) {
+            throw new ProviderMismatchException();
+        }
+        return (SimPath) path;
+    }
+
+    @Override
+    public String getScheme() {
+        return SCHEME;
+    }
+
+    @Override
+    public FileSystem newFileSystem(URI uri, Map<String, ?> env) throws IOException {
+        throw new FileSystemAlreadyExistsException();
+    }
+
+    @Override
+    public FileSystem getFileSystem(URI uri) {
+        return fileSystem;
+    }
+
+    @Override
+    public Path getPath(URI uri) {
+        return fileSystem.getPath(uri.getPath());
+    }
+
+    @Override
+    public SeekableByteChannel newByteChannel(Path path, Set<? extends OpenOption> options, FileAttribute<?>... attrs) throws IOException {
+        final SimPath file = check(path);
+        final boolean write = options.contains(StandardOpenOption.WRITE) || options.contains(StandardOpenOption.APPEND);
+        final SimNode node;
+        if (write) {
+            node = fileSystem.open(file, options.contains(StandardOpenOption.CREATE),
+                    options.contains(StandardOpenOption.CREATE_NEW), options.contains(StandardOpenOption.TRUNCATE_EXISTING));
+        } else {
+            node = fileSystem.lookup(file);
+            if (node == null) {
+                throw new NoSuchFileException(file.toString());
+            }
+            if (node.directory) {
+                throw new IOException(file + " is a directory");
+            }
+        }
+        final boolean append = options.contains(StandardOpenOption.APPEND);
+
+        return new SeekableByteChannel() {
+            private long position;
+            private boolean open = true;
+
+            private void ensureOpen() throws ClosedChannelException {
+                if (!open) {
+                    throw new ClosedChannelException();
+                }
+            }
+
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                ensureOpen();
+                byte[] content = fileSystem.read(node);
+                if (position >= content.length) {
+                    return -1;
+                }
+                int n = (int) Math.min(dst.remaining(), content.length - position);
+                dst.put(content, (int) position, n);
+                position += n;
+                return n;
+            }
+
+            @Override
+            public int write(ByteBuffer src) throws IOException {
+                ensureOpen();
+                if (!write) {
+                    throw new NonWritableChannelException();
+                }
+                if (append) {
+                    position = fileSystem.read(node).length;
+                }
+                byte[] bytes = new byte[src.remaining()];
+                src.get(bytes);
+                fileSystem.write(file, node, position, bytes);
+                position += bytes.length;
+                return bytes.length;
+            }
+
+            @Override
+            public long position() throws IOException {
+                ensureOpen();
+                return position;
+            }
+
+            @Override
+            public SeekableByteChannel position(long newPosition) throws IOException {
+                ensureOpen();
+                position = newPosition;
+                return this;
+            }
+
+            @Override
+            public long size() throws IOException {
+                ensureOpen();
+                return fileSystem.read(node).length;
+            }
+
+            @Override
+            public SeekableByteChannel truncate(long size) throws IOException {
+                ensureOpen();
+                fileSystem.truncate(node, size);
+                position = Math.min(position, size);
+                return this;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+
+            @Override
+            public void close() {
+                open = false;
+            }
+        };
+    }
+
+    @Override
+    public DirectoryStream<Path> newDirectoryStream(Path dir, final DirectoryStream.Filter<? super Path> filter) throws IOException {
+        fileSystem.countDirectoryRead();
+        final List<Path> children = fileSystem.list(check(dir));
+        return new DirectoryStream<Path>() {
+            @Override
+            public Iterator<Path> iterator() {
+                List<Path> accepted = new ArrayList<>();
+                for (Path child : children) {
+                    try {
+                        if (filter.accept(child)) {
+                            accepted.add(child);
+                        }
+                    } catch (IOException e) {
+                        throw new DirectoryIteratorException(e);
+                    }
+                }
+                return accepted.iterator();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Override
+    public void createDirectory(Path dir, FileAttribute<?>... attrs) throws IOException {
+        fileSystem.createDirectory(check(dir));
+    }
+
+    @Override
+    public void delete(Path path) throws IOException {
+        fileSystem.delete(check(path));
+    }
+
+    @Override
+    public void copy(Path source, Path target, CopyOption... options) throws IOException {
+        fileSystem.copy(check(source), check(target), Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    @Override
+    public void move(Path source, Path target, CopyOption... options) throws IOException {
+        fileSystem.move(check(source), check(target), Arrays.asList(options).contains(StandardCopyOption.REPLACE_EXISTING));
+    }
+
+    @Override
+    public boolean isSameFile(Path path, Path path2) throws IOException {
+        if (path.equals(path2)) {
+            return true;
+        }
+        SimNode node = fileSystem.lookup(check(path));
+        return node != null && node == fileSystem.lookup(check(path2));
+    }
+
+    @Override
+    public boolean isHidden(Path path) {
+        Path name = check(path).getFileName();
+        return name != null && name.toString().startsWith(".");
+    }
+
+    @Override
+    public FileStore getFileStore(Path path) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void checkAccess(Path path, AccessMode... modes) throws IOException {
+        fileSystem.countAttributeRead();
+        if (fileSystem.lookup(check(path)) == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <V extends FileAttributeView> V getFileAttributeView(Path path, Class<V> type, LinkOption... options) {
+        if (type != BasicFileAttributeView.class) {
+            return null;
+        }
+        final SimPath file = check(path);
+        return (V) new BasicFileAttributeView() {
+            @Override
+            public String name() {
+                return "basic";
+            }
+
+            @Override
+            public BasicFileAttributes readAttributes() throws IOException {
+                return SimFileSystemProvider.this.readAttributes(file, BasicFileAttributes.class);
+            }
+
+            @Override
+            public void setTimes(FileTime lastModifiedTime, FileTime lastAccessTime, FileTime createTime) throws IOException {
+                if (lastModifiedTime != null) {
+                    fileSystem.setLastModified(file, lastModifiedTime.toMillis());
+                }
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <A extends BasicFileAttributes> A readAttributes(Path path, Class<A> type, LinkOption... options) throws IOException {
+        if (type != BasicFileAttributes.class) {
+            throw new UnsupportedOperationException("Only the basic file attributes are supported");
+        }
+        fileSystem.countAttributeRead();
+        SimNode node = fileSystem.lookup(check(path));
+        if (node == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        synchronized (fileSystem) {
+            return (A) node.attributes();
+        }
+    }
+
+    @Override
+    public Map<String, Object> readAttributes(Path path, String attributes, LinkOption... options) throws IOException {
+        BasicFileAttributes attrs = readAttributes(path, BasicFileAttributes.class, options);
+        Map<String, Object> map = new HashMap<>();
+        map.put("lastModifiedTime", attrs.lastModifiedTime());
+        map.put("lastAccessTime", attrs.lastAccessTime());
+        map.put("creationTime", attrs.creationTime());
+        map.put("size", attrs.size());
+        map.put("isRegularFile", attrs.isRegularFile());
+        map.put("isDirectory", attrs.isDirectory());
+        map.put("isSymbolicLink", attrs.isSymbolicLink());
+        map.put("isOther", attrs.isOther());
+        map.put("fileKey", attrs.fileKey());
+        return map;
+    }
+
+    @Override
+    public void setAttribute(Path path, String attribute, Object value, LinkOption... options) throws IOException {
+        if (!attribute.equals("lastModifiedTime") && !attribute.equals("basic:lastModifiedTime")) {
+            throw new UnsupportedOperationException("Only the last modified time can be set");
+        }
+        fileSystem.setLastModified(check(path), ((FileTime) value).toMillis());
+    }
+}
@@ -0,0 +1,93 @@
+package nio.sim;
+
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a file or a directory of the simulated file system
+ * The watch keys are kept on the node like inotify keeps them on the inode, so a moved directory keeps its keys
+ *
+ * @author Chanaka Lakmal
+ */
+class SimNode {
+
+    private static long nextId;
+
+    final long id;
+    final boolean directory;
+    final TreeMap<String, SimNode> children;
+    final List<SimWatchKey> keys;
+    byte[] content;
+    long lastModified;
+
+    SimNode(boolean directory, long lastModified) {
+        synchronized (SimNode.class) {
+            this.id = ++nextId;
+        }
+        this.directory = directory;
+        this.children = directory ? new TreeMap<String, SimNode>() : null;
+        this.keys = directory ? new ArrayList<SimWatchKey>() : null;
+        this.content = new byte[0];
+        this.lastModified = lastModified;
+    }
+
+    /**
+     * Returns a snapshot of the attributes of this node
+     *
+     * @return basic file attributes
+     */
+    BasicFileAttributes attributes() {
+        final long size = directory ? 0 : content.length;
+        final FileTime time = FileTime.from(lastModified, TimeUnit.MILLISECONDS);
+        return new BasicFileAttributes() {
+            @Override
+            public FileTime lastModifiedTime() {
+                return time;
+            }
+
+            @Override
+            public FileTime lastAccessTime() {
+                return time;
+            }
+
+            @Override
+            public FileTime creationTime() {
+                return time;
+            }
+
+            @Override
+            public boolean isRegularFile() {
+                return !directory;
+            }
+
+            @Override
+            public boolean isDirectory() {
+                return directory;
+            }
+
+            @Override
+            public boolean isSymbolicLink() {
+                return false;
+            }
+
+            @Override
+            public boolean isOther() {
+                return false;
+            }
+
+            @Override
+            public long size() {
+                return size;
+            }
+
+            @Override
+            public Object fileKey() {
+                return id;
+            }
+        };
+    }
+}
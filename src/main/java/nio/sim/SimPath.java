@@ -0,0 +1,306 @@
+package nio.sim;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.ProviderMismatchException;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * This class is a path of the simulated file system which is kept as the list of its names
+ *
+ * @author Chanaka Lakmal
+ */
+public class SimPath implements Path {
+
+    private final SimFileSystem fileSystem;
+    private final boolean absolute;
+    private final String[] names;
+    private String string;
+
+    SimPath(SimFileSystem fileSystem, boolean absolute, String[] names) {
+        this.fileSystem = fileSystem;
+        this.absolute = absolute;
+        this.names = names;
+    }
+
+    /**
+     * Parse the given string into a path, the empty names are ignored so that "/a//b/" is "/a/b"
+     *
+     * @param fileSystem file system of the path
+     * @param path       path string which is separated by '/'
+     * @return parsed path
+     */
+    static SimPath parse(SimFileSystem fileSystem, String path) {
+        List<String> names = new ArrayList<>();
+        for (String name : path.split("/")) {
+            if (!name.isEmpty()) {
+                names.add(name);
+            }
+        }
+        return new SimPath(fileSystem, path.startsWith("/"), names.toArray(new String[names.size()]));
+    }
+
+    String[] getNames() {
+        return names;
+    }
+
+    private static SimPath check(Path path) {
+        if (!(path instanceof SimPath)) {
+            throw new ProviderMismatchException();
+        }
+        return (SimPath) path;
+    }
+
+    @Override
+    public SimFileSystem getFileSystem() {
+        return fileSystem;
+    }
+
+    @Override
+    public boolean isAbsolute() {
+        return absolute;
+    }
+
+    @Override
+    public Path getRoot() {
+        return absolute ? new SimPath(fileSystem, true, new String[0]) : null;
+    }
+
+    @Override
+    public Path getFileName() {
+        return names.length == 0 ? null : new SimPath(fileSystem, false, new String[]{names[names.length - 1]});
+    }
+
+    @Override
+    public Path getParent() {
+        if (names.length == 0 || (names.length == 1 && !absolute)) {
+            return null;
+        }
+        return new SimPath(fileSystem, absolute, Arrays.copyOf(names, names.length - 1));
+    }
+
+    @Override
+    public int getNameCount() {
+        return names.length;
+    }
+
+    @Override
+    public Path getName(int index) {
+        if (index < 0 || index >= names.length) {
+            throw new IllegalArgumentException();
+        }
+        return new SimPath(fileSystem, false, new String[]{names[index]});
+    }
+
+    @Override
+    public Path subpath(int beginIndex, int endIndex) {
+        if (beginIndex < 0 || endIndex > names.length || beginIndex >= endIndex) {
+            throw new IllegalArgumentException();
+        }
+        return new SimPath(fileSystem, false, Arrays.copyOfRange(names, beginIndex, endIndex));
+    }
+
+    @Override
+    public boolean startsWith(Path other) {
+        if (!(other instanceof SimPath)) {
+            return false;
+        }
+        SimPath that = (SimPath) other;
+        if (that.absolute != absolute || that.names.length > names.length) {
+            return false;
+        }
+        for (int i = 0; i < that.names.length; i++) {
+            if (!that.names[i].equals(names[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean startsWith(String other) {
+        return startsWith(parse(fileSystem, other));
+    }
+
+    @Override
+    public boolean endsWith(Path other) {
+        if (!(other instanceof SimPath)) {
+            return false;
+        }
+        SimPath that = (SimPath) other;
+        if (that.absolute) {
+            return equals(that);
+        }
+        if (that.names.length > names.length) {
+            return false;
+        }
+        for (int i = 1; i <= that.names.length; i++) {
+            if (!that.names[that.names.length - i].equals(names[names.length - i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean endsWith(String other) {
+        return endsWith(parse(fileSystem, other));
+    }
+
+    @Override
+    public Path normalize() {
+        List<String> normalized = new ArrayList<>();
+        for (String name : names) {
+            if (name.equals(".")) {
+                continue;
+            }
+            if (name.equals("..") && !normalized.isEmpty() && !normalized.get(normalized.size() - 1).equals("..")) {
+                normalized.remove(normalized.size() - 1);
+            } else if (!name.equals("..") || !absolute) {
+                normalized.add(name);
+            }
+        }
+        return new SimPath(fileSystem, absolute, normalized.toArray(new String[normalized.size()]));
+    }
+
+    @Override
+    public Path resolve(Path other) {
+        SimPath that = check(other);
+        if (that.absolute) {
+            return that;
+        }
+        if (that.names.length == 0) {
+            return this;
+        }
+        String[] resolved = Arrays.copyOf(names, names.length + that.names.length);
+        System.arraycopy(that.names, 0, resolved, names.length, that.names.length);
+        return new SimPath(fileSystem, absolute, resolved);
+    }
+
+    @Override
+    public Path resolve(String other) {
+        return resolve(parse(fileSystem, other));
+    }
+
+    @Override
+    public Path resolveSibling(Path other) {
+        Path parent = getParent();
+        return parent == null ? other : parent.resolve(other);
+    }
+
+    @Override
+    public Path resolveSibling(String other) {
+        return resolveSibling(parse(fileSystem, other));
+    }
+
+    @Override
+    public Path relativize(Path other) {
+        SimPath that = check(other);
+        if (that.absolute != absolute) {
+            throw new IllegalArgumentException("'other' is different type of Path");
+        }
+        int common = 0;
+        while (common < names.length && common < that.names.length && names[common].equals(that.names[common])) {
+            common++;
+        }
+        List<String> relative = new ArrayList<>();
+        for (int i = common; i < names.length; i++) {
+            relative.add("..");
+        }
+        relative.addAll(Arrays.asList(that.names).subList(common, that.names.length));
+        return new SimPath(fileSystem, false, relative.toArray(new String[relative.size()]));
+    }
+
+    @Override
+    public URI toUri() {
+        return URI.create(SimFileSystemProvider.SCHEME + "://" + toAbsolutePath());
+    }
+
+    @Override
+    public Path toAbsolutePath() {
+        return absolute ? this : new SimPath(fileSystem, true, names);
+    }
+
+    @Override
+    public Path toRealPath(LinkOption... options) throws IOException {
+        Path real = toAbsolutePath().normalize();
+        if (fileSystem.lookup((SimPath) real) == null) {
+            throw new NoSuchFileException(toString());
+        }
+        return real;
+    }
+
+    @Override
+    public File toFile() {
+        throw new UnsupportedOperationException("The simulated file system has no java.io.File");
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>[] events, WatchEvent.Modifier... modifiers) throws IOException {
+        if (!(watcher instanceof SimWatchService)) {
+            throw new ProviderMismatchException();
+        }
+        return ((SimWatchService) watcher).register(this, events);
+    }
+
+    @Override
+    public WatchKey register(WatchService watcher, WatchEvent.Kind<?>... events) throws IOException {
+        return register(watcher, events, new WatchEvent.Modifier[0]);
+    }
+
+    @Override
+    public Iterator<Path> iterator() {
+        List<Path> list = new ArrayList<>();
+        for (int i = 0; i < names.length; i++) {
+            list.add(getName(i));
+        }
+        return list.iterator();
+    }
+
+    @Override
+    public int compareTo(Path other) {
+        return toString().compareTo(check(other).toString());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SimPath)) {
+            return false;
+        }
+        SimPath that = (SimPath) o;
+        return fileSystem == that.fileSystem && absolute == that.absolute && Arrays.equals(names, that.names);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(names) + (absolute ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        if (string == null) {
+            StringBuilder builder = new StringBuilder();
+            for (String name : names) {
+                if (absolute || builder.length() > 0) {
+                    builder.append('/');
+                }
+                builder.append(name);
+            }
+            string = builder.length() == 0 && absolute ? "/" : builder.toString();
+        }
+        return string;
+    }
+}
@@ -0,0 +1,46 @@
+package nio.sim;
+
+import java.nio.file.WatchEvent;
+
+/**
+ * This class is an event of the simulated watch service
+ * The repeated events of the same kind and context are counted in a single event as the JDK does
+ *
+ * @author Chanaka Lakmal
+ */
+class SimWatchEvent<T> implements WatchEvent<T> {
+
+    private final Kind<T> kind;
+    private final T context;
+    private int count;
+
+    SimWatchEvent(Kind<T> kind, T context) {
+        this.kind = kind;
+        this.context = context;
+        this.count = 1;
+    }
+
+    void increment() {
+        count++;
+    }
+
+    @Override
+    public Kind<T> kind() {
+        return kind;
+    }
+
+    @Override
+    public int count() {
+        return count;
+    }
+
+    @Override
+    public T context() {
+        return context;
+    }
+
+    @Override
+    public String toString() {
+        return kind + " " + context + (count > 1 ? " x" + count : "");
+    }
+}
@@ -0,0 +1,133 @@
+package nio.sim;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * This class is a watch key of the simulated watch service which keeps the pending events of a directory
+ * If the number of the pending events reaches the limit of the watch service the rest are replaced by an OVERFLOW
+ *
+ * @author Chanaka Lakmal
+ */
+class SimWatchKey implements WatchKey {
+
+    private final SimWatchService watcher;
+    private final SimPath dir;
+    private final SimNode node;
+    private final List<WatchEvent<?>> events;
+    private Set<WatchEvent.Kind<?>> kinds;
+    private boolean signalled;
+    private volatile boolean valid;
+
+    SimWatchKey(SimWatchService watcher, SimPath dir, SimNode node, WatchEvent.Kind<?>[] kinds) {
+        this.watcher = watcher;
+        this.dir = dir;
+        this.node = node;
+        this.events = new ArrayList<>();
+        this.valid = true;
+        setKinds(kinds);
+    }
+
+    SimWatchService getWatcher() {
+        return watcher;
+    }
+
+    SimNode getNode() {
+        return node;
+    }
+
+    synchronized void setKinds(WatchEvent.Kind<?>[] kinds) {
+        this.kinds = new HashSet<WatchEvent.Kind<?>>(Arrays.asList(kinds));
+    }
+
+    /**
+     * Add an event to this key and queue the key to the watch service if it is not signalled yet
+     *
+     * @param kind    kind of the event
+     * @param context file name of the entry, or null for an OVERFLOW
+     */
+    @SuppressWarnings("unchecked")
+    synchronized void signalEvent(WatchEvent.Kind<?> kind, Path context) {
+        if (!valid || (kind != OVERFLOW && !kinds.contains(kind))) {
+            return;
+        }
+        if (events.size() >= watcher.getMaxEventsPerKey()) {
+            kind = OVERFLOW;
+            context = null;
+        }
+        WatchEvent<?> last = events.isEmpty() ? null : events.get(events.size() - 1);
+        if (last != null && last.kind() == kind && (kind == OVERFLOW || (kind == ENTRY_MODIFY && context.equals(last.context())))) {
+            ((SimWatchEvent<?>) last).increment();
+        } else {
+            events.add(new SimWatchEvent<>((WatchEvent.Kind<Object>) kind, context));
+        }
+        signal();
+    }
+
+    /**
+     * Queue the key to the watch service if it is not signalled yet, this is done when the directory is deleted also
+     */
+    synchronized void signal() {
+        if (!signalled) {
+            signalled = true;
+            watcher.enqueue(this);
+        }
+    }
+
+    void invalidate() {
+        valid = false;
+    }
+
+    @Override
+    public boolean isValid() {
+        return valid;
+    }
+
+    @Override
+    public synchronized List<WatchEvent<?>> pollEvents() {
+        List<WatchEvent<?>> polled = new ArrayList<>(events);
+        events.clear();
+        return polled;
+    }
+
+    @Override
+    public synchronized boolean reset() {
+        if (!valid) {
+            return false;
+        }
+        if (signalled) {
+            if (events.isEmpty()) {
+                signalled = false;
+            } else {
+                watcher.enqueue(this);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void cancel() {
+        if (valid) {
+            watcher.cancel(this);
+        }
+    }
+
+    @Override
+    public Path watchable() {
+        return dir;
+    }
+
+    @Override
+    public String toString() {
+        return "SimWatchKey@" + dir;
+    }
+}
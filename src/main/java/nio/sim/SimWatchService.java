@@ -0,0 +1,212 @@
+package nio.sim;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * This class is a controllable watch service of the simulated file system
+ * <p>
+ * The delivery of the signalled keys can be paused so that the events pile up in the keys deterministically, and the
+ * number of the pending events of a key is limited so that an OVERFLOW occurs exactly when the limit is reached. The
+ * events and the overflows can be injected to the keys of a directory without changing the file system.
+ *
+ * @author Chanaka Lakmal
+ */
+public class SimWatchService implements WatchService {
+
+    /**
+     * Same limit as the pending event list of a key of the JDK watch services
+     */
+    public static final int DEFAULT_MAX_EVENTS_PER_KEY = 512;
+
+    private static final WatchKey CLOSE_KEY = new WatchKey() {
+        @Override
+        public boolean isValid() {
+            return false;
+        }
+
+        @Override
+        public List<WatchEvent<?>> pollEvents() {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean reset() {
+            return false;
+        }
+
+        @Override
+        public void cancel() {
+        }
+
+        @Override
+        public Path watchable() {
+            return null;
+        }
+    };
+
+    private final SimFileSystem fileSystem;
+    private final LinkedBlockingDeque<WatchKey> queue;
+    private final List<SimWatchKey> pending;
+    private final Set<SimWatchKey> keys;
+    private volatile int maxEventsPerKey;
+    private volatile boolean closed;
+    private boolean paused;
+
+    SimWatchService(SimFileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        this.queue = new LinkedBlockingDeque<>();
+        this.pending = new ArrayList<>();
+        this.keys = new HashSet<>();
+        this.maxEventsPerKey = DEFAULT_MAX_EVENTS_PER_KEY;
+    }
+
+    /**
+     * Set the number of the pending events of a key which causes an OVERFLOW
+     *
+     * @param maxEventsPerKey maximum number of the pending events of a key
+     * @return this watch service
+     */
+    public SimWatchService setMaxEventsPerKey(int maxEventsPerKey) {
+        this.maxEventsPerKey = maxEventsPerKey;
+        return this;
+    }
+
+    int getMaxEventsPerKey() {
+        return maxEventsPerKey;
+    }
+
+    /**
+     * Stop delivering the signalled keys, so that the events pile up in the keys till the delivery is resumed
+     */
+    public synchronized void pause() {
+        paused = true;
+    }
+
+    /**
+     * Deliver the keys which were signalled while the delivery was paused
+     */
+    public synchronized void resume() {
+        paused = false;
+        queue.addAll(pending);
+        pending.clear();
+    }
+
+    /**
+     * Add an event to the keys of the given directory without changing the file system
+     *
+     * @param dir  the directory whose keys should be signalled
+     * @param kind kind of the event
+     * @param name file name of the entry
+     */
+    public void inject(Path dir, WatchEvent.Kind<?> kind, Path name) {
+        for (SimWatchKey key : fileSystem.keysOf(dir, this)) {
+            key.signalEvent(kind, name);
+        }
+    }
+
+    /**
+     * Add an OVERFLOW event to the keys of the given directory
+     *
+     * @param dir the directory whose keys should be overflowed
+     */
+    public void overflow(Path dir) {
+        inject(dir, OVERFLOW, null);
+    }
+
+    /**
+     * Returns the number of the valid keys of this watch service
+     *
+     * @return key count
+     */
+    public synchronized int getKeyCount() {
+        return keys.size();
+    }
+
+    WatchKey register(SimPath dir, WatchEvent.Kind<?>[] kinds) throws IOException {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+        SimWatchKey key = fileSystem.register(this, dir, kinds);
+        synchronized (this) {
+            keys.add(key);
+        }
+        return key;
+    }
+
+    synchronized void enqueue(SimWatchKey key) {
+        if (paused) {
+            pending.add(key);
+        } else {
+            queue.add(key);
+        }
+    }
+
+    void cancel(SimWatchKey key) {
+        fileSystem.cancel(key);
+        synchronized (this) {
+            keys.remove(key);
+        }
+    }
+
+    private WatchKey checkKey(WatchKey key) {
+        if (key == CLOSE_KEY) {
+            queue.offerFirst(CLOSE_KEY);
+            throw new ClosedWatchServiceException();
+        }
+        return key;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        List<SimWatchKey> keyList;
+        synchronized (this) {
+            keyList = new ArrayList<>(keys);
+        }
+        for (SimWatchKey key : keyList) {
+            key.cancel();
+        }
+        queue.clear();
+        queue.offer(CLOSE_KEY);
+    }
+
+    @Override
+    public WatchKey poll() {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+        return checkKey(queue.poll());
+    }
+
+    @Override
+    public WatchKey poll(long timeout, TimeUnit unit) throws InterruptedException {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+        return checkKey(queue.poll(timeout, unit));
+    }
+
+    @Override
+    public WatchKey take() throws InterruptedException {
+        if (closed) {
+            throw new ClosedWatchServiceException();
+        }
+        return checkKey(queue.take());
+    }
+}
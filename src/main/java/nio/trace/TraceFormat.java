@@ -0,0 +1,83 @@
+package nio.trace;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.WatchEvent;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * This class keeps the layout of the binary trace files
+ * <p>
+ * header : magic (int) | version (short) | start time in epoch milliseconds (long)
+ * record : tag (byte) followed by
+ * - DIRECTORY : id (varint) | path (UTF) which is written before the first event of the directory
+ * - CREATE, MODIFY, DELETE : time since the previous event in microseconds (varint) | directory id (varint) | name (UTF)
+ * - OVERFLOW : time since the previous event in microseconds (varint) | directory id (varint)
+ *
+ * @author Chanaka Lakmal
+ */
+final class TraceFormat {
+
+    static final int MAGIC = 0x4E494F54;    // NIOT
+    static final short VERSION = 1;
+
+    static final byte DIRECTORY = 0;
+    static final byte CREATE = 1;
+    static final byte MODIFY = 2;
+    static final byte DELETE = 3;
+    static final byte OVERFLOW_MARKER = 4;
+
+    private TraceFormat() {
+    }
+
+    static byte tagOf(WatchEvent.Kind<?> kind) {
+        if (kind == ENTRY_CREATE) {
+            return CREATE;
+        } else if (kind == ENTRY_MODIFY) {
+            return MODIFY;
+        } else if (kind == ENTRY_DELETE) {
+            return DELETE;
+        }
+        return OVERFLOW_MARKER;
+    }
+
+    static WatchEvent.Kind<?> kindOf(byte tag) throws IOException {
+        switch (tag) {
+            case CREATE:
+                return ENTRY_CREATE;
+            case MODIFY:
+                return ENTRY_MODIFY;
+            case DELETE:
+                return ENTRY_DELETE;
+            case OVERFLOW_MARKER:
+                return OVERFLOW;
+            default:
+                throw new IOException("Unknown record tag " + tag);
+        }
+    }
+
+    static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length number");
+    }
+}
@@ -0,0 +1,135 @@
+package nio.trace;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class reads the events of a trace file which is written by the TraceRecorder one by one
+ * The fields of the current event are kept in this reader, so that reading a trace doesn't create an object per event
+ *
+ * @author Chanaka Lakmal
+ */
+public class TraceReader implements Closeable {
+
+    private final DataInputStream in;
+    private final FileSystem fileSystem;
+    private final List<Path> directories;
+    private final long startMillis;
+    private long timeMicros;
+    private Path directory;
+    private WatchEvent.Kind<?> kind;
+    private Path name;
+
+    /**
+     * Open the trace file and read its header
+     *
+     * @param traceFile  the trace file which is written by the TraceRecorder
+     * @param fileSystem file system which the directories and the names of the events should be created in
+     * @throws IOException if the file is not a trace file or an error occurs while reading it
+     */
+    public TraceReader(Path traceFile, FileSystem fileSystem) throws IOException {
+        this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(traceFile), 64 * 1024));
+        this.fileSystem = fileSystem;
+        this.directories = new ArrayList<>();
+        if (in.readInt() != TraceFormat.MAGIC) {
+            in.close();
+            throw new IOException(traceFile + " is not a trace file");
+        }
+        short version = in.readShort();
+        if (version != TraceFormat.VERSION) {
+            in.close();
+            throw new IOException("Unsupported trace version " + version);
+        }
+        this.startMillis = in.readLong();
+    }
+
+    /**
+     * Read the next event of the trace
+     *
+     * @return false if there are no more events
+     * @throws IOException if an error occurs while reading the trace
+     */
+    public boolean next() throws IOException {
+        for (; ; ) {
+            byte tag;
+            try {
+                tag = in.readByte();
+            } catch (EOFException e) {
+                return false;
+            }
+            if (tag == TraceFormat.DIRECTORY) {
+                int id = (int) TraceFormat.readVarLong(in);
+                Path dir = fileSystem.getPath(in.readUTF());
+                if (id == directories.size()) {
+                    directories.add(dir);
+                } else {
+                    directories.set(id, dir);
+                }
+                continue;
+            }
+            kind = TraceFormat.kindOf(tag);
+            timeMicros += TraceFormat.readVarLong(in);
+            directory = directories.get((int) TraceFormat.readVarLong(in));
+            name = tag == TraceFormat.OVERFLOW_MARKER ? null : fileSystem.getPath(in.readUTF());
+            return true;
+        }
+    }
+
+    /**
+     * Returns the time which the recording was started at
+     *
+     * @return start time in epoch milliseconds
+     */
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    /**
+     * Returns the time of the current event since the start of the recording
+     *
+     * @return time in microseconds
+     */
+    public long getTimeMicros() {
+        return timeMicros;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    public WatchEvent.Kind<?> getKind() {
+        return kind;
+    }
+
+    /**
+     * Returns the file name of the current event
+     *
+     * @return file name, or null for an OVERFLOW
+     */
+    public Path getName() {
+        return name;
+    }
+
+    /**
+     * Returns the directories which have been read up to now
+     *
+     * @return list of directories
+     */
+    public List<Path> getDirectories() {
+        return directories;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,86 @@
+package nio.trace;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class records the raw stream of a WatchService into a compact binary trace file
+ * The directories are written once and referred by their id, and the times are written as the difference from the
+ * previous event in microseconds, so that a typical event takes a few bytes more than its file name
+ *
+ * @author Chanaka Lakmal
+ */
+public class TraceRecorder implements Closeable {
+
+    private final DataOutputStream out;
+    private final Map<Path, Integer> directoryIds;
+    private long lastNanos;
+    private long eventCount;
+
+    /**
+     * Create the trace file and write its header
+     *
+     * @param traceFile the file which the trace should be written into, it is replaced if it exists
+     * @throws IOException if an error occurs while creating the file
+     */
+    public TraceRecorder(Path traceFile) throws IOException {
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(traceFile), 64 * 1024));
+        this.directoryIds = new HashMap<>();
+        this.lastNanos = System.nanoTime();
+        out.writeInt(TraceFormat.MAGIC);
+        out.writeShort(TraceFormat.VERSION);
+        out.writeLong(System.currentTimeMillis());
+    }
+
+    /**
+     * Record an event taken from a WatchKey
+     *
+     * @param dir  the directory of the key
+     * @param kind kind of the event
+     * @param name context of the event, which is null for an OVERFLOW
+     * @throws IOException if an error occurs while writing the trace
+     */
+    public synchronized void record(Path dir, WatchEvent.Kind<?> kind, Path name) throws IOException {
+        Integer id = directoryIds.get(dir);
+        if (id == null) {
+            id = directoryIds.size();
+            directoryIds.put(dir, id);
+            out.writeByte(TraceFormat.DIRECTORY);
+            TraceFormat.writeVarLong(out, id);
+            out.writeUTF(dir.toString());
+        }
+
+        long now = System.nanoTime();
+        byte tag = TraceFormat.tagOf(kind);
+        out.writeByte(tag);
+        TraceFormat.writeVarLong(out, TimeUnit.NANOSECONDS.toMicros(now - lastNanos));
+        TraceFormat.writeVarLong(out, id);
+        if (tag != TraceFormat.OVERFLOW_MARKER) {
+            out.writeUTF(name.toString());
+        }
+        lastNanos = now;
+        eventCount++;
+    }
+
+    /**
+     * Returns the number of the events recorded up to now
+     *
+     * @return event count
+     */
+    public synchronized long getEventCount() {
+        return eventCount;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        out.close();
+    }
+}
@@ -0,0 +1,88 @@
+package nio.trace;
+
+import nio.sim.SimFileSystem;
+import nio.sim.SimWatchService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+/**
+ * This class replays a trace file into the watch service of a simulated file system
+ * <p>
+ * The directories of the trace are created in the simulated file system first, so that a Notifier or a FilePublisher
+ * can register them as usual. Then the events are injected into the keys of their directories at the original speed,
+ * at an accelerated speed or as fast as possible, so that the recorded traffic goes through the same matching and
+ * dispatching code without touching the real file system.
+ *
+ * @author Chanaka Lakmal
+ */
+public class TraceReplayer {
+
+    private final Path traceFile;
+    private final SimFileSystem fileSystem;
+
+    /**
+     * @param traceFile  the trace file which is written by the TraceRecorder
+     * @param fileSystem the simulated file system which the trace should be replayed in
+     */
+    public TraceReplayer(Path traceFile, SimFileSystem fileSystem) {
+        this.traceFile = traceFile;
+        this.fileSystem = fileSystem;
+    }
+
+    /**
+     * Create all the directories of the trace in the simulated file system
+     *
+     * @return number of the directories of the trace
+     * @throws IOException if an error occurs while reading the trace
+     */
+    public int createDirectories() throws IOException {
+        try (TraceReader reader = new TraceReader(traceFile, fileSystem)) {
+            while (reader.next()) {
+                // read through the trace in order to collect all the directories
+            }
+            for (Path dir : reader.getDirectories()) {
+                Files.createDirectories(dir);
+            }
+            return reader.getDirectories().size();
+        }
+    }
+
+    /**
+     * Inject the events of the trace into the keys of the given watch service
+     * The events of the directories which are not registered with the watch service are dropped like the real one does
+     *
+     * @param watcher the watch service which the Notifier or the FilePublisher takes the keys from
+     * @param speed   speed relative to the recording, eg. 1 for the original speed, 10 for ten times faster, or 0 to
+     *                inject the events without waiting
+     * @return number of the injected events
+     * @throws IOException          if an error occurs while reading the trace
+     * @throws InterruptedException if the current thread is interrupted while waiting for the time of an event
+     */
+    public long replay(SimWatchService watcher, double speed) throws IOException, InterruptedException {
+        long count = 0;
+        long startNanos = System.nanoTime();
+        try (TraceReader reader = new TraceReader(traceFile, fileSystem)) {
+            while (reader.next()) {
+                if (speed > 0) {
+                    long due = startNanos + (long) (TimeUnit.MICROSECONDS.toNanos(reader.getTimeMicros()) / speed);
+                    long wait = due - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                }
+                if (reader.getKind() == OVERFLOW) {
+                    watcher.overflow(reader.getDirectory());
+                } else {
+                    watcher.inject(reader.getDirectory(), reader.getKind(), reader.getName());
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+package nio.util;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class decides whether a directory should be watched for a given path pattern
+ * <p>
+ * A directory is watched only if it can contain files which match the pattern or if it is an ancestor of such a
+ * directory, so that the newly created matching directories can be seen. The directory component of the pattern is
+ * split into segments and the name elements of the directory are matched with them one by one.
+ * eg. for /tmp/ram/test/*&#47;1A/*.xml
+ * - /tmp/ram/test/100Set     => watched, since a 1A directory can be created in it
+ * - /tmp/ram/test/100Set/1A  => watched, since it can contain the matching files
+ * - /tmp/ram/test/100Set/2A  => pruned with its whole subtree
+ * <p>
+ * If a segment contains ** every directory below the preceding segments is watched. Regex patterns can't be split
+ * into segments safely, so nothing is pruned for them.
+ *
+ * @author Chanaka Lakmal
+ */
+public class DirectoryPruner {
+
+    private final PathMatcher[] segmentMatchers;
+    private final int recursiveIndex;
+    private final boolean enabled;
+
+    /**
+     * Split the directory component of the pattern into the segment matchers
+     *
+     * @param fileSystem    file system which the directories belong to
+     * @param patternSyntax whether the pattern is glob or regex
+     * @param pathPattern   path pattern in the form of glob or regex
+     */
+    public DirectoryPruner(FileSystem fileSystem, String patternSyntax, String pathPattern) {
+        String separator = fileSystem.getSeparator();
+        int lastSeparator = pathPattern.lastIndexOf(separator);
+        String dirPattern = lastSeparator < 0 ? "" : pathPattern.substring(0, lastSeparator);
+
+        List<PathMatcher> matchers = new ArrayList<>();
+        int recursive = -1;
+        boolean canPrune = !PathPatterns.isRegex(patternSyntax) && !PathPatterns.hasSeparatorInGroup(dirPattern, separator);
+        if (canPrune) {
+            for (String segment : dirPattern.split(java.util.regex.Pattern.quote(separator))) {
+                if (segment.isEmpty()) {
+                    continue;
+                }
+                if (segment.contains("**")) {
+                    recursive = matchers.size();
+                    break;
+                }
+                matchers.add(fileSystem.getPathMatcher("glob:" + segment));
+            }
+        }
+        this.segmentMatchers = matchers.toArray(new PathMatcher[matchers.size()]);
+        this.recursiveIndex = recursive;
+        this.enabled = canPrune;
+    }
+
+    /**
+     * Check whether the directory can contain matching files or can lead to a directory which contains them
+     * If this returns false for a directory it returns false for all of its sub-directories too
+     *
+     * @param dir the directory which should be checked
+     * @return true if the directory should be watched
+     */
+    public boolean isWatchable(Path dir) {
+        if (!enabled) {
+            return true;
+        }
+        int depth = dir.getNameCount();
+        if (recursiveIndex < 0 && depth > segmentMatchers.length) {
+            return false;
+        }
+        int limit = Math.min(depth, segmentMatchers.length);
+        for (int i = 0; i < limit; i++) {
+            if (!segmentMatchers[i].matches(dir.getName(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check whether a directory created in a watchable directory should be watched as well
+     * Only the name of the new directory is matched, since the names of the parent have been matched already, so
+     * the path of the new directory is neither resolved nor split.
+     *
+     * @param dir  the watchable parent directory
+     * @param name the file name of the created directory
+     * @return true if the created directory should be watched
+     */
+    public boolean isWatchable(Path dir, Path name) {
+        if (!enabled) {
+            return true;
+        }
+        int index = dir.getNameCount();
+        if (index >= segmentMatchers.length) {
+            return recursiveIndex >= 0;
+        }
+        return segmentMatchers[index].matches(name);
+    }
+}
@@ -0,0 +1,51 @@
+package nio.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+
+/**
+ * Utility methods for reading the attributes of an entry once, so that the type and the last modified time of it are
+ * taken from a single stat call instead of a call for each of them
+ * <p>
+ * The walks already receive the attributes of each entry, so the visitors should use them instead of reading them
+ * again. The events are classified with the names and the watched directories first, and only the entries which
+ * can't be classified without the file system are read with this.
+ *
+ * @author Chanaka Lakmal
+ */
+public class EntryAttributes {
+
+    private static final LinkOption[] FOLLOW_LINKS = new LinkOption[0];
+    private static final LinkOption[] NOFOLLOW_LINKS = {LinkOption.NOFOLLOW_LINKS};
+
+    private EntryAttributes() {
+    }
+
+    /**
+     * Read the basic attributes of the entry with a single stat call
+     *
+     * @param path        the entry which should be read
+     * @param followLinks whether a symbolic link should be followed
+     * @return the attributes, or null if the entry doesn't exist any more or can't be read
+     */
+    public static BasicFileAttributes readIfExists(Path path, boolean followLinks) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class, followLinks ? FOLLOW_LINKS : NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the last modified time of the attributes which have been read already
+     *
+     * @param attrs the attributes of the entry, or null if they couldn't be read
+     * @return last modified time in milliseconds, or -1 if the attributes are not available
+     */
+    public static long lastModifiedMillis(BasicFileAttributes attrs) {
+        return attrs == null ? -1 : attrs.lastModifiedTime().toMillis();
+    }
+}
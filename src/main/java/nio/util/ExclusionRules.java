@@ -0,0 +1,191 @@
+package nio.util;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class keeps the rules of the files and directories which should never be processed by the transport
+ * - file names which match the given globs, eg. *.part, *.tmp which are renamed by the producers after writing
+ * - hidden files and directories
+ * - directories deeper than the given depth from the watched root
+ * - ignored subtrees, eg. huge archive directories under the watched root
+ * <p>
+ * The excluded directories are never watched and the excluded names are dropped at the very start of the event
+ * processing. The simple suffix globs like *.part are checked without a PathMatcher.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class ExclusionRules {
+
+    private final FileSystem fileSystem;
+    private final List<String> excludedSuffixes;
+    private final List<PathMatcher> excludedNameMatchers;
+    private final List<Path> ignoredSubtrees;
+    private boolean excludeHidden;
+    private int maxDepth;
+
+    /**
+     * Create an empty set of rules for the default file system which doesn't exclude anything
+     */
+    public ExclusionRules() {
+        this(FileSystems.getDefault());
+    }
+
+    /**
+     * Create an empty set of rules which doesn't exclude anything
+     *
+     * @param fileSystem file system which the name globs are compiled for
+     */
+    public ExclusionRules(FileSystem fileSystem) {
+        this.fileSystem = fileSystem;
+        this.excludedSuffixes = new ArrayList<>();
+        this.excludedNameMatchers = new ArrayList<>();
+        this.ignoredSubtrees = new ArrayList<>();
+        this.maxDepth = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Exclude the files and directories whose names match the given glob, eg. *.part
+     *
+     * @param nameGlob glob of the file name
+     * @return this rules object
+     * @throws IllegalArgumentException if the glob is empty
+     */
+    public ExclusionRules excludeName(String nameGlob) {
+        if (nameGlob.isEmpty()) {
+            throw new IllegalArgumentException("The glob of an excluded name should not be empty");
+        }
+        if (nameGlob.startsWith("*") && !PathPatterns.hasMetaChars("glob:", nameGlob.substring(1))) {
+            excludedSuffixes.add(nameGlob.substring(1));
+        } else {
+            excludedNameMatchers.add(fileSystem.getPathMatcher("glob:" + nameGlob));
+        }
+        return this;
+    }
+
+    /**
+     * Exclude the files and directories whose names start with a dot
+     *
+     * @param excludeHidden whether the hidden files should be excluded
+     * @return this rules object
+     */
+    public ExclusionRules excludeHidden(boolean excludeHidden) {
+        this.excludeHidden = excludeHidden;
+        return this;
+    }
+
+    /**
+     * Exclude the directories which are deeper than the given depth from the watched root
+     * The root itself has the depth 0
+     *
+     * @param maxDepth maximum depth of a watched directory
+     * @return this rules object
+     */
+    public ExclusionRules maxDepth(int maxDepth) {
+        this.maxDepth = maxDepth;
+        return this;
+    }
+
+    /**
+     * Exclude the given directory and its whole subtree
+     *
+     * @param subtree the directory which should never be watched
+     * @return this rules object
+     */
+    public ExclusionRules ignoreSubtree(Path subtree) {
+        ignoredSubtrees.add(subtree);
+        return this;
+    }
+
+    /**
+     * Check whether a file or directory with the given name should be dropped
+     *
+     * @param name the file name of the entry
+     * @return true if the name is excluded
+     */
+    public boolean isExcludedName(Path name) {
+        if (name == null) {
+            return false;
+        }
+        if (excludeHidden || !excludedSuffixes.isEmpty()) {
+            String fileName = name.toString();
+            if (excludeHidden && fileName.startsWith(".")) {
+                return true;
+            }
+            for (int i = 0; i < excludedSuffixes.size(); i++) {
+                if (fileName.endsWith(excludedSuffixes.get(i))) {
+                    return true;
+                }
+            }
+        }
+        for (int i = 0; i < excludedNameMatchers.size(); i++) {
+            if (excludedNameMatchers.get(i).matches(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the given directory should never be watched
+     *
+     * @param root the watched root which the depth is calculated from
+     * @param dir  the directory which is going to be registered
+     * @return true if the directory and its subtree are excluded
+     */
+    public boolean isExcludedDirectory(Path root, Path dir) {
+        if (maxDepth != Integer.MAX_VALUE && dir.startsWith(root) && dir.getNameCount() - root.getNameCount() > maxDepth) {
+            return true;
+        }
+        for (int i = 0; i < ignoredSubtrees.size(); i++) {
+            if (dir.startsWith(ignoredSubtrees.get(i))) {
+                return true;
+            }
+        }
+        return !dir.equals(root) && isExcludedName(dir.getFileName());
+    }
+
+    /**
+     * Check whether a directory created in a watched directory should never be watched, without resolving its path
+     * The parent directory should be the root or a directory under it which is not excluded.
+     *
+     * @param root the watched root which the depth is calculated from
+     * @param dir  the watched parent directory
+     * @param name the file name of the created directory
+     * @return true if the directory and its subtree are excluded
+     */
+    public boolean isExcludedDirectory(Path root, Path dir, Path name) {
+        int depth = dir.getNameCount() + 1;
+        if (maxDepth != Integer.MAX_VALUE && dir.startsWith(root) && depth - root.getNameCount() > maxDepth) {
+            return true;
+        }
+        for (int i = 0; i < ignoredSubtrees.size(); i++) {
+            Path subtree = ignoredSubtrees.get(i);
+            if (dir.startsWith(subtree)
+                    || (subtree.getNameCount() == depth && subtree.startsWith(dir) && subtree.endsWith(name))) {
+                return true;
+            }
+        }
+        return isExcludedName(name);
+    }
+
+    /**
+     * Wrap the given file name matcher so that the excluded names never match
+     *
+     * @param fileNameMatcher the PathMatcher object which matches the file name with the pattern
+     * @return the PathMatcher which drops the excluded names first
+     */
+    public PathMatcher filter(final PathMatcher fileNameMatcher) {
+        return new PathMatcher() {
+            @Override
+            public boolean matches(Path path) {
+                return !isExcludedName(path.getFileName()) && fileNameMatcher.matches(path);
+            }
+        };
+    }
+}
@@ -0,0 +1,126 @@
+package nio.util;
+
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class matches the file name of an event with the file name component of a glob pattern
+ * <p>
+ * The PathMatcher of the file system creates a new regex Matcher for every path, which is a garbage per event in the
+ * dispatch loop. The common shapes of the file name globs are compared directly with the name instead
+ * - a literal name, eg. data.xml      => equals
+ * - a star and literal suffixes, eg. *.xml or *.{xml,txt} => endsWith
+ * - anything else is matched with a regex Matcher which is reused by each thread
+ * The matching itself doesn't allocate. The string of a name Path is created by the first match and cached by the
+ * Path, so the context of an event, which is a new Path for every event, costs one string per event however many
+ * patterns it is matched with. The matchFreshName case of DispatchBenchmark measures it.
+ *
+ * @author Chanaka Lakmal
+ */
+public class FileNameMatcher implements PathMatcher {
+
+    private final String glob;
+    private final String literal;
+    private final String[] suffixes;
+    private final ThreadLocal<Matcher> matchers;
+
+    private FileNameMatcher(String glob, String literal, String[] suffixes, final Pattern pattern) {
+        this.glob = glob;
+        this.literal = literal;
+        this.suffixes = suffixes;
+        this.matchers = pattern == null ? null : new ThreadLocal<Matcher>() {
+            @Override
+            protected Matcher initialValue() {
+                return pattern.matcher("");
+            }
+        };
+    }
+
+    /**
+     * Create a matcher for the file name component of a glob pattern
+     *
+     * @param nameGlob the last segment of a glob pattern, which must not contain ** or a separator
+     * @return the matcher of the file names
+     */
+    public static FileNameMatcher of(String nameGlob) {
+        if (!PathPatterns.hasMetaChars("glob:", nameGlob)) {
+            return new FileNameMatcher(nameGlob, nameGlob, null, null);
+        }
+        String[] suffixes = suffixesOf(nameGlob);
+        if (suffixes != null) {
+            return new FileNameMatcher(nameGlob, null, suffixes, null);
+        }
+        return new FileNameMatcher(nameGlob, null, null, Pattern.compile(PathPatterns.globToRegex(nameGlob)));
+    }
+
+    /**
+     * Returns the literal suffixes of a glob which is a star followed by a literal and an optional group of literals
+     * eg. *.{xml,txt} => [.xml, .txt]
+     *
+     * @param nameGlob the file name glob
+     * @return the suffixes, or null if the glob has any other shape
+     */
+    private static String[] suffixesOf(String nameGlob) {
+        if (!nameGlob.startsWith("*")) {
+            return null;
+        }
+        String rest = nameGlob.substring(1);
+        int groupStart = rest.indexOf('{');
+        if (groupStart < 0) {
+            return PathPatterns.hasMetaChars("glob:", rest) ? null : new String[]{rest};
+        }
+        String prefix = rest.substring(0, groupStart);
+        if (!rest.endsWith("}") || PathPatterns.hasMetaChars("glob:", prefix)) {
+            return null;
+        }
+        List<String> suffixes = new ArrayList<>();
+        for (String alternative : rest.substring(groupStart + 1, rest.length() - 1).split(",", -1)) {
+            if (PathPatterns.hasMetaChars("glob:", alternative)) {
+                return null;
+            }
+            suffixes.add(prefix + alternative);
+        }
+        return suffixes.toArray(new String[suffixes.size()]);
+    }
+
+    /**
+     * Check whether the file name matches the glob
+     *
+     * @param name file name of the entry
+     * @return true if the name matches
+     */
+    @Override
+    public boolean matches(Path name) {
+        return name != null && matches(name.toString());
+    }
+
+    /**
+     * Check whether the file name matches the glob
+     *
+     * @param name file name of the entry
+     * @return true if the name matches
+     */
+    public boolean matches(String name) {
+        if (literal != null) {
+            return literal.equals(name);
+        }
+        if (suffixes != null) {
+            for (int i = 0; i < suffixes.length; i++) {
+                if (name.endsWith(suffixes[i])) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return matchers.get().reset(name).matches();
+    }
+
+    @Override
+    public String toString() {
+        return glob;
+    }
+}
@@ -33,6 +33,7 @@ import java.io.FilenameFilter;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.channels.ByteChannel;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -233,14 +234,14 @@ public class FileOperations {
      * @return content of the file, as a String
      */
     private static String readFileAsString(Path file) throws IOException {
-        ByteBuffer buffer = ByteBuffer.allocate((int) Files.size(file));
-        ByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ);
-        channel.read(buffer);
-        channel.close();
-
-        byte[] text = new byte[buffer.limit()];
-        buffer.rewind();
-        buffer.get(text);
-        return new String(text);
+        try (SeekableByteChannel channel = Files.newByteChannel(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer) == -1) {
+                    break;
+                }
+            }
+            return new String(buffer.array(), 0, buffer.position());
+        }
     }
 }
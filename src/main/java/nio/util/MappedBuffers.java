@@ -0,0 +1,91 @@
+package nio.util;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.MappedByteBuffer;
+
+/**
+ * Utility methods for releasing the memory mapped buffers as soon as they are no longer used
+ * <p>
+ * A mapped region is released only when its buffer is garbage collected unless it is unmapped explicitly, so the
+ * mappings of the files which are delivered at a high rate could hold the address space and the file handles of the
+ * deleted files for a long time. There is no public API for unmapping a buffer in this Java version, so the cleaner of
+ * the buffer is invoked through Unsafe.invokeCleaner on Java 9 or later, or through the cleaner of the buffer on Java 8.
+ * If neither of them is available the buffer is left for the garbage collector.
+ *
+ * @author Chanaka Lakmal
+ */
+public class MappedBuffers {
+
+    private static final Logger logger = LogManager.getLogger(MappedBuffers.class);
+    private static final Unmapper unmapper = createUnmapper();
+
+    private MappedBuffers() {
+    }
+
+    /**
+     * Unmap the buffer, it must not be accessed after this is called, including through its duplicates and views
+     *
+     * @param buffer the mapped buffer
+     */
+    public static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null || unmapper == null) {
+            return;
+        }
+        try {
+            unmapper.unmap(buffer);
+        } catch (Exception e) {
+            logger.debug("Failed to unmap the buffer due to :", e);
+        }
+    }
+
+    /**
+     * Returns whether the buffers can be unmapped explicitly in this JVM
+     *
+     * @return true if the buffers are unmapped by unmap
+     */
+    public static boolean isUnmapSupported() {
+        return unmapper != null;
+    }
+
+    private static Unmapper createUnmapper() {
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", java.nio.ByteBuffer.class);
+            Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            final Object unsafe = theUnsafe.get(null);
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    invokeCleaner.invoke(unsafe, buffer);
+                }
+            };
+        } catch (Exception e) {
+            logger.debug("Unsafe.invokeCleaner is not available, trying the cleaner of the buffer");
+        }
+        try {
+            final Method cleaner = Class.forName("sun.nio.ch.DirectBuffer").getMethod("cleaner");
+            final Method clean = Class.forName("sun.misc.Cleaner").getMethod("clean");
+            return new Unmapper() {
+                @Override
+                public void unmap(MappedByteBuffer buffer) throws Exception {
+                    Object bufferCleaner = cleaner.invoke(buffer);
+                    if (bufferCleaner != null) {
+                        clean.invoke(bufferCleaner);
+                    }
+                }
+            };
+        } catch (Exception e) {
+            logger.info("The mapped buffers can't be unmapped explicitly in this JVM, they are released by the GC");
+            return null;
+        }
+    }
+
+    private interface Unmapper {
+        void unmap(MappedByteBuffer buffer) throws Exception;
+    }
+}
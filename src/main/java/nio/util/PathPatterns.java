@@ -0,0 +1,173 @@
+package nio.util;
+
+import java.nio.file.FileSystem;
+import java.nio.file.Path;
+import java.util.regex.Pattern;
+
+/**
+ * Utility methods for splitting a glob or regex path pattern into its literal and wildcard parts
+ *
+ * @author Chanaka Lakmal
+ */
+public class PathPatterns {
+
+    private static final String GLOB_META_CHARS = "*?[]{}\\";
+    private static final String REGEX_META_CHARS = "\\^$.|?*+()[]{}";
+
+    private PathPatterns() {
+    }
+
+    /**
+     * Returns the longest directory prefix of the pattern which doesn't contain any wildcard
+     * eg. glob:/tmp/ram/test/*&#47;1A/*.xml => /tmp/ram/test
+     * The file name component of the pattern is never a part of the root
+     *
+     * @param fileSystem    file system which the root path belongs to
+     * @param patternSyntax whether the pattern is glob or regex
+     * @param pathPattern   path pattern in the form of glob or regex
+     * @return literal root directory of the pattern
+     */
+    public static Path literalRoot(FileSystem fileSystem, String patternSyntax, String pathPattern) {
+        String separator = fileSystem.getSeparator();
+        String[] segments = pathPattern.split(Pattern.quote(separator));
+        StringBuilder root = new StringBuilder();
+        for (int i = 0; i < segments.length - 1; i++) {
+            if (hasMetaChars(patternSyntax, segments[i])) {
+                break;
+            }
+            if (i > 0) {
+                root.append(separator);
+            }
+            root.append(segments[i]);
+        }
+        if (root.length() == 0) {
+            root.append(pathPattern.startsWith(separator) ? separator : ".");
+        }
+        return fileSystem.getPath(root.toString()).normalize();
+    }
+
+    /**
+     * Check whether the given segment of the pattern contains any wildcard of the pattern syntax
+     *
+     * @param patternSyntax whether the pattern is glob or regex
+     * @param segment       a single name element of the path pattern
+     * @return true if the segment should be matched instead of compared literally
+     */
+    public static boolean hasMetaChars(String patternSyntax, String segment) {
+        String metaChars = isRegex(patternSyntax) ? REGEX_META_CHARS : GLOB_META_CHARS;
+        for (int i = 0; i < segment.length(); i++) {
+            if (metaChars.indexOf(segment.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check whether the syntax is regex, the syntax can be given with or without the colon
+     *
+     * @param patternSyntax whether the pattern is glob or regex
+     * @return true if the syntax is regex
+     */
+    public static boolean isRegex(String patternSyntax) {
+        return patternSyntax.toLowerCase().startsWith("regex");
+    }
+
+    /**
+     * Check whether a {...} group of the glob contains a separator, which means it can't be split into segments
+     *
+     * @param pattern   glob pattern or a part of it
+     * @param separator name separator of the file system
+     * @return true if a group contains a separator
+     */
+    public static boolean hasSeparatorInGroup(String pattern, String separator) {
+        int depth = 0;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '{') {
+                depth++;
+            } else if (c == '}' && depth > 0) {
+                depth--;
+            } else if (depth > 0 && pattern.startsWith(separator, i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Convert a glob into a regex with the same rules as the JDK, where * and ? don't cross the directory boundaries
+     * eg. *.{xml,txt} => ^[^/]*\.(?:(?:xml)|(?:txt))$
+     *
+     * @param glob the glob pattern
+     * @return regex pattern
+     */
+    public static String globToRegex(String glob) {
+        StringBuilder regex = new StringBuilder("^");
+        boolean inGroup = false;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            switch (c) {
+                case '\\':
+                    if (++i >= glob.length()) {
+                        throw new IllegalArgumentException("No character to escape in " + glob);
+                    }
+                    regex.append(Pattern.quote(String.valueOf(glob.charAt(i))));
+                    break;
+                case '*':
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                        regex.append(".*");
+                        i++;
+                    } else {
+                        regex.append("[^/]*");
+                    }
+                    break;
+                case '?':
+                    regex.append("[^/]");
+                    break;
+                case '[':
+                    regex.append("[[^/]&&[");
+                    if (i + 1 < glob.length() && glob.charAt(i + 1) == '!') {
+                        regex.append('^');
+                        i++;
+                    }
+                    for (i++; i < glob.length() && glob.charAt(i) != ']'; i++) {
+                        char d = glob.charAt(i);
+                        if (d == '\\' || d == '[' || d == '&' || (d == '^' && regex.charAt(regex.length() - 1) == '[')) {
+                            regex.append('\\');
+                        }
+                        regex.append(d);
+                    }
+                    regex.append("]]");
+                    break;
+                case '{':
+                    if (inGroup) {
+                        throw new IllegalArgumentException("Cannot nest groups in " + glob);
+                    }
+                    regex.append("(?:(?:");
+                    inGroup = true;
+                    break;
+                case '}':
+                    if (inGroup) {
+                        regex.append("))");
+                        inGroup = false;
+                    } else {
+                        regex.append('}');
+                    }
+                    break;
+                case ',':
+                    regex.append(inGroup ? ")|(?:" : ",");
+                    break;
+                default:
+                    if ("^$.|+()".indexOf(c) >= 0) {
+                        regex.append('\\');
+                    }
+                    regex.append(c);
+            }
+        }
+        if (inGroup) {
+            throw new IllegalArgumentException("Missing '}' in " + glob);
+        }
+        return regex.append('$').toString();
+    }
+}
@@ -0,0 +1,42 @@
+package nio.util;
+
+import java.nio.file.Path;
+import java.util.NavigableMap;
+
+/**
+ * Utility methods for finding the sub-directories of a directory in a map which is sorted by path
+ * <p>
+ * The paths are compared by their strings, so all the paths under a directory are sorted right after it, between the
+ * directory and its string followed by the character after the separator. The range may contain a few siblings of the
+ * directory as well, eg. /a/b-c between /a/b and /a/b/c, so the paths of the range should still be checked with
+ * startsWith.
+ *
+ * @author Chanaka Lakmal
+ */
+public class PathRanges {
+
+    private PathRanges() {
+    }
+
+    /**
+     * Returns the view of the entries of the given directory and the paths which can be under it
+     * The entries removed from the view are removed from the map.
+     *
+     * @param map   map which is sorted by path
+     * @param start the directory whose subtree should be found
+     * @param <V>   type of the values of the map
+     * @return the range of the map which contains the subtree of the directory
+     */
+    public static <V> NavigableMap<Path, V> subtree(NavigableMap<Path, V> map, Path start) {
+        String separator = start.getFileSystem().getSeparator();
+        String prefix = start.toString();
+        if (prefix.endsWith(separator)) {
+            /*
+             * a root directory, eg. /, ends with the separator already, so every path after it can be under it
+             */
+            return map.tailMap(start, true);
+        }
+        Path end = start.getFileSystem().getPath(prefix + (char) (separator.charAt(0) + 1));
+        return map.subMap(start, true, end, false);
+    }
+}
@@ -0,0 +1,147 @@
+package nio.util;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a token bucket which limits the rate of an operation, such as the files or the bytes delivered per
+ * second, without a thread of its own
+ * <p>
+ * The tokens are added lazily from the elapsed time whenever the bucket is used, up to the burst. An amount is taken
+ * once the bucket has enough tokens for it or is full, so an amount which is larger than the burst, such as a large
+ * file, is let through and the bucket is left in debt until the time of the amount has passed. A rate of 0 or less
+ * means no limit. The rate can be changed at any time and it is applied to the next amount.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class TokenBucket {
+
+    private double ratePerNano;
+    private double burst;
+    private double tokens;
+    private long lastNanos;
+
+    /**
+     * Create an unlimited bucket
+     */
+    public TokenBucket() {
+        this(0, 0);
+    }
+
+    /**
+     * Create a bucket which is full
+     *
+     * @param ratePerSecond tokens added per second, 0 or less for no limit
+     * @param burst         maximum number of the tokens, which is at least a second of the rate if it is less
+     */
+    public TokenBucket(double ratePerSecond, double burst) {
+        this.lastNanos = System.nanoTime();
+        setRate(ratePerSecond, burst);
+    }
+
+    /**
+     * Change the rate of the bucket, the tokens which are already in the bucket are kept up to the new burst
+     * A bucket which had no limit is filled.
+     *
+     * @param ratePerSecond tokens added per second, 0 or less for no limit
+     * @param burst         maximum number of the tokens, which is at least a second of the rate if it is less
+     */
+    public synchronized void setRate(double ratePerSecond, double burst) {
+        refill(System.nanoTime());
+        if (ratePerSecond > 0) {
+            boolean unlimited = ratePerNano == 0;
+            this.ratePerNano = ratePerSecond / TimeUnit.SECONDS.toNanos(1);
+            this.burst = Math.max(burst, ratePerSecond);
+            this.tokens = unlimited ? this.burst : Math.min(tokens, this.burst);
+        } else {
+            this.ratePerNano = 0;
+            this.burst = 0;
+            this.tokens = 0;
+        }
+    }
+
+    /**
+     * Returns the rate of the bucket
+     *
+     * @return tokens added per second, 0 if there is no limit
+     */
+    public synchronized double getRate() {
+        return ratePerNano * TimeUnit.SECONDS.toNanos(1);
+    }
+
+    /**
+     * Returns whether the bucket limits the rate
+     *
+     * @return true if there is no limit
+     */
+    public synchronized boolean isUnlimited() {
+        return ratePerNano == 0;
+    }
+
+    /**
+     * Returns the time until the given amount can be taken, without taking it
+     *
+     * @param amount number of the tokens
+     * @return nanoseconds to wait, 0 if the amount can be taken now
+     */
+    public synchronized long nanosToWait(double amount) {
+        if (ratePerNano == 0) {
+            return 0;
+        }
+        refill(System.nanoTime());
+        double needed = Math.min(amount, burst);
+        return tokens >= needed ? 0 : (long) Math.ceil((needed - tokens) / ratePerNano);
+    }
+
+    /**
+     * Take the given amount if it can be taken now
+     *
+     * @param amount number of the tokens
+     * @return true if the amount has been taken
+     */
+    public synchronized boolean tryAcquire(double amount) {
+        if (nanosToWait(amount) > 0) {
+            return false;
+        }
+        take(amount);
+        return true;
+    }
+
+    /**
+     * Take the given amount without waiting, even if it leaves the bucket in debt
+     * This is used for an amount which is known only after the operation, such as the size of a delivered file.
+     *
+     * @param amount number of the tokens
+     */
+    public synchronized void take(double amount) {
+        if (ratePerNano != 0) {
+            refill(System.nanoTime());
+            tokens -= amount;
+        }
+    }
+
+    /**
+     * Wait until the given amount can be taken and take it
+     *
+     * @param amount number of the tokens
+     * @throws InterruptedException if interrupted while waiting, the amount is not taken then
+     */
+    public void acquire(double amount) throws InterruptedException {
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                waitNanos = nanosToWait(amount);
+                if (waitNanos == 0) {
+                    take(amount);
+                    return;
+                }
+            }
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    private void refill(long nowNanos) {
+        tokens = Math.min(burst, tokens + (nowNanos - lastNanos) * ratePerNano);
+        lastNanos = nowNanos;
+    }
+}
@@ -1,9 +1,6 @@
 package transport;
 
-import java.nio.file.FileSystems;
 import java.nio.file.Path;
-import java.nio.file.PathMatcher;
-import java.nio.file.Paths;
 
 /**
  * This class will match the given path pattern with the file and returned a boolean variable
@@ -18,9 +15,7 @@ import java.nio.file.Paths;
 public class AbstractPathMatcher {
 
     public boolean isMatchPattern(GRPattern GRPattern, Path file) {
-        PathMatcher matcher = FileSystems.getDefault().getPathMatcher(GRPattern.getPatternSyntax() +
-                Paths.get(GRPattern.getPathPattern()).toString());
         Path name = file.getFileName();
-        return name != null && matcher.matches(file);
+        return name != null && GRPattern.matches(file);
     }
 }
@@ -0,0 +1,27 @@
+package transport;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * This interface is implemented by the engine which receives the content of the files detected by the FilePublisher
+ * through a ContentReader, instead of opening and reading the files by itself
+ *
+ * @author Chanaka Lakmal
+ */
+public interface ContentConsumer {
+
+    /**
+     * Calls for each file which is matched with a registered pattern with the whole content of the file
+     * The buffer is read-only and it is valid only until this returns, since the mapping of a large file is unmapped
+     * and the buffer of a small file is reused for the next file of the same thread. The content should be copied if
+     * it is needed later.
+     *
+     * @param file    the detected file
+     * @param content the content of the file, from position 0 to the limit
+     * @param pattern the pattern which is matched with the file
+     * @param dataMap data map which is registered with the pattern
+     */
+    void accept(Path file, ByteBuffer content, GRPattern pattern, HashMap<String, Object> dataMap);
+}
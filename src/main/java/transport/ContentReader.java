@@ -0,0 +1,129 @@
+package transport;
+
+import nio.metrics.TransportMetrics;
+import nio.util.MappedBuffers;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * This class is a delivery stage which hands over the content of the matched files to a ContentConsumer
+ * <p>
+ * A file which is larger than the map threshold is mapped read-only, so it is processed without copying it into the
+ * heap, and it is unmapped as soon as the consumer returns. A smaller file is read into a direct buffer which is
+ * reused by the same thread, since mapping costs more than reading a few pages. The files of a file system which
+ * doesn't support mapping are read into a buffer of their size.
+ * <p>
+ * The buffer given to the consumer is valid only during the call, see ContentConsumer.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class ContentReader implements FileConsumer {
+
+    public static final int DEFAULT_MAP_THRESHOLD = 64 * 1024;
+
+    private static final Logger logger = LogManager.getLogger(ContentReader.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
+
+    private final ContentConsumer contentConsumer;
+    private final int mapThreshold;
+    private final ThreadLocal<ByteBuffer> buffers;
+
+    /**
+     * Create a reader which maps the files larger than the default threshold
+     *
+     * @param contentConsumer the consumer of the content
+     */
+    public ContentReader(ContentConsumer contentConsumer) {
+        this(contentConsumer, DEFAULT_MAP_THRESHOLD);
+    }
+
+    /**
+     * Create a reader which maps the files larger than the given threshold
+     *
+     * @param contentConsumer the consumer of the content
+     * @param mapThreshold    size in bytes of the largest file which is read instead of mapped, each thread which reads
+     *                        the files keeps a direct buffer of this size
+     */
+    public ContentReader(ContentConsumer contentConsumer, final int mapThreshold) {
+        if (mapThreshold < 0) {
+            throw new IllegalArgumentException("The map threshold should not be negative : " + mapThreshold);
+        }
+        this.contentConsumer = contentConsumer;
+        this.mapThreshold = mapThreshold;
+        this.buffers = new ThreadLocal<ByteBuffer>() {
+            @Override
+            protected ByteBuffer initialValue() {
+                return ByteBuffer.allocateDirect(mapThreshold);
+            }
+        };
+    }
+
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        long startNanos = System.nanoTime();
+        MappedByteBuffer mapped = null;
+        ByteBuffer content;
+        String method;
+        try (SeekableByteChannel channel = Files.newByteChannel(file, READ)) {
+            long size = channel.size();
+            if (size <= mapThreshold) {
+                content = read(channel, buffers.get());
+                method = "read";
+            } else if (channel instanceof FileChannel) {
+                mapped = ((FileChannel) channel).map(FileChannel.MapMode.READ_ONLY, 0, size);
+                content = mapped;
+                method = "mmap";
+            } else if (size <= Integer.MAX_VALUE) {
+                content = read(channel, ByteBuffer.allocate((int) size));
+                method = "read";
+            } else {
+                throw new IOException("The file is too large to be read into a buffer : " + size + " bytes");
+            }
+        } catch (IOException e) {
+            metrics.deliveryFailed();
+            logger.error("Failed to read the content of the file {} due to :", file, e);
+            return;
+        }
+
+        /*
+         * the mapping is kept after the channel is closed, until it is unmapped
+         */
+        try {
+            metrics.stageCompleted(method, content.remaining(), startNanos);
+            contentConsumer.accept(file, content.asReadOnlyBuffer(), pattern, dataMap);
+        } finally {
+            MappedBuffers.unmap(mapped);
+        }
+    }
+
+    /**
+     * Read the channel from its position to the end or until the buffer is full
+     *
+     * @param channel the channel of the file
+     * @param buffer  the buffer which is cleared and filled
+     * @return the buffer which is flipped for reading the content
+     * @throws IOException if an error occurs while reading
+     */
+    private static ByteBuffer read(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
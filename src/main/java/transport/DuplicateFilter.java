@@ -0,0 +1,439 @@
+package transport;
+
+import nio.util.MappedBuffers;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * This class is a stage which detects the files whose content has been seen already, under any name, and suppresses
+ * or tags them before they are handed over to the next consumer
+ * <p>
+ * Each file is checked in three steps, so that most of the files which are not duplicates are never hashed fully
+ * - the size and a CRC32 fingerprint of the first and the last 4 KB are read, and a file with a new fingerprint is not
+ * a duplicate. A file which is not larger than 8 KB is read completely by this, so its hash is taken from the same read.
+ * - if the fingerprint has been seen, the content of the file is hashed with SHA-256 in 4 MB chunks, which are mapped
+ * and hashed in parallel by the hash executor, and the chunk digests are hashed again into the content hash.
+ * - the file is a duplicate if the content hash has been seen with the same fingerprint.
+ * The first file of a fingerprint is hashed only when a second one is seen, so it should be still readable then, eg.
+ * this stage should be placed after a FileMover instead of before it. Otherwise the second file is not a duplicate and
+ * its hash is kept for the following ones.
+ * <p>
+ * The index keeps the fingerprints of the latest files up to the given number, and it can be saved and loaded so that
+ * the duplicates are detected across restarts.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class DuplicateFilter implements FileConsumer {
+
+    /**
+     * The key of the data map which is given to the next consumer with the path of the first file of a duplicate if
+     * the duplicates are tagged
+     */
+    public static final String DUPLICATE_OF = "duplicateOf";
+    public static final int DEFAULT_MAX_ENTRIES = 100000;
+
+    private static final Logger logger = LogManager.getLogger(DuplicateFilter.class);
+    private static final int FINGERPRINT_SIZE = 4 * 1024;
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final FileConsumer next;
+    private final boolean suppress;
+    private final ExecutorService hashExecutor;
+    private final LinkedHashMap<Fingerprint, Entry> index;
+
+    /**
+     * Create a filter which suppresses the duplicates and hashes the files in the calling thread
+     *
+     * @param next the consumer of the files which are not duplicates
+     */
+    public DuplicateFilter(FileConsumer next) {
+        this(next, true, DEFAULT_MAX_ENTRIES, null);
+    }
+
+    /**
+     * Create a filter
+     *
+     * @param next         the consumer of the files
+     * @param suppress     true if the duplicates are dropped, false if they are given to the next consumer with the
+     *                     DUPLICATE_OF entry in a copy of the data map
+     * @param maxEntries   maximum number of the fingerprints in the index, the least recently seen one is removed
+     * @param hashExecutor the executor which hashes the chunks of a large file in parallel, or null for hashing them in
+     *                     the calling thread
+     */
+    public DuplicateFilter(FileConsumer next, boolean suppress, final int maxEntries, ExecutorService hashExecutor) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("The index should have at least 1 entry : " + maxEntries);
+        }
+        this.next = next;
+        this.suppress = suppress;
+        this.hashExecutor = hashExecutor;
+        this.index = new LinkedHashMap<Fingerprint, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Fingerprint, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        String duplicateOf;
+        try {
+            duplicateOf = check(file);
+        } catch (IOException e) {
+            logger.error("Failed to check the file {} for duplicates due to :", file, e);
+            duplicateOf = null;
+        }
+        if (duplicateOf == null) {
+            next.accept(file, pattern, dataMap);
+        } else if (suppress) {
+            logger.debug("Suppressed the file {} which is a duplicate of {}", file, duplicateOf);
+        } else {
+            HashMap<String, Object> tagged = dataMap == null ? new HashMap<String, Object>() : new HashMap<>(dataMap);
+            tagged.put(DUPLICATE_OF, duplicateOf);
+            next.accept(file, pattern, tagged);
+        }
+    }
+
+    /**
+     * Check the file against the index and add it to the index
+     * A file which is checked again, eg. after it is modified in place, is not a duplicate of itself.
+     *
+     * @param file the file which should be checked
+     * @return the path of the first file with the same content, or null if the file is not a duplicate
+     * @throws IOException if the file can't be read
+     */
+    public String check(Path file) throws IOException {
+        Fingerprint fingerprint = fingerprint(file);
+        Entry entry;
+        synchronized (index) {
+            entry = index.get(fingerprint);
+            if (entry == null) {
+                entry = new Entry(fingerprint.contentHash == null ? file.toString() : null);
+                index.put(fingerprint, entry);
+                if (fingerprint.contentHash == null) {
+                    return null;
+                }
+            }
+        }
+        if (fingerprint.contentHash != null) {
+            synchronized (entry) {
+                String first = entry.hashes.get(fingerprint.contentHash);
+                if (first == null) {
+                    entry.addHash(fingerprint.contentHash, file.toString());
+                }
+                return file.toString().equals(first) ? null : first;
+            }
+        }
+
+        /*
+         * the hashes are calculated without holding the lock of the index
+         */
+        String pending;
+        synchronized (entry) {
+            pending = entry.pendingPath;
+            entry.pendingPath = null;
+        }
+        if (pending != null) {
+            try {
+                String pendingHash = hash(file.getFileSystem().getPath(pending));
+                synchronized (entry) {
+                    entry.addHash(pendingHash, pending);
+                }
+            } catch (IOException e) {
+                logger.debug("The file {} is no longer readable for comparing with {}", pending, file);
+            }
+        }
+        String hash = hash(file);
+        synchronized (entry) {
+            String first = entry.hashes.get(hash);
+            if (first == null) {
+                entry.addHash(hash, file.toString());
+            }
+            return file.toString().equals(first) ? null : first;
+        }
+    }
+
+    /**
+     * Save the fingerprints and the hashes of the index, the files which are not hashed yet are not saved
+     *
+     * @param indexFile the file which the index is written to
+     * @throws IOException if an error occurs while writing
+     */
+    public void saveIndex(Path indexFile) throws IOException {
+        List<String> lines = new ArrayList<>();
+        synchronized (index) {
+            for (Map.Entry<Fingerprint, Entry> mapEntry : index.entrySet()) {
+                Fingerprint fingerprint = mapEntry.getKey();
+                Entry entry = mapEntry.getValue();
+                synchronized (entry) {
+                    for (Map.Entry<String, String> hash : entry.hashes.entrySet()) {
+                        lines.add(fingerprint.size + " " + fingerprint.crc + " " + hash.getKey() + " " + hash.getValue());
+                    }
+                }
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(indexFile, StandardCharsets.UTF_8)) {
+            for (String line : lines) {
+                writer.write(line);
+                writer.newLine();
+            }
+        }
+    }
+
+    /**
+     * Load the index which is saved by saveIndex, in addition to the current entries
+     *
+     * @param indexFile the file which the index is read from
+     * @throws IOException if an error occurs while reading
+     */
+    public void loadIndex(Path indexFile) throws IOException {
+        try (BufferedReader reader = Files.newBufferedReader(indexFile, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] fields = line.split(" ", 4);
+                if (fields.length != 4) {
+                    continue;
+                }
+                Fingerprint fingerprint = new Fingerprint(Long.parseLong(fields[0]), Long.parseLong(fields[1]));
+                synchronized (index) {
+                    Entry entry = index.get(fingerprint);
+                    if (entry == null) {
+                        entry = new Entry(null);
+                        index.put(fingerprint, entry);
+                    }
+                    synchronized (entry) {
+                        entry.addHash(fields[2], fields[3]);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the fingerprints in the index
+     *
+     * @return index size
+     */
+    public int getIndexSize() {
+        synchronized (index) {
+            return index.size();
+        }
+    }
+
+    /**
+     * Read the size and the CRC32 of the first and the last part of the file
+     */
+    private static Fingerprint fingerprint(Path file) throws IOException {
+        try (SeekableByteChannel channel = Files.newByteChannel(file, READ)) {
+            long size = channel.size();
+            ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(size, 2 * FINGERPRINT_SIZE));
+            if (size > 2 * FINGERPRINT_SIZE) {
+                buffer.limit(FINGERPRINT_SIZE);
+                readFully(channel, buffer);
+                channel.position(size - FINGERPRINT_SIZE);
+                buffer.limit(2 * FINGERPRINT_SIZE);
+            }
+            readFully(channel, buffer);
+            CRC32 crc = new CRC32();
+            crc.update(buffer.array(), 0, buffer.position());
+            if (size > 2 * FINGERPRINT_SIZE) {
+                return new Fingerprint(size, crc.getValue());
+            }
+
+            /*
+             * the whole file has been read, so it is hashed as a single chunk in the same way as hash
+             */
+            MessageDigest digest = newDigest();
+            if (size > 0) {
+                MessageDigest chunkDigest = newDigest();
+                chunkDigest.update(buffer.array(), 0, buffer.position());
+                digest.update(chunkDigest.digest());
+            }
+            Fingerprint fingerprint = new Fingerprint(size, crc.getValue());
+            fingerprint.contentHash = toHex(digest.digest());
+            return fingerprint;
+        }
+    }
+
+    /**
+     * Hash the chunks of the file and hash their digests into the content hash
+     * The chunks are the same regardless of the executor, so the hash of a file doesn't depend on how it is calculated
+     */
+    private String hash(final Path file) throws IOException {
+        MessageDigest digest = newDigest();
+        try (SeekableByteChannel channel = Files.newByteChannel(file, READ)) {
+            long size = channel.size();
+            if (channel instanceof FileChannel && hashExecutor != null && size > CHUNK_SIZE) {
+                final FileChannel fileChannel = (FileChannel) channel;
+                List<Future<byte[]>> futures = new ArrayList<>();
+                for (long position = 0; position < size; position += CHUNK_SIZE) {
+                    final long chunkPosition = position;
+                    final long chunkSize = Math.min(CHUNK_SIZE, size - position);
+                    futures.add(hashExecutor.submit(new Callable<byte[]>() {
+                        @Override
+                        public byte[] call() throws IOException {
+                            return hashMappedChunk(fileChannel, chunkPosition, chunkSize);
+                        }
+                    }));
+                }
+                for (Future<byte[]> future : futures) {
+                    digest.update(getChunkDigest(future, file));
+                }
+            } else if (channel instanceof FileChannel) {
+                for (long position = 0; position < size; position += CHUNK_SIZE) {
+                    digest.update(hashMappedChunk((FileChannel) channel, position, Math.min(CHUNK_SIZE, size - position)));
+                }
+            } else {
+                MessageDigest chunkDigest = newDigest();
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                long chunkRemaining = CHUNK_SIZE;
+                while (true) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(BUFFER_SIZE, chunkRemaining));
+                    int read = channel.read(buffer);
+                    if (read == -1) {
+                        break;
+                    }
+                    chunkDigest.update(buffer.array(), 0, read);
+                    chunkRemaining -= read;
+                    if (chunkRemaining == 0) {
+                        digest.update(chunkDigest.digest());
+                        chunkRemaining = CHUNK_SIZE;
+                    }
+                }
+                if (chunkRemaining < CHUNK_SIZE) {
+                    digest.update(chunkDigest.digest());
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    private static byte[] hashMappedChunk(FileChannel channel, long position, long size) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        try {
+            MessageDigest digest = newDigest();
+            digest.update(mapped);
+            return digest.digest();
+        } finally {
+            MappedBuffers.unmap(mapped);
+        }
+    }
+
+    private static byte[] getChunkDigest(Future<byte[]> future, Path file) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while hashing the file " + file, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to hash the file " + file, e.getCause());
+        }
+    }
+
+    private static void readFully(SeekableByteChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) == -1) {
+                break;
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The size and the CRC32 of the first and the last part of a file
+     * The content hash is not a part of the key, it is set if the file has been read completely for the fingerprint
+     */
+    private static final class Fingerprint {
+
+        private final long size;
+        private final long crc;
+        private String contentHash;
+
+        private Fingerprint(long size, long crc) {
+            this.size = size;
+            this.crc = crc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Fingerprint)) {
+                return false;
+            }
+            Fingerprint that = (Fingerprint) o;
+            return size == that.size && crc == that.crc;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (int) (size ^ (size >>> 32)) + (int) (crc ^ (crc >>> 32));
+        }
+    }
+
+    /**
+     * The content hashes seen with a fingerprint and the first file of each of them
+     * The first file of a fingerprint is pending until another file has the same fingerprint
+     */
+    private static final class Entry {
+
+        private final Map<String, String> hashes;
+        private String pendingPath;
+
+        private Entry(String pendingPath) {
+            this.pendingPath = pendingPath;
+            this.hashes = new HashMap<>(2);
+        }
+
+        private void addHash(String hash, String path) {
+            if (!hashes.containsKey(hash)) {
+                hashes.put(hash, path);
+            }
+        }
+    }
+}
@@ -0,0 +1,440 @@
+package transport;
+
+import nio.util.TokenBucket;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a delivery stage which queues the matched files per pattern and hands over them to the next consumer
+ * from a pool of workers in weighted round robin order, so that a busy pattern doesn't delay the files of the others
+ * <p>
+ * The files of the events and of the manual handling are both queued, and the calling thread waits only while the
+ * queue of the pattern is full, so a slow pattern slows down the watcher instead of filling the memory. The settings of
+ * a pattern are taken from its data map when its queue is created
+ * - weight     : number of the files of the pattern delivered in a turn, 1 by default. The patterns with files take
+ * turns, so a pattern with weight 3 gets three times the deliveries of a pattern with weight 1 while both are busy.
+ * - maxWorkers : maximum number of the workers which deliver the files of the pattern at the same time, which is the
+ * number of the workers by default. The pattern is skipped while it has this many deliveries in progress, so a slow
+ * consumer of a pattern can't hold the workers which are needed by the others.
+ * - filesPerSecond : maximum rate of the delivered files of the pattern, no limit by default
+ * - bytesPerSecond : maximum rate of the delivered bytes of the pattern, no limit by default
+ * - capacity   : maximum number of the queued files of the pattern, DEFAULT_CAPACITY by default
+ * The files of a pattern are delivered in the order they are queued if its maxWorkers is 1.
+ * <p>
+ * The rates are token buckets which are refilled lazily, so the rate limits don't need threads of their own. A pattern
+ * which is out of tokens passes its turn like a pattern at its worker limit, and the workers wait until the first
+ * throttled pattern can continue only if no other pattern can be delivered. A global limit for all the patterns is set
+ * with setGlobalRateLimit, and the limits of a pattern can be changed at runtime with setRateLimit.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class FairScheduler implements FileConsumer, Closeable {
+
+    public static final String WEIGHT = "weight";
+    public static final String MAX_WORKERS = "maxWorkers";
+    public static final String FILES_PER_SECOND = "filesPerSecond";
+    public static final String BYTES_PER_SECOND = "bytesPerSecond";
+    public static final String CAPACITY = "capacity";
+    public static final int DEFAULT_CAPACITY = 10000;
+
+    private static final Logger logger = LogManager.getLogger(FairScheduler.class);
+
+    private final FileConsumer next;
+    private final int workerCount;
+    private final Map<GRPattern, PatternQueue> queues;
+    private final ArrayDeque<PatternQueue> activeQueues;
+    private final Map<GRPattern, RateLimit> rateLimits;
+    private final RateLimit globalLimit;
+    private final Thread[] workers;
+    private long throttleNanos;
+    private int waitingCallers;
+    private boolean closed;
+
+    /**
+     * Create a scheduler and start its workers
+     *
+     * @param next        the consumer of the files
+     * @param workerCount number of the workers which deliver the files
+     */
+    public FairScheduler(FileConsumer next, int workerCount) {
+        if (workerCount < 1) {
+            throw new IllegalArgumentException("There should be at least 1 worker : " + workerCount);
+        }
+        this.next = next;
+        this.workerCount = workerCount;
+        this.queues = new HashMap<>();
+        this.activeQueues = new ArrayDeque<>();
+        this.rateLimits = new HashMap<>();
+        this.globalLimit = new RateLimit(0, 0);
+        this.workers = new Thread[workerCount];
+        for (int i = 0; i < workerCount; i++) {
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work();
+                }
+            }, "fair-scheduler-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queue the file into the queue of its pattern, waiting while the queue is full
+     * The file is dropped with an error if the calling thread is interrupted while waiting.
+     */
+    @Override
+    public synchronized void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        if (closed) {
+            throw new IllegalStateException("The scheduler is closed");
+        }
+        PatternQueue queue = queueOf(pattern, dataMap);
+        while (queue.files.size() >= queue.capacity) {
+            waitingCallers++;
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                logger.error("Failed to queue the file {} due to :", file, e);
+                return;
+            } finally {
+                waitingCallers--;
+            }
+            if (closed) {
+                throw new IllegalStateException("The scheduler is closed");
+            }
+            // the queue may have been removed while it was empty
+            queue = queueOf(pattern, dataMap);
+        }
+        queue.files.add(new Delivery(file, dataMap));
+        if (!queue.active) {
+            queue.active = true;
+            activeQueues.add(queue);
+        }
+        wakeUp();
+    }
+
+    private PatternQueue queueOf(GRPattern pattern, HashMap<String, Object> dataMap) {
+        PatternQueue queue = queues.get(pattern);
+        if (queue == null) {
+            RateLimit rateLimit = rateLimits.get(pattern);
+            if (rateLimit == null) {
+                rateLimit = new RateLimit(doubleOf(dataMap, FILES_PER_SECOND), doubleOf(dataMap, BYTES_PER_SECOND));
+                rateLimits.put(pattern, rateLimit);
+            }
+            queue = new PatternQueue(pattern, intOf(dataMap, WEIGHT, 1), intOf(dataMap, MAX_WORKERS, workerCount),
+                    intOf(dataMap, CAPACITY, DEFAULT_CAPACITY), rateLimit);
+            queues.put(pattern, queue);
+        }
+        return queue;
+    }
+
+    /**
+     * Wake up a worker, or everyone if there are callers waiting for room since a worker may not be the one woken up
+     */
+    private void wakeUp() {
+        if (waitingCallers > 0) {
+            notifyAll();
+        } else {
+            notify();
+        }
+    }
+
+    /**
+     * Deliver the files until the scheduler is closed
+     */
+    private void work() {
+        while (true) {
+            PatternQueue queue;
+            Delivery delivery;
+            synchronized (this) {
+                while ((queue = nextQueue()) == null) {
+                    if (closed && throttleNanos == 0) {
+                        return;
+                    }
+                    try {
+                        if (throttleNanos > 0) {
+                            TimeUnit.NANOSECONDS.timedWait(this, throttleNanos);
+                        } else {
+                            wait();
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                delivery = queue.files.remove();
+                queue.running++;
+                if (queue.files.isEmpty()) {
+                    deactivate(queue);
+                }
+                if (waitingCallers > 0) {
+                    notifyAll();
+                }
+            }
+            if (!queue.rateLimit.bytes.isUnlimited() || !globalLimit.bytes.isUnlimited()) {
+                long size = sizeOf(delivery.file);
+                queue.rateLimit.bytes.take(size);
+                globalLimit.bytes.take(size);
+            }
+            try {
+                next.accept(delivery.file, queue.pattern, delivery.dataMap);
+            } catch (RuntimeException e) {
+                logger.error("Failed to deliver the file {} due to :", delivery.file, e);
+            } finally {
+                synchronized (this) {
+                    queue.running--;
+                    if (queue.files.isEmpty() && queue.running == 0 && !queue.active) {
+                        queues.remove(queue.pattern);
+                    } else if (!queue.files.isEmpty()) {
+                        wakeUp();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Select the queue of the next file with the deficit round robin over the active queues
+     * Each queue gets as many files as its weight in its turn, and a queue at its worker limit or out of tokens passes
+     * its turn. The file tokens are taken here, and the byte tokens are taken by the worker once the size is read.
+     *
+     * @return the queue which should be taken from, or null if none of the queues can be taken from, then the
+     * throttleNanos is the time until a throttled queue can be taken from, or 0 if there is no throttled queue
+     */
+    private PatternQueue nextQueue() {
+        throttleNanos = 0;
+        if (activeQueues.isEmpty()) {
+            return null;
+        }
+        long globalWait = globalLimit.nanosToWait();
+        if (globalWait > 0) {
+            throttleNanos = globalWait;
+            return null;
+        }
+        for (int i = 0; i < activeQueues.size(); i++) {
+            PatternQueue queue = activeQueues.peekFirst();
+            if (queue.running >= queue.maxWorkers) {
+                queue.deficit = 0;
+                activeQueues.addLast(activeQueues.removeFirst());
+                continue;
+            }
+            long wait = queue.rateLimit.nanosToWait();
+            if (wait > 0) {
+                throttleNanos = throttleNanos == 0 ? wait : Math.min(throttleNanos, wait);
+                queue.deficit = 0;
+                activeQueues.addLast(activeQueues.removeFirst());
+                continue;
+            }
+            queue.rateLimit.files.take(1);
+            globalLimit.files.take(1);
+            if (queue.deficit == 0) {
+                queue.deficit = queue.weight;
+            }
+            if (--queue.deficit == 0) {
+                activeQueues.addLast(activeQueues.removeFirst());
+            }
+            return queue;
+        }
+        return null;
+    }
+
+    private void deactivate(PatternQueue queue) {
+        activeQueues.remove(queue);
+        queue.active = false;
+        queue.deficit = 0;
+    }
+
+    /**
+     * Set the limits of the delivered files and bytes per second of a pattern, the tokens which are already in its
+     * buckets are kept up to the new limits
+     *
+     * @param pattern        the pattern
+     * @param filesPerSecond maximum rate of the files, 0 for no limit
+     * @param bytesPerSecond maximum rate of the bytes, 0 for no limit
+     */
+    public synchronized void setRateLimit(GRPattern pattern, double filesPerSecond, double bytesPerSecond) {
+        RateLimit rateLimit = rateLimits.get(pattern);
+        if (rateLimit == null) {
+            rateLimits.put(pattern, new RateLimit(filesPerSecond, bytesPerSecond));
+        } else {
+            rateLimit.setRate(filesPerSecond, bytesPerSecond);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Set the limits of the delivered files and bytes per second of all the patterns together
+     *
+     * @param filesPerSecond maximum rate of the files, 0 for no limit
+     * @param bytesPerSecond maximum rate of the bytes, 0 for no limit
+     */
+    public synchronized void setGlobalRateLimit(double filesPerSecond, double bytesPerSecond) {
+        globalLimit.setRate(filesPerSecond, bytesPerSecond);
+        notifyAll();
+    }
+
+    /**
+     * Returns the number of the queued files of each pattern
+     *
+     * @return queued files per pattern
+     */
+    public synchronized Map<String, Integer> getQueueSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        for (PatternQueue queue : queues.values()) {
+            sizes.put(queue.pattern.toString(), queue.files.size());
+        }
+        return sizes;
+    }
+
+    /**
+     * Stop the workers after the queued files are delivered
+     *
+     * @param timeout maximum time to wait for the workers
+     * @param unit    unit of the timeout
+     * @return true if all the workers have stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the workers without waiting for them
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            logger.debug("Failed to read the size of the file {} due to :", file, e);
+            return 0;
+        }
+    }
+
+    private static double doubleOf(HashMap<String, Object> dataMap, String key) {
+        Object value = dataMap == null ? null : dataMap.get(key);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            double doubleValue = value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble(value.toString());
+            if (doubleValue >= 0) {
+                return doubleValue;
+            }
+        } catch (NumberFormatException e) {
+            logger.debug("Invalid {} : {}", key, value);
+        }
+        logger.warn("The {} of a pattern should be a positive number, no limit is used instead of {}", key, value);
+        return 0;
+    }
+
+    private static int intOf(HashMap<String, Object> dataMap, String key, int defaultValue) {
+        Object value = dataMap == null ? null : dataMap.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            int intValue = value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+            if (intValue > 0) {
+                return intValue;
+            }
+        } catch (NumberFormatException e) {
+            logger.debug("Invalid {} : {}", key, value);
+        }
+        logger.warn("The {} of a pattern should be a positive integer, {} is used instead of {}", key, defaultValue, value);
+        return defaultValue;
+    }
+
+    /**
+     * A file which is waiting to be delivered
+     */
+    private static final class Delivery {
+
+        private final Path file;
+        private final HashMap<String, Object> dataMap;
+
+        private Delivery(Path file, HashMap<String, Object> dataMap) {
+            this.file = file;
+            this.dataMap = dataMap;
+        }
+    }
+
+    /**
+     * The rate limits of the files and the bytes, which are kept after the queue of the pattern is removed so that the
+     * used tokens are not refilled by the removal
+     */
+    private static final class RateLimit {
+
+        private final TokenBucket files;
+        private final TokenBucket bytes;
+
+        private RateLimit(double filesPerSecond, double bytesPerSecond) {
+            this.files = new TokenBucket(filesPerSecond, filesPerSecond);
+            this.bytes = new TokenBucket(bytesPerSecond, bytesPerSecond);
+        }
+
+        private void setRate(double filesPerSecond, double bytesPerSecond) {
+            files.setRate(filesPerSecond, filesPerSecond);
+            bytes.setRate(bytesPerSecond, bytesPerSecond);
+        }
+
+        /**
+         * Returns the time until a file can be delivered, a file needs a file token and any byte token
+         */
+        private long nanosToWait() {
+            return Math.max(files.nanosToWait(1), bytes.nanosToWait(1));
+        }
+    }
+
+    /**
+     * The queue and the scheduling state of a pattern
+     */
+    private static final class PatternQueue {
+
+        private final GRPattern pattern;
+        private final int weight;
+        private final int maxWorkers;
+        private final int capacity;
+        private final RateLimit rateLimit;
+        private final ArrayDeque<Delivery> files;
+        private boolean active;
+        private int deficit;
+        private int running;
+
+        private PatternQueue(GRPattern pattern, int weight, int maxWorkers, int capacity, RateLimit rateLimit) {
+            this.pattern = pattern;
+            this.weight = weight;
+            this.maxWorkers = maxWorkers;
+            this.capacity = capacity;
+            this.rateLimit = rateLimit;
+            this.files = new ArrayDeque<>();
+        }
+    }
+}
@@ -0,0 +1,255 @@
+package transport;
+
+import nio.metrics.TransportMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * This class is a stage which archives the matched files gzip-compressed into the archive directory of the pattern and
+ * hands over the original files to the next consumer
+ * <p>
+ * The archive directory is taken from the data map which is registered with the pattern
+ * - archive : the directory which the compressed files are written into, as a Path or a String of the file system of
+ * the file. The files of a pattern without an archive directory are handed over to the next consumer as they are.
+ * <p>
+ * The file is read through its channel in blocks, and each block is compressed into a complete gzip member by the
+ * worker pool, while the calling thread reads the next blocks and writes the finished members in order. A gzip file
+ * may contain any number of members which are decompressed as a single stream (RFC 1952), so the archive is a standard
+ * gzip file which can be read by gunzip or GZIPInputStream. The archive is written into a hidden temporary name and
+ * renamed atomically into name.gz in the same way as the FileMover.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileCompressor implements FileConsumer {
+
+    public static final String ARCHIVE = "archive";
+    public static final String SUFFIX = ".gz";
+    public static final int DEFAULT_BLOCK_SIZE = 1024 * 1024;
+
+    private static final Logger logger = LogManager.getLogger(FileCompressor.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
+
+    private final FileConsumer next;
+    private final ExecutorService workers;
+    private final int blockSize;
+    private final int maxPendingBlocks;
+    private final Set<Path> createdDirectories;
+    private final AtomicLong tempCounter;
+
+    /**
+     * Create a compressor with the default block size
+     *
+     * @param next    the consumer of the original files
+     * @param workers the pool which compresses the blocks
+     * @param threads number of the threads of the pool, which limits the blocks kept in the memory per file
+     */
+    public FileCompressor(FileConsumer next, ExecutorService workers, int threads) {
+        this(next, workers, threads, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create a compressor
+     *
+     * @param next      the consumer of the original files
+     * @param workers   the pool which compresses the blocks
+     * @param threads   number of the threads of the pool, which limits the blocks kept in the memory per file
+     * @param blockSize size in bytes of the uncompressed blocks, each block is compressed into a gzip member
+     */
+    public FileCompressor(FileConsumer next, ExecutorService workers, int threads, int blockSize) {
+        if (threads < 1 || blockSize < 1) {
+            throw new IllegalArgumentException("The threads and the block size should be positive : " + threads + ", " + blockSize);
+        }
+        this.next = next;
+        this.workers = workers;
+        this.blockSize = blockSize;
+        this.maxPendingBlocks = 2 * threads;
+        this.createdDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        this.tempCounter = new AtomicLong();
+    }
+
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        Object archive = dataMap == null ? null : dataMap.get(ARCHIVE);
+        if (archive != null) {
+            Path archiveDir = archive instanceof Path ? (Path) archive : file.getFileSystem().getPath(archive.toString());
+            try {
+                compress(file, archiveDir);
+            } catch (IOException e) {
+                metrics.deliveryFailed();
+                logger.error("Failed to archive the file {} into {} due to :", file, archiveDir, e);
+                return;
+            }
+        }
+        next.accept(file, pattern, dataMap);
+    }
+
+    /**
+     * Compress the file into name.gz in the archive directory, an existing archive is replaced
+     *
+     * @param file       the file which should be compressed
+     * @param archiveDir the directory which the archive is written into
+     * @return the archive
+     * @throws IOException if the file can't be compressed, no archive is left in that case
+     */
+    public Path compress(Path file, Path archiveDir) throws IOException {
+        try {
+            return compressInto(file, archiveDir);
+        } catch (NoSuchFileException e) {
+            /*
+             * the archive directory has been deleted since it was created, so create it again and retry once
+             */
+            if (!createdDirectories.remove(archiveDir) || Files.isDirectory(archiveDir)) {
+                throw e;
+            }
+            logger.debug("The archive directory {} is created again since it has been deleted", archiveDir);
+            return compressInto(file, archiveDir);
+        }
+    }
+
+    private Path compressInto(Path file, Path archiveDir) throws IOException {
+        long startNanos = System.nanoTime();
+        if (!createdDirectories.contains(archiveDir)) {
+            Files.createDirectories(archiveDir);
+            createdDirectories.add(archiveDir);
+        }
+        String name = file.getFileName() + SUFFIX;
+        Path target = archiveDir.resolve(name);
+        Path temp = archiveDir.resolve("." + name + "." + tempCounter.incrementAndGet() + FileMover.TEMP_SUFFIX);
+
+        long size;
+        try {
+            try (SeekableByteChannel in = Files.newByteChannel(file, READ);
+                 SeekableByteChannel out = Files.newByteChannel(temp, CREATE_NEW, WRITE)) {
+                size = compress(in, out);
+                if (out instanceof FileChannel) {
+                    ((FileChannel) out).force(false);
+                }
+            }
+            Files.move(temp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        metrics.stageCompleted("gzip", size, startNanos);
+        logger.debug("Archived the file {} into {}", file, target);
+        return target;
+    }
+
+    /**
+     * Compress the input into the output as a gzip member per block
+     * Up to maxPendingBlocks blocks are read ahead, and the members are written in the order of the blocks.
+     *
+     * @param in  the channel of the file
+     * @param out the channel of the archive
+     * @return number of the bytes read
+     * @throws IOException if an error occurs while reading, compressing or writing
+     */
+    private long compress(SeekableByteChannel in, WritableByteChannel out) throws IOException {
+        Queue<Future<ByteArrayOutputStream>> pending = new ArrayDeque<>();
+        OutputStream outStream = Channels.newOutputStream(out);
+        long total = 0;
+        try {
+            while (true) {
+                final byte[] block = new byte[blockSize];
+                final int length = read(in, block);
+                if (length == 0 && total > 0) {
+                    break;
+                }
+                total += length;
+                if (pending.size() == maxPendingBlocks) {
+                    write(pending.remove(), outStream);
+                }
+                pending.add(workers.submit(new Callable<ByteArrayOutputStream>() {
+                    @Override
+                    public ByteArrayOutputStream call() throws IOException {
+                        return compressBlock(block, length);
+                    }
+                }));
+                if (length < blockSize) {
+                    break;
+                }
+            }
+            while (!pending.isEmpty()) {
+                write(pending.remove(), outStream);
+            }
+        } finally {
+            for (Future<ByteArrayOutputStream> future : pending) {
+                future.cancel(true);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Compress the block into a complete gzip member
+     */
+    private static ByteArrayOutputStream compressBlock(byte[] block, int length) throws IOException {
+        ByteArrayOutputStream member = new ByteArrayOutputStream(length / 2 + 64);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(member, 64 * 1024)) {
+            gzip.write(block, 0, length);
+        }
+        return member;
+    }
+
+    private static void write(Future<ByteArrayOutputStream> future, OutputStream out) throws IOException {
+        ByteArrayOutputStream member;
+        try {
+            member = future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while compressing", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException("Failed to compress a block", e.getCause());
+        }
+        member.writeTo(out);
+    }
+
+    /**
+     * Read the channel until the block is full or the end of the file
+     *
+     * @return number of the bytes read
+     */
+    private static int read(SeekableByteChannel in, byte[] block) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(block);
+        while (buffer.hasRemaining()) {
+            if (in.read(buffer) == -1) {
+                break;
+            }
+        }
+        return buffer.position();
+    }
+}
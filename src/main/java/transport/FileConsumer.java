@@ -0,0 +1,34 @@
+package transport;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * This interface is implemented by the engine which receives the files detected by the FilePublisher
+ * The files detected by the events and by the manual handling are both delivered through this
+ *
+ * @author Chanaka Lakmal
+ * @since 1.0.0
+ */
+public interface FileConsumer {
+
+    /**
+     * Prints the detected files to the standard error which is the default consumer of the FilePublisher
+     */
+    FileConsumer PRINT = new FileConsumer() {
+        @Override
+        public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+            System.err.println("---- " + file);
+        }
+    };
+
+    /**
+     * Calls for each file which is matched with a registered pattern
+     * This can be called by the dispatcher thread and the manual handling threads concurrently
+     *
+     * @param file    the detected file
+     * @param pattern the pattern which is matched with the file
+     * @param dataMap data map which is registered with the pattern
+     */
+    void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap);
+}
@@ -0,0 +1,327 @@
+package transport;
+
+import nio.metrics.TransportMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * This class is a delivery stage which moves or copies the matched files into the destination directory of the pattern
+ * and hands over the delivered file to the next consumer
+ * <p>
+ * The destination is taken from the data map which is registered with the pattern
+ * - destination : the directory which the files are delivered into, as a Path or a String of the file system of the file
+ * - copy        : true if the source should be kept, the files are moved by default
+ * - settleMillis : time since the last modification after which a file is taken as closed by its writer,
+ * DEFAULT_SETTLE_MILLIS by default, 0 if the files are renamed into place when they are complete
+ * The files of a pattern without a destination are handed over to the next consumer as they are.
+ * <p>
+ * A file is matched on its first event while its writer may still be writing it, and moving it then would deliver a
+ * partial file, or lose the rest of it when the source is deleted after a transfer. So a file which has been modified
+ * within the settle time is checked again by the timer of the mover once the settle time has passed since its last
+ * modification, and it is delivered only when it has settled. The events of a file which is waiting for the check
+ * are dropped, since the check reads the file again.
+ * <p>
+ * A file is moved with a single rename if the destination is on the same file system. Otherwise, or if it is copied,
+ * the content is transferred with FileChannel.transferTo into a hidden temporary name in the destination directory,
+ * which is renamed atomically into the final name after the content is forced to the disk. So a consumer of the
+ * destination directory never sees a partial file, and the temporary names can be excluded with ".*.part".
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class FileMover implements FileConsumer, Closeable {
+
+    public static final String DESTINATION = "destination";
+    public static final String COPY = "copy";
+    public static final String SETTLE_MILLIS = "settleMillis";
+    public static final String TEMP_SUFFIX = ".part";
+    public static final long DEFAULT_SETTLE_MILLIS = 1000;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final Logger logger = LogManager.getLogger(FileMover.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
+
+    private final FileConsumer next;
+    private final Set<Path> createdDirectories;
+    private final Set<Path> settlingFiles;
+    private final ScheduledExecutorService timer;
+    private final AtomicLong tempCounter;
+
+    /**
+     * Create a mover which prints the delivered files
+     */
+    public FileMover() {
+        this(FileConsumer.PRINT);
+    }
+
+    /**
+     * Create a mover which hands over the delivered files to the given consumer
+     *
+     * @param next the consumer of the delivered files
+     */
+    public FileMover(FileConsumer next) {
+        this.next = next;
+        this.createdDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        this.settlingFiles = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        this.timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "file-mover-settle");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.tempCounter = new AtomicLong();
+    }
+
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        Path destination = destinationOf(file, dataMap);
+        if (destination == null) {
+            next.accept(file, pattern, dataMap);
+            return;
+        }
+        if (!isSettled(file, pattern, dataMap)) {
+            return;
+        }
+        Path delivered;
+        try {
+            delivered = deliver(file, destination, isCopy(dataMap));
+        } catch (IOException e) {
+            metrics.deliveryFailed();
+            logger.error("Failed to deliver the file {} to {} due to :", file, destination, e);
+            return;
+        }
+        next.accept(delivered, pattern, dataMap);
+    }
+
+    /**
+     * Check whether the file has not been modified within the settle time of the pattern, otherwise it is accepted
+     * again by the timer when the settle time has passed since its last modification
+     *
+     * @return true if the file should be delivered now
+     */
+    private boolean isSettled(final Path file, final GRPattern pattern, final HashMap<String, Object> dataMap) {
+        long settleMillis = settleMillisOf(dataMap);
+        if (settleMillis == 0) {
+            return true;
+        }
+        if (settlingFiles.contains(file)) {
+            return false;
+        }
+        long lastModified;
+        try {
+            lastModified = Files.getLastModifiedTime(file).toMillis();
+        } catch (NoSuchFileException e) {
+            logger.debug("The file {} doesn't exist any more", file);
+            return false;
+        } catch (IOException e) {
+            metrics.deliveryFailed();
+            logger.error("Failed to read the last modified time of the file {} due to :", file, e);
+            return false;
+        }
+        long age = System.currentTimeMillis() - lastModified;
+        if (age >= settleMillis) {
+            return true;
+        }
+        if (settlingFiles.add(file)) {
+            try {
+                timer.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        settlingFiles.remove(file);
+                        accept(file, pattern, dataMap);
+                    }
+                }, Math.min(settleMillis, settleMillis - age), TimeUnit.MILLISECONDS);
+                logger.debug("The file {} is delivered after it settles", file);
+            } catch (RejectedExecutionException e) {
+                settlingFiles.remove(file);
+                logger.error("Failed to wait for the file {} to settle since the mover is closed", file);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop the timer of the settling files, the files which are waiting to settle are not delivered
+     */
+    @Override
+    public void close() {
+        timer.shutdownNow();
+    }
+
+    /**
+     * Move or copy the file into the destination directory with the same name, an existing file is replaced
+     *
+     * @param file        the matched file
+     * @param destination the directory which the file is delivered into
+     * @param copy        true if the source should be kept
+     * @return the delivered file
+     * @throws IOException if the file can't be delivered, the source is left as it is
+     */
+    public Path deliver(Path file, Path destination, boolean copy) throws IOException {
+        try {
+            return deliverInto(file, destination, copy);
+        } catch (NoSuchFileException e) {
+            /*
+             * the destination directory has been deleted since it was created, so create it again and retry once
+             */
+            if (!createdDirectories.remove(destination) || Files.isDirectory(destination)) {
+                throw e;
+            }
+            logger.debug("The destination {} is created again since it has been deleted", destination);
+            return deliverInto(file, destination, copy);
+        }
+    }
+
+    private Path deliverInto(Path file, Path destination, boolean copy) throws IOException {
+        long startNanos = System.nanoTime();
+        if (!createdDirectories.contains(destination)) {
+            Files.createDirectories(destination);
+            createdDirectories.add(destination);
+        }
+        Path target = destination.resolve(file.getFileName().toString());
+
+        if (!copy) {
+            /*
+             * rename the file if the destination is on the same file system, which doesn't touch the content
+             */
+            try {
+                Files.move(file, target, ATOMIC_MOVE, REPLACE_EXISTING);
+                metrics.fileDelivered("rename", 0, startNanos);
+                logger.debug("Renamed the file {} to {}", file, target);
+                return target;
+            } catch (AtomicMoveNotSupportedException e) {
+                logger.debug("The file {} is transferred since {} is on another file system", file, destination);
+            }
+        }
+
+        /*
+         * transfer the content into a temporary name and rename it into the final name atomically
+         */
+        Path temp = destination.resolve("." + target.getFileName() + "." + tempCounter.incrementAndGet() + TEMP_SUFFIX);
+        long size;
+        try {
+            size = transfer(file, temp);
+            Files.move(temp, target, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+        if (!copy) {
+            Files.delete(file);
+        }
+        metrics.fileDelivered("transfer", size, startNanos);
+        logger.debug("Transferred the file {} to {}", file, target);
+        return target;
+    }
+
+    /**
+     * Transfer the content of the file into a new file and force it to the disk
+     * The content is transferred by the kernel if both of the files are on the default file system, otherwise it is
+     * copied through a buffer
+     *
+     * @param source the file which is read
+     * @param target the new file which is written
+     * @return number of bytes transferred
+     * @throws IOException if an error occurs while transferring
+     */
+    private static long transfer(Path source, Path target) throws IOException {
+        try (SeekableByteChannel in = Files.newByteChannel(source, READ);
+             SeekableByteChannel out = Files.newByteChannel(target, CREATE_NEW, WRITE)) {
+            long size = in.size();
+            long position = 0;
+            if (in instanceof FileChannel) {
+                while (position < size) {
+                    long transferred = ((FileChannel) in).transferTo(position, size - position, out);
+                    if (transferred == 0 && position >= in.size()) {
+                        throw new IOException("The file " + source + " has been truncated while transferring it");
+                    }
+                    position += transferred;
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                    buffer.clear();
+                    position += read;
+                }
+            }
+            if (out instanceof FileChannel) {
+                ((FileChannel) out).force(false);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * Returns the destination directory of the pattern, a String is resolved in the file system of the file
+     *
+     * @param file    the matched file
+     * @param dataMap data map which is registered with the pattern
+     * @return destination directory, or null if the pattern doesn't have a destination
+     */
+    private static Path destinationOf(Path file, HashMap<String, Object> dataMap) {
+        Object destination = dataMap == null ? null : dataMap.get(DESTINATION);
+        if (destination == null) {
+            return null;
+        }
+        if (destination instanceof Path) {
+            return (Path) destination;
+        }
+        return file.getFileSystem().getPath(destination.toString());
+    }
+
+    private static long settleMillisOf(HashMap<String, Object> dataMap) {
+        Object value = dataMap.get(SETTLE_MILLIS);
+        if (value == null) {
+            return DEFAULT_SETTLE_MILLIS;
+        }
+        try {
+            long settleMillis = value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+            if (settleMillis >= 0) {
+                return settleMillis;
+            }
+        } catch (NumberFormatException e) {
+            logger.debug("Invalid {} : {}", SETTLE_MILLIS, value);
+        }
+        logger.warn("The {} of a pattern should be a positive integer, {} is used instead of {}", SETTLE_MILLIS,
+                DEFAULT_SETTLE_MILLIS, value);
+        return DEFAULT_SETTLE_MILLIS;
+    }
+
+    private static boolean isCopy(HashMap<String, Object> dataMap) {
+        Object copy = dataMap.get(COPY);
+        return copy != null && Boolean.parseBoolean(copy.toString());
+    }
+}
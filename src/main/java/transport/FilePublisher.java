@@ -1,15 +1,34 @@
 package transport;
 
+import nio.WatchBatch;
+import nio.jfr.JfrEvents;
+import nio.metrics.Histogram;
+import nio.metrics.TransportMetrics;
+import nio.trace.TraceRecorder;
+import nio.util.EntryAttributes;
+import nio.util.ExclusionRules;
+import nio.util.PathRanges;
+import nio.util.TokenBucket;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import static java.nio.file.LinkOption.NOFOLLOW_LINKS;
 import static java.nio.file.StandardWatchEventKinds.*;
@@ -30,14 +49,33 @@ import static java.nio.file.StandardWatchEventKinds.*;
  * @since 1.0.0
  */
 @SuppressWarnings("WeakerAccess")
-public class FilePublisher extends AbstractPathMatcher implements Runnable {
+public class FilePublisher extends AbstractPathMatcher implements Runnable, Closeable {
 
     private static final Logger logger = LogManager.getLogger(FilePublisher.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
+    private static final int MAX_CREATED_FILES = 4096;
 
     private ExecutorService executorService;
     private WatchService watcher;
     private HashMap<GRPattern, HashMap<String, Object>> patternMap;
     private HashMap<WatchKey, Path> keysMap;
+    private TreeMap<Path, WatchKey> dirKeys;
+    private HashMap<Path, Set<GRPattern>> dirPatterns;
+    private HashMap<Path, GRPattern[]> dirFilePatterns;
+    private HashMap<Path, GRPattern[]> dirPatternArrays;
+    private ExclusionRules exclusionRules;
+    private HashMap<GRPattern, Histogram> matcherTimes;
+    private volatile FileConsumer fileConsumer;
+    private volatile TraceRecorder traceRecorder;
+    private volatile int maxBatchKeys = WatchBatch.DEFAULT_MAX_KEYS;
+    private final TokenBucket rescanBudget = new TokenBucket();
+    private final Set<Path> modifiedNames = new HashSet<>();
+    private final Map<Path, BasicFileAttributes> createdFiles = new LinkedHashMap<Path, BasicFileAttributes>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Path, BasicFileAttributes> eldest) {
+            return size() > MAX_CREATED_FILES;
+        }
+    };
 
     /**
      * Register all the parameters sent by the NIOFileTransportListener and create a thread pool in order to handle the
@@ -51,42 +89,160 @@ public class FilePublisher extends AbstractPathMatcher implements Runnable {
         this.watcher = watcher;
         this.patternMap = patternMap;
         this.keysMap = keysMap;
-        this.executorService = Executors.newFixedThreadPool(Integer.MAX_VALUE);
+        this.dirKeys = new TreeMap<>();
+        this.dirPatterns = new HashMap<>();
+        this.dirFilePatterns = new HashMap<>();
+        this.dirPatternArrays = new HashMap<>();
+        this.exclusionRules = new ExclusionRules();
+        this.matcherTimes = new HashMap<>();
+        this.fileConsumer = FileConsumer.PRINT;
+        this.executorService = Executors.newCachedThreadPool();
+    }
+
+    /**
+     * Set the rules of the files and directories which should never be processed
+     * The excluded directories are not watched for the patterns registered after this, and the events of the excluded
+     * names are dropped before matching
+     *
+     * @param exclusionRules exclusion rules such as temporary file globs and ignored subtrees
+     */
+    public synchronized void setExclusionRules(ExclusionRules exclusionRules) {
+        this.exclusionRules = exclusionRules;
+    }
+
+    /**
+     * Set the maximum number of the signalled keys which are drained and processed together after a wake-up
+     *
+     * @param maxBatchKeys maximum number of the keys in a batch, 1 for processing a single key per wake-up
+     */
+    public void setMaxBatchKeys(int maxBatchKeys) {
+        if (maxBatchKeys < 1) {
+            throw new IllegalArgumentException("The batch should contain at least one key : " + maxBatchKeys);
+        }
+        this.maxBatchKeys = maxBatchKeys;
+    }
+
+    /**
+     * Set the consumer which receives the matched files instead of printing them
+     * The files detected by the manual handling which is already submitted are delivered to the previous consumer
+     *
+     * @param fileConsumer the consumer of the matched files
+     */
+    public void setFileConsumer(FileConsumer fileConsumer) {
+        this.fileConsumer = fileConsumer;
+    }
+
+    /**
+     * Set the I/O budget of the manual handling, which is shared by all the directories being scanned in the background
+     * Each directory or file visited by a scan takes a token, so the scans after an overflow or a registration don't
+     * compete with the watched events for the disk. The budget is applied to the scans in progress as well.
+     *
+     * @param entriesPerSecond maximum number of the entries visited per second, 0 for no limit
+     */
+    public void setRescanRateLimit(double entriesPerSecond) {
+        rescanBudget.setRate(entriesPerSecond, entriesPerSecond);
+    }
+
+    /**
+     * Record the raw events taken from the WatchService into the given trace, or stop recording if it is null
+     *
+     * @param traceRecorder the recorder of the trace file
+     */
+    public void setTraceRecorder(TraceRecorder traceRecorder) {
+        this.traceRecorder = traceRecorder;
     }
 
     /**
      * Register the GRPattern and data map sent by the NIOFileTransportListener
+     * Only the directories under the root path of the pattern are registered. If a directory is already watched for
+     * another pattern the existing key is reused and only the new pattern is checked for the existing files.
      *
      * @param GRPattern GRPattern object which should be checked files for with the GRPattern type and path GRPattern
      * @param dataMap data map which contains all the parameters sent by the user
      * @throws IOException if error occurs when walk through file system
      */
-    public void registerPattern(GRPattern GRPattern, HashMap<String, Object> dataMap) throws IOException {
+    public synchronized void registerPattern(GRPattern GRPattern, HashMap<String, Object> dataMap) throws IOException {
         this.patternMap.put(GRPattern, dataMap);
-        Path rootPath = Paths.get("/tmp");
+        if (!this.matcherTimes.containsKey(GRPattern)) {
+            this.matcherTimes.put(GRPattern, metrics.getMatcherTime(GRPattern.toString()));
+        }
+        Path rootPath = GRPattern.getRootPath();
 
         /*
-         * register watchers for all the directories under the rootPath set by the user recursively
+         * register watchers for all the directories under the rootPath of the pattern recursively
          * if the root path is not given it create a set of directories for the root path and register root directory
          */
         if(Files.notExists(rootPath)){
             Files.createDirectories(rootPath);
         }
-        registerAll(rootPath);
+        registerAll(rootPath, Collections.singleton(GRPattern));
+    }
+
+    /**
+     * Unregister the GRPattern and cancel the watchers of the directories which are not needed by any other pattern
+     *
+     * @param GRPattern GRPattern object which was registered earlier
+     */
+    public synchronized void unregisterPattern(GRPattern GRPattern) {
+        if (this.patternMap.remove(GRPattern) == null) {
+            return;
+        }
+        if (this.matcherTimes.remove(GRPattern) != null) {
+            metrics.releaseMatcherTime(GRPattern.toString());
+        }
+        Path rootPath = GRPattern.getRootPath();
+
+        for (Path dir : new ArrayList<>(PathRanges.subtree(dirKeys, rootPath).keySet())) {
+            if (!dir.startsWith(rootPath)) {
+                continue;
+            }
+            Set<GRPattern> patterns = dirPatterns.get(dir);
+            patterns.remove(GRPattern);
+            if (patterns.isEmpty()) {
+                dirPatterns.remove(dir);
+                dirFilePatterns.remove(dir);
+                dirPatternArrays.remove(dir);
+                WatchKey key = dirKeys.remove(dir);
+                if (key != null) {
+                    key.cancel();
+                    keysMap.remove(key);
+                    metrics.watchCancelled(dir);
+                    logger.debug("Cancelled the key of the directory {} since no pattern needs it", dir);
+                }
+            } else {
+                updateFilePatterns(dir);
+            }
+        }
     }
 
     /**
-     * Register the given directory with the WatchService
+     * Register the given directory with the WatchService for the given patterns
+     * If the directory is already watched only the manual check is done for the patterns which are new to it
      *
-     * @param dir the directory which is registering
+     * @param dir      the directory which is registering
+     * @param patterns the patterns which need the directory to be watched
      * @throws IOException if error occurs when registering the directory for watcher and return the key
      */
-    private void register(Path dir) throws IOException {
+    private void register(Path dir, Set<GRPattern> patterns) throws IOException {
+        Set<GRPattern> dirPatternSet = dirPatterns.get(dir);
+        if (dirPatternSet == null) {
+            dirPatternSet = new HashSet<>();
+            dirPatterns.put(dir, dirPatternSet);
+        }
+
         /*
-         * this will set a WatchKey for the given directory if it is not registered earlier
+         * keep the patterns which are new to this directory in order to check the files created before they are registered
          */
-        WatchKey key = dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
-        logger.debug("A WatchKey {} registered for the directory {}", key.toString().split("@")[1], dir);
+        HashMap<GRPattern, HashMap<String, Object>> newPatternMap = new HashMap<>();
+        for (GRPattern pattern : patterns) {
+            if (dirPatternSet.add(pattern)) {
+                newPatternMap.put(pattern, patternMap.get(pattern));
+            }
+        }
+        if (newPatternMap.isEmpty()) {
+            return;
+        }
+        updateFilePatterns(dir);
 
         /*
          * keep the register time of the directory in order to detect the files which have been created before the
@@ -95,157 +251,511 @@ public class FilePublisher extends AbstractPathMatcher implements Runnable {
          */
         long registerTime = System.currentTimeMillis();
 
-        /*
-         * put the keys of directories in a HashMap which generates the event to check for changes
-         */
-        Path currentPath = keysMap.put(key, dir);
-        if (currentPath != null) {
-            logger.debug("Path {} is already in the map", dir);
+        if (!dirKeys.containsKey(dir)) {
+            /*
+             * this will set a WatchKey for the given directory if it is not registered earlier
+             */
+            WatchKey key;
+            try {
+                key = dir.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+            } catch (IOException e) {
+                /*
+                 * the directory may be deleted or moved away before it is registered, so forget its patterns
+                 */
+                dirPatterns.remove(dir);
+                dirFilePatterns.remove(dir);
+                dirPatternArrays.remove(dir);
+                throw e;
+            }
+            logger.debug("A WatchKey {} registered for the directory {}", key, dir);
+
+            /*
+             * put the keys of directories in a HashMap which generates the event to check for changes
+             */
+            keysMap.put(key, dir);
+            dirKeys.put(dir, key);
+            metrics.watchRegistered();
+            JfrEvents.directoryRegistered(dir);
+            logger.debug("Put the key {} to map | Directory : {} | Map : {}", key, dir, keysMap);
         } else {
-            logger.debug("Put the key {} to map | Directory : {} | Map : {}", key.toString().split("@")[1], dir, keysMap);
+            logger.debug("Path {} is already in the map", dir);
         }
 
         /*
          * create a new thread to catch the files which have been created before the registration of the newly created directory
          */
-        executorService.submit(new ManualHandler(patternMap, registerTime, dir));
+        metrics.rescanQueued();
+        executorService.submit(new ManualHandler(newPatternMap, registerTime, dir, exclusionRules, fileConsumer, rescanBudget, "register"));
         logger.debug("Submitted {} for process manually due to initial registration", dir);
     }
 
+    /**
+     * Keep the patterns which can match the files directly in the given directory, so that the events of the directory
+     * are matched only with them and only by the file name, and keep all the patterns of the directory as an array, so
+     * that the created entries are checked without an iterator
+     *
+     * @param dir the directory which the patterns are changed
+     */
+    private void updateFilePatterns(Path dir) {
+        Set<GRPattern> patterns = dirPatterns.get(dir);
+        List<GRPattern> filePatterns = new ArrayList<>();
+        for (GRPattern pattern : patterns) {
+            if (pattern.canContainFiles(dir)) {
+                filePatterns.add(pattern);
+            }
+        }
+        dirFilePatterns.put(dir, filePatterns.toArray(new GRPattern[filePatterns.size()]));
+        dirPatternArrays.put(dir, patterns.toArray(new GRPattern[patterns.size()]));
+    }
+
     /**
      * Register the given directory, and all its sub-directories, with the WatchService...
+     * A directory is registered only for the patterns which can match files in it or in its sub-directories, and the
+     * subtree is skipped if there is no such pattern
      *
-     * @param start starting directory
+     * @param start    starting directory
+     * @param patterns the patterns which need the directories to be watched
      * @throws IOException if error occurs while walk through file system
      */
-    private void registerAll(final Path start) throws IOException {
+    private void registerAll(final Path start, final Set<GRPattern> patterns) throws IOException {
         Files.walkFileTree(start, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
-                register(dir);
+                Set<GRPattern> watchablePatterns = new HashSet<>();
+                for (GRPattern pattern : patterns) {
+                    if (!exclusionRules.isExcludedDirectory(pattern.getRootPath(), dir) && pattern.isWatchable(dir)) {
+                        watchablePatterns.add(pattern);
+                    }
+                }
+                if (watchablePatterns.isEmpty()) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                register(dir, watchablePatterns);
                 return FileVisitResult.CONTINUE;
             }
         });
     }
 
+    /**
+     * Remove the given directory and all its sub-directories from all the maps in one pass and cancel their keys
+     * If a key has already been moved to a new path by registering the moved directory again, it is not cancelled
+     * Only the range of the sorted directories which can be under the given directory is visited.
+     *
+     * @param start the directory which is deleted, moved away or no longer accessible
+     */
+    private void unregisterAll(Path start) {
+        Iterator<Map.Entry<Path, WatchKey>> iterator = PathRanges.subtree(dirKeys, start).entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = iterator.next();
+            Path dir = entry.getKey();
+            if (!dir.startsWith(start)) {
+                continue;
+            }
+            iterator.remove();
+            dirPatterns.remove(dir);
+            dirFilePatterns.remove(dir);
+            dirPatternArrays.remove(dir);
+
+            WatchKey key = entry.getValue();
+            if (dir.equals(keysMap.get(key))) {
+                keysMap.remove(key);
+                key.cancel();
+                metrics.watchCancelled(dir);
+            }
+        }
+        logger.debug("Unregistered the directory {} and its sub-directories | Watch Count : {}", start, dirKeys.size());
+    }
+
+    /**
+     * Returns the number of directories watched by this publisher
+     *
+     * @return watch count
+     */
+    public synchronized int getWatchCount() {
+        return dirKeys.size();
+    }
+
+    /**
+     * Returns the sizes of the internal structures of this publisher which should not grow without watched directories
+     *
+     * @return map of the structure name and its size
+     */
+    public synchronized Map<String, Integer> getStructureSizes() {
+        Map<String, Integer> sizes = new LinkedHashMap<>();
+        sizes.put("publisher.keysMap", keysMap.size());
+        sizes.put("publisher.dirKeys", dirKeys.size());
+        sizes.put("publisher.dirPatterns", dirPatterns.size());
+        sizes.put("publisher.dirFilePatterns", dirFilePatterns.size());
+        sizes.put("publisher.dirPatternArrays", dirPatternArrays.size());
+        sizes.put("publisher.createdFiles", createdFiles.size());
+        sizes.put("publisher.patternMap", patternMap.size());
+        sizes.put("publisher.matcherTimes", matcherTimes.size());
+        if (executorService instanceof ThreadPoolExecutor) {
+            sizes.put("publisher.executor.threads", ((ThreadPoolExecutor) executorService).getPoolSize());
+            sizes.put("publisher.executor.queue", ((ThreadPoolExecutor) executorService).getQueue().size());
+        }
+        return sizes;
+    }
+
     /**
      * Process all the events for keys queued to the watcher. Whenever a file or directory is created under the registered
      * directory of the keysMap that event will trigger here.
      * <p>
      * First the WatchService will add files to the queue and we process it by taking them as batches by key.pollEvents()
+     * All the keys which are ready after a wake-up are drained, reset and processed together as a WatchBatch
      * But if an OVERFLOW occurs it will set the kind of the batch as OVERFLOW -> handled using ManualHandler
      * After we reset the queue it will start the process again
      */
     private void dispatchEvents() {
+        WatchBatch batch = new WatchBatch();
         for (; ; ) {
             /*
              * even though this is an infinite loop this will wait for key to be signalled
+             * all the keys which are ready are drained and reset together, so that the kernel can queue the new events
+             * while the batch is being processed
              */
-            WatchKey key;
             try {
-                key = watcher.take();
-                logger.debug("WatchKey {} was taken successfully", key.toString().split("@")[1]);
+                batch.drain(watcher, maxBatchKeys);
+                if (logger.isDebugEnabled()) {
+                    logger.debug("{} WatchKeys were taken successfully with {} events", batch.size(), batch.getEventCount());
+                }
             } catch (InterruptedException e) {
                 logger.error("Couldn't take the watcher due to :", e);
                 return;
+            } catch (ClosedWatchServiceException e) {
+                logger.debug("Watch service is closed");
+                return;
             }
+            if (!process(batch)) {
+                return;
+            }
+        }
+    }
 
+    /**
+     * Process the keys of a drained batch in order, which is done by the dispatch loop after each wake-up
+     * A batch which is filled without a watch service, eg. by a benchmark, is processed in the same way, with the keys
+     * of the keysMap of this publisher.
+     *
+     * @param batch the keys and their events which have been taken already
+     * @return false if there are no directories registered any more
+     */
+    public synchronized boolean process(WatchBatch batch) {
+        JfrEvents.watchBatch(batch.size() == 1 ? keysMap.get(batch.getKey(0)) : null, batch.size(), batch.getEventCount());
+        for (int i = 0; i < batch.size(); i++) {
+            if (!processKey(batch.getKey(i), batch.getEvents(i), batch.isValid(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Process the events of a signalled key which have been taken by the batch
+     *
+     * @param key    the key which is signalled by the watcher
+     * @param events the events of the key
+     * @param valid  the result of resetting the key
+     * @return false if there are no directories registered any more
+     */
+    private boolean processKey(WatchKey key, List<WatchEvent<?>> events, boolean valid) {
+        /*
+         * check whether the directory which is returned under the key is registered in the keysMap
+         * if it is not that is not a valid directory to scan for the files
+         */
+        final Path dir = keysMap.get(key);
+        if (dir == null) {
             /*
-             * check whether the directory which is returned under the key is registered in the keysMap
-             * if it is not that is not a valid directory to scan for the files
+             * a cancelled key may be signalled with the events queued before it was cancelled
+             * and a key of a sub-directory may be cancelled by the events of its parent in the same batch
              */
-            final Path dir = keysMap.get(key);
-            if (dir == null) {
+            if (key.isValid()) {
                 logger.error("WatchKey not recognized ! | Map : {}", keysMap);
-                continue;
             }
+            return true;
+        }
+        Set<GRPattern> patterns = dirPatterns.get(dir);
+        GRPattern[] patternArray = dirPatternArrays.get(dir);
+        GRPattern[] filePatterns = dirFilePatterns.get(dir);
+        collectModifiedNames(events);
 
-            for (WatchEvent<?> event : key.pollEvents()) {
-                WatchEvent.Kind kind = event.kind();
-
-                if (kind == OVERFLOW) {
-                    /*
-                     * Keep the time we detected when an overflow occurs -> overflowTime
-                     * so that we have to manually process the file system in order to detect the files which
-                     * have been created before the overflowTime
-                     */
-                    long overflowTime = System.currentTimeMillis();
-                    logger.warn("OVERFLOW ! | Directory : {} | Time : {}", dir, overflowTime);
-
-                    /*
-                     * Manually check for files which have created when an overflow occurs
-                     * This will execute here because if an OVERFLOW event triggers it should be handled manually
-                     */
-                    executorService.submit(new ManualHandler(patternMap, overflowTime, dir));
-                    logger.debug("Submitted {} for process manually due to an overflow", dir);
-
-                    continue;
-                }
+        /*
+         * the events are iterated by index and the names are resolved only when they are needed, so that nothing is
+         * allocated per event except by the watch service itself, the string of the name, which is created by the
+         * first match of the name and reused by the other patterns, and the path of a matched or a watchable entry
+         */
+        for (int i = 0; i < events.size(); i++) {
+            WatchEvent<?> event = events.get(i);
+            WatchEvent.Kind kind = event.kind();
+            metrics.recordEvent(dir, kind);
+            record(dir, kind, kind == OVERFLOW ? null : (Path) event.context());
 
+            if (kind == OVERFLOW) {
                 /*
-                 * Context for directory entry event is the file name of entry
+                 * Keep the time we detected when an overflow occurs -> overflowTime
+                 * so that we have to manually process the file system in order to detect the files which
+                 * have been created before the overflowTime
                  */
-                WatchEvent<Path> ev = cast(event);
-                Path name = ev.context();               // eg. name = 10.xml
-                Path child = dir.resolve(name);         // eg. child = /tmp/ram/test/1000Set/10.xml
-
-                logger.debug("PROCESS | Directory : {} | Path : {} | Kind : {}", dir, child, kind);
+                long overflowTime = System.currentTimeMillis();
+                logger.warn("OVERFLOW ! | Directory : {} | Time : {}", dir, overflowTime);
+                JfrEvents.overflow(dir);
 
                 /*
-                 * if a file is created it will generate ENTRY_CREATE event initially and ENTRY_MODIFY event at the last
-                 * so we capture the ENTRY_MODIFY event in order to call the sendMsg method at the end of the file creation
-                 *
-                 * the file should not be a directory also and the file path (child) should be matched with a pattern
-                 * registered in the patternMap
+                 * Manually check for files which have created when an overflow occurs
+                 * This will execute here because if an OVERFLOW event triggers it should be handled manually
                  */
-                if (kind == ENTRY_MODIFY && !Files.isDirectory(child)) {
-                    for (Map.Entry<GRPattern, HashMap<String, Object>> entry : patternMap.entrySet()) {
-                        if (isMatchPattern(entry.getKey(), child)) {
-                            System.err.println("---- "+child);
-                            logger.debug("File {} submitted for scheduling", child);
-                            break;
-                        }
-                    }
-                }
+                metrics.rescanQueued();
+                executorService.submit(new ManualHandler(patternMapOf(patterns), overflowTime, dir, exclusionRules, fileConsumer, rescanBudget, "overflow"));
+                logger.debug("Submitted {} for process manually due to an overflow", dir);
 
-                /*
-                 * if directory is created, then register it and its sub-directories
-                 */
-                if (kind == ENTRY_CREATE) {
-                    try {
+                continue;
+            }
+
+            /*
+             * Context for directory entry event is the file name of entry
+             */
+            WatchEvent<Path> ev = cast(event);
+            Path name = ev.context();               // eg. name = 10.xml
+
+            /*
+             * drop the excluded names such as temporary files before resolving and matching them
+             */
+            if (exclusionRules.isExcludedName(name)) {
+                continue;
+            }
+
+            logger.debug("PROCESS | Directory : {} | Name : {} | Kind : {}", dir, name, kind);
+
+            /*
+             * if a file is created it will generate ENTRY_CREATE event initially and ENTRY_MODIFY event at the last
+             * so we capture the ENTRY_MODIFY event in order to call the sendMsg method at the end of the file creation
+             *
+             * the file name is matched with the patterns which can have files in this directory first, and only a
+             * matched file is resolved and checked whether it is not a directory. A watched directory is known without
+             * reading it, otherwise the type and the last modified time are read with a single stat call
+             */
+            if (kind == ENTRY_MODIFY) {
+                emit(dir, name, filePatterns, false);
+            }
+
+            /*
+             * if directory is created, then register it and its sub-directories
+             * the entry is read only if a pattern can watch a directory in its path, so the files created in the
+             * directories of the files are classified without a stat call
+             *
+             * a file which is renamed into place, eg. from an excluded temporary name, raises only ENTRY_CREATE, so a
+             * created file is emitted here unless it is empty or an ENTRY_MODIFY of it is in the same events. The
+             * emitted file is kept until its ENTRY_MODIFY, which may come in a later batch, so that it is not emitted
+             * again if it hasn't changed since
+             */
+            if (kind == ENTRY_CREATE) {
+                boolean directory = false;
+                try {
+                    if (isWatchable(patternArray, dir, name)) {
+                        Path child = dir.resolve(name);
                         if (Files.isDirectory(child, NOFOLLOW_LINKS)) {
-                            registerAll(child);
+                            directory = true;
+                            registerAll(child, new HashSet<>(patterns));
                         }
-                    } catch (IOException e) {
-                        logger.warn("Failed to register call registerAll() due to :", e);
                     }
+                } catch (IOException e) {
+                    logger.warn("Failed to register call registerAll() due to :", e);
+                }
+                if (!directory && !modifiedNames.contains(name)) {
+                    emit(dir, name, filePatterns, true);
                 }
             }
 
             /*
-             * reset key and remove from set if directory no longer accessible
+             * if a watched directory is deleted or moved away, then remove it and its sub-directories
+             * a moved directory is registered again under its new path by the ENTRY_CREATE of its new parent
              */
-            boolean valid = key.reset();
-            if (!valid) {
-                keysMap.remove(key);
-                logger.debug("Removed the key {} | Map : {}", key.toString().split("@")[1], keysMap);
+            if (kind == ENTRY_DELETE) {
+                Path child = dir.resolve(name);
+                if (dirKeys.containsKey(child)) {
+                    unregisterAll(child);
+                }
+                if (!createdFiles.isEmpty()) {
+                    createdFiles.remove(child);
+                }
+            }
+        }
 
+        /*
+         * the key has been reset already by the batch, remove it from set if directory no longer accessible
+         */
+        if (!valid) {
+            if (keysMap.remove(key) != null) {
+                metrics.watchCancelled(dir);
+            }
+            unregisterAll(dir);
+            logger.debug("Removed the key {} | Map : {}", key, keysMap);
+
+            /*
+             * this is because of all directories are inaccessible
+             */
+            if (keysMap.isEmpty()) {
+                logger.debug("Break the big loop due to no directories registered already");
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Match the name of an entry of the directory with the patterns and deliver it to the consumer if it is a file
+     *
+     * @param dir          the directory of the key
+     * @param name         context of the event
+     * @param filePatterns the patterns which can have files in the directory
+     * @param created      true for an ENTRY_CREATE, which is emitted only if the file has content, false for an
+     *                     ENTRY_MODIFY, which is not emitted if the file hasn't changed since it was emitted on creation
+     */
+    private void emit(Path dir, Path name, GRPattern[] filePatterns, boolean created) {
+        for (GRPattern pattern : filePatterns) {
+            long matchStart = System.nanoTime();
+            boolean matched = pattern.matchesName(dir, name);
+            matcherTimes.get(pattern).recordNanos(System.nanoTime() - matchStart);
+            if (matched) {
+                Path child = dir.resolve(name);         // eg. child = /tmp/ram/test/1000Set/10.xml
+                if (dirKeys.containsKey(child)) {
+                    return;
+                }
                 /*
-                 * this is because of all directories are inaccessible
+                 * an entry which doesn't exist any more, eg. a file which has been moved away by the consumer of its
+                 * first event, is dropped
                  */
-                if (keysMap.isEmpty()) {
-                    logger.debug("Break the big loop due to no directories registered already");
-                    break;
+                BasicFileAttributes attrs = EntryAttributes.readIfExists(child, true);
+                if (attrs == null || (created && attrs.size() == 0)) {
+                    return;
+                }
+                if (!created && !createdFiles.isEmpty() && isUnchanged(createdFiles.remove(child), attrs)) {
+                    return;
                 }
+                if (!attrs.isDirectory()) {
+                    if (created) {
+                        createdFiles.put(child, attrs);
+                    }
+                    fileConsumer.accept(child, pattern, patternMap.get(pattern));
+                    metrics.fileEmitted(metrics.isEndToEndLatencyEnabled() ? EntryAttributes.lastModifiedMillis(attrs) : -1);
+                    JfrEvents.emitted(child, "event");
+                    logger.debug("File {} submitted for scheduling", child);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Keep the names of the ENTRY_MODIFY events of a key, which are collected only if the key has an ENTRY_CREATE
+     *
+     * @param events the events of the key
+     */
+    private void collectModifiedNames(List<WatchEvent<?>> events) {
+        modifiedNames.clear();
+        boolean hasCreate = false;
+        for (int i = 0; i < events.size() && !hasCreate; i++) {
+            hasCreate = events.get(i).kind() == ENTRY_CREATE;
+        }
+        if (!hasCreate) {
+            return;
+        }
+        for (int i = 0; i < events.size(); i++) {
+            WatchEvent<?> event = events.get(i);
+            if (event.kind() == ENTRY_MODIFY) {
+                modifiedNames.add((Path) event.context());
             }
         }
     }
 
+    /**
+     * Returns whether a file has the same size and last modified time as when it was emitted
+     */
+    private static boolean isUnchanged(BasicFileAttributes emitted, BasicFileAttributes attrs) {
+        return emitted != null && attrs != null && emitted.size() == attrs.size()
+                && emitted.lastModifiedTime().equals(attrs.lastModifiedTime());
+    }
+
+    /**
+     * Record the event into the trace if it is enabled, the recording is stopped if the trace can't be written
+     *
+     * @param dir  the directory of the key
+     * @param kind kind of the event
+     * @param name context of the event
+     */
+    private void record(Path dir, WatchEvent.Kind<?> kind, Path name) {
+        TraceRecorder recorder = traceRecorder;
+        if (recorder == null) {
+            return;
+        }
+        try {
+            recorder.record(dir, kind, name);
+        } catch (IOException e) {
+            traceRecorder = null;
+            logger.warn("Stopped recording the trace due to :", e);
+        }
+    }
+
+    /**
+     * Check whether any of the patterns would watch the created entry if it is a directory, which is the same check
+     * done by registerAll before registering a directory, made with the name of the entry without resolving it
+     *
+     * @param patterns the patterns of the parent directory
+     * @param dir      the watched parent directory
+     * @param name     context of the event which is the file name of the entry
+     * @return true if the entry should be registered if it is a directory
+     */
+    private boolean isWatchable(GRPattern[] patterns, Path dir, Path name) {
+        for (GRPattern pattern : patterns) {
+            if (pattern.isWatchable(dir, name) && !exclusionRules.isExcludedDirectory(pattern.getRootPath(), dir, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a snapshot of the pattern map for the given patterns, so that it can be used by another thread safely
+     *
+     * @param patterns the patterns which should be in the map
+     * @return pattern map which keeps the given patterns with the relevant dataMap
+     */
+    private HashMap<GRPattern, HashMap<String, Object>> patternMapOf(Set<GRPattern> patterns) {
+        HashMap<GRPattern, HashMap<String, Object>> map = new HashMap<>();
+        for (GRPattern pattern : patterns) {
+            map.put(pattern, patternMap.get(pattern));
+        }
+        return map;
+    }
+
     @SuppressWarnings("unchecked")
     private static <T> WatchEvent<T> cast(WatchEvent<?> event) {
         return (WatchEvent<T>) event;
     }
 
+    /**
+     * Stop the dispatcher by closing the watch service of this publisher, and stop the manual handling threads
+     * The files which are being delivered by the manual handling are interrupted. The watched directories are
+     * forgotten and removed from the watch count of the metrics.
+     *
+     * @throws IOException if an error occurs while closing the watch service
+     */
+    @Override
+    public void close() throws IOException {
+        executorService.shutdownNow();
+        watcher.close();
+        synchronized (this) {
+            for (Path dir : dirKeys.keySet()) {
+                metrics.watchCancelled(dir);
+            }
+            keysMap.clear();
+            dirKeys.clear();
+            dirPatterns.clear();
+            dirFilePatterns.clear();
+            dirPatternArrays.clear();
+        }
+    }
+
     /*
      * Since the class is implemented by Runnable interface just after the constructor is called this method will executed
      */
@@ -1,5 +1,14 @@
 package transport;
 
+import nio.util.DirectoryPruner;
+import nio.util.FileNameMatcher;
+import nio.util.PathPatterns;
+
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+
 /**
  * This class is used for keep the GRPattern with the pattern syntax and the path pattern
  *
@@ -9,8 +18,14 @@ package transport;
 @SuppressWarnings("WeakerAccess")
 public class GRPattern {
 
+    private FileSystem fileSystem;
     private String patternSyntax;
     private String pathPattern;
+    private DirectoryPruner pruner;
+    private Path rootPath;
+    private PathMatcher pathMatcher;
+    private PathMatcher dirMatcher;
+    private FileNameMatcher nameMatcher;
 
     /**
      * Create pattern object with the patternSyntax and the pathPattern
@@ -19,8 +34,38 @@ public class GRPattern {
      * @param pathPattern   path pattern in the form of glob or regex
      */
     public GRPattern(String patternSyntax, String pathPattern) {
+        this(FileSystems.getDefault(), patternSyntax, pathPattern);
+    }
+
+    /**
+     * Create pattern object with the patternSyntax and the pathPattern of the paths in the given file system
+     *
+     * @param fileSystem    file system which the root path of the pattern belongs to
+     * @param patternSyntax whether the pattern is glob or regex
+     * @param pathPattern   path pattern in the form of glob or regex
+     */
+    public GRPattern(FileSystem fileSystem, String patternSyntax, String pathPattern) {
+        this.fileSystem = fileSystem;
         this.patternSyntax = patternSyntax;
         this.pathPattern = pathPattern;
+
+        /*
+         * compile the matchers once instead of per event, and split a glob into the directory and the file name parts
+         * so that the name of an event can be matched without resolving it against the directory
+         * eg. /tmp/ram/test/*&#47;1A/*.xml => /tmp/ram/test/*&#47;1A and *.xml
+         */
+        String normalizedPattern = fileSystem.getPath(pathPattern).toString();
+        this.pathMatcher = fileSystem.getPathMatcher(patternSyntax + normalizedPattern);
+        String separator = fileSystem.getSeparator();
+        int lastSeparator = normalizedPattern.lastIndexOf(separator);
+        if (!PathPatterns.isRegex(patternSyntax) && !"\\".equals(separator) && lastSeparator > 0
+                && !PathPatterns.hasSeparatorInGroup(normalizedPattern, separator)) {
+            String nameGlob = normalizedPattern.substring(lastSeparator + 1);
+            if (!nameGlob.isEmpty() && !nameGlob.contains("**")) {
+                this.dirMatcher = fileSystem.getPathMatcher("glob:" + normalizedPattern.substring(0, lastSeparator));
+                this.nameMatcher = FileNameMatcher.of(nameGlob);
+            }
+        }
     }
 
     @SuppressWarnings("WeakerAccess")
@@ -32,4 +77,106 @@ public class GRPattern {
     public String getPathPattern() {
         return pathPattern;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the directory which should be watched for this pattern, which is the literal prefix of the path pattern
+     * eg. /tmp/ram/test/*&#47;1A/*.xml => /tmp/ram/test
+     *
+     * @return root directory of the pattern
+     */
+    public Path getRootPath() {
+        if (rootPath == null) {
+            rootPath = PathPatterns.literalRoot(fileSystem, patternSyntax, pathPattern);
+        }
+        return rootPath;
+    }
+
+    /**
+     * Check whether the directory can contain files which match this pattern or can lead to such a directory
+     *
+     * @param dir the directory which is going to be registered
+     * @return true if the directory should be watched for this pattern
+     */
+    public boolean isWatchable(Path dir) {
+        if (pruner == null) {
+            pruner = new DirectoryPruner(fileSystem, patternSyntax, pathPattern);
+        }
+        return pruner.isWatchable(dir);
+    }
+
+    /**
+     * Check whether a directory created in a directory which is watched for this pattern should be watched as well
+     *
+     * @param dir  the watched directory which generated the event
+     * @param name context of the event which is the file name of the created directory
+     * @return true if the created directory should be watched for this pattern
+     */
+    public boolean isWatchable(Path dir, Path name) {
+        if (pruner == null) {
+            pruner = new DirectoryPruner(fileSystem, patternSyntax, pathPattern);
+        }
+        return pruner.isWatchable(dir, name);
+    }
+
+    /**
+     * Check whether the file matches this pattern with the compiled matcher
+     *
+     * @param file the file which should be matched
+     * @return true if the file matches the pattern
+     */
+    public boolean matches(Path file) {
+        if (file.getFileSystem() == fileSystem) {
+            return pathMatcher.matches(file);
+        }
+        return file.getFileSystem().getPathMatcher(patternSyntax + file.getFileSystem().getPath(pathPattern).toString()).matches(file);
+    }
+
+    /**
+     * Check whether the files directly in the given directory can match this pattern, so that the result can be kept
+     * per directory and only the file names are matched for the events
+     *
+     * @param dir the watched directory
+     * @return false if no file in the directory can match the pattern
+     */
+    public boolean canContainFiles(Path dir) {
+        return dirMatcher == null || dirMatcher.matches(dir);
+    }
+
+    /**
+     * Check whether the entry of an event matches this pattern, where the directory has been accepted by
+     * canContainFiles(dir) already. Only the file name is matched if the pattern can be split, otherwise the name is
+     * resolved against the directory and matched as a whole
+     *
+     * @param dir  the directory which generated the event
+     * @param name context of the event which is the file name of entry
+     * @return true if the file matches the pattern
+     */
+    public boolean matchesName(Path dir, Path name) {
+        if (nameMatcher != null) {
+            return nameMatcher.matches(name);
+        }
+        return matches(dir.resolve(name));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof GRPattern)) {
+            return false;
+        }
+        GRPattern that = (GRPattern) o;
+        return patternSyntax.equals(that.patternSyntax) && pathPattern.equals(that.pathPattern);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * patternSyntax.hashCode() + pathPattern.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return patternSyntax + pathPattern;
+    }
+}
@@ -0,0 +1,230 @@
+package transport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class is a delivery stage which keeps the order of the files with the same partition key, while the files of
+ * the different keys are delivered in parallel
+ * <p>
+ * Each key is hashed onto one of a fixed number of serial lanes, so the files of a key are delivered one by one in the
+ * order they are accepted, and the lanes run in parallel. The key is the directory of the file by default, so the files
+ * of a directory are delivered in the order of their events. The files found by the manual handling are accepted in
+ * the order they are listed by the file system. Each lane has a bounded queue, and the calling thread waits while the
+ * lane of a file is full, so a slow key slows down the watcher instead of filling the memory. The keys don't need
+ * threads of their own, and the keys which share a lane delay each other.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class KeyedExecutor implements FileConsumer, Closeable {
+
+    public static final int DEFAULT_LANE_CAPACITY = 1024;
+
+    /**
+     * The directory of the file
+     */
+    public static final PartitionKey DIRECTORY = new PartitionKey() {
+        @Override
+        public Object keyOf(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+            return file.getParent();
+        }
+    };
+
+    /**
+     * The pattern which is matched with the file, which keeps the order of all the files of a pattern
+     */
+    public static final PartitionKey PATTERN = new PartitionKey() {
+        @Override
+        public Object keyOf(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+            return pattern;
+        }
+    };
+
+    private static final Logger logger = LogManager.getLogger(KeyedExecutor.class);
+    private static final Delivery STOP = new Delivery(null, null, null);
+
+    private final FileConsumer next;
+    private final PartitionKey partitionKey;
+    private final List<BlockingQueue<Delivery>> lanes;
+    private final Thread[] workers;
+    private volatile boolean closed;
+
+    /**
+     * Create an executor with a lane per processor, which keeps the order of the files of each directory
+     *
+     * @param next the consumer of the files
+     */
+    public KeyedExecutor(FileConsumer next) {
+        this(next, DIRECTORY, Runtime.getRuntime().availableProcessors(), DEFAULT_LANE_CAPACITY);
+    }
+
+    /**
+     * Create an executor and start the workers of its lanes
+     *
+     * @param next         the consumer of the files
+     * @param partitionKey the key of the files whose order should be kept
+     * @param laneCount    number of the lanes, which is the number of the files delivered at the same time
+     * @param laneCapacity maximum number of the queued files of a lane
+     */
+    public KeyedExecutor(FileConsumer next, PartitionKey partitionKey, int laneCount, int laneCapacity) {
+        if (laneCount < 1 || laneCapacity < 1) {
+            throw new IllegalArgumentException("There should be at least 1 lane with a capacity of 1 : " + laneCount + ", "
+                    + laneCapacity);
+        }
+        this.next = next;
+        this.partitionKey = partitionKey;
+        this.lanes = new ArrayList<>(laneCount);
+        this.workers = new Thread[laneCount];
+        for (int i = 0; i < laneCount; i++) {
+            final BlockingQueue<Delivery> lane = new ArrayBlockingQueue<>(laneCapacity);
+            lanes.add(lane);
+            workers[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    work(lane);
+                }
+            }, "keyed-executor-" + i);
+            workers[i].setDaemon(true);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Queue the file into the lane of its key, waiting while the lane is full
+     * The file is dropped with an error if the calling thread is interrupted while waiting.
+     */
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        if (closed) {
+            throw new IllegalStateException("The keyed executor is closed");
+        }
+        try {
+            laneOf(partitionKey.keyOf(file, pattern, dataMap)).put(new Delivery(file, pattern, dataMap));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.error("Failed to queue the file {} due to :", file, e);
+        }
+    }
+
+    private BlockingQueue<Delivery> laneOf(Object key) {
+        int hash = key == null ? 0 : key.hashCode();
+        hash ^= hash >>> 16;
+        return lanes.get((hash & Integer.MAX_VALUE) % lanes.size());
+    }
+
+    /**
+     * Deliver the files of a lane one by one until the executor is closed
+     */
+    private void work(BlockingQueue<Delivery> lane) {
+        while (true) {
+            Delivery delivery;
+            try {
+                delivery = lane.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (delivery == STOP) {
+                return;
+            }
+            try {
+                next.accept(delivery.file, delivery.pattern, delivery.dataMap);
+            } catch (RuntimeException e) {
+                logger.error("Failed to deliver the file {} due to :", delivery.file, e);
+            }
+        }
+    }
+
+    /**
+     * Returns the number of the queued files of each lane
+     *
+     * @return queued files per lane
+     */
+    public int[] getLaneSizes() {
+        int[] sizes = new int[lanes.size()];
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = lanes.get(i).size();
+        }
+        return sizes;
+    }
+
+    /**
+     * Stop the workers after the queued files are delivered
+     * The files which are accepted while the executor is being closed may not be delivered.
+     *
+     * @param timeout maximum time to wait for the workers
+     * @param unit    unit of the timeout
+     * @return true if all the workers have stopped
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public boolean close(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        closed = true;
+        for (BlockingQueue<Delivery> lane : lanes) {
+            if (!lane.offer(STOP, Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS)) {
+                return false;
+            }
+        }
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (worker.isAlive()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Stop the workers without waiting for them, the lanes which are full are stopped without delivering their files
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (int i = 0; i < workers.length; i++) {
+            if (!lanes.get(i).offer(STOP)) {
+                workers[i].interrupt();
+            }
+        }
+    }
+
+    /**
+     * The key of the files whose order should be kept, the files with equal keys are delivered in order
+     */
+    public interface PartitionKey {
+
+        /**
+         * Returns the key of the matched file
+         *
+         * @param file    the matched file
+         * @param pattern the pattern which is matched with the file
+         * @param dataMap the data map of the pattern
+         * @return the key, which should have the equals and hashCode methods
+         */
+        Object keyOf(Path file, GRPattern pattern, HashMap<String, Object> dataMap);
+    }
+
+    /**
+     * A file which is waiting to be delivered
+     */
+    private static final class Delivery {
+
+        private final Path file;
+        private final GRPattern pattern;
+        private final HashMap<String, Object> dataMap;
+
+        private Delivery(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+            this.file = file;
+            this.pattern = pattern;
+            this.dataMap = dataMap;
+        }
+    }
+}
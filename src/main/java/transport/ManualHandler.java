@@ -1,5 +1,9 @@
 package transport;
 
+import nio.jfr.JfrEvents;
+import nio.metrics.TransportMetrics;
+import nio.util.ExclusionRules;
+import nio.util.TokenBucket;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
@@ -25,11 +29,17 @@ import java.util.concurrent.Callable;
 public class ManualHandler extends AbstractPathMatcher implements Callable<Object> {
 
     private static final Logger logger =  LogManager.getLogger(ManualHandler.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
 
     private HashMap<GRPattern, HashMap<String, Object>> patternMap;
     private long time;
     private final Path dir;
+    private final ExclusionRules exclusionRules;
+    private final FileConsumer fileConsumer;
+    private final TokenBucket budget;
+    private final String status;
     private final int THRESHOLD = 1500;     // safe value for threshold after testing for many times
+    private int entriesVisited;
 
     /**
      * Register all the parameters sent by the FilePublisher in order to handle the missed files manually
@@ -39,9 +49,71 @@ public class ManualHandler extends AbstractPathMatcher implements Callable<Objec
      * @param dir         the directory that should be scannned in
      */
     public ManualHandler(HashMap<GRPattern, HashMap<String, Object>> patternMap, long time, Path dir) {
+        this(patternMap, time, dir, new ExclusionRules());
+    }
+
+    /**
+     * Register all the parameters sent by the FilePublisher in order to handle the missed files manually
+     * The files with the excluded names are skipped before matching
+     *
+     * @param patternMap     pattern map which keeps the set of path patterns with the relevant dataMap
+     * @param time           the time which the overflow has been occurred or the time which the directory has been registered
+     * @param dir            the directory that should be scannned in
+     * @param exclusionRules the rules of the files which should never be processed
+     */
+    public ManualHandler(HashMap<GRPattern, HashMap<String, Object>> patternMap, long time, Path dir, ExclusionRules exclusionRules) {
+        this(patternMap, time, dir, exclusionRules, FileConsumer.PRINT);
+    }
+
+    /**
+     * Register all the parameters sent by the FilePublisher in order to handle the missed files manually
+     * The matched files are delivered to the given consumer
+     *
+     * @param patternMap     pattern map which keeps the set of path patterns with the relevant dataMap
+     * @param time           the time which the overflow has been occurred or the time which the directory has been registered
+     * @param dir            the directory that should be scannned in
+     * @param exclusionRules the rules of the files which should never be processed
+     * @param fileConsumer   the consumer of the matched files
+     */
+    public ManualHandler(HashMap<GRPattern, HashMap<String, Object>> patternMap, long time, Path dir, ExclusionRules exclusionRules, FileConsumer fileConsumer) {
+        this(patternMap, time, dir, exclusionRules, fileConsumer, new TokenBucket());
+    }
+
+    /**
+     * Register all the parameters sent by the FilePublisher in order to handle the missed files manually
+     * Each visited entry takes a token of the given budget, so the scan waits while the budget is used up
+     *
+     * @param patternMap     pattern map which keeps the set of path patterns with the relevant dataMap
+     * @param time           the time which the overflow has been occurred or the time which the directory has been registered
+     * @param dir            the directory that should be scannned in
+     * @param exclusionRules the rules of the files which should never be processed
+     * @param fileConsumer   the consumer of the matched files
+     * @param budget         the I/O budget of the scans, in entries per second
+     */
+    public ManualHandler(HashMap<GRPattern, HashMap<String, Object>> patternMap, long time, Path dir, ExclusionRules exclusionRules, FileConsumer fileConsumer, TokenBucket budget) {
+        this(patternMap, time, dir, exclusionRules, fileConsumer, budget, "manual");
+    }
+
+    /**
+     * Register all the parameters sent by the FilePublisher in order to handle the missed files manually
+     * The status is reported with the JFR events of the scan and of the files it finds
+     *
+     * @param patternMap     pattern map which keeps the set of path patterns with the relevant dataMap
+     * @param time           the time which the overflow has been occurred or the time which the directory has been registered
+     * @param dir            the directory that should be scannned in
+     * @param exclusionRules the rules of the files which should never be processed
+     * @param fileConsumer   the consumer of the matched files
+     * @param budget         the I/O budget of the scans, in entries per second
+     * @param status         status says whether this is a registration of a directory or an overflow
+     */
+    public ManualHandler(HashMap<GRPattern, HashMap<String, Object>> patternMap, long time, Path dir, ExclusionRules exclusionRules, FileConsumer fileConsumer, TokenBucket budget, String status) {
+        this.fileConsumer = fileConsumer;
+        this.status = status;
+        this.budget = budget;
         this.patternMap = patternMap;
         this.time = time;
         this.dir = dir;
+        this.exclusionRules = exclusionRules;
     }
 
     /**
@@ -52,7 +124,14 @@ public class ManualHandler extends AbstractPathMatcher implements Callable<Objec
      */
     @Override
     public Object call() throws Exception {
-        processManually();
+        long startNanos = metrics.rescanStarted();
+        Object rescan = JfrEvents.beginRescan();
+        try {
+            processManually();
+        } finally {
+            metrics.rescanFinished(startNanos);
+            JfrEvents.endRescan(rescan, dir, status, entriesVisited);
+        }
         return null;
     }
 
@@ -68,29 +147,63 @@ public class ManualHandler extends AbstractPathMatcher implements Callable<Objec
 
             @Override
             public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+                entriesVisited++;
+                if (!acquireBudget()) {
+                    return FileVisitResult.TERMINATE;
+                }
                 if (dir.equals(directory)) {
                     return FileVisitResult.CONTINUE;
                 }
-                return FileVisitResult.TERMINATE;
+                /*
+                 * each registered directory is processed by its own ManualHandler
+                 * so the sub-directories are skipped without terminating the files of this directory
+                 */
+                return FileVisitResult.SKIP_SUBTREE;
             }
 
+            /*
+             * the attributes of the file are read once by the walk, so the last modified time is taken from them
+             * instead of reading it again
+             */
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
-                try {
-                    if (Files.getLastModifiedTime(file).toMillis() < time + THRESHOLD) {
-                        for (Map.Entry<GRPattern, HashMap<String, Object>> entry : patternMap.entrySet()) {
-                            if (isMatchPattern(entry.getKey(), file)) {
-                                System.err.println("---- " + file);
-                                logger.debug("File {} submitted for scheduling", false);
-                                break;
-                            }
+                entriesVisited++;
+                if (!acquireBudget()) {
+                    return FileVisitResult.TERMINATE;
+                }
+                if (exclusionRules.isExcludedName(file.getFileName())) {
+                    return FileVisitResult.CONTINUE;
+                }
+                long lastModified = attrs.lastModifiedTime().toMillis();
+                if (lastModified < time + THRESHOLD) {
+                    for (Map.Entry<GRPattern, HashMap<String, Object>> entry : patternMap.entrySet()) {
+                        if (isMatchPattern(entry.getKey(), file)) {
+                            fileConsumer.accept(file, entry.getKey(), entry.getValue());
+                            metrics.fileEmitted(lastModified);
+                            JfrEvents.emitted(file, status);
+                            logger.debug("File {} submitted for scheduling", file);
+                            break;
                         }
                     }
-                } catch (IOException e) {
-                    logger.error("Failed to get the modified time of file due to :", e);
                 }
                 return FileVisitResult.CONTINUE;
             }
         });
     }
+
+    /**
+     * Wait for a token of the budget, the scan is stopped if it is cancelled while waiting
+     *
+     * @return true if the token is taken
+     */
+    private boolean acquireBudget() {
+        try {
+            budget.acquire(1);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Manual handling of {} is cancelled", dir);
+            return false;
+        }
+    }
 }
\ No newline at end of file
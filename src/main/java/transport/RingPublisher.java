@@ -0,0 +1,36 @@
+package transport;
+
+import nio.ring.RingWriter;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * This class is a delivery stage which publishes the matched files into a shared ring buffer file and hands over them
+ * to the next consumer, so that the other processes on the host consume the same files with RingReaders instead of
+ * watching the same directories again
+ *
+ * @author Chanaka Lakmal
+ */
+public class RingPublisher implements FileConsumer {
+
+    private final RingWriter ringWriter;
+    private final FileConsumer next;
+
+    /**
+     * Create a publisher
+     *
+     * @param ringWriter the writer of the ring file
+     * @param next       the consumer of the files in this process
+     */
+    public RingPublisher(RingWriter ringWriter, FileConsumer next) {
+        this.ringWriter = ringWriter;
+        this.next = next;
+    }
+
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        ringWriter.publish(file, pattern.getPatternSyntax() + pattern.getPathPattern());
+        next.accept(file, pattern, dataMap);
+    }
+}
@@ -0,0 +1,298 @@
+package transport;
+
+import nio.util.MappedBuffers;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * This class receives the files which are streamed by a SocketSender and hands over their content to a ContentConsumer
+ * <p>
+ * It can be run in the process of the engine which consumes the files, or in the same process for testing. Each
+ * connection is read by its own thread, so the frames of a connection are consumed in the order they are sent. The
+ * data map given to the consumer contains the size and the last modified time of the file, and the pattern is created
+ * from the syntax and the path pattern in the frame on the default file system.
+ * <p>
+ * The frames are acknowledged to the sender with the number of the frames consumed from the connection once the
+ * consumer has returned. The acknowledgement is written when there are no more frames buffered, so a burst of frames
+ * is acknowledged at once. A frame whose consumer throws is not acknowledged, and the connection is closed.
+ * <p>
+ * The content of a frame up to the spool threshold is read into a heap buffer reused by the connection. A larger frame
+ * is transferred from the socket into a spool file of the connection with FileChannel.transferFrom, and handed over
+ * as a read-only mapping of the file which is unmapped as soon as the consumer returns, so a large file never needs a
+ * heap buffer of its size. The spool file is deleted when the connection is closed.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class SocketReceiver implements Runnable, Closeable {
+
+    public static final String SIZE = "size";
+    public static final String LAST_MODIFIED = "lastModified";
+    public static final int DEFAULT_SPOOL_THRESHOLD = 64 * 1024;
+
+    private static final Logger logger = LogManager.getLogger(SocketReceiver.class);
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private final ServerSocketChannel serverChannel;
+    private final ContentConsumer contentConsumer;
+    private final int spoolThreshold;
+    private final ExecutorService executorService;
+    private final Set<SocketChannel> connections;
+
+    /**
+     * Create a receiver which listens to the given address and spools the files larger than the default threshold
+     *
+     * @param address         the address which the receiver is bound to, port 0 selects a free port
+     * @param contentConsumer the consumer of the received files
+     * @throws IOException if the address can't be bound
+     */
+    public SocketReceiver(InetSocketAddress address, ContentConsumer contentConsumer) throws IOException {
+        this(address, contentConsumer, DEFAULT_SPOOL_THRESHOLD);
+    }
+
+    /**
+     * Create a receiver which listens to the given address and spools the files larger than the given threshold
+     *
+     * @param address         the address which the receiver is bound to, port 0 selects a free port
+     * @param contentConsumer the consumer of the received files
+     * @param spoolThreshold  size in bytes of the largest file which is received into a heap buffer, each connection
+     *                        keeps a buffer of up to this size
+     * @throws IOException if the address can't be bound
+     */
+    public SocketReceiver(InetSocketAddress address, ContentConsumer contentConsumer, int spoolThreshold) throws IOException {
+        if (spoolThreshold < 0) {
+            throw new IllegalArgumentException("The spool threshold should not be negative : " + spoolThreshold);
+        }
+        this.serverChannel = ServerSocketChannel.open().bind(address);
+        this.contentConsumer = contentConsumer;
+        this.spoolThreshold = spoolThreshold;
+        this.executorService = Executors.newCachedThreadPool();
+        this.connections = Collections.newSetFromMap(new ConcurrentHashMap<SocketChannel, Boolean>());
+    }
+
+    /**
+     * Returns the address which the receiver is listening to
+     *
+     * @return bound address
+     * @throws IOException if the receiver is closed
+     */
+    public InetSocketAddress getAddress() throws IOException {
+        return (InetSocketAddress) serverChannel.getLocalAddress();
+    }
+
+    /**
+     * Accept the connections until the receiver is closed
+     */
+    @Override
+    public void run() {
+        while (serverChannel.isOpen()) {
+            final SocketChannel connection;
+            try {
+                connection = serverChannel.accept();
+            } catch (AsynchronousCloseException e) {
+                break;
+            } catch (IOException e) {
+                logger.error("Failed to accept a connection due to :", e);
+                continue;
+            }
+            connections.add(connection);
+            executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    receive(connection);
+                }
+            });
+        }
+    }
+
+    /**
+     * Read the frames of the connection until it is closed by the sender
+     *
+     * @param connection the accepted connection
+     */
+    private void receive(SocketChannel connection) {
+        HashMap<String, GRPattern> patterns = new HashMap<>();
+        byte[] content = new byte[Math.min(STREAM_BUFFER_SIZE, spoolThreshold)];
+        ByteBuffer acknowledgement = ByteBuffer.allocate(8);
+        long frames = 0;
+        FrameInputStream frameStream = new FrameInputStream(Channels.newInputStream(connection));
+        FileChannel spool = null;
+        try (DataInputStream in = new DataInputStream(frameStream)) {
+            while (true) {
+                int magic;
+                try {
+                    magic = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (magic != SocketSender.MAGIC) {
+                    throw new IOException("Invalid frame from " + connection.getRemoteAddress());
+                }
+                Path file = Paths.get(in.readUTF());
+                String patternSyntax = in.readUTF();
+                String pathPattern = in.readUTF();
+                long lastModified = in.readLong();
+                long size = in.readLong();
+                if (size < 0) {
+                    throw new IOException("Invalid size of the file " + file + " from " + connection.getRemoteAddress() + " : " + size);
+                }
+                if (size > Integer.MAX_VALUE) {
+                    throw new IOException("The file " + file + " is too large to be received into a buffer : " + size);
+                }
+                MappedByteBuffer mapped = null;
+                ByteBuffer buffer;
+                if (size <= spoolThreshold) {
+                    if (content.length < size) {
+                        content = new byte[(int) size];
+                    }
+                    in.readFully(content, 0, (int) size);
+                    buffer = ByteBuffer.wrap(content, 0, (int) size).asReadOnlyBuffer();
+                } else {
+                    if (spool == null) {
+                        spool = openSpool();
+                    }
+                    spool(frameStream, connection, spool, size);
+                    mapped = spool.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                    buffer = mapped;
+                }
+
+                GRPattern pattern = patterns.get(patternSyntax + pathPattern);
+                if (pattern == null) {
+                    pattern = new GRPattern(patternSyntax, pathPattern);
+                    patterns.put(patternSyntax + pathPattern, pattern);
+                }
+                HashMap<String, Object> dataMap = new HashMap<>();
+                dataMap.put(SIZE, size);
+                dataMap.put(LAST_MODIFIED, lastModified);
+                try {
+                    contentConsumer.accept(file, buffer, pattern, dataMap);
+                } finally {
+                    MappedBuffers.unmap(mapped);
+                }
+
+                frames++;
+                if (in.available() == 0) {
+                    acknowledgement.clear();
+                    acknowledgement.putLong(0, frames);
+                    while (acknowledgement.hasRemaining()) {
+                        connection.write(acknowledgement);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            if (serverChannel.isOpen()) {
+                logger.error("Failed to receive the files due to :", e);
+            }
+        } finally {
+            connections.remove(connection);
+            closeSpool(spool);
+        }
+    }
+
+    /**
+     * Open a spool file for the large frames of a connection, which is deleted when it is closed
+     */
+    private static FileChannel openSpool() throws IOException {
+        Path file = Files.createTempFile("socket-receiver", ".spool");
+        return FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+    }
+
+    private static void closeSpool(FileChannel spool) {
+        if (spool == null) {
+            return;
+        }
+        try {
+            spool.close();
+        } catch (IOException e) {
+            logger.warn("Failed to close the spool file due to :", e);
+        }
+    }
+
+    /**
+     * Write the content of a frame into the start of the spool file
+     * The bytes of the frame which are buffered by the stream already are written first, and the rest is transferred
+     * from the socket without copying it through the heap.
+     *
+     * @param in         the stream of the connection, whose buffer may hold the first bytes of the content
+     * @param connection the connection which the rest of the content is transferred from
+     * @param spool      the spool file of the connection
+     * @param size       size of the content
+     * @throws IOException if the connection is closed before the whole content is received
+     */
+    private static void spool(FrameInputStream in, SocketChannel connection, FileChannel spool, long size) throws IOException {
+        long position = in.drainTo(spool, size);
+        while (position < size) {
+            long transferred = spool.transferFrom(connection, position, size - position);
+            if (transferred <= 0) {
+                throw new EOFException("The connection is closed after " + position + " of " + size + " bytes of a file");
+            }
+            position += transferred;
+        }
+    }
+
+    /**
+     * This class is the buffered stream of a connection, whose buffered bytes can be written into a file without
+     * reading more from the connection
+     */
+    private static class FrameInputStream extends BufferedInputStream {
+
+        FrameInputStream(InputStream in) {
+            super(in, STREAM_BUFFER_SIZE);
+        }
+
+        /**
+         * Write up to the given number of the buffered bytes into the start of the file
+         *
+         * @return number of the written bytes
+         */
+        synchronized long drainTo(FileChannel file, long max) throws IOException {
+            int length = (int) Math.min(count - pos, max);
+            ByteBuffer buffered = ByteBuffer.wrap(buf, pos, length);
+            while (buffered.hasRemaining()) {
+                file.write(buffered, buffered.position() - pos);
+            }
+            pos += length;
+            return length;
+        }
+    }
+
+    /**
+     * Stop accepting the connections and close the open ones
+     */
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (SocketChannel connection : connections) {
+            connection.close();
+        }
+        executorService.shutdownNow();
+    }
+}
@@ -0,0 +1,359 @@
+package transport;
+
+import nio.metrics.TransportMetrics;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * This class is a delivery stage which streams the matched files to a SocketReceiver of another process on the same
+ * host, instead of handing over the paths which have to be read again by the receiver
+ * <p>
+ * Each file is sent as a frame of a small header with the path, the pattern and the attributes of the file followed
+ * by its content, which is transferred from the file to the socket by the kernel with FileChannel.transferTo
+ * (sendfile). The connections are pooled and the frames of many files are pipelined over each connection. The
+ * receiver acknowledges the frames it has consumed with a cumulative count, and a file is handed over to the next
+ * consumer only when its frame is acknowledged, by the thread which reads the acknowledgements of the connection. So
+ * the next consumer can delete or move the file. At most MAX_UNACKNOWLEDGED frames of a connection wait for their
+ * acknowledgement, and the senders wait beyond this.
+ * <p>
+ * Frame : int magic, UTF path, UTF pattern syntax, UTF path pattern, long last modified millis, long size, content
+ * Acknowledgement : long number of the frames consumed from the connection
+ * If an error occurs while sending a frame or reading the acknowledgements the connection is closed, since the rest
+ * of the frame can't be sent, and the files which are not acknowledged are not handed over to the next consumer.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class SocketSender implements FileConsumer, Closeable {
+
+    public static final int MAGIC = 0x4E465431;
+    public static final int MAX_UNACKNOWLEDGED = 1024;
+
+    private static final Logger logger = LogManager.getLogger(SocketSender.class);
+    private static final TransportMetrics metrics = TransportMetrics.getDefault();
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final AtomicInteger connectionCounter = new AtomicInteger();
+
+    private final InetSocketAddress address;
+    private final FileConsumer next;
+    private final LinkedBlockingQueue<Connection> idleConnections;
+    private final Semaphore connectionPermits;
+    private volatile boolean closed;
+
+    /**
+     * Create a sender which opens the connections to the receiver on demand
+     *
+     * @param address        the address of the receiver
+     * @param maxConnections maximum number of the connections, the callers wait for a free one beyond this
+     * @param next           the consumer of the files which have been acknowledged by the receiver
+     */
+    public SocketSender(InetSocketAddress address, int maxConnections, FileConsumer next) {
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("There should be at least 1 connection : " + maxConnections);
+        }
+        this.address = address;
+        this.next = next;
+        this.idleConnections = new LinkedBlockingQueue<>();
+        this.connectionPermits = new Semaphore(maxConnections);
+    }
+
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        try {
+            send(file, pattern, dataMap);
+        } catch (IOException e) {
+            metrics.deliveryFailed();
+            logger.error("Failed to send the file {} to {} due to :", file, address, e);
+        }
+    }
+
+    /**
+     * Send the file over a pooled connection, it is handed over to the next consumer when the receiver acknowledges it
+     * A file whose frame can't be written completely is reported as a failed delivery by its connection.
+     *
+     * @param file    the file which should be sent
+     * @param pattern the pattern which is matched with the file
+     * @param dataMap data map which is handed over to the next consumer with the file
+     * @throws IOException if the file can't be read or there is no connection to send it
+     */
+    public void send(Path file, GRPattern pattern, HashMap<String, Object> dataMap) throws IOException {
+        long startNanos = System.nanoTime();
+        Connection connection = borrow();
+        try {
+            connection.send(new Delivery(file, pattern, dataMap, startNanos));
+        } finally {
+            release(connection);
+        }
+    }
+
+    private static void writeFully(SocketChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Take an idle connection, or open a new one if there is none
+     */
+    private Connection borrow() throws IOException {
+        if (closed) {
+            throw new IOException("The sender is closed");
+        }
+        try {
+            connectionPermits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for a connection to " + address, e);
+        }
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            if (!connection.isBroken()) {
+                return connection;
+            }
+        }
+        try {
+            SocketChannel channel = SocketChannel.open(address);
+            channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+            connection = new Connection(channel);
+            Thread reader = new Thread(connection, "socket-sender-" + connectionCounter.incrementAndGet());
+            reader.setDaemon(true);
+            reader.start();
+            logger.debug("Opened a connection to {}", address);
+            return connection;
+        } catch (IOException e) {
+            connectionPermits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the connection to the pool, a broken connection is dropped
+     */
+    private void release(Connection connection) {
+        if (!connection.isBroken()) {
+            idleConnections.add(connection);
+            if (closed) {
+                close();
+            }
+        }
+        connectionPermits.release();
+    }
+
+    /**
+     * Close the idle connections once the receiver has acknowledged their frames, the connections in use are closed
+     * when their frames are written
+     */
+    @Override
+    public void close() {
+        closed = true;
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            connection.shutdownOutput();
+        }
+    }
+
+    /**
+     * A connection to the receiver with the files whose frames are not acknowledged yet
+     * The connection is used by one sender at a time, and its acknowledgements are read by its own thread.
+     */
+    private final class Connection implements Runnable {
+
+        private final SocketChannel channel;
+        private final ArrayDeque<Delivery> unacknowledged;
+        private boolean broken;
+
+        private Connection(SocketChannel channel) {
+            this.channel = channel;
+            this.unacknowledged = new ArrayDeque<>();
+        }
+
+        /**
+         * Write the frame of the file, the file waits for its acknowledgement once its header is written
+         */
+        private void send(Delivery delivery) throws IOException {
+            try (SeekableByteChannel in = Files.newByteChannel(delivery.file, READ)) {
+                long size = in.size();
+                BasicFileAttributes attrs = Files.readAttributes(delivery.file, BasicFileAttributes.class);
+                delivery.size = size;
+
+                ByteArrayOutputStream header = new ByteArrayOutputStream(256);
+                DataOutputStream out = new DataOutputStream(header);
+                out.writeInt(MAGIC);
+                out.writeUTF(delivery.file.toString());
+                out.writeUTF(delivery.pattern.getPatternSyntax());
+                out.writeUTF(delivery.pattern.getPathPattern());
+                out.writeLong(attrs.lastModifiedTime().toMillis());
+                out.writeLong(size);
+                waitForRoom(delivery);
+
+                try {
+                    writeFully(channel, ByteBuffer.wrap(header.toByteArray()));
+                    transfer(in, size, delivery.file);
+                } catch (IOException e) {
+                    fail(e);
+                }
+            }
+        }
+
+        private void waitForRoom(Delivery delivery) throws IOException {
+            synchronized (unacknowledged) {
+                while (unacknowledged.size() >= MAX_UNACKNOWLEDGED && !broken) {
+                    try {
+                        unacknowledged.wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for the acknowledgements of " + address, e);
+                    }
+                }
+                if (broken) {
+                    throw new IOException("The connection to " + address + " is closed");
+                }
+                unacknowledged.add(delivery);
+            }
+        }
+
+        private void transfer(SeekableByteChannel in, long size, Path file) throws IOException {
+            long position = 0;
+            if (in instanceof FileChannel) {
+                while (position < size) {
+                    long transferred = ((FileChannel) in).transferTo(position, size - position, channel);
+                    if (transferred == 0 && position >= in.size()) {
+                        throw new IOException("The file " + file + " has been truncated while sending it");
+                    }
+                    position += transferred;
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+                while (position < size) {
+                    buffer.clear();
+                    buffer.limit((int) Math.min(BUFFER_SIZE, size - position));
+                    int read = in.read(buffer);
+                    if (read == -1) {
+                        throw new IOException("The file " + file + " has been truncated while sending it");
+                    }
+                    buffer.flip();
+                    writeFully(channel, buffer);
+                    position += read;
+                }
+            }
+        }
+
+        /**
+         * Read the acknowledgements and hand over the acknowledged files until the connection is closed
+         */
+        @Override
+        public void run() {
+            ByteBuffer acknowledgement = ByteBuffer.allocate(8);
+            long acknowledged = 0;
+            try {
+                while (true) {
+                    acknowledgement.clear();
+                    while (acknowledgement.hasRemaining()) {
+                        if (channel.read(acknowledgement) == -1) {
+                            throw new EOFException("The connection has been closed by " + address);
+                        }
+                    }
+                    long frames = acknowledgement.getLong(0);
+                    for (; acknowledged < frames; acknowledged++) {
+                        Delivery delivery;
+                        synchronized (unacknowledged) {
+                            delivery = unacknowledged.poll();
+                            unacknowledged.notifyAll();
+                        }
+                        if (delivery == null) {
+                            throw new IOException("Invalid acknowledgement from " + address + " : " + frames);
+                        }
+                        metrics.fileDelivered("sendfile", delivery.size, delivery.startNanos);
+                        try {
+                            next.accept(delivery.file, delivery.pattern, delivery.dataMap);
+                        } catch (RuntimeException e) {
+                            logger.error("Failed to hand over the file {} due to :", delivery.file, e);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        /**
+         * Close the connection and fail the files which are not acknowledged
+         */
+        private void fail(IOException cause) {
+            Delivery[] failed;
+            synchronized (unacknowledged) {
+                broken = true;
+                failed = unacknowledged.toArray(new Delivery[unacknowledged.size()]);
+                unacknowledged.clear();
+                unacknowledged.notifyAll();
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close the connection due to :", e);
+            }
+            for (Delivery delivery : failed) {
+                metrics.deliveryFailed();
+                logger.error("Failed to send the file {} to {} due to :", delivery.file, address, cause);
+            }
+        }
+
+        private boolean isBroken() {
+            synchronized (unacknowledged) {
+                return broken;
+            }
+        }
+
+        /**
+         * Stop sending, the connection is closed by the receiver once it has acknowledged the frames
+         */
+        private void shutdownOutput() {
+            try {
+                channel.shutdownOutput();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * A file whose frame is waiting for its acknowledgement
+     */
+    private static final class Delivery {
+
+        private final Path file;
+        private final GRPattern pattern;
+        private final HashMap<String, Object> dataMap;
+        private final long startNanos;
+        private long size;
+
+        private Delivery(Path file, GRPattern pattern, HashMap<String, Object> dataMap, long startNanos) {
+            this.file = file;
+            this.pattern = pattern;
+            this.dataMap = dataMap;
+            this.startNanos = startNanos;
+        }
+    }
+}
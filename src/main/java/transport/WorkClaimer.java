@@ -0,0 +1,399 @@
+package transport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+
+/**
+ * This class is a delivery stage which claims the matched files before handing them over to the next consumer, so that
+ * several instances of the transport can watch the same shared directory tree without processing a file twice
+ * <p>
+ * A file is claimed by renaming it into the claim directory of the instance, ".claims/instanceId" in the directory of
+ * the file. The rename is atomic on a local or an NFS file system, so only one of the instances which detect the same
+ * file can claim it, and the others find that the file doesn't exist anymore and skip it. The claimed file is handed
+ * over to the next consumer, which should move it away from the claim directory, eg. with a FileMover. If the
+ * consumer fails, the file is released back into its directory to be detected again.
+ * <p>
+ * Each instance keeps a lease file in the shared lease directory, whose last modified time is renewed by a heartbeat
+ * thread. The claims of an instance whose lease hasn't been renewed within the lease time are orphaned, and they are
+ * released back into their directories by the recovery of any other instance. The recovery roots are walked once when
+ * the claimer is created, which also releases the claims of a previous run with the same instance id, and the claim
+ * directories found by the walks or by the claims of this instance are checked again once in each lease time, so the
+ * tree is not walked on every heartbeat. The recovery roots are walked again once in RECOVERY_WALK_LEASES lease times
+ * instead, to find the claim directories which other instances have created since, in case they die before the
+ * directories are seen by this one. The claims of the instance itself are not released after the start, since
+ * they may be queued by an asynchronous next consumer. The lease times are compared with the clock of the reading
+ * instance, so the clocks of the hosts should be synchronized to well within the lease time.
+ * <p>
+ * The claim directories are hidden, so the watchers should exclude the hidden directories with
+ * ExclusionRules.excludeHidden. The files which are already in a claim directory are skipped anyway.
+ *
+ * @author Chanaka Lakmal
+ */
+@SuppressWarnings("WeakerAccess")
+public class WorkClaimer implements FileConsumer, Closeable {
+
+    public static final String CLAIMS = ".claims";
+    public static final String LEASE_SUFFIX = ".lease";
+    public static final long DEFAULT_LEASE_MILLIS = 30000;
+    public static final int RECOVERY_WALK_LEASES = 10;
+
+    private static final Logger logger = LogManager.getLogger(WorkClaimer.class);
+
+    private final FileConsumer next;
+    private final String instanceId;
+    private final Path leaseDirectory;
+    private final Path leaseFile;
+    private final long leaseMillis;
+    private final Path[] recoveryRoots;
+    private final Set<Path> claimDirectories;
+    private final Set<Path> createdDirectories;
+    private final Thread heartbeat;
+    private volatile long renewedNanos;
+    private volatile boolean closed;
+
+    /**
+     * Create a claimer with the default lease time, which recovers the orphaned claims under the given roots
+     *
+     * @param next           the consumer of the claimed files
+     * @param instanceId     the id of the instance, which should be unique among the instances sharing the tree
+     * @param leaseDirectory the shared directory of the lease files of the instances
+     * @param recoveryRoots  the roots of the watched trees, which are walked for the claims at the start and periodically
+     * @throws IOException if the lease file can't be written
+     */
+    public WorkClaimer(FileConsumer next, String instanceId, Path leaseDirectory, Path... recoveryRoots) throws IOException {
+        this(next, instanceId, leaseDirectory, DEFAULT_LEASE_MILLIS, recoveryRoots);
+    }
+
+    /**
+     * Create a claimer, release the orphaned claims and the claims of a previous run under the recovery roots, and start
+     * renewing its lease
+     *
+     * @param next           the consumer of the claimed files
+     * @param instanceId     the id of the instance, which should be unique among the instances sharing the tree
+     * @param leaseDirectory the shared directory of the lease files of the instances
+     * @param leaseMillis    the time after which the claims of an instance which hasn't renewed its lease are orphaned
+     * @param recoveryRoots  the roots of the watched trees, which are walked for the claims at the start and periodically
+     * @throws IOException if the lease file can't be written
+     */
+    public WorkClaimer(FileConsumer next, String instanceId, Path leaseDirectory, long leaseMillis, Path... recoveryRoots)
+            throws IOException {
+        if (instanceId.isEmpty() || instanceId.startsWith(".") || instanceId.contains("/") || instanceId.contains("\\")) {
+            throw new IllegalArgumentException("The instance id should be a plain file name : " + instanceId);
+        }
+        if (leaseMillis < 100) {
+            throw new IllegalArgumentException("The lease should be at least 100 milliseconds : " + leaseMillis);
+        }
+        this.next = next;
+        this.instanceId = instanceId;
+        this.leaseDirectory = leaseDirectory;
+        this.leaseFile = leaseDirectory.resolve(instanceId + LEASE_SUFFIX);
+        this.leaseMillis = leaseMillis;
+        this.recoveryRoots = recoveryRoots.clone();
+        this.claimDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        this.createdDirectories = Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+        Files.createDirectories(leaseDirectory);
+        renewLease();
+        for (Path root : recoveryRoots) {
+            try {
+                recover(root, true);
+            } catch (IOException e) {
+                logger.error("Failed to recover the claims under {} due to :", root, e);
+            }
+        }
+        this.heartbeat = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                beat();
+            }
+        }, "work-claimer-" + instanceId);
+        heartbeat.setDaemon(true);
+        heartbeat.start();
+    }
+
+    @Override
+    public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+        Path claimed = claimPathOf(file);
+        if (claimed == null || !claim(file, claimed)) {
+            return;
+        }
+        try {
+            next.accept(claimed, pattern, dataMap);
+        } catch (RuntimeException e) {
+            logger.error("Failed to deliver the claimed file {} due to :", claimed, e);
+            release(claimed);
+        }
+    }
+
+    /**
+     * Returns the path of the file in the claim directory of this instance
+     *
+     * @param file the detected file
+     * @return the claimed path, or null if the file is already in a claim directory
+     */
+    private Path claimPathOf(Path file) {
+        Path dir = file.getParent();
+        if (dir == null || file.getFileName() == null) {
+            return null;
+        }
+        Path parent = dir.getParent();
+        if (parent != null && parent.getFileName() != null && CLAIMS.equals(parent.getFileName().toString())) {
+            return null;
+        }
+        return dir.resolve(CLAIMS).resolve(instanceId).resolve(file.getFileName().toString());
+    }
+
+    /**
+     * Rename the file into the claim directory, which fails if another instance has renamed it first
+     * The claim directory is created once, and again if it has been removed meanwhile.
+     */
+    private boolean claim(Path file, Path claimed) {
+        Path claimDir = claimed.getParent();
+        try {
+            if (System.nanoTime() - renewedNanos > TimeUnit.MILLISECONDS.toNanos(leaseMillis) / 2) {
+                renewLease();
+            }
+            for (int attempt = 0; ; attempt++) {
+                if (!createdDirectories.contains(claimDir)) {
+                    Files.createDirectories(claimDir);
+                    createdDirectories.add(claimDir);
+                    claimDirectories.add(claimDir.getParent());
+                }
+                try {
+                    Files.move(file, claimed, ATOMIC_MOVE);
+                    logger.debug("File {} is claimed by {}", file, instanceId);
+                    return true;
+                } catch (NoSuchFileException e) {
+                    if (attempt > 0 || Files.isDirectory(claimDir)) {
+                        throw e;
+                    }
+                    createdDirectories.remove(claimDir);
+                }
+            }
+        } catch (NoSuchFileException e) {
+            logger.debug("File {} is claimed by another instance", file);
+        } catch (IOException e) {
+            logger.error("Failed to claim the file {} due to :", file, e);
+        }
+        return false;
+    }
+
+    /**
+     * Move a claimed file back into its directory with a link, which doesn't replace a new file with the same name
+     * The link is detected again by its ENTRY_CREATE. The claimed file is kept if it can't be moved back, to be
+     * released by a later recovery.
+     *
+     * @param claimed the file in a claim directory
+     * @return true if the file has been released
+     */
+    private boolean release(Path claimed) {
+        Path target = claimed.getParent().getParent().getParent().resolve(claimed.getFileName().toString());
+        try {
+            try {
+                Files.createLink(target, claimed);
+                Files.delete(claimed);
+            } catch (UnsupportedOperationException e) {
+                if (Files.exists(target)) {
+                    throw new FileAlreadyExistsException(target.toString());
+                }
+                Files.move(claimed, target, ATOMIC_MOVE);
+            }
+            logger.debug("Claimed file {} is released into {}", claimed, target);
+            return true;
+        } catch (NoSuchFileException e) {
+            logger.debug("Claimed file {} is released by another instance", claimed);
+        } catch (IOException e) {
+            logger.error("Failed to release the claimed file {} due to :", claimed, e);
+        }
+        return false;
+    }
+
+    /**
+     * Release the orphaned claims under the given root, which are the claims of the instances whose leases have
+     * expired, and remember the claim directories to check them again on the heartbeat
+     *
+     * @param root the root of a watched tree
+     * @return number of the released files
+     * @throws IOException if the tree can't be walked
+     */
+    public int recover(Path root) throws IOException {
+        return recover(root, false);
+    }
+
+    /**
+     * Walk the tree and release the orphaned claims in its claim directories
+     *
+     * @param own true if the claims of this instance should be released as well, which is done only at the start
+     */
+    private int recover(Path root, final boolean own) throws IOException {
+        final int[] released = new int[1];
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                if (dir.getFileName() == null || !CLAIMS.equals(dir.getFileName().toString())) {
+                    return FileVisitResult.CONTINUE;
+                }
+                claimDirectories.add(dir);
+                released[0] += recoverClaims(dir, own);
+                return FileVisitResult.SKIP_SUBTREE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                logger.debug("Failed to visit {} due to :", file, e);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        if (released[0] > 0) {
+            logger.info("Released {} orphaned claims under {}", released[0], root);
+        }
+        return released[0];
+    }
+
+    /**
+     * Release the claims of the expired instances in a claim directory
+     *
+     * @param claimsDir the .claims directory of a watched directory
+     * @param own       true if the claims of this instance should be released as well
+     * @return number of the released files
+     * @throws IOException if the directory can't be listed
+     */
+    private int recoverClaims(Path claimsDir, boolean own) throws IOException {
+        int released = 0;
+        try (DirectoryStream<Path> instances = Files.newDirectoryStream(claimsDir)) {
+            for (Path instance : instances) {
+                String id = instance.getFileName().toString();
+                if (instanceId.equals(id) ? !own : !isLeaseExpired(id)) {
+                    continue;
+                }
+                try (DirectoryStream<Path> claims = Files.newDirectoryStream(instance)) {
+                    for (Path claimed : claims) {
+                        if (release(claimed)) {
+                            released++;
+                        }
+                    }
+                } catch (NoSuchFileException e) {
+                    logger.debug("The claim directory {} has been removed", instance);
+                }
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Returns whether the lease of the given instance has expired, a missing lease is expired
+     */
+    private boolean isLeaseExpired(String id) throws IOException {
+        try {
+            long renewed = Files.getLastModifiedTime(leaseDirectory.resolve(id + LEASE_SUFFIX)).toMillis();
+            return System.currentTimeMillis() - renewed > leaseMillis;
+        } catch (NoSuchFileException e) {
+            return true;
+        }
+    }
+
+    private void renewLease() throws IOException {
+        if (!Files.exists(leaseFile)) {
+            Files.write(leaseFile, instanceId.getBytes(StandardCharsets.UTF_8));
+        }
+        Files.setLastModifiedTime(leaseFile, FileTime.fromMillis(System.currentTimeMillis()));
+        renewedNanos = System.nanoTime();
+    }
+
+    /**
+     * Renew the lease three times in each lease time, and recover the orphaned claims of the known claim directories
+     * once in each lease time, walking the recovery roots instead once in RECOVERY_WALK_LEASES lease times
+     */
+    private void beat() {
+        long recoveredNanos = 0;
+        int recoveries = 0;
+        while (!closed) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(leaseMillis / 3);
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                renewLease();
+            } catch (IOException e) {
+                logger.error("Failed to renew the lease {} due to :", leaseFile, e);
+            }
+            if (System.nanoTime() - recoveredNanos >= TimeUnit.MILLISECONDS.toNanos(leaseMillis)) {
+                recoveredNanos = System.nanoTime();
+                boolean walk = ++recoveries % RECOVERY_WALK_LEASES == 0;
+                int released = 0;
+                if (walk) {
+                    for (Path root : recoveryRoots) {
+                        try {
+                            released += recover(root, false);
+                        } catch (IOException e) {
+                            logger.error("Failed to recover the claims under {} due to :", root, e);
+                        }
+                    }
+                }
+                for (Path claimsDir : claimDirectories) {
+                    if (walk && isUnderRecoveryRoot(claimsDir)) {
+                        continue;
+                    }
+                    try {
+                        released += recoverClaims(claimsDir, false);
+                    } catch (NoSuchFileException e) {
+                        claimDirectories.remove(claimsDir);
+                        createdDirectories.remove(claimsDir.resolve(instanceId));
+                    } catch (IOException e) {
+                        logger.error("Failed to recover the claims in {} due to :", claimsDir, e);
+                    }
+                }
+                if (released > 0) {
+                    logger.info("Released {} orphaned claims", released);
+                }
+            }
+        }
+    }
+
+    private boolean isUnderRecoveryRoot(Path claimsDir) {
+        for (Path root : recoveryRoots) {
+            if (claimsDir.startsWith(root)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stop renewing the lease and remove the lease file, so that the remaining claims of this instance are recovered
+     * by the other instances without waiting for the lease time
+     * This should be called after the deliveries are stopped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        heartbeat.interrupt();
+        try {
+            heartbeat.join(leaseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        Files.deleteIfExists(leaseFile);
+    }
+}
@@ -0,0 +1,209 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import transport.FairScheduler;
+import transport.FileConsumer;
+import transport.GRPattern;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This is a test class for testing the weighted fair delivery of the files of the patterns and the worker limits
+ *
+ * @author Chanaka Lakmal
+ */
+public class FairSchedulerTest {
+
+    private static final long WAIT = 10000;
+
+    private final GRPattern busyPattern = new GRPattern("glob:", "/in/busy/*.xml");
+    private final GRPattern quietPattern = new GRPattern("glob:", "/in/quiet/*.xml");
+    private final List<GRPattern> delivered = Collections.synchronizedList(new ArrayList<GRPattern>());
+    private final CountDownLatch release = new CountDownLatch(1);
+    private FairScheduler scheduler;
+
+    @Before
+    public void start() {
+        delivered.clear();
+    }
+
+    @After
+    public void finish() {
+        release.countDown();
+        if (scheduler != null) {
+            scheduler.close();
+        }
+    }
+
+    /**
+     * Test for delivering the files of a quiet pattern while a busy pattern has a long queue
+     * The patterns should take turns, so the files of the quiet pattern should not wait for the busy one, and a
+     * pattern with a higher weight should get proportionally more turns
+     *
+     * @throws Exception if interrupted while waiting
+     */
+    @Test
+    public void testWeights() throws Exception {
+        scheduler = new FairScheduler(blockingConsumer(), 1);
+        HashMap<String, Object> busyData = new HashMap<>();
+        busyData.put(FairScheduler.WEIGHT, 3);
+        queue(busyPattern, busyData, 1000);
+        queue(quietPattern, new HashMap<String, Object>(), 100);
+        release.countDown();
+        waitForSize(1100);
+
+        assertEquals(30, Collections.frequency(delivered.subList(1, 41), busyPattern));
+        assertTrue(delivered.lastIndexOf(quietPattern) <= 400);
+    }
+
+    /**
+     * Test for limiting the workers of a pattern whose consumer is blocked
+     * The files of the other pattern should be delivered by the remaining workers, and the blocked pattern should not
+     * have more deliveries in progress than its limit
+     *
+     * @throws Exception if interrupted while waiting
+     */
+    @Test
+    public void testWorkerLimit() throws Exception {
+        final AtomicInteger running = new AtomicInteger();
+        final AtomicInteger maxRunning = new AtomicInteger();
+        scheduler = new FairScheduler(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                if (pattern.equals(busyPattern)) {
+                    int current = running.incrementAndGet();
+                    maxRunning.set(Math.max(maxRunning.get(), current));
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    running.decrementAndGet();
+                }
+                delivered.add(pattern);
+            }
+        }, 4);
+        HashMap<String, Object> busyData = new HashMap<>();
+        busyData.put(FairScheduler.MAX_WORKERS, 2);
+        queue(busyPattern, busyData, 50);
+        queue(quietPattern, new HashMap<String, Object>(), 50);
+        waitForSize(50);
+        assertEquals(50, Collections.frequency(delivered, quietPattern));
+        assertEquals(2, maxRunning.get());
+
+        release.countDown();
+        waitForSize(100);
+        assertEquals(2, maxRunning.get());
+        assertTrue(scheduler.close(WAIT, TimeUnit.MILLISECONDS));
+        assertTrue(scheduler.getQueueSizes().isEmpty());
+    }
+
+    /**
+     * Test for limiting the rate of the files of a pattern and changing the limit at runtime
+     * The throttled pattern should not delay the files of the other pattern, and its queued files should be delivered
+     * without waiting once its limit is removed
+     *
+     * @throws Exception if interrupted while waiting
+     */
+    @Test
+    public void testRateLimit() throws Exception {
+        scheduler = new FairScheduler(blockingConsumer(), 2);
+        release.countDown();
+        HashMap<String, Object> busyData = new HashMap<>();
+        busyData.put(FairScheduler.FILES_PER_SECOND, 10);
+        queue(busyPattern, busyData, 100);
+        queue(quietPattern, new HashMap<String, Object>(), 20);
+        Thread.sleep(500);
+        assertEquals(20, Collections.frequency(delivered, quietPattern));
+        int busyDelivered = Collections.frequency(delivered, busyPattern);
+        assertTrue(busyDelivered >= 10 && busyDelivered <= 30);
+
+        long startTime = System.currentTimeMillis();
+        scheduler.setRateLimit(busyPattern, 0, 0);
+        waitForSize(120);
+        assertTrue(System.currentTimeMillis() - startTime < 2000);
+    }
+
+    /**
+     * Test for waiting while the queue of a pattern is full
+     * The calling thread should wait until the blocked pattern has room, while the files of the other pattern are
+     * still queued
+     *
+     * @throws Exception if interrupted while waiting
+     */
+    @Test
+    public void testCapacity() throws Exception {
+        scheduler = new FairScheduler(blockingConsumer(), 1);
+        final HashMap<String, Object> busyData = new HashMap<>();
+        busyData.put(FairScheduler.CAPACITY, 2);
+        queue(busyPattern, busyData, 3);
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    scheduler.accept(Paths.get("/in/busy/3.xml"), busyPattern, busyData);
+                }
+            });
+            try {
+                future.get(500, TimeUnit.MILLISECONDS);
+                fail("The file should wait while the queue of its pattern is full");
+            } catch (TimeoutException e) {
+                // expected, the queue of the pattern is full
+            }
+            assertEquals(2, (int) scheduler.getQueueSizes().get(busyPattern.toString()));
+            queue(quietPattern, new HashMap<String, Object>(), 5);
+            release.countDown();
+            future.get(WAIT, TimeUnit.MILLISECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+        waitForSize(9);
+    }
+
+    /**
+     * A consumer which records the patterns in the order of delivery, and blocks the first delivery until released
+     */
+    private FileConsumer blockingConsumer() {
+        return new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                delivered.add(pattern);
+            }
+        };
+    }
+
+    private void queue(GRPattern pattern, HashMap<String, Object> dataMap, int n) {
+        for (int i = 0; i < n; i++) {
+            scheduler.accept(Paths.get(pattern.getPathPattern().replace("*", String.valueOf(i))), pattern, dataMap);
+        }
+    }
+
+    private void waitForSize(int size) throws InterruptedException {
+        for (long i = 0; i < WAIT && delivered.size() < size; i += 10) {
+            Thread.sleep(10);
+        }
+        assertEquals(size, delivered.size());
+    }
+}
@@ -0,0 +1,256 @@
+import nio.util.ExclusionRules;
+import nio.util.FileOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import transport.FileConsumer;
+import transport.FilePublisher;
+import transport.GRPattern;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This is a test class for testing the pattern registration of the FilePublisher
+ *
+ * @author Chanaka Lakmal
+ */
+public class FilePublisherTest {
+
+    private static final String PUBLISH_PATH = System.getProperty("java.io.tmpdir") + File.separator + "ram" + File.separator + "publish";
+
+    private static final long WAIT = 5000;
+    private static final long WAIT_STEP = 50;
+
+    private WatchService watcher;
+    private HashMap<WatchKey, Path> keysMap;
+    private FilePublisher filePublisher;
+
+    /**
+     * Create the PUBLISH directory tree for test purposes
+     * <p>
+     * *                  publish                   |
+     * *          ___________|___________           |
+     * *         |           |           |          |
+     * *         A           B         a.xml        |
+     * *         |           |                      |
+     * *         AA          BA                     |
+     *
+     * @throws IOException if an error occurs while creating the files and directories
+     */
+    @Before
+    public void start() throws IOException {
+        FileOperations.createDirs(Paths.get(PUBLISH_PATH), PUBLISH_PATH, PUBLISH_PATH + "/A/AA", PUBLISH_PATH + "/B/BA");
+        FileOperations.createFiles(Paths.get(PUBLISH_PATH), "a.xml");
+
+        watcher = FileSystems.getDefault().newWatchService();
+        keysMap = new HashMap<>();
+        filePublisher = new FilePublisher(watcher, new HashMap<GRPattern, HashMap<String, Object>>(), keysMap);
+    }
+
+    /**
+     * Clean all directories and files created
+     *
+     * @throws IOException if an error occurs while deleting the files and directories
+     */
+    @After
+    public void finish() throws IOException {
+        watcher.close();
+        FileOperations.cleanDir(Paths.get(PUBLISH_PATH), true);
+    }
+
+    /**
+     * Test for the runtime add and remove of patterns
+     * The root of each pattern is derived from its literal prefix and only the directories under it are registered
+     * The keys which are not needed by any pattern after removing a pattern should be cancelled
+     *
+     * @throws IOException if an error occurs while registering the directories
+     */
+    @Test
+    public void testRegisterUnregisterPattern() throws IOException {
+        GRPattern patternA = new GRPattern("glob:", PUBLISH_PATH + "/A/*/*.xml");
+        GRPattern patternAll = new GRPattern("glob:", PUBLISH_PATH + "/**/*.xml");
+
+        assertEquals(Paths.get(PUBLISH_PATH, "A"), patternA.getRootPath());
+        assertEquals(Paths.get(PUBLISH_PATH), patternAll.getRootPath());
+
+        // A, AA
+        filePublisher.registerPattern(patternA, new HashMap<String, Object>());
+        assertEquals(2, filePublisher.getWatchCount());
+
+        // publish, A, AA, B, BA
+        filePublisher.registerPattern(patternAll, new HashMap<String, Object>());
+        assertEquals(5, filePublisher.getWatchCount());
+        assertEquals(5, keysMap.size());
+
+        filePublisher.unregisterPattern(patternAll);
+        assertEquals(2, filePublisher.getWatchCount());
+        assertEquals(2, keysMap.size());
+
+        filePublisher.unregisterPattern(patternA);
+        assertEquals(0, filePublisher.getWatchCount());
+    }
+
+    /**
+     * Test for the pattern aware pruning of the directory registration
+     * Only the directories which can contain the matching files and their ancestors should be registered
+     *
+     * @throws IOException if an error occurs while registering the directories
+     */
+    @Test
+    public void testPatternPruning() throws IOException {
+        // publish, A, B, BA => AA can never contain a BA directory
+        filePublisher.registerPattern(new GRPattern("glob:", PUBLISH_PATH + "/*/BA/*.xml"), new HashMap<String, Object>());
+        assertEquals(4, filePublisher.getWatchCount());
+
+        // B => BA is deeper than the pattern
+        filePublisher.unregisterPattern(new GRPattern("glob:", PUBLISH_PATH + "/*/BA/*.xml"));
+        filePublisher.registerPattern(new GRPattern("glob:", PUBLISH_PATH + "/B/*.xml"), new HashMap<String, Object>());
+        assertEquals(1, filePublisher.getWatchCount());
+    }
+
+    /**
+     * Test for the exclusion rules
+     * The ignored subtrees and the directories deeper than the max depth should never be watched
+     *
+     * @throws IOException if an error occurs while registering the directories
+     */
+    @Test
+    public void testExclusionRules() throws IOException {
+        ExclusionRules exclusionRules = new ExclusionRules()
+                .excludeName("*.part")
+                .excludeName("*.tmp")
+                .excludeHidden(true)
+                .maxDepth(1)
+                .ignoreSubtree(Paths.get(PUBLISH_PATH, "B"));
+
+        assertTrue(exclusionRules.isExcludedName(Paths.get("1.xml.part")));
+        assertTrue(exclusionRules.isExcludedName(Paths.get(".1.xml")));
+        assertFalse(exclusionRules.isExcludedName(Paths.get("1.xml")));
+        try {
+            exclusionRules.excludeName("");
+            fail("An empty glob should be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+
+        // publish, A => AA is deeper than the max depth and B is ignored
+        filePublisher.setExclusionRules(exclusionRules);
+        filePublisher.registerPattern(new GRPattern("glob:", PUBLISH_PATH + "/**/*.xml"), new HashMap<String, Object>());
+        assertEquals(2, filePublisher.getWatchCount());
+    }
+
+    /**
+     * Test for the files which are written under an excluded temporary name and renamed into place
+     * The renamed file raises only an ENTRY_CREATE, and it should be delivered like a file which is written directly.
+     * A later ENTRY_MODIFY which doesn't change the file should not deliver it again, and a new content should.
+     *
+     * @throws IOException          if an error occurs while creating the files
+     * @throws InterruptedException if an error occurs while waiting for the events
+     */
+    @Test
+    public void testRenameIntoPlace() throws IOException, InterruptedException {
+        final List<Path> delivered = Collections.synchronizedList(new ArrayList<Path>());
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        filePublisher.setExclusionRules(new ExclusionRules().excludeName("*.part"));
+        filePublisher.setFileConsumer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                delivered.add(file);
+            }
+        });
+        filePublisher.registerPattern(new GRPattern("glob:", PUBLISH_PATH + "/A/*.xml*"), new HashMap<String, Object>());
+        service.submit(filePublisher);
+
+        // the files are written after the time window of the initial manual handling, so only the events find them
+        Thread.sleep(2000);
+        Path temp = Files.write(Paths.get(PUBLISH_PATH, "A", "1.xml.part"), "1".getBytes());
+        Files.move(temp, Paths.get(PUBLISH_PATH, "A", "1.xml"), StandardCopyOption.ATOMIC_MOVE);
+        Files.write(Paths.get(PUBLISH_PATH, "A", "2.xml"), "2".getBytes());
+
+        Path renamed = Paths.get(PUBLISH_PATH, "A", "1.xml");
+        for (long i = 0; i < WAIT && delivered.size() < 2; i += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+        assertEquals(new HashSet<>(Arrays.asList(renamed, Paths.get(PUBLISH_PATH, "A", "2.xml"))), new HashSet<>(delivered));
+
+        // touching the file with the same time raises an ENTRY_MODIFY in a later batch without changing it
+        Files.setLastModifiedTime(renamed, Files.getLastModifiedTime(renamed));
+        Thread.sleep(500);
+        assertEquals(2, delivered.size());
+
+        Files.write(renamed, "11".getBytes());
+        for (long i = 0; i < WAIT && delivered.size() < 3; i += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+        assertEquals(renamed, delivered.get(delivered.size() - 1));
+
+        service.shutdownNow();
+    }
+
+    /**
+     * Test for the directory deletion and move handling
+     * The keys of a deleted directory tree should be cancelled and a moved tree should be registered under its new path
+     * so that the watch count doesn't grow while the directories are rotated
+     *
+     * @throws IOException          if an error occurs while creating and deleting the files and directories
+     * @throws InterruptedException if an error occurs while waiting for the events
+     */
+    @Test
+    public void testDeleteAndMoveDirectories() throws IOException, InterruptedException {
+        ExecutorService service = Executors.newSingleThreadExecutor();
+        filePublisher.registerPattern(new GRPattern("glob:", PUBLISH_PATH + "/**/*.xml"), new HashMap<String, Object>());
+        service.submit(filePublisher);
+        assertWatchCount(5);
+
+        for (int i = 0; i < 10; i++) {
+            FileOperations.createDirs(Paths.get(PUBLISH_PATH), PUBLISH_PATH + "/C/CA");
+            assertWatchCount(7);
+            FileOperations.cleanDir(Paths.get(PUBLISH_PATH, "C"), true);
+            assertWatchCount(5);
+        }
+
+        FileOperations.createDirs(Paths.get(PUBLISH_PATH), PUBLISH_PATH + "/D/DA");
+        assertWatchCount(7);
+        Files.move(Paths.get(PUBLISH_PATH, "D"), Paths.get(PUBLISH_PATH, "A", "D"));
+        assertWatchCount(7);
+        FileOperations.cleanDir(Paths.get(PUBLISH_PATH, "A", "D"), true);
+        assertWatchCount(5);
+        assertEquals(5, keysMap.size());
+
+        service.shutdownNow();
+    }
+
+    /**
+     * Wait until the watch count of the publisher becomes the expected count. Fails if it doesn't within the wait.
+     *
+     * @param expected expected watch count
+     * @throws InterruptedException if an error occurs while executing the thread sleep
+     */
+    private void assertWatchCount(int expected) throws InterruptedException {
+        for (long i = 0; i < WAIT && filePublisher.getWatchCount() != expected; i += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+        assertEquals(expected, filePublisher.getWatchCount());
+    }
+}
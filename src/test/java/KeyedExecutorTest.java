@@ -0,0 +1,137 @@
+import org.junit.After;
+import org.junit.Test;
+import transport.FileConsumer;
+import transport.GRPattern;
+import transport.KeyedExecutor;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This is a test class for testing the ordered delivery of the files of a directory with the keyed executor
+ *
+ * @author Chanaka Lakmal
+ */
+public class KeyedExecutorTest {
+
+    private static final long WAIT = 10000;
+
+    private final GRPattern pattern = new GRPattern("glob:", "/in/*/*.xml");
+    private final CountDownLatch release = new CountDownLatch(1);
+    private KeyedExecutor executor;
+
+    @After
+    public void finish() {
+        release.countDown();
+        if (executor != null) {
+            executor.close();
+        }
+    }
+
+    /**
+     * Test for delivering the files of many directories
+     * The files of each directory should be delivered in the order they are accepted, and the directories should be
+     * delivered by more than one lane
+     *
+     * @throws Exception if interrupted while waiting
+     */
+    @Test
+    public void testOrderPerDirectory() throws Exception {
+        final Map<Path, List<Integer>> delivered = new HashMap<>();
+        final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+        executor = new KeyedExecutor(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                threads.add(Thread.currentThread().getName());
+                synchronized (delivered) {
+                    List<Integer> files = delivered.get(file.getParent());
+                    if (files == null) {
+                        files = new ArrayList<>();
+                        delivered.put(file.getParent(), files);
+                    }
+                    files.add(Integer.parseInt(file.getFileName().toString().replace(".xml", "")));
+                }
+            }
+        }, KeyedExecutor.DIRECTORY, 4, 16);
+        for (int i = 0; i < 500; i++) {
+            for (int dir = 0; dir < 20; dir++) {
+                executor.accept(Paths.get("/in/" + dir + "/" + i + ".xml"), pattern, null);
+            }
+        }
+        assertTrue(executor.close(WAIT, TimeUnit.MILLISECONDS));
+
+        assertEquals(20, delivered.size());
+        for (List<Integer> files : delivered.values()) {
+            assertEquals(500, files.size());
+            for (int i = 0; i < files.size(); i++) {
+                assertEquals(i, (int) files.get(i));
+            }
+        }
+        assertTrue(threads.size() > 1);
+    }
+
+    /**
+     * Test for waiting while the lane of a file is full
+     * The calling thread should wait until the blocked lane has room
+     *
+     * @throws Exception if interrupted while waiting
+     */
+    @Test
+    public void testBoundedLane() throws Exception {
+        final Path blocked = Paths.get("/in/A");
+        executor = new KeyedExecutor(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                if (file.getParent().equals(blocked)) {
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        }, KeyedExecutor.PATTERN, 2, 2);
+        for (int i = 0; i < 3; i++) {
+            executor.accept(blocked.resolve(i + ".xml"), pattern, null);
+        }
+        ExecutorService executorService = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> future = executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    executor.accept(blocked.resolve("3.xml"), pattern, null);
+                }
+            });
+            try {
+                future.get(500, TimeUnit.MILLISECONDS);
+                fail("The file should wait while its lane is full");
+            } catch (TimeoutException e) {
+                // expected, the lane of the pattern is full
+            }
+            int[] sizes = executor.getLaneSizes();
+            assertEquals(2, sizes[0] + sizes[1]);
+            release.countDown();
+            future.get(WAIT, TimeUnit.MILLISECONDS);
+        } finally {
+            executorService.shutdownNow();
+        }
+        assertTrue(executor.close(WAIT, TimeUnit.MILLISECONDS));
+    }
+}
@@ -1,5 +1,6 @@
 import nio.Notifier;
 import nio.Pattern;
+import nio.WatchRegistry;
 import nio.sample.Sample;
 import nio.sample.WatchDir;
 import nio.util.FileOperations;
@@ -8,6 +9,8 @@ import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
 
 import java.io.File;
 import java.io.IOException;
@@ -15,6 +18,8 @@ import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
@@ -22,12 +27,16 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeFalse;
+
 /**
  * This is a test class for testing the local files
  * From the beginning of test cases the file system was tested for several cases
  *
  * @author Chanaka Lakmal
  */
+@RunWith(Parameterized.class)
 public class LocalFileTest {
 
     private static final int DELAY = 1000;
@@ -38,6 +47,9 @@ public class LocalFileTest {
 
     private final SampleFilesDirs sampleFilesDirs = new SampleFilesDirs();
     private final AssureFile assureFile = new AssureFile();
+    private final boolean sharedRegistry;
+    private WatchRegistry registry;
+    private boolean registrySubmitted;
 
     private static Set<Path> fileList1;
     private static Set<Path> fileList2;
@@ -46,6 +58,21 @@ public class LocalFileTest {
     @Rule
     public TestName testName = new TestName();
 
+    /**
+     * The tests of the Notifiers are run with a WatchRegistry per Notifier and with a single registry shared by all the
+     * Notifiers of the test
+     *
+     * @param sharedRegistry whether the Notifiers share a registry
+     */
+    public LocalFileTest(boolean sharedRegistry) {
+        this.sharedRegistry = sharedRegistry;
+    }
+
+    @Parameterized.Parameters(name = "sharedRegistry={0}")
+    public static Collection<Object[]> registries() {
+        return Arrays.asList(new Object[][]{{false}, {true}});
+    }
+
     /**
      * Test basic sample code given by Oracle
      * <p>
@@ -58,6 +85,7 @@ public class LocalFileTest {
      */
     @Test
     public void testSample() throws IOException, InterruptedException {
+        assumeFalse(sharedRegistry);
         final Path testPath = FileSystems.getDefault().getPath(TEST_PATH);
 
         ExecutorService service = Executors.newFixedThreadPool(Integer.MAX_VALUE);
@@ -84,6 +112,7 @@ public class LocalFileTest {
      */
     @Test
     public void testPath() throws IOException, InterruptedException {
+        assumeFalse(sharedRegistry);
         final Path rootPath = FileSystems.getDefault().getPath(ROOT_PATH);
         final Path testPath = FileSystems.getDefault().getPath(TEST_PATH);
         final Path smbPath = FileSystems.getDefault().getPath("/mnt/smb/chanaka");
@@ -117,6 +146,7 @@ public class LocalFileTest {
      */
     @Test
     public void testInnerPaths() throws IOException, InterruptedException {
+        assumeFalse(sharedRegistry);
         final Path rootPath = FileSystems.getDefault().getPath(ROOT_PATH);
         final Path testPath = FileSystems.getDefault().getPath(TEST_PATH);
         final Path innerPath = FileSystems.getDefault().getPath(INNER_PATH);
@@ -132,6 +162,48 @@ public class LocalFileTest {
         service.awaitTermination(10, TimeUnit.SECONDS);
     }
 
+    /**
+     * Test for nested roots using the Notifiers, each with its own WatchRegistry or with a shared one
+     * 2 sample paths tested here
+     * - /tmp/nio/
+     * - /tmp/nio/A
+     * Both notifiers should detect the files of the inner path. If the registry is shared the inner path is already
+     * covered by the root path, so the existing keys should be reused and the directories should be registered only once
+     *
+     * @throws IOException          if an error occurs while creating and deleting the files and directories
+     * @throws InterruptedException if an error occurs while executing the ExecutorService thread pool
+     */
+    @Test
+    public void testInnerPaths_Notifier() throws IOException, InterruptedException {
+        final Path rootPath = FileSystems.getDefault().getPath(ROOT_PATH);
+        final Path innerPath = FileSystems.getDefault().getPath(INNER_PATH);
+
+        ExecutorService service = Executors.newFixedThreadPool(Integer.MAX_VALUE);
+        watch(service, rootPath, new Pattern("glob:", ROOT_PATH + "/**/*.xml"), fileList1);
+        watch(service, innerPath, new Pattern("glob:", INNER_PATH + "/*.xml"), fileList2);
+
+        if (sharedRegistry) {
+            // nio, A, B, BA, C, CA
+            assertEquals(6, registry.getWatchCount());
+        }
+
+        sampleFilesDirs.createTestFiles(ROOT_PATH);
+
+        if (sharedRegistry) {
+            // T and TA are registered once for both notifiers
+            waitForWatchCount(registry, 8);
+            assertEquals(8, registry.getWatchCount());
+        }
+        // the xml files in the sub-directories of nio, before and after the registration
+        waitForSize(fileList1, 8);
+        waitForSize(fileList2, 2);
+        assertEquals(8, fileList1.size());
+        assertEquals(2, fileList2.size());
+
+        service.shutdownNow();
+        service.awaitTermination(10, TimeUnit.SECONDS);
+    }
+
     /**
      * Test for path patterns using the ExecutorService thread pool
      * this checks inside of the directories recursively also
@@ -150,6 +222,7 @@ public class LocalFileTest {
      */
     @Test
     public void testPathPatterns() throws IOException, InterruptedException {
+        assumeFalse(sharedRegistry);
         Path rootPath = FileSystems.getDefault().getPath(ROOT_PATH);
 
         ExecutorService service = Executors.newFixedThreadPool(Integer.MAX_VALUE);
@@ -180,6 +253,7 @@ public class LocalFileTest {
      */
     @Test
     public void testPathPatterns_FileTypes() throws IOException, InterruptedException {
+        assumeFalse(sharedRegistry);
         Path rootPath = FileSystems.getDefault().getPath(ROOT_PATH);
 
         ExecutorService service = Executors.newFixedThreadPool(Integer.MAX_VALUE);
@@ -212,8 +286,8 @@ public class LocalFileTest {
                 new Pattern("glob:", TEST_PATH + "/**/*.xml"),
                 new Pattern("glob:", TEST_PATH + "/*/*.xml")
         };
-        service.submit(new Notifier(testPath, patterns[0], fileList1));
-        service.submit(new Notifier(testPath, patterns[1], fileList2));
+        watch(service, testPath, patterns[0], fileList1);
+        watch(service, testPath, patterns[1], fileList2);
 
         int N = 10000;
         sampleFilesDirs.createNFiles(N, TEST_PATH, TEST_PATH + File.separator + N + "Set");
@@ -241,8 +315,8 @@ public class LocalFileTest {
                 new Pattern("glob:", TEST_PATH + "/**/*.xml"),
                 new Pattern("glob:", TEST_PATH + "/**/*A/*.txt")
         };
-        service.submit(new Notifier(testPath, patterns[0], fileList1));
-        service.submit(new Notifier(testPath, patterns[1], fileList2));
+        watch(service, testPath, patterns[0], fileList1);
+        watch(service, testPath, patterns[1], fileList2);
 
         int N = 10000;
         sampleFilesDirs.createNFiles(N, TEST_PATH, TEST_PATH + File.separator + N + "Set");
@@ -273,9 +347,9 @@ public class LocalFileTest {
                 new Pattern("glob:", TEST_PATH + "/**/*.txt"),
                 new Pattern("glob:", TEST_PATH + "/**/*A/*.txt")
         };
-        service.submit(new Notifier(testPath, patterns[0], fileList1));     // Ans: 32200
-        service.submit(new Notifier(testPath, patterns[1], fileList2));     // Ans: 3800
-        service.submit(new Notifier(testPath, patterns[2], fileList3));     // Ans: 300
+        watch(service, testPath, patterns[0], fileList1);     // Ans: 32200
+        watch(service, testPath, patterns[1], fileList2);     // Ans: 3800
+        watch(service, testPath, patterns[2], fileList3);     // Ans: 300
 
         int N = 25000;
         sampleFilesDirs.createNFiles_MultipleFileTypes(N, TEST_PATH, TEST_PATH + File.separator + N + "Set");
@@ -306,9 +380,9 @@ public class LocalFileTest {
                 new Pattern("glob:", TEST_PATH + "/**/*.xml"),
                 new Pattern("regex:", TEST_PATH + "/[A-Za-z0-9]*/[0-9]*/[0-9]*A/[0-9]*.txt")
         };
-        service.submit(new Notifier(testPath, patterns[0], fileList1));     // Ans: 31500
-        service.submit(new Notifier(testPath, patterns[1], fileList2));     // Ans: 32200
-        service.submit(new Notifier(testPath, patterns[2], fileList3));     // Ans: 300
+        watch(service, testPath, patterns[0], fileList1);     // Ans: 31500
+        watch(service, testPath, patterns[1], fileList2);     // Ans: 32200
+        watch(service, testPath, patterns[2], fileList3);     // Ans: 300
 
         int N = 25000;
         sampleFilesDirs.createNFiles_MultipleFileTypes(N, TEST_PATH, TEST_PATH + File.separator + N + "Set");
@@ -356,6 +430,8 @@ public class LocalFileTest {
         fileList1 = Collections.synchronizedSet(new HashSet<Path>());
         fileList2 = Collections.synchronizedSet(new HashSet<Path>());
         fileList3 = Collections.synchronizedSet(new HashSet<Path>());
+        registry = sharedRegistry ? new WatchRegistry() : null;
+        registrySubmitted = false;
 
         FileOperations.createDirs(Paths.get(ROOT_PATH),
                 ROOT_PATH, ROOT_PATH + "/A", ROOT_PATH + "/B/BA", ROOT_PATH + "/C/CA");
@@ -377,7 +453,7 @@ public class LocalFileTest {
         System.err.println("Size of the file list 2 : " + getFileListSize(fileList2));
         System.err.println("Size of the file list 3 : " + getFileListSize(fileList3));
 
-        switch (testName.getMethodName()) {
+        switch (testName.getMethodName().replaceFirst("\\[.*]$", "")) {
             case "testOverflow_FileTree_FileType":
                 assureFile.assureFiles1(fileList1, fileList2, fileList3);
                 break;
@@ -388,6 +464,9 @@ public class LocalFileTest {
                 break;
         }
 
+        if (registry != null) {
+            registry.close();
+        }
         if (Files.exists(Paths.get(ROOT_PATH))) {
             cleanSystem();
         }
@@ -415,4 +494,38 @@ public class LocalFileTest {
     private int getFileListSize(Set<Path> fileList) {
         return fileList.size();
     }
+
+    /**
+     * Create a Notifier for the given root and submit it to the service, with its own registry or with the shared
+     * registry of the test which is submitted with the first Notifier
+     *
+     * @param service  the thread pool of the test
+     * @param rootPath root path of the file structure
+     * @param pattern  pattern which the files are checked with
+     * @param fileList the detected files
+     * @throws IOException if an error occurs while registering the directories
+     */
+    private void watch(ExecutorService service, Path rootPath, Pattern pattern, Set<Path> fileList) throws IOException {
+        if (!sharedRegistry) {
+            service.submit(new Notifier(rootPath, pattern, fileList));
+            return;
+        }
+        new Notifier(rootPath, pattern, fileList, registry);
+        if (!registrySubmitted) {
+            service.submit(registry);
+            registrySubmitted = true;
+        }
+    }
+
+    private static void waitForSize(Set<Path> fileList, int size) throws InterruptedException {
+        for (long waited = 0; fileList.size() < size && waited < 10000; waited += 10) {
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitForWatchCount(WatchRegistry registry, int count) throws InterruptedException {
+        for (long waited = 0; registry.getWatchCount() < count && waited < 10000; waited += 10) {
+            Thread.sleep(10);
+        }
+    }
 }
@@ -0,0 +1,133 @@
+import nio.ring.RingReader;
+import nio.ring.RingWriter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * This is a test class for testing the shared ring buffer of the detected files with a writer and independent readers
+ *
+ * @author Chanaka Lakmal
+ */
+public class RingTest {
+
+    private static final int CAPACITY = 4096;
+    private static final String PATTERN = "glob:/in/*/*.xml";
+
+    private Path ringFile;
+    private ExecutorService executorService;
+
+    @Before
+    public void start() throws IOException {
+        ringFile = Files.createTempFile("nio-ring", ".bin");
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void finish() throws IOException {
+        executorService.shutdownNow();
+        Files.deleteIfExists(ringFile);
+    }
+
+    /**
+     * Test for reading the same records with independent readers
+     * Each reader should read every record in order, a reader which is overrun should count the lost records and
+     * continue from the latest one, and a restarted writer should continue the sequence
+     *
+     * @throws Exception if an error occurs while using the ring file
+     */
+    @Test
+    public void testReaders() throws Exception {
+        RingWriter writer = new RingWriter(ringFile, CAPACITY);
+        try (RingReader readerA = new RingReader(ringFile); RingReader readerB = new RingReader(ringFile)) {
+            for (int i = 1; i <= 10; i++) {
+                writer.publish(file(i), PATTERN);
+            }
+            for (RingReader reader : new RingReader[]{readerA, readerB}) {
+                for (int i = 1; i <= 10; i++) {
+                    assertTrue(reader.next());
+                    assertEquals(i, reader.getSequence());
+                    assertEquals(file(i).toString(), reader.getPath());
+                    assertEquals(PATTERN, reader.getPattern());
+                }
+                assertFalse(reader.next());
+            }
+
+            for (int i = 11; i <= 500; i++) {
+                writer.publish(file(i), PATTERN);
+            }
+            assertFalse(readerB.next());
+            assertEquals(490, readerB.getLostCount());
+
+            try {
+                new RingWriter(ringFile, CAPACITY);
+                fail("A second writer should not be opened");
+            } catch (IOException e) {
+                // expected, the ring file is locked by the first writer
+            }
+            writer.close();
+            writer = new RingWriter(ringFile, CAPACITY);
+            writer.publish(file(501), PATTERN);
+            assertTrue(readerB.next());
+            assertEquals(501, readerB.getSequence());
+            assertFalse(readerA.next());
+            assertEquals(491, readerA.getLostCount());
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Test for reading the records while the writer is wrapping around the ring many times
+     * Every record which is read should be complete, in order, and the read and the lost records should add up to the
+     * written ones
+     *
+     * @throws Exception if an error occurs while using the ring file
+     */
+    @Test
+    public void testConcurrentReader() throws Exception {
+        final int count = 200000;
+        final RingWriter writer = new RingWriter(ringFile, CAPACITY);
+        try (RingReader reader = new RingReader(ringFile)) {
+            Future<?> future = executorService.submit(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 1; i <= count; i++) {
+                        writer.publish(file(i), PATTERN);
+                    }
+                }
+            });
+            long read = 0;
+            long last = 0;
+            while (read + reader.getLostCount() < count) {
+                if (reader.next()) {
+                    assertTrue(reader.getSequence() > last);
+                    assertEquals(file(reader.getSequence()).toString(), reader.getPath());
+                    last = reader.getSequence();
+                    read++;
+                }
+            }
+            future.get();
+            assertEquals(count, read + reader.getLostCount());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Path file(long i) {
+        return Paths.get("/in/A/" + i + ".xml");
+    }
+}
@@ -0,0 +1,779 @@
+import nio.Notifier;
+import nio.Pattern;
+import nio.WatchBatch;
+import nio.WatchRegistry;
+import nio.metrics.TransportMetrics;
+import nio.sim.SimFileSystem;
+import nio.sim.SimWatchService;
+import nio.util.ExclusionRules;
+import nio.util.FileOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import transport.ContentConsumer;
+import transport.ContentReader;
+import transport.DuplicateFilter;
+import transport.FileCompressor;
+import transport.FileConsumer;
+import transport.FileMover;
+import transport.FilePublisher;
+import transport.GRPattern;
+import transport.ManualHandler;
+import transport.SocketReceiver;
+import transport.SocketSender;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.Watchable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for testing the overflow recovery and the registration races deterministically with the
+ * simulated file system, so that the scenarios which need tens of thousands of real files run in milliseconds
+ *
+ * @author Chanaka Lakmal
+ */
+public class SimulatedFileSystemTest {
+
+    private static final long WAIT = 10000;
+    private static final long WAIT_STEP = 10;
+
+    private SimFileSystem fileSystem;
+    private SimWatchService watcher;
+    private ExecutorService executorService;
+    private Path root;
+
+    /**
+     * Create the simulated file system with the directories /in/A and /in/B
+     *
+     * @throws IOException if an error occurs while creating the directories
+     */
+    @Before
+    public void start() throws IOException {
+        fileSystem = SimFileSystem.newFileSystem();
+        watcher = fileSystem.newSimWatchService();
+        executorService = Executors.newCachedThreadPool();
+        root = fileSystem.getPath("/in");
+        Files.createDirectories(root.resolve("A"));
+        Files.createDirectories(root.resolve("B"));
+    }
+
+    @After
+    public void finish() throws IOException {
+        watcher.close();
+        executorService.shutdownNow();
+    }
+
+    /**
+     * Test for the events of the created files and directories
+     * A directory created after the registration should be registered and its files should be detected
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testEvents() throws Exception {
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        WatchRegistry registry = new WatchRegistry(watcher);
+        new Notifier(root, new Pattern("glob:", "/in/*/*.xml"), fileList, registry);
+        executorService.submit(registry);
+
+        Set<Path> expected = new HashSet<>();
+        expected.add(write(root.resolve("A/1.xml")));
+        write(root.resolve("A/1.txt"));
+        Files.createDirectories(root.resolve("C"));
+        waitForWatchCount(registry, 4);
+        expected.add(write(root.resolve("C/1.xml")));
+
+        waitForSize(fileList, expected.size());
+        assertEquals(expected, fileList);
+    }
+
+    /**
+     * Test for removing a deleted directory with its sub-directories from the shared registry
+     * The siblings which are sorted between the directory and its sub-directories, eg. /in/A-1 between /in/A and
+     * /in/A/X, should still be watched, and closing the registry should remove all its directories from the metrics
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testUnregisterSubtree() throws Exception {
+        Files.createDirectories(root.resolve("A/X"));
+        Files.createDirectories(root.resolve("A-1"));
+        Files.createDirectories(root.resolve("A.1"));
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        WatchRegistry registry = new WatchRegistry(watcher);
+        new Notifier(root, new Pattern("glob:", "/in/**/*.xml"), fileList, registry);
+        executorService.submit(registry);
+        waitForWatchCount(registry, 6);
+        assertEquals(6, registry.getWatchCount());
+
+        Files.delete(root.resolve("A/X"));
+        Files.delete(root.resolve("A"));
+        for (long waited = 0; registry.getWatchCount() > 4 && waited < WAIT; waited += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+        assertEquals(4, registry.getWatchCount());
+        Path file = write(root.resolve("A-1/1.xml"));
+        waitForSize(fileList, 1);
+        assertEquals(Collections.singleton(file), fileList);
+
+        long watchCount = TransportMetrics.getDefault().getWatchCount();
+        registry.close();
+        assertEquals(0, registry.getWatchCount());
+        assertEquals(watchCount - 4, TransportMetrics.getDefault().getWatchCount());
+    }
+
+    /**
+     * Test for the recovery of a Notifier from an OVERFLOW
+     * The delivery is paused while 5000 files are written, so that the key overflows exactly after 100 events and
+     * the rest of the files should be found by the manual processing of the directory
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testNotifierOverflow() throws Exception {
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        WatchRegistry registry = new WatchRegistry(watcher);
+        new Notifier(root, new Pattern("glob:", "/in/*/*.xml"), fileList, registry);
+        executorService.submit(registry);
+        watcher.setMaxEventsPerKey(100).pause();
+
+        Set<Path> expected = writeFiles(root.resolve("A"), 5000);
+        watcher.resume();
+
+        waitForSize(fileList, expected.size());
+        assertEquals(expected, fileList);
+    }
+
+    /**
+     * Test for the recovery of a FilePublisher from an injected OVERFLOW
+     * The events of the files are dropped by replacing them with an OVERFLOW, so the files should be found by the
+     * ManualHandler only
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testPublisherOverflow() throws Exception {
+        final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        FilePublisher filePublisher = new FilePublisher(watcher, new HashMap<GRPattern, HashMap<String, Object>>(), new HashMap<WatchKey, Path>());
+        filePublisher.setFileConsumer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                fileList.add(file);
+            }
+        });
+        filePublisher.registerPattern(new GRPattern(fileSystem, "glob:", "/in/*/*.xml"), new HashMap<String, Object>());
+        executorService.submit(filePublisher);
+        watcher.setMaxEventsPerKey(0).pause();
+
+        Set<Path> expected = writeFiles(root.resolve("B"), 2000);
+        watcher.overflow(root.resolve("B"));
+        watcher.resume();
+
+        waitForSize(fileList, expected.size());
+        assertEquals(expected, fileList);
+    }
+
+    /**
+     * Test for the files created between walking a directory and registering it
+     * The files don't generate events since the directory is not watched yet, so the manual processing of the
+     * registration should find them even though the last modified time is rounded off into seconds
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testRegistrationRace() throws Exception {
+        final Set<Path> expected = new HashSet<>();
+        fileSystem.setTimeGranularity(1000).setRegistrationListener(new SimFileSystem.RegistrationListener() {
+            @Override
+            public void beforeRegister(Path dir) throws IOException {
+                if (dir.getNameCount() == 2) {
+                    expected.add(write(dir.resolve("race.xml")));
+                }
+            }
+        });
+
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        WatchRegistry registry = new WatchRegistry(watcher);
+        new Notifier(root, new Pattern("glob:", "/in/*/*.xml"), fileList, registry);
+        executorService.submit(registry);
+
+        assertEquals(2, expected.size());
+        waitForSize(fileList, expected.size());
+        assertEquals(expected, fileList);
+    }
+
+    /**
+     * Test for the injected events which don't change the file system
+     * An ENTRY_MODIFY of a missing file should be dropped by the FilePublisher, since the file has gone by the time the
+     * event is taken, while the events taken after it should still be emitted
+     *
+     * @throws Exception if an error occurs while registering the pattern
+     */
+    @Test
+    public void testInjectedEvent() throws Exception {
+        final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        FilePublisher filePublisher = new FilePublisher(watcher, new HashMap<GRPattern, HashMap<String, Object>>(), new HashMap<WatchKey, Path>());
+        filePublisher.setFileConsumer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                fileList.add(file);
+            }
+        });
+        filePublisher.registerPattern(new GRPattern(fileSystem, "glob:", "/in/*/*.xml"), new HashMap<String, Object>());
+        executorService.submit(filePublisher);
+
+        watcher.inject(root.resolve("A"), ENTRY_MODIFY, fileSystem.getPath("ghost.xml"));
+        write(root.resolve("A/real.xml"));
+        waitForSize(fileList, 1);
+        Thread.sleep(200);
+        assertEquals(Collections.singleton(root.resolve("A/real.xml")), fileList);
+    }
+
+    /**
+     * Test for the classification of the events without reading the attributes
+     * The files written into the directories of the files should be emitted without any stat call, since only a
+     * directory can be registered and no directory under them can match the pattern
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testEventsWithoutStat() throws Exception {
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        WatchRegistry registry = new WatchRegistry(watcher);
+        new Notifier(root, new Pattern("glob:", "/in/*/*.xml"), fileList, registry);
+        executorService.submit(registry);
+        waitForRescans();
+
+        fileSystem.resetCounts();
+        Set<Path> expected = writeFiles(root.resolve("A"), 100);
+        waitForSize(fileList, expected.size());
+        assertEquals(expected, fileList);
+        assertEquals(0, fileSystem.getAttributeReadCount());
+    }
+
+    /**
+     * Test for the manual handling of a directory which has a sub-directory listed before its files
+     * The sub-directory should be skipped without terminating the walk, so all the files should be found
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testManualHandlerSkipsSubdirectories() throws Exception {
+        Files.createDirectories(root.resolve("A/0sub"));
+        Set<Path> expected = writeFiles(root.resolve("A"), 10);
+
+        final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        HashMap<GRPattern, HashMap<String, Object>> patternMap = new HashMap<>();
+        patternMap.put(new GRPattern(fileSystem, "glob:", "/in/*/*.xml"), new HashMap<String, Object>());
+        new ManualHandler(patternMap, System.currentTimeMillis(), root.resolve("A"), new ExclusionRules(fileSystem), new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                fileList.add(file);
+            }
+        }).call();
+        assertEquals(expected, fileList);
+    }
+
+    /**
+     * Test for draining all the ready keys after a single wake-up
+     * Both keys should be drained and reset together with all their events, and a single key should be taken if the
+     * batch is limited to one key. A key which is signalled again on every poll should be merged into its entry until
+     * the event limit, and the event list of the entry should be reused by the next drain
+     *
+     * @throws Exception if an error occurs while creating the files
+     */
+    @Test
+    public void testBatchDrain() throws Exception {
+        WatchKey keyA = root.resolve("A").register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+        WatchKey keyB = root.resolve("B").register(watcher, ENTRY_CREATE, ENTRY_MODIFY);
+        writeFiles(root.resolve("A"), 10);
+        writeFiles(root.resolve("B"), 5);
+
+        WatchBatch batch = new WatchBatch();
+        batch.drain(watcher, WatchBatch.DEFAULT_MAX_KEYS);
+        assertEquals(2, batch.size());
+        assertEquals(30, batch.getEventCount());
+        assertEquals(keyA, batch.getKey(0));
+        assertEquals(20, batch.getEvents(0).size());
+        assertTrue(batch.isValid(1));
+
+        write(root.resolve("A/11.xml"));
+        write(root.resolve("B/6.xml"));
+        batch.drain(watcher, 1);
+        assertEquals(1, batch.size());
+        assertEquals(2, batch.getEventCount());
+        assertTrue(keyB.isValid());
+
+        WatchService hotWatcher = new HotWatchService(keyA);
+        batch.drain(hotWatcher, WatchBatch.DEFAULT_MAX_KEYS, 100);
+        assertEquals(1, batch.size());
+        assertEquals(100, batch.getEventCount());
+        List<WatchEvent<?>> events = batch.getEvents(0);
+        assertEquals(100, events.size());
+        batch.drain(hotWatcher, WatchBatch.DEFAULT_MAX_KEYS, 10);
+        assertEquals(10, batch.getEventCount());
+        assertSame(events, batch.getEvents(0));
+        assertEquals(10, events.size());
+    }
+
+    /**
+     * Test for delivering the matched files with the file mover
+     * A file should be renamed into a destination on the same file system, transferred into a destination on another
+     * file system without leaving a temporary file, kept if it is copied, and handed over as it is without a destination
+     * A file which has just been written should be left in place until it settles, and then be delivered once however
+     * many events it gets meanwhile
+     *
+     * @throws Exception if an error occurs while delivering the files
+     */
+    @Test
+    public void testFileMover() throws Exception {
+        final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        FileMover fileMover = new FileMover(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                fileList.add(file);
+            }
+        });
+        GRPattern pattern = new GRPattern(fileSystem, "glob:", "/in/*/*.xml");
+        HashMap<String, Object> dataMap = new HashMap<>();
+        dataMap.put(FileMover.DESTINATION, "/out");
+        dataMap.put(FileMover.SETTLE_MILLIS, 0);
+        fileMover.accept(write(root.resolve("A/1.xml")), pattern, dataMap);
+        assertEquals(Collections.singleton(fileSystem.getPath("/out/1.xml")), fileList);
+        assertFalse(Files.exists(root.resolve("A/1.xml")));
+
+        Files.delete(fileSystem.getPath("/out/1.xml"));
+        Files.delete(fileSystem.getPath("/out"));
+        fileMover.accept(write(root.resolve("A/1.xml")), pattern, dataMap);
+        assertTrue(Files.exists(fileSystem.getPath("/out/1.xml")));
+
+        Path destination = Files.createTempDirectory("mover");
+        try {
+            dataMap.put(FileMover.DESTINATION, destination);
+            fileMover.accept(write(root.resolve("A/2.xml")), pattern, dataMap);
+            assertTrue(fileList.contains(destination.resolve("2.xml")));
+            assertEquals("<xml/>", new String(Files.readAllBytes(destination.resolve("2.xml"))));
+            assertFalse(Files.exists(root.resolve("A/2.xml")));
+
+            dataMap.put(FileMover.COPY, true);
+            fileMover.accept(write(root.resolve("A/3.xml")), pattern, dataMap);
+            assertTrue(Files.exists(destination.resolve("3.xml")));
+            assertTrue(Files.exists(root.resolve("A/3.xml")));
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(destination)) {
+                int count = 0;
+                for (Path ignored : stream) {
+                    count++;
+                }
+                assertEquals(2, count);
+            }
+        } finally {
+            for (Path file : new Path[]{destination.resolve("2.xml"), destination.resolve("3.xml"), destination}) {
+                Files.deleteIfExists(file);
+            }
+        }
+
+        fileList.clear();
+        fileMover.accept(root.resolve("A/3.xml"), pattern, new HashMap<String, Object>());
+        assertEquals(Collections.singleton(root.resolve("A/3.xml")), fileList);
+
+        fileList.clear();
+        HashMap<String, Object> settleMap = new HashMap<>();
+        settleMap.put(FileMover.DESTINATION, "/out");
+        settleMap.put(FileMover.SETTLE_MILLIS, "300");
+        Path written = write(root.resolve("A/4.xml"));
+        fileMover.accept(written, pattern, settleMap);
+        fileMover.accept(written, pattern, settleMap);
+        assertTrue(fileList.isEmpty());
+        assertTrue(Files.exists(written));
+        waitForSize(fileList, 1);
+        Thread.sleep(300);
+        assertEquals(Collections.singleton(fileSystem.getPath("/out/4.xml")), fileList);
+        assertFalse(Files.exists(written));
+        fileMover.close();
+    }
+
+    /**
+     * Test for delivering the content of the matched files with the content reader
+     * A small file should be read, a large file should be mapped on the default file system and read into a buffer of
+     * its size on the simulated file system, and the consumer should get the whole read-only content in each case
+     *
+     * @throws Exception if an error occurs while reading the files
+     */
+    @Test
+    public void testContentReader() throws Exception {
+        final HashMap<Path, ByteBuffer> contents = new HashMap<>();
+        ContentReader contentReader = new ContentReader(new ContentConsumer() {
+            @Override
+            public void accept(Path file, ByteBuffer content, GRPattern pattern, HashMap<String, Object> dataMap) {
+                assertTrue(content.isReadOnly());
+                contents.put(file, ByteBuffer.allocate(content.remaining()).put(content));
+            }
+        }, 16);
+        GRPattern pattern = new GRPattern(fileSystem, "glob:", "/in/*/*.xml");
+        byte[] large = new byte[100];
+        for (int i = 0; i < large.length; i++) {
+            large[i] = (byte) i;
+        }
+
+        Path small = write(root.resolve("A/1.xml"));
+        Path simLarge = Files.write(root.resolve("A/2.xml"), large);
+        Path mapped = Files.createTempFile("content", ".xml");
+        try {
+            Files.write(mapped, large);
+            for (Path file : new Path[]{small, simLarge, mapped}) {
+                contentReader.accept(file, pattern, new HashMap<String, Object>());
+            }
+        } finally {
+            Files.delete(mapped);
+        }
+        assertEquals(ByteBuffer.wrap("<xml/>".getBytes()), contents.get(small).flip());
+        assertEquals(ByteBuffer.wrap(large), contents.get(simLarge).flip());
+        assertEquals(ByteBuffer.wrap(large), contents.get(mapped).flip());
+    }
+
+    /**
+     * Test for suppressing and tagging the files whose content has been seen already
+     * The copies should be detected under new names, a large file which differs only in the middle should not be a
+     * duplicate, a file which is checked again should not be a duplicate of itself, the parallel hash of a large file
+     * should be the same as the sequential one, and the index should be restored after it is saved
+     *
+     * @throws Exception if an error occurs while checking the files
+     */
+    @Test
+    public void testDuplicateFilter() throws Exception {
+        final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        final HashMap<Path, Object> duplicates = new HashMap<>();
+        FileConsumer consumer = new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                fileList.add(file);
+                duplicates.put(file, dataMap.get(DuplicateFilter.DUPLICATE_OF));
+            }
+        };
+        DuplicateFilter duplicateFilter = new DuplicateFilter(consumer);
+        GRPattern pattern = new GRPattern(fileSystem, "glob:", "/in/*/*.xml");
+        byte[] large = new byte[20000];
+        Path first = Files.write(root.resolve("A/1.xml"), large);
+        large[10000] = 1;
+        Path changed = Files.write(root.resolve("A/2.xml"), large);
+        large[10000] = 0;
+        Path copy = Files.write(root.resolve("B/1.xml"), large);
+        for (Path file : new Path[]{write(root.resolve("A/3.xml")), write(root.resolve("B/3.xml")), first, changed, copy}) {
+            duplicateFilter.accept(file, pattern, new HashMap<String, Object>());
+        }
+        assertEquals(new HashSet<>(Arrays.asList(root.resolve("A/3.xml"), first, changed)), fileList);
+
+        DuplicateFilter tagFilter = new DuplicateFilter(consumer, false, 10, null);
+        tagFilter.accept(first, pattern, new HashMap<String, Object>());
+        tagFilter.accept(copy, pattern, new HashMap<String, Object>());
+        assertEquals(first.toString(), duplicates.get(copy));
+        assertEquals(null, tagFilter.check(first));
+        assertEquals(null, tagFilter.check(write(root.resolve("A/3.xml"))));
+        assertEquals(null, tagFilter.check(root.resolve("A/3.xml")));
+
+        Path dir = Files.createTempDirectory("duplicate");
+        ExecutorService hashExecutor = Executors.newFixedThreadPool(4);
+        try {
+            byte[] content = new byte[9 * 1024 * 1024 + 1];
+            content[content.length / 2] = 1;
+            Path original = Files.write(dir.resolve("original.xml"), content);
+            Path duplicate = Files.write(dir.resolve("duplicate.xml"), content);
+            DuplicateFilter sequential = new DuplicateFilter(consumer, true, 10, null);
+            DuplicateFilter parallel = new DuplicateFilter(consumer, true, 10, hashExecutor);
+            assertEquals(null, sequential.check(original));
+            assertEquals(original.toString(), sequential.check(duplicate));
+            assertEquals(null, parallel.check(original));
+            assertEquals(original.toString(), parallel.check(duplicate));
+
+            sequential.saveIndex(dir.resolve("index"));
+            DuplicateFilter restored = new DuplicateFilter(consumer, true, 10, hashExecutor);
+            restored.loadIndex(dir.resolve("index"));
+            assertEquals(1, restored.getIndexSize());
+            assertEquals(original.toString(), restored.check(duplicate));
+        } finally {
+            hashExecutor.shutdownNow();
+            FileOperations.cleanDir(dir, true);
+        }
+    }
+
+    /**
+     * Test for archiving the matched files with the parallel block compression
+     * The archive should be a standard gzip stream of several members with the original content, on the simulated and
+     * on the default file system, and the original file should be handed over to the next consumer
+     *
+     * @throws Exception if an error occurs while compressing the files
+     */
+    @Test
+    public void testFileCompressor() throws Exception {
+        final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        ExecutorService workers = Executors.newFixedThreadPool(4);
+        FileCompressor fileCompressor = new FileCompressor(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                fileList.add(file);
+            }
+        }, workers, 4, 1000);
+        GRPattern pattern = new GRPattern(fileSystem, "glob:", "/in/*/*.xml");
+        byte[] content = new byte[10500];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) (i % 7);
+        }
+
+        Path dir = Files.createTempDirectory("archive");
+        try {
+            Path file = Files.write(root.resolve("A/1.xml"), content);
+            HashMap<String, Object> dataMap = new HashMap<>();
+            dataMap.put(FileCompressor.ARCHIVE, "/archive");
+            fileCompressor.accept(file, pattern, dataMap);
+            assertEquals(Collections.singleton(file), fileList);
+            assertTrue(Arrays.equals(content, gunzip(fileSystem.getPath("/archive/1.xml.gz"))));
+
+            Files.delete(fileSystem.getPath("/archive/1.xml.gz"));
+            Files.delete(fileSystem.getPath("/archive"));
+            fileCompressor.accept(file, pattern, dataMap);
+            assertTrue(Arrays.equals(content, gunzip(fileSystem.getPath("/archive/1.xml.gz"))));
+
+            Path local = Files.write(dir.resolve("2.xml"), content);
+            assertTrue(Arrays.equals(content, gunzip(fileCompressor.compress(local, dir.resolve("archive")))));
+            Path empty = Files.write(dir.resolve("3.xml"), new byte[0]);
+            assertEquals(0, gunzip(fileCompressor.compress(empty, dir.resolve("archive"))).length);
+        } finally {
+            workers.shutdownNow();
+            FileOperations.cleanDir(dir, true);
+        }
+    }
+
+    /**
+     * Test for streaming the matched files to an in-process receiver
+     * The files of several threads should be pipelined over the pooled connections and received with their content,
+     * pattern and attributes, from the default file system with sendfile and from the simulated file system, and they
+     * should be handed over only when the receiver has acknowledged them. The files larger than the spool threshold
+     * should be received through the spool file between the small files of the same connections
+     *
+     * @throws Exception if an error occurs while sending the files
+     */
+    @Test
+    public void testSocketDelivery() throws Exception {
+        final ConcurrentHashMap<Path, String> received = new ConcurrentHashMap<>();
+        SocketReceiver receiver = new SocketReceiver(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), new ContentConsumer() {
+            @Override
+            public void accept(Path file, ByteBuffer content, GRPattern pattern, HashMap<String, Object> dataMap) {
+                if (file.endsWith("rejected.xml")) {
+                    throw new IllegalStateException("The consumer rejects the file " + file);
+                }
+                byte[] bytes = new byte[content.remaining()];
+                content.get(bytes);
+                assertEquals((long) bytes.length, dataMap.get(SocketReceiver.SIZE));
+                received.put(file, new String(bytes) + " " + pattern.getPathPattern());
+            }
+        });
+        executorService.submit(receiver);
+        final Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        final Set<Path> notReceived = Collections.synchronizedSet(new HashSet<Path>());
+        final SocketSender sender = new SocketSender(receiver.getAddress(), 2, new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                if (!received.containsKey(Paths.get(file.toString()))) {
+                    notReceived.add(file);
+                }
+                fileList.add(file);
+            }
+        });
+
+        Path dir = Files.createTempDirectory("socket");
+        try {
+            final GRPattern pattern = new GRPattern("glob:", dir + "/*.xml");
+            List<Future<?>> futures = new ArrayList<>();
+            final byte[] large = new byte[SocketReceiver.DEFAULT_SPOOL_THRESHOLD * 3 + 7];
+            for (int i = 0; i < large.length; i++) {
+                large[i] = (byte) ('a' + (i * 7 + i / 13) % 26);
+            }
+            for (int i = 0; i < 4; i++) {
+                final Path threadDir = Files.createDirectory(dir.resolve("t" + i));
+                futures.add(executorService.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < 25; j++) {
+                            Path file = j % 10 == 5 ? Files.write(threadDir.resolve(j + ".xml"), large)
+                                    : Files.write(threadDir.resolve(j + ".xml"), ("<xml>" + j + "</xml>").getBytes());
+                            sender.accept(file, pattern, new HashMap<String, Object>());
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            sender.accept(write(root.resolve("A/1.xml")), new GRPattern(fileSystem, "glob:", "/in/*/*.xml"), new HashMap<String, Object>());
+            waitForSize(fileList, 101);
+            assertEquals(101, received.size());
+            assertTrue(notReceived.isEmpty());
+            assertEquals("<xml>7</xml> " + dir + "/*.xml", received.get(dir.resolve("t3/7.xml")));
+            assertEquals(new String(large) + " " + dir + "/*.xml", received.get(dir.resolve("t2/15.xml")));
+            assertEquals("<xml>16</xml> " + dir + "/*.xml", received.get(dir.resolve("t2/16.xml")));
+            assertEquals("<xml/> /in/*/*.xml", received.get(Paths.get("/in/A/1.xml")));
+
+            Path rejected = Files.write(dir.resolve("rejected.xml"), "<xml/>".getBytes());
+            sender.accept(rejected, pattern, new HashMap<String, Object>());
+            Thread.sleep(500);
+            assertFalse(fileList.contains(rejected));
+        } finally {
+            sender.close();
+            receiver.close();
+            FileOperations.cleanDir(dir, true);
+        }
+    }
+
+    private static byte[] gunzip(Path file) throws IOException {
+        try (GZIPInputStream in = new GZIPInputStream(Files.newInputStream(file))) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) > 0) {
+                out.write(buffer, 0, n);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * A watch service whose single key is signalled again with one event as soon as it is reset
+     */
+    private static class HotWatchService implements WatchService {
+
+        private final WatchKey key;
+
+        HotWatchService(final WatchKey delegate) {
+            final List<WatchEvent<?>> event = new ArrayList<>();
+            event.add(new WatchEvent<Path>() {
+                @Override
+                public Kind<Path> kind() {
+                    return ENTRY_MODIFY;
+                }
+
+                @Override
+                public int count() {
+                    return 1;
+                }
+
+                @Override
+                public Path context() {
+                    return Paths.get("hot.xml");
+                }
+            });
+            this.key = new WatchKey() {
+                @Override
+                public boolean isValid() {
+                    return true;
+                }
+
+                @Override
+                public List<WatchEvent<?>> pollEvents() {
+                    return event;
+                }
+
+                @Override
+                public boolean reset() {
+                    return true;
+                }
+
+                @Override
+                public void cancel() {
+                }
+
+                @Override
+                public Watchable watchable() {
+                    return delegate.watchable();
+                }
+            };
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public WatchKey poll() {
+            return key;
+        }
+
+        @Override
+        public WatchKey poll(long timeout, TimeUnit unit) {
+            return key;
+        }
+
+        @Override
+        public WatchKey take() {
+            return key;
+        }
+    }
+
+    private static Path write(Path file) throws IOException {
+        Files.write(file, "<xml/>".getBytes());
+        return file;
+    }
+
+    private static Set<Path> writeFiles(Path dir, int n) throws IOException {
+        Set<Path> files = new HashSet<>();
+        for (int i = 1; i <= n; i++) {
+            files.add(write(dir.resolve(i + ".xml")));
+        }
+        return files;
+    }
+
+    private static void waitForSize(Collection<?> collection, int size) throws InterruptedException {
+        for (long waited = 0; collection.size() < size && waited < WAIT; waited += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+    }
+
+    /**
+     * Wait until the manual processing of the registration stops reading the attributes
+     */
+    private void waitForRescans() throws InterruptedException {
+        long last = -1;
+        for (long waited = 0; fileSystem.getAttributeReadCount() != last && waited < WAIT; waited += 10 * WAIT_STEP) {
+            last = fileSystem.getAttributeReadCount();
+            Thread.sleep(10 * WAIT_STEP);
+        }
+    }
+
+    private static void waitForWatchCount(WatchRegistry registry, int count) throws InterruptedException {
+        for (long waited = 0; registry.getWatchCount() < count && waited < WAIT; waited += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+import nio.Notifier;
+import nio.Pattern;
+import nio.WatchRegistry;
+import nio.sim.SimFileSystem;
+import nio.sim.SimWatchService;
+import nio.trace.TraceReader;
+import nio.trace.TraceRecorder;
+import nio.trace.TraceReplayer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for testing the recording of the event traces and replaying them
+ *
+ * @author Chanaka Lakmal
+ */
+public class TraceTest {
+
+    private static final long WAIT = 10000;
+    private static final long WAIT_STEP = 10;
+    private static final int N = 100;
+
+    private Path traceFile;
+    private ExecutorService executorService;
+
+    @Before
+    public void start() throws IOException {
+        traceFile = Files.createTempFile("nio-trace", ".bin");
+        executorService = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void finish() throws IOException {
+        executorService.shutdownNow();
+        Files.deleteIfExists(traceFile);
+    }
+
+    /**
+     * Test for recording the events of a registry and replaying them into another file system
+     * The replayed events should make a Notifier emit the same files without writing any of them
+     *
+     * @throws Exception if an error occurs while recording or replaying the trace
+     */
+    @Test
+    public void testRecordAndReplay() throws Exception {
+        Set<Path> recordedFiles = record();
+
+        Map<Object, Integer> kinds = new HashMap<>();
+        try (TraceReader reader = new TraceReader(traceFile, SimFileSystem.newFileSystem())) {
+            while (reader.next()) {
+                Integer count = kinds.get(reader.getKind());
+                kinds.put(reader.getKind(), count == null ? 1 : count + 1);
+                if (reader.getKind() == OVERFLOW) {
+                    assertNull(reader.getName());
+                }
+            }
+            assertEquals(2, reader.getDirectories().size());
+        }
+        assertEquals(2 * N, (int) kinds.get(ENTRY_CREATE));
+        assertEquals(2 * N, (int) kinds.get(ENTRY_MODIFY));
+        assertEquals(1, (int) kinds.get(OVERFLOW));
+
+        SimFileSystem fileSystem = SimFileSystem.newFileSystem();
+        SimWatchService watcher = fileSystem.newSimWatchService();
+        TraceReplayer replayer = new TraceReplayer(traceFile, fileSystem);
+        assertEquals(2, replayer.createDirectories());
+
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        WatchRegistry registry = new WatchRegistry(watcher);
+        new Notifier(fileSystem.getPath("/in"), new Pattern("glob:", "/in/*/*.xml"), fileList, registry);
+        executorService.submit(registry);
+
+        assertEquals(4 * N + 1, replayer.replay(watcher, 0));
+        waitForSize(fileList, recordedFiles.size());
+        assertEquals(toStrings(recordedFiles), toStrings(fileList));
+        watcher.close();
+    }
+
+    /**
+     * Record the events of writing N xml files into two directories and an overflow of one of them
+     *
+     * @return the files which are emitted while recording
+     * @throws Exception if an error occurs while writing the files
+     */
+    private Set<Path> record() throws Exception {
+        SimFileSystem fileSystem = SimFileSystem.newFileSystem();
+        SimWatchService watcher = fileSystem.newSimWatchService();
+        Path root = fileSystem.getPath("/in");
+        Files.createDirectories(root.resolve("A"));
+        Files.createDirectories(root.resolve("B"));
+
+        Set<Path> fileList = Collections.synchronizedSet(new HashSet<Path>());
+        WatchRegistry registry = new WatchRegistry(watcher);
+        new Notifier(root, new Pattern("glob:", "/in/*/*.xml"), fileList, registry);
+
+        TraceRecorder recorder = new TraceRecorder(traceFile);
+        registry.setTraceRecorder(recorder);
+        executorService.submit(registry);
+
+        for (int i = 1; i <= N; i++) {
+            Files.write(root.resolve("A/" + i + ".xml"), "<xml/>".getBytes());
+            Files.write(root.resolve("B/" + i + ".xml"), "<xml/>".getBytes());
+        }
+        waitForSize(fileList, 2 * N);
+        watcher.overflow(root.resolve("A"));
+        for (long waited = 0; recorder.getEventCount() < 4 * N + 1 && waited < WAIT; waited += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+        registry.setTraceRecorder(null);
+        recorder.close();
+        watcher.close();
+
+        assertEquals(2 * N, fileList.size());
+        return fileList;
+    }
+
+    private static Set<String> toStrings(Set<Path> paths) {
+        Set<String> strings = new HashSet<>();
+        synchronized (paths) {
+            for (Path path : paths) {
+                strings.add(path.toString());
+            }
+        }
+        assertTrue(!strings.isEmpty());
+        return strings;
+    }
+
+    private static void waitForSize(Set<?> set, int size) throws InterruptedException {
+        for (long waited = 0; set.size() < size && waited < WAIT; waited += WAIT_STEP) {
+            Thread.sleep(WAIT_STEP);
+        }
+    }
+}
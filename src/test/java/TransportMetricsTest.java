@@ -0,0 +1,104 @@
+import nio.metrics.Histogram;
+import nio.metrics.MetricsHttpServer;
+import nio.metrics.TransportMetrics;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Paths;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for testing the metrics exported through JMX and the Prometheus text endpoint
+ *
+ * @author Chanaka Lakmal
+ */
+public class TransportMetricsTest {
+
+    /**
+     * Test for the power of two buckets of the histogram
+     */
+    @Test
+    public void testHistogram() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.recordMicros(i * 1000);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanMillis(), 0.001);
+
+        // 99 ms falls into the bucket of 2^17 us
+        assertEquals(131.072, histogram.getPercentileMillis(99), 0.001);
+    }
+
+    /**
+     * Test for the Prometheus text endpoint and the JMX MBean
+     *
+     * @throws Exception if an error occurs while reading the endpoint or the MBean
+     */
+    @Test
+    public void testExport() throws Exception {
+        TransportMetrics metrics = new TransportMetrics();
+        metrics.recordEvent(Paths.get("/tmp/ram/test"), ENTRY_CREATE);
+        metrics.recordEvent(Paths.get("/tmp/ram/test"), OVERFLOW);
+        metrics.getMatcherTime("glob:/tmp/ram/test/*.xml").recordNanos(2000);
+        metrics.fileDelivered("transfer", 1024, System.nanoTime());
+        metrics.stageCompleted("gzip", 512, System.nanoTime());
+
+        MetricsHttpServer server = new MetricsHttpServer(new InetSocketAddress("localhost", 0), metrics);
+        server.start();
+        try {
+            URL url = new URL("http://localhost:" + server.getAddress().getPort() + MetricsHttpServer.CONTEXT);
+            HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            assertEquals(200, connection.getResponseCode());
+
+            String text = read(connection.getInputStream());
+            assertTrue(text.contains("nio_transport_events_total{kind=\"ENTRY_CREATE\"} 1"));
+            assertTrue(text.contains("nio_transport_overflows_total{directory=\"/tmp/ram/test\"} 1"));
+            assertTrue(text.contains("nio_transport_matcher_duration_seconds_count{pattern=\"glob:/tmp/ram/test/*.xml\"} 1"));
+            assertTrue(text.contains("nio_transport_delivered_files_total{method=\"transfer\"} 1"));
+            assertTrue(text.contains("nio_transport_delivered_bytes_total 1024"));
+            assertTrue(text.contains("nio_transport_stage_bytes_total{stage=\"gzip\"} 512"));
+            assertTrue(text.contains("nio_transport_stage_duration_seconds_count{stage=\"gzip\"} 1"));
+        } finally {
+            server.stop();
+        }
+        assertEquals(1, metrics.getDeliveredFilesPerMethod().size());
+        assertEquals(1, (long) metrics.getStageFiles().get("gzip"));
+
+        metrics.watchCancelled(Paths.get("/tmp/ram/test"));
+        metrics.releaseMatcherTime("glob:/tmp/ram/test/*.xml");
+        assertTrue(metrics.getOverflowsPerDirectory().isEmpty());
+        assertTrue(metrics.getMatcherMeanMicrosPerPattern().isEmpty());
+        for (int i = 0; i <= TransportMetrics.MAX_SERIES; i++) {
+            metrics.recordEvent(Paths.get("/tmp/ram/test" + i), OVERFLOW);
+        }
+        assertEquals(TransportMetrics.MAX_SERIES + 1, metrics.getOverflowsPerDirectory().size());
+        assertEquals(1, (long) metrics.getOverflowsPerDirectory().get(TransportMetrics.OTHER));
+
+        ObjectName name = TransportMetrics.getDefault().registerMBean();
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        assertTrue(mBeanServer.getAttribute(name, "WatchCount") instanceof Long);
+    }
+
+    private static String read(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            out.write(buffer, 0, n);
+        }
+        in.close();
+        return out.toString("UTF-8");
+    }
+}
@@ -0,0 +1,209 @@
+import nio.util.FileOperations;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import transport.FileConsumer;
+import transport.GRPattern;
+import transport.WorkClaimer;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * This is a test class for testing the claiming of the files of a shared directory by several instances
+ *
+ * @author Chanaka Lakmal
+ */
+public class WorkClaimerTest {
+
+    private static final int FILES = 300;
+    private static final int PROCESSES = 3;
+    private static final GRPattern pattern = new GRPattern("glob:", "/in/*/*.xml");
+
+    private Path root;
+    private Path dir;
+    private Path leaseDirectory;
+
+    @Before
+    public void start() throws IOException {
+        root = Files.createTempDirectory("nio-claims");
+        dir = Files.createDirectories(root.resolve("in").resolve("A"));
+        leaseDirectory = Files.createDirectories(root.resolve("leases"));
+    }
+
+    @After
+    public void finish() throws IOException {
+        FileOperations.cleanDir(root, true);
+    }
+
+    /**
+     * Test for claiming the same files from several processes at the same time
+     * Each file should be delivered by exactly one of the processes
+     *
+     * @throws Exception if a process fails
+     */
+    @Test
+    public void testClaimingProcesses() throws Exception {
+        for (int i = 0; i < FILES; i++) {
+            Files.write(dir.resolve(i + ".xml"), String.valueOf(i).getBytes(StandardCharsets.UTF_8));
+        }
+        String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> processes = new ArrayList<>();
+        for (int i = 0; i < PROCESSES; i++) {
+            processes.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    WorkClaimerTest.class.getName(), dir.toString(), leaseDirectory.toString(), "instance-" + i,
+                    root.resolve("delivered-" + i).toString()).redirectErrorStream(true)
+                    .redirectOutput(new File(root.resolve("output-" + i).toString())).start());
+        }
+        for (Process process : processes) {
+            assertTrue(process.waitFor(60, TimeUnit.SECONDS));
+            assertEquals(0, process.exitValue());
+        }
+
+        Set<String> delivered = new HashSet<>();
+        int deliveredCount = 0;
+        for (int i = 0; i < PROCESSES; i++) {
+            List<String> lines = Files.readAllLines(root.resolve("delivered-" + i), StandardCharsets.UTF_8);
+            delivered.addAll(lines);
+            deliveredCount += lines.size();
+        }
+        assertEquals(FILES, deliveredCount);
+        assertEquals(FILES, delivered.size());
+        assertEquals(0, list(dir).size());
+    }
+
+    /**
+     * Test for recovering the claims of a dead instance, of a previous run of the same instance and of a failed delivery
+     * The claims of an instance with a live lease should be kept, and the claims of the instance itself should be
+     * released only at the start, since they may be waiting in an asynchronous consumer afterwards
+     *
+     * @throws Exception if an error occurs while using the files
+     */
+    @Test
+    public void testRecovery() throws Exception {
+        Path dead = Files.createDirectories(dir.resolve(WorkClaimer.CLAIMS).resolve("dead"));
+        Path alive = Files.createDirectories(dir.resolve(WorkClaimer.CLAIMS).resolve("alive"));
+        Path own = Files.createDirectories(dir.resolve(WorkClaimer.CLAIMS).resolve("self"));
+        Files.write(dead.resolve("1.xml"), new byte[1]);
+        Files.write(dead.resolve("2.xml"), new byte[1]);
+        Files.write(alive.resolve("3.xml"), new byte[1]);
+        Files.write(own.resolve("4.xml"), new byte[1]);
+        Path deadLease = Files.write(leaseDirectory.resolve("dead" + WorkClaimer.LEASE_SUFFIX), new byte[0]);
+        Files.setLastModifiedTime(deadLease, FileTime.fromMillis(System.currentTimeMillis() - 60000));
+        Files.write(leaseDirectory.resolve("alive" + WorkClaimer.LEASE_SUFFIX), new byte[0]);
+
+        try (WorkClaimer claimer = new WorkClaimer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                throw new IllegalStateException("The consumer is down");
+            }
+        }, "self", leaseDirectory, root)) {
+            assertEquals(3, list(dir).size());
+            assertTrue(Files.exists(alive.resolve("3.xml")));
+
+            Files.write(own.resolve("5.xml"), new byte[1]);
+            Files.write(dead.resolve("6.xml"), new byte[1]);
+            assertEquals(1, claimer.recover(root));
+            assertTrue(Files.exists(own.resolve("5.xml")));
+            assertTrue(Files.exists(dir.resolve("6.xml")));
+
+            claimer.accept(dir.resolve("1.xml"), pattern, null);
+            assertTrue(Files.exists(dir.resolve("1.xml")));
+            assertFalse(Files.exists(own.resolve("1.xml")));
+        }
+        assertFalse(Files.exists(leaseDirectory.resolve("self" + WorkClaimer.LEASE_SUFFIX)));
+    }
+
+    /**
+     * Test for recovering the claims of an instance which dies after creating a new claim directory
+     * The directory is created after the start of the recovering instance, so the claims should be found by the periodic
+     * walk of the recovery roots
+     *
+     * @throws Exception if an error occurs while using the files
+     */
+    @Test
+    public void testRecovery_NewClaimDirectory() throws Exception {
+        try (WorkClaimer ignored = new WorkClaimer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+            }
+        }, "self", leaseDirectory, 100, root)) {
+            Path newDir = Files.createDirectories(root.resolve("in").resolve("B"));
+            Files.write(newDir.resolve("1.xml"), new byte[1]);
+            WorkClaimer other = new WorkClaimer(new FileConsumer() {
+                @Override
+                public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                }
+            }, "other", leaseDirectory, 100);
+            other.accept(newDir.resolve("1.xml"), pattern, null);
+            assertTrue(Files.exists(newDir.resolve(WorkClaimer.CLAIMS).resolve("other").resolve("1.xml")));
+            other.close();
+
+            long deadline = System.currentTimeMillis() + 4 * 100 * WorkClaimer.RECOVERY_WALK_LEASES;
+            while (!Files.exists(newDir.resolve("1.xml")) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            assertTrue(Files.exists(newDir.resolve("1.xml")));
+            assertFalse(Files.exists(newDir.resolve(WorkClaimer.CLAIMS).resolve("other").resolve("1.xml")));
+        }
+    }
+
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path file : stream) {
+                if (Files.isRegularFile(file)) {
+                    files.add(file);
+                }
+            }
+        }
+        return files;
+    }
+
+    /**
+     * Claim the files of a directory as an instance and write the names of the delivered files
+     * The claimed files are deleted by the consumer as if they were processed.
+     *
+     * @param args the directory, the lease directory, the instance id and the output file
+     * @throws Exception if an error occurs while claiming
+     */
+    public static void main(String[] args) throws Exception {
+        Path dir = Paths.get(args[0]);
+        final List<String> delivered = new ArrayList<>();
+        List<Path> files = list(dir);
+        Collections.shuffle(files);
+        try (WorkClaimer claimer = new WorkClaimer(new FileConsumer() {
+            @Override
+            public void accept(Path file, GRPattern pattern, HashMap<String, Object> dataMap) {
+                try {
+                    Files.delete(file);
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                delivered.add(file.getFileName().toString());
+            }
+        }, args[2], Paths.get(args[1]))) {
+            for (Path file : files) {
+                claimer.accept(file, pattern, null);
+            }
+        }
+        Files.write(Paths.get(args[3]), delivered, StandardCharsets.UTF_8);
+    }
+}